@@ -10,6 +10,7 @@ package ome.services.blitz.impl;
 import java.util.List;
 
 import ome.api.RawPixelsStore;
+import ome.io.nio.ReadBufferPool;
 import ome.services.blitz.util.BlitzExecutor;
 import omero.ServerError;
 import omero.api.AMD_RawPixelsStore_calculateMessageDigest;
@@ -58,10 +59,24 @@ import Ice.Current;
 public class RawPixelsStoreI extends AbstractPyramidServant implements
         _RawPixelsStoreOperations {
 
+    /** The pool the planes and tiles returned by the service are from. */
+    private ReadBufferPool readBufferPool;
+
     public RawPixelsStoreI(RawPixelsStore service, BlitzExecutor be) {
         super(service, be);
     }
 
+    /**
+     * Sets the pool of the arrays returned by
+     * {@link RawPixelsStore#getPlane(int, int, int)} and
+     * {@link RawPixelsStore#getTile(int, int, int, int, int, int, int)},
+     * to which they are released once marshalled.
+     * @param readBufferPool the pool, the same as the service's
+     */
+    public void setReadBufferPool(ReadBufferPool readBufferPool) {
+        this.readBufferPool = readBufferPool;
+    }
+
     // Interface methods
     // =========================================================================
 
@@ -97,10 +112,25 @@ public class RawPixelsStoreI extends AbstractPyramidServant implements
 
     }
 
-    public void getPlane_async(AMD_RawPixelsStore_getPlane __cb, int z, int c,
-            int t, Current __current) throws ServerError {
-        callInvokerOnRawArgs(__cb, __current, z, c, t);
-
+    public void getPlane_async(final AMD_RawPixelsStore_getPlane __cb,
+            int z, int c, int t, Current __current) throws ServerError {
+        if (readBufferPool == null) {
+            callInvokerOnRawArgs(__cb, __current, z, c, t);
+            return;
+        }
+        callInvokerOnRawArgs(new AMD_RawPixelsStore_getPlane() {
+            public void ice_response(byte[] __ret) {
+                try {
+                    __cb.ice_response(__ret);
+                } finally {
+                    // Ice has copied the plane into the response.
+                    readBufferPool.release(__ret);
+                }
+            }
+            public void ice_exception(Exception ex) {
+                __cb.ice_exception(ex);
+            }
+        }, __current, z, c, t);
     }
 
     public void getHypercube_async(AMD_RawPixelsStore_getHypercube __cb,
@@ -258,11 +288,27 @@ public class RawPixelsStoreI extends AbstractPyramidServant implements
     /* (non-Javadoc)
      * @see omero.api._RawPixelsStoreOperations#getTile_async(omero.api.AMD_RawPixelsStore_getTile, int, int, int, int, int, int, int, Ice.Current)
      */
-    public void getTile_async(AMD_RawPixelsStore_getTile __cb, int z, int c,
-            int t, int x, int y, int w, int h, Current __current)
+    public void getTile_async(final AMD_RawPixelsStore_getTile __cb, int z,
+            int c, int t, int x, int y, int w, int h, Current __current)
             throws ServerError
     {
-        callInvokerOnRawArgs(__cb, __current, z, c, t, x, y, w, h);
+        if (readBufferPool == null) {
+            callInvokerOnRawArgs(__cb, __current, z, c, t, x, y, w, h);
+            return;
+        }
+        callInvokerOnRawArgs(new AMD_RawPixelsStore_getTile() {
+            public void ice_response(byte[] __ret) {
+                try {
+                    __cb.ice_response(__ret);
+                } finally {
+                    // Ice has copied the tile into the response.
+                    readBufferPool.release(__ret);
+                }
+            }
+            public void ice_exception(Exception ex) {
+                __cb.ice_exception(ex);
+            }
+        }, __current, z, c, t, x, y, w, h);
     }
 
     /* (non-Javadoc)
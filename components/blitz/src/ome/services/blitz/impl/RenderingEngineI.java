@@ -7,7 +7,9 @@
 
 package ome.services.blitz.impl;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -47,6 +49,8 @@ import omero.api.AMD_RenderingEngine_removeCodomainMap;
 import omero.api.AMD_RenderingEngine_render;
 import omero.api.AMD_RenderingEngine_renderAsPackedInt;
 import omero.api.AMD_RenderingEngine_renderCompressed;
+import omero.api.AMD_RenderingEngine_renderCompressedBatch;
+import omero.api.AMD_RenderingEngine_renderCompressedScaled;
 import omero.api.AMD_RenderingEngine_renderProjectedAsPackedInt;
 import omero.api.AMD_RenderingEngine_renderProjectedCompressed;
 import omero.api.AMD_RenderingEngine_resetDefaultSettings;
@@ -339,6 +343,28 @@ public class RenderingEngineI extends AbstractPyramidServant implements
         callInvokerOnRawArgs(__cb, __current, def);
     }
 
+    public void renderCompressedBatch_async(
+            AMD_RenderingEngine_renderCompressedBatch __cb,
+            List<PlaneDef> defs, Current __current) throws ServerError {
+        List<omeis.providers.re.data.PlaneDef> pds = null;
+        if (defs != null) {
+            pds = new ArrayList<omeis.providers.re.data.PlaneDef>(
+                    defs.size());
+            for (PlaneDef def : defs) {
+                // null elements are rejected by the service.
+                pds.add(def == null ? null : IceMapper.convert(def));
+            }
+        }
+        callInvokerOnMappedArgs(new IceMapper(IceMapper.UNMAPPED), __cb,
+                __current, pds);
+    }
+
+    public void renderCompressedScaled_async(
+            AMD_RenderingEngine_renderCompressedScaled __cb, PlaneDef def,
+            int sizeX, int sizeY, Current __current) throws ServerError {
+        callInvokerOnRawArgs(__cb, __current, def, sizeX, sizeY);
+    }
+
     public void renderProjectedAsPackedInt_async(
             AMD_RenderingEngine_renderProjectedAsPackedInt __cb, 
             ProjectionType algorithm, int timepoint, int stepping, int start, 
@@ -104,6 +104,53 @@ public interface RenderingEngine extends StatefulServiceInterface {
      * @see #renderAsPackedInt(PlaneDef)
      */
     public byte[] renderCompressed(PlaneDef pd);
+
+    /**
+     * Renders the planes selected by <code>pds</code> according to the
+     * current rendering settings and compresses each of the resulting RGBA
+     * composite images, e.g. the frames of a movie or of a <i>Z</i> or
+     * <i>T</i> scrub. This is equivalent to calling
+     * {@link #renderCompressed(PlaneDef)} for each plane but the settings are
+     * validated once and the compression of each frame overlaps the
+     * rendering of the next ones.
+     * 
+     * @param pds
+     *            The planes to render, in the order of the frames.
+     * @return A compressed RGBA JPEG for each plane, in the same order.
+     * @throws ValidationException
+     *             If <code>pds</code> or one of its elements is
+     *             <code>null</code>.
+     * @see #renderCompressed(PlaneDef)
+     */
+    public byte[][] renderCompressedBatch(List<PlaneDef> pds);
+
+    /**
+     * Renders a region of the <i>XY</i> plane selected by <code>pd</code>
+     * scaled to <code>sizeX</code> by <code>sizeY</code> pixels and
+     * compresses the result, e.g. for an overview or a minimap. The region
+     * is given in the coordinates of the full resolution image, whatever the
+     * current resolution level. The smallest resolution level at which the
+     * region is at least <code>sizeX</code> by <code>sizeY</code> pixels is
+     * rendered, falling back to the full resolution, and the rendered image
+     * is resampled on the server. The current resolution level is left
+     * unchanged.
+     *
+     * @param pd
+     *            Selects an <i>XY</i> plane and, optionally, the region of
+     *            the plane to render. The whole plane is rendered if no
+     *            region is set.
+     * @param sizeX
+     *            The width of the image to return.
+     * @param sizeY
+     *            The height of the image to return.
+     * @return A compressed RGBA JPEG for display.
+     * @throws ValidationException
+     *             If <code>pd</code> is <code>null</code> or does not select
+     *             an <i>XY</i> plane, or if the size is not positive.
+     * @see #renderCompressed(PlaneDef)
+     * @see #getResolutionDescriptions()
+     */
+    public byte[] renderCompressedScaled(PlaneDef pd, int sizeX, int sizeY);
     
     
     /**
@@ -0,0 +1,283 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.perf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ome.io.nio.InMemoryPlanarPixelBuffer;
+import ome.model.core.Channel;
+import ome.model.core.Pixels;
+import ome.model.display.ChannelBinding;
+import ome.model.display.QuantumDef;
+import ome.model.display.RenderingDef;
+import ome.model.enums.Family;
+import ome.model.enums.PixelsType;
+import ome.model.enums.RenderingModel;
+import ome.model.stats.StatsInfo;
+import ome.util.PixelData;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.quantum.QuantumFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Renderer#renderAsPackedInt(PlaneDef, ome.io.nio.PixelBuffer)}
+ * over synthetic pixel sets held in an {@link InMemoryPlanarPixelBuffer}, so
+ * that no I/O is involved.
+ * <p>
+ * The full parameter grid (pixels types, channel counts, rendering models,
+ * lookup tables, noise reduction and quantum map families) is large; a subset
+ * can be selected with the JMH <code>-p</code> option, e.g.
+ * <code>ant perf -DBENCH=RendererBenchmark
+ * -Djmh.args="-p pixelsType=uint16 -p sizeC=1,3"</code>.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RendererBenchmark {
+
+    /** The maximum value of the synthetic data. */
+    private static final int MAX_VALUE = 4095;
+
+    /** The name of the synthetic lookup table. */
+    private static final String LUT_NAME = "benchmark.lut";
+
+    @Param({"int8", "uint8", "int16", "uint16", "int32", "uint32", "float",
+            "double"})
+    public String pixelsType;
+
+    @Param({"1", "2", "4", "8"})
+    public int sizeC;
+
+    @Param({Renderer.MODEL_GREYSCALE, Renderer.MODEL_RGB})
+    public String model;
+
+    @Param({"false", "true"})
+    public boolean lut;
+
+    @Param({"false", "true"})
+    public boolean noiseReduction;
+
+    @Param({QuantumFactory.LINEAR, QuantumFactory.POLYNOMIAL,
+            QuantumFactory.LOGARITHMIC, QuantumFactory.EXPONENTIAL})
+    public String family;
+
+    @Param({"1024"})
+    public int sizeX;
+
+    @Param({"1024"})
+    public int sizeY;
+
+    private Renderer renderer;
+
+    private PlaneDef planeDef;
+
+    private File lutDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        PixelsType type = new PixelsType();
+        type.setValue(pixelsType);
+        type.setBitSize(PixelData.getBitDepth(pixelsType));
+        Pixels pixels = new Pixels(1L, true);
+        pixels.setSizeX(sizeX);
+        pixels.setSizeY(sizeY);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(sizeC);
+        pixels.setSizeT(1);
+        pixels.setPixelsType(type);
+
+        Random random = new Random(sizeC);
+        byte[][][][] planes = new byte[1][sizeC][1][];
+        for (int c = 0; c < sizeC; c++) {
+            planes[0][c][0] = createPlane(type, random);
+            StatsInfo stats = new StatsInfo();
+            stats.setGlobalMin(0.0);
+            stats.setGlobalMax((double) maxValue());
+            Channel channel = new Channel();
+            channel.setStatsInfo(stats);
+            pixels.addChannel(channel);
+        }
+
+        List<Family> families = new ArrayList<Family>();
+        for (String value : new String[] {QuantumFactory.LINEAR,
+                QuantumFactory.POLYNOMIAL, QuantumFactory.LOGARITHMIC,
+                QuantumFactory.EXPONENTIAL}) {
+            Family f = new Family();
+            f.setValue(value);
+            families.add(f);
+        }
+        QuantumFactory quantumFactory = new QuantumFactory(families);
+
+        RenderingModel greyscale = new RenderingModel();
+        greyscale.setValue(Renderer.MODEL_GREYSCALE);
+        RenderingModel rgb = new RenderingModel();
+        rgb.setValue(Renderer.MODEL_RGB);
+        List<RenderingModel> models = new ArrayList<RenderingModel>();
+        models.add(greyscale);
+        models.add(rgb);
+
+        List<File> luts = Collections.emptyList();
+        if (lut) {
+            lutDir = File.createTempFile("benchmark", "luts");
+            lutDir.delete();
+            lutDir.mkdir();
+            luts = Collections.singletonList(createLut(lutDir));
+        }
+
+        QuantumDef qd = new QuantumDef();
+        qd.setCdStart(0);
+        qd.setCdEnd(QuantumFactory.DEPTH_8BIT);
+        qd.setBitResolution(QuantumFactory.DEPTH_8BIT);
+        RenderingDef def = new RenderingDef();
+        def.setDefaultZ(0);
+        def.setDefaultT(0);
+        def.setModel(Renderer.MODEL_GREYSCALE.equals(model) ? greyscale : rgb);
+        def.setQuantization(qd);
+        int[][] colors = {{255, 0, 0}, {0, 255, 0}, {0, 0, 255},
+                {255, 255, 0}, {0, 255, 255}, {255, 0, 255}, {255, 255, 255},
+                {255, 128, 0}};
+        for (int c = 0; c < sizeC; c++) {
+            ChannelBinding cb = new ChannelBinding();
+            cb.setFamily(quantumFactory.getFamily(family));
+            cb.setCoefficient(1.0);
+            cb.setInputStart(0.0);
+            cb.setInputEnd((double) maxValue());
+            cb.setActive(true);
+            cb.setNoiseReduction(noiseReduction);
+            int[] color = colors[c % colors.length];
+            cb.setRed(color[0]);
+            cb.setGreen(color[1]);
+            cb.setBlue(color[2]);
+            cb.setAlpha(255);
+            if (lut) {
+                cb.setLookupTable(LUT_NAME);
+            }
+            def.addChannelBinding(cb);
+        }
+
+        renderer = new Renderer(quantumFactory, models, pixels, def,
+                new InMemoryPlanarPixelBuffer(pixels, planes), luts);
+        planeDef = new PlaneDef(PlaneDef.XY, 0);
+        planeDef.setZ(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        renderer.close();
+        if (lutDir != null) {
+            for (File f : lutDir.listFiles()) {
+                f.delete();
+            }
+            lutDir.delete();
+        }
+    }
+
+    @Benchmark
+    public int[] renderAsPackedInt() throws Exception {
+        return renderer.renderAsPackedInt(planeDef, null);
+    }
+
+    /**
+     * Returns the maximum value of the synthetic data for the pixels type.
+     *
+     * @return See above.
+     */
+    private int maxValue() {
+        if ("int8".equals(pixelsType)) {
+            return Byte.MAX_VALUE;
+        } else if ("uint8".equals(pixelsType)) {
+            return 255;
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * Creates a plane of uniformly distributed values in
+     * <code>[0, maxValue()]</code>, big endian like the data of the pixels
+     * service.
+     *
+     * @param type The pixels type.
+     * @param random The source of the values.
+     * @return See above.
+     */
+    private byte[] createPlane(PixelsType type, Random random) {
+        int n = sizeX * sizeY;
+        int bytesPerPixel = type.getBitSize() / 8;
+        ByteBuffer buf = ByteBuffer.allocate(n * bytesPerPixel);
+        int max = maxValue();
+        for (int i = 0; i < n; i++) {
+            int v = random.nextInt(max + 1);
+            if ("float".equals(pixelsType)) {
+                buf.putFloat(v + random.nextFloat());
+            } else if ("double".equals(pixelsType)) {
+                buf.putDouble(v + random.nextDouble());
+            } else if (bytesPerPixel == 1) {
+                buf.put((byte) v);
+            } else if (bytesPerPixel == 2) {
+                buf.putShort((short) v);
+            } else {
+                buf.putInt(v);
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Writes a 768 byte binary lookup table (256 reds, 256 greens and 256
+     * blues) into the passed directory.
+     *
+     * @param dir The directory to write into.
+     * @return The lookup table file.
+     * @throws IOException If the file cannot be written.
+     */
+    private File createLut(File dir) throws IOException {
+        File f = new File(dir, LUT_NAME);
+        byte[] data = new byte[768];
+        for (int i = 0; i < 256; i++) {
+            data[i] = (byte) i;
+            data[256 + i] = (byte) (255 - i);
+            data[512 + i] = (byte) (i / 2);
+        }
+        OutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+}
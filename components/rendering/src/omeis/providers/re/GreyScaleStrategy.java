@@ -78,44 +78,7 @@ class GreyScaleStrategy extends RenderingStrategy {
         performanceStats.endIO(channel);
 
         RGBBuffer buf = getRgbBuffer();
-        
-        byte value;
-        float alpha = channelBinding.getAlpha().floatValue() / 255;
-
-        int x1, x2, discreteValue, pixelIndex;
-        byte[] r = buf.getRedBand();
-        byte[] g = buf.getBlueBand();
-        byte[] b = buf.getGreenBand();
-        if (plane.isXYPlanar())
-        {
-        	int planeSize = sizeX1 * sizeX2;
-            for (int i = 0; i < planeSize; i++)
-            {
-                for (x1 = 0; x1 < sizeX1; ++x1)
-                {
-                    discreteValue = qs.quantize(plane.getPixelValue(i));
-                    discreteValue = cc.transform(discreteValue);
-                    value = (byte) (discreteValue * alpha);
-                    r[i] = value;
-                    g[i] = value;
-                    b[i] = value;
-                }
-            }
-        }
-        else
-        {
-        	for (x2 = 0; x2 < sizeX2; ++x2) {
-        		for (x1 = 0; x1 < sizeX1; ++x1) {
-        			pixelIndex = sizeX1 * x2 + x1;
-        			discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-        			discreteValue = cc.transform(discreteValue);
-        			value = (byte) (discreteValue * alpha);
-        			r[pixelIndex] = value;
-        			g[pixelIndex] = value;
-        			b[pixelIndex] = value;
-        		}
-        	}
-        }
+        render(buf, plane, qs, cc);
         return buf;
     }
     
@@ -165,35 +128,7 @@ class GreyScaleStrategy extends RenderingStrategy {
 		}
        
 	    RGBIntBuffer dataBuf = getIntBuffer();
-	    
-        int alpha = channelBinding.getAlpha();
-        int[] buf = ((RGBIntBuffer) dataBuf).getDataBuffer();
-        int x1, x2, discreteValue, pixelIndex;
-        if (plane.isXYPlanar())
-        {
-        	int planeSize = sizeX1 * sizeX2;
-        	for (int i = 0; i < planeSize; i++)
-        	{
-                discreteValue = qs.quantize(plane.getPixelValue(i));
-                // Right now we have no transforms being used so it's safe to
-                // comment this out for the time being.
-                //discreteValue = cc.transform(discreteValue);
-                buf[i] = alpha << 24 | discreteValue << 16
-                        | discreteValue << 8 | discreteValue;            		
-        	}
-        }
-        else
-        {
-        	for (x2 = 0; x2 < sizeX2; ++x2) {
-        		pixelIndex = sizeX1 * x2;
-        		for (x1 = 0; x1 < sizeX1; ++x1) {
-        			discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-        			discreteValue = cc.transform(discreteValue);
-        			buf[pixelIndex + x1] = alpha << 24 | discreteValue << 16
-        			| discreteValue << 8 | discreteValue;
-        		}
-        	}
-        }
+	    render(dataBuf, plane, qs, cc);
 	    return dataBuf;
 	}
 
@@ -228,39 +163,39 @@ class GreyScaleStrategy extends RenderingStrategy {
         performanceStats.endIO(channel);
 	
 	    RGBAIntBuffer dataBuf = getRGBAIntBuffer();
-	    
-        int alpha = channelBinding.getAlpha();
-        int[] buf = ((RGBAIntBuffer) dataBuf).getDataBuffer();
-        int x1, x2, discreteValue, pixelIndex;
-        if (plane.isXYPlanar())
-        {
-        	int planeSize = sizeX1 * sizeX2;
-        	for (int i = 0; i < planeSize; i++)
-        	{
-                discreteValue = qs.quantize(plane.getPixelValue(i));
-                // Right now we have no transforms being used so it's safe to
-                // comment this out for the time being.
-                //discreteValue = cc.transform(discreteValue);
-                buf[i] = alpha | discreteValue << 24
-                        | discreteValue << 16 | discreteValue << 8;            		
-        	}
-        }
-        else
-        {
-        	for (x2 = 0; x2 < sizeX2; ++x2) {
-        		pixelIndex = sizeX1 * x2;
-        		for (x1 = 0; x1 < sizeX1; ++x1) {
-        			discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-        			discreteValue = cc.transform(discreteValue);
-        			buf[pixelIndex + x1] = alpha | discreteValue << 24
-        			| discreteValue << 16 | discreteValue << 8;
-        		}
-        	}
-        }
+	    render(dataBuf, plane, qs, cc);
 	    return dataBuf;
 	}
 
 
+	/**
+	 * Renders the plane of the active channel into the passed buffer, dividing
+	 * the rows between tasks run by the shared {@link RenderingExecutor}.
+	 *
+	 * @param buf The buffer to render into.
+	 * @param plane The data of the active channel.
+	 * @param qs The quantum strategy of the active channel.
+	 * @param cc The spatial transformations to apply to the quantized data.
+	 * @throws QuantizationException If an error occurs while quantizing a
+	 *                               pixels intensity value.
+	 */
+	private void render(RGBBuffer buf, Plane2D plane, QuantumStrategy qs,
+	        CodomainChain cc) throws QuantizationException
+	{
+	    RenderingStats performanceStats = renderer.getStats();
+	    int alpha = channelBinding.getAlpha();
+	    int taskCount = numTasks(sizeX2);
+	    int delta = sizeX2/taskCount;
+	    RenderingTask[] tasks = new RenderingTask[taskCount];
+	    for (int i = 0; i < taskCount; i++) {
+	        tasks[i] = new RenderGreyScaleRegionTask(buf, plane, qs, cc,
+	                alpha, sizeX1, i*delta, (i+1)*delta);
+	    }
+	    performanceStats.startRendering();
+	    RenderingExecutor.getInstance().invokeAll(tasks);
+	    performanceStats.endRendering();
+	}
+
 	/**
 	 * Initializes the first active channel binding for the current rendering
 	 * context.
@@ -13,9 +13,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
@@ -45,8 +42,9 @@ import omeis.providers.re.quantum.QuantumStrategy;
  * rendering context.
  * <p>
  * This strategy renders the in "regions", dividing the planar data up based
- * on {@link #maxTasks} and assigning each task to its own thread. This should
- * result in parallel rendering on multi-processor machines.
+ * on {@link #maxTasks} and assigning each task to the shared
+ * {@link RenderingExecutor}. This should result in parallel rendering on
+ * multi-processor machines.
  * </p>
  * <p>
  * Thread-safety relies on the fact that the rendering context is not going to
@@ -68,22 +66,6 @@ class HSBStrategy extends RenderingStrategy {
     /** The logger for this particular class */
     private static Logger log = LoggerFactory.getLogger(HSBStrategy.class);
     
-    /**
-     * Retrieves the maximum number of reasonable tasks to schedule based on
-     * image size and <i>maxTasks</i>.
-     * 
-     * @param size The width along the X2 axis.
-     * @return the number of tasks to schedule.
-     */
-    private int numTasks(int size) {
-        for (int i = maxTasks; i > 0; i--) {
-            if (size % i == 0) {
-                return i;
-            }
-        }
-        return 1;
-    }
-
     /**
      * Retrieves the wavelength data for all the active channels and overlays.
      * 
@@ -156,7 +138,7 @@ class HSBStrategy extends RenderingStrategy {
             if (lutName.equals(name) ||
                     FilenameUtils.getBaseName(lutName).equals(name)) {
                 try {
-                    return LutReaderFactory.read(f);
+                    return LutReaderFactory.readCached(f);
                 } catch (Exception e) {
                     log.debug("cannot read lut "+f.getName(), e);
                 }
@@ -363,33 +345,8 @@ class HSBStrategy extends RenderingStrategy {
         // just use the current thread.
         RenderingTask[] tasks = makeRenderingTasks(planeDef, buf);
         performanceStats.startRendering();
-        int n = tasks.length;
-        Future[] rndTskFutures = new Future[n]; // [0] unused.
-        ExecutorService processor = Executors.newCachedThreadPool();
-
-        while (0 < --n) {
-            rndTskFutures[n] = processor.submit(tasks[n]);
-        }
-
-        // Call the task in the current thread.
-        if (n == 0) {
-            tasks[0].call();
-        }
-
-        // Wait for all forked tasks (if any) to complete.
-        for (n = 1; n < rndTskFutures.length; ++n) {
-            try {
-                rndTskFutures[n].get();
-            } catch (Exception e) {
-                if (e instanceof QuantizationException) {
-                    throw (QuantizationException) e;
-                }
-                throw new RuntimeException(e);
-            }
-        }
-
-        // Shutdown the task processor
-        processor.shutdown();
+        // The shared executor runs tasks[0] in the current thread.
+        RenderingExecutor.getInstance().invokeAll(tasks);
 
         // End the performance metrics for this rendering event.
         performanceStats.endRendering();
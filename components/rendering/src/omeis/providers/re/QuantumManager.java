@@ -16,6 +16,7 @@ import ome.model.display.ChannelBinding;
 import ome.model.display.QuantumDef;
 import ome.model.stats.StatsInfo;
 
+import omeis.providers.re.codomain.CodomainChain;
 import omeis.providers.re.metadata.StatsFactory;
 import omeis.providers.re.quantum.QuantumFactory;
 import omeis.providers.re.quantum.QuantumStrategy;
@@ -44,15 +45,28 @@ class QuantumManager {
     /** A quantum factory instance for looking up enumerations. */
     private final QuantumFactory factory;
 
+    /**
+     * The codomain transformations the strategies fold into their look-up
+     * tables.
+     */
+    private final CodomainChain codomainChain;
+
     /**
      * Creates a new instance.
      * 
      * @param metadata
      *            The pixels metadata.
+     * @param factory
+     *            A quantum factory instance for looking up enumerations.
+     * @param codomainChain
+     *            The codomain transformations to apply to the quantized
+     *            values.
      */
-    QuantumManager(Pixels metadata, QuantumFactory factory) {
+    QuantumManager(Pixels metadata, QuantumFactory factory,
+            CodomainChain codomainChain) {
         this.factory = factory;
         this.metadata = metadata;
+        this.codomainChain = codomainChain;
         wavesStg = new QuantumStrategy[metadata.getSizeC().intValue()];
     }
 
@@ -91,6 +105,7 @@ class QuantumManager {
         for (Iterator<Channel> i = metadata.iterateChannels(); i.hasNext();) {
             channel = i.next();
             stg = factory.getStrategy(qd, metadata);
+            stg.setCodomainChain(codomainChain);
             StatsInfo statsInfo = channel.getStatsInfo();
             if (statsInfo == null) {
                 minmax = sf.initPixelsRange(metadata);
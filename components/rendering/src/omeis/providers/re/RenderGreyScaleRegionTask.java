@@ -0,0 +1,232 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.data.Plane2D;
+import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.QuantumStrategy;
+
+/**
+ * A task object to render a band of rows of a single channel as greyscale.
+ * This task is used by the {@link GreyScaleStrategy} to render the plane
+ * concurrently using the shared {@link RenderingExecutor}.
+ *
+ * @since 5.3.0
+ */
+class RenderGreyScaleRegionTask implements RenderingTask {
+
+    /** Buffer to hold the output image's data. */
+    private RGBBuffer dataBuffer;
+
+    /** The channel data. */
+    private Plane2D plane;
+
+    /** How to quantize a pixel intensity value. */
+    private QuantumStrategy qs;
+
+    /** The spatial transformations to apply to the quantized data. */
+    private CodomainChain cc;
+
+    /**
+     * Whether the spatial transformations have to be applied by this task,
+     * i.e. are not folded into the quantization.
+     */
+    private boolean transform;
+
+    /** The alpha component of the channel color. */
+    private int alpha;
+
+    /** The number of pixels along the <i>X1</i>-axis. */
+    private int sizeX1;
+
+    /** The <i>X2</i>-axis start */
+    private int x2Start;
+
+    /** The <i>X2</i>-axis end */
+    private int x2End;
+
+    /**
+     * Creates a new instance to render a band of rows.
+     *
+     * @param dataBuffer
+     *            Buffer to hold the output image's data.
+     * @param plane
+     *            The channel data.
+     * @param qs
+     *            The quantum strategy for the channel.
+     * @param cc
+     *            The spatial transformations to apply to the quantized data.
+     * @param alpha
+     *            The alpha component of the channel color.
+     * @param sizeX1
+     *            The number of pixels along the <i>X1</i>-axis.
+     * @param x2Start
+     *            The <i>X2</i>-axis start
+     * @param x2End
+     *            The <i>X2</i>-axis end
+     */
+    RenderGreyScaleRegionTask(RGBBuffer dataBuffer, Plane2D plane,
+            QuantumStrategy qs, CodomainChain cc, int alpha, int sizeX1,
+            int x2Start, int x2End) {
+        this.dataBuffer = dataBuffer;
+        this.plane = plane;
+        this.qs = qs;
+        this.cc = cc;
+        this.transform = !qs.isCodomainChainApplied(cc);
+        this.alpha = alpha;
+        this.sizeX1 = sizeX1;
+        this.x2Start = x2Start;
+        this.x2End = x2End;
+    }
+
+    /**
+     * Renders the region.
+     *
+     * @throws QuantizationException
+     *             If an error occurs while quantizing a pixels intensity value.
+     */
+    public Object call() throws QuantizationException {
+        if (dataBuffer instanceof RGBIntBuffer) {
+            renderPackedInt();
+        } else if (dataBuffer instanceof RGBAIntBuffer) {
+            renderPackedIntAsRGBA();
+        } else {
+            renderBanded();
+        }
+        return null;
+    }
+
+    /**
+     * Quantizes all the rows of the region in one pass. Only valid for
+     * <i>XY</i> planes whose rows are contiguous in the backing buffer.
+     *
+     * @return The quantized values.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private int[] quantizeRegion() throws QuantizationException {
+        int count = sizeX1 * (x2End - x2Start);
+        int[] quantized = new int[count];
+        qs.quantize(plane.getData(), sizeX1 * x2Start, count, quantized);
+        return quantized;
+    }
+
+    /**
+     * Renders into a banded byte buffer.
+     *
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private void renderBanded() throws QuantizationException {
+        byte value;
+        float alphaRatio = (float) alpha / 255;
+        int x1, x2, discreteValue, pixelIndex;
+        byte[] r = dataBuffer.getRedBand();
+        byte[] g = dataBuffer.getGreenBand();
+        byte[] b = dataBuffer.getBlueBand();
+        if (plane.isXYPlanar())
+        {
+            int start = sizeX1 * x2Start;
+            int[] quantized = quantizeRegion();
+            for (int i = 0; i < quantized.length; i++)
+            {
+                discreteValue = quantized[i];
+                if (transform) discreteValue = cc.transform(discreteValue);
+                value = (byte) (discreteValue * alphaRatio);
+                r[start + i] = value;
+                g[start + i] = value;
+                b[start + i] = value;
+            }
+        }
+        else
+        {
+            for (x2 = x2Start; x2 < x2End; ++x2) {
+                for (x1 = 0; x1 < sizeX1; ++x1) {
+                    pixelIndex = sizeX1 * x2 + x1;
+                    discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
+                    if (transform) discreteValue = cc.transform(discreteValue);
+                    value = (byte) (discreteValue * alphaRatio);
+                    r[pixelIndex] = value;
+                    g[pixelIndex] = value;
+                    b[pixelIndex] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders into a packed integer array.
+     *
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private void renderPackedInt() throws QuantizationException {
+        int[] buf = ((RGBIntBuffer) dataBuffer).getDataBuffer();
+        int x1, x2, discreteValue, pixelIndex;
+        if (plane.isXYPlanar())
+        {
+            int start = sizeX1 * x2Start;
+            int[] quantized = quantizeRegion();
+            for (int i = 0; i < quantized.length; i++)
+            {
+                discreteValue = quantized[i];
+                if (transform) discreteValue = cc.transform(discreteValue);
+                buf[start + i] = alpha << 24 | discreteValue << 16
+                        | discreteValue << 8 | discreteValue;
+            }
+        }
+        else
+        {
+            for (x2 = x2Start; x2 < x2End; ++x2) {
+                pixelIndex = sizeX1 * x2;
+                for (x1 = 0; x1 < sizeX1; ++x1) {
+                    discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
+                    if (transform) discreteValue = cc.transform(discreteValue);
+                    buf[pixelIndex + x1] = alpha << 24 | discreteValue << 16
+                    | discreteValue << 8 | discreteValue;
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders into a packed integer array as RGBA.
+     *
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private void renderPackedIntAsRGBA() throws QuantizationException {
+        int[] buf = ((RGBAIntBuffer) dataBuffer).getDataBuffer();
+        int x1, x2, discreteValue, pixelIndex;
+        if (plane.isXYPlanar())
+        {
+            int start = sizeX1 * x2Start;
+            int[] quantized = quantizeRegion();
+            for (int i = 0; i < quantized.length; i++)
+            {
+                discreteValue = quantized[i];
+                if (transform) discreteValue = cc.transform(discreteValue);
+                buf[start + i] = alpha | discreteValue << 24
+                        | discreteValue << 16 | discreteValue << 8;
+            }
+        }
+        else
+        {
+            for (x2 = x2Start; x2 < x2End; ++x2) {
+                pixelIndex = sizeX1 * x2;
+                for (x1 = 0; x1 < sizeX1; ++x1) {
+                    discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
+                    if (transform) discreteValue = cc.transform(discreteValue);
+                    buf[pixelIndex + x1] = alpha | discreteValue << 24
+                    | discreteValue << 16 | discreteValue << 8;
+                }
+            }
+        }
+    }
+}
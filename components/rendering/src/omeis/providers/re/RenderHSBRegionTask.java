@@ -10,7 +10,6 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import ome.util.PixelData;
 import omeis.providers.re.codomain.CodomainChain;
 import omeis.providers.re.data.Plane2D;
 import omeis.providers.re.lut.LutReader;
@@ -70,6 +69,12 @@ class RenderHSBRegionTask implements RenderingTask {
     /** The collection of readers.*/
     private List<LutReader> readers;
 
+    /**
+     * The quantized values of the region for the channel being rendered
+     * when the region can be quantized in bulk, <code>null</code> otherwise.
+     */
+    private int[] quantized;
+
     /**
      * Creates a new instance to render a wavelength.
      * 
@@ -158,11 +163,20 @@ class RenderHSBRegionTask implements RenderingTask {
 
             float alpha = new Float(
                     color[ColorsFactory.ALPHA_INDEX]).floatValue() / 65025;// 255*255
+            boolean isBulk = quantizeRegion(plane, qs);
+            boolean transform = !qs.isCodomainChainApplied(cc);
+            int regionStart = width * x2Start;
             for (int x2 = x2Start; x2 < x2End; ++x2) {
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-                    discreteValue = cc.transform(discreteValue);
+                    if (isBulk)
+                        discreteValue = quantized[pix - regionStart];
+                    else
+                        discreteValue =
+                            qs.quantize(plane.getPixelValue(x1, x2));
+                    if (transform) {
+                        discreteValue = cc.transform(discreteValue);
+                    }
 
                     if (reader != null) {
                         int r1 = ((r[pix] & 0x00FF0000) >> 16);
@@ -236,9 +250,9 @@ class RenderHSBRegionTask implements RenderingTask {
                      color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
             blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
                      color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
+            boolean isBulk = quantizeRegion(plane, qs);
+            boolean transform = !qs.isCodomainChainApplied(cc);
+            int regionStart = width * x2Start;
 
             // Get our color offset if we've got the primary color optimization
             // enabled.
@@ -250,17 +264,14 @@ class RenderHSBRegionTask implements RenderingTask {
             for (int x2 = x2Start; x2 < x2End; ++x2) {
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    if (isXYPlanar)
-                        discreteValue =
-                        qs.quantize(
-                                data.getPixelValueDirect(pix * bytesPerPixel));
+                    if (isBulk)
+                        discreteValue = quantized[pix - regionStart];
                     else
                         discreteValue =
                             qs.quantize(plane.getPixelValue(x1, x2));
-                    
-                    // Right now we have no transforms being used so it's safe to
-                    // comment this out for the time being.
-                    //discreteValue = cc.transform(discreteValue);
+                    if (transform) {
+                        discreteValue = cc.transform(discreteValue);
+                    }
                     if (reader != null) {
                         int r1 = ((buf[pix] & 0x00FF0000) >> 16);
                         int r2 = reader.getRed(discreteValue) & 0xFF;
@@ -379,9 +390,9 @@ class RenderHSBRegionTask implements RenderingTask {
                     color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
             blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
                     color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
+            boolean isBulk = quantizeRegion(plane, qs);
+            boolean transform = !qs.isCodomainChainApplied(cc);
+            int regionStart = width * x2Start;
 
             // Get our color offset if we've got the primary color optimization
             // enabled.
@@ -392,16 +403,14 @@ class RenderHSBRegionTask implements RenderingTask {
             for (int x2 = x2Start; x2 < x2End; ++x2) {
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    if (isXYPlanar)
-                        discreteValue =
-                        qs.quantize(
-                                data.getPixelValueDirect(pix * bytesPerPixel));
+                    if (isBulk)
+                        discreteValue = quantized[pix - regionStart];
                     else
                         discreteValue =
                             qs.quantize(plane.getPixelValue(x1, x2));
-                    // Right now we have no transforms being used so it's safe to
-                    // comment this out for the time being.
-                    //discreteValue = cc.transform(discreteValue);
+                    if (transform) {
+                        discreteValue = cc.transform(discreteValue);
+                    }
 
                     if (reader != null) {
                         int r1 = ((buf[pix] & 0xFF000000) >> 24);
@@ -482,6 +491,34 @@ class RenderHSBRegionTask implements RenderingTask {
         }
     }
     
+    /**
+     * Quantizes the whole region of the passed plane in one pass if the region
+     * is contiguous in the backing buffer, i.e. for <i>XY</i> planes when the
+     * region spans complete rows.
+     *
+     * @param plane The plane to quantize.
+     * @param qs The quantum strategy to use.
+     * @return <code>true</code> if the values are available in
+     *         {@link #quantized}, <code>false</code> if they have to be
+     *         quantized pixel by pixel.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private boolean quantizeRegion(Plane2D plane, QuantumStrategy qs)
+        throws QuantizationException
+    {
+        if (!plane.isXYPlanar() || x1Start != 0) {
+            return false;
+        }
+        int width = x1End - x1Start;
+        int count = width * (x2End - x2Start);
+        if (quantized == null || quantized.length < count) {
+            quantized = new int[count];
+        }
+        qs.quantize(plane.getData(), width * x2Start, count, quantized);
+        return true;
+    }
+
     /**
      * Returns a color offset based on which color component is 0xFF.
      * @param color the color to check.
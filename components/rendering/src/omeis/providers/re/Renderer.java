@@ -352,16 +352,17 @@ public class Renderer {
         }
 
    
-        // Create and configure the quantum strategies.
-        QuantumDef qd = rndDef.getQuantization();
-        quantumManager = new QuantumManager(metadata, quantumFactory);
-        ChannelBinding[] cBindings = getChannelBindings();
-        quantumManager.initStrategies(qd, cBindings);
-
         // Create and configure the codomain chain.
+        QuantumDef qd = rndDef.getQuantization();
         codomainChain = new CodomainChain(qd.getCdStart().intValue(), qd
                 .getCdEnd().intValue(), null);
 
+        // Create and configure the quantum strategies.
+        quantumManager = new QuantumManager(metadata, quantumFactory,
+                codomainChain);
+        ChannelBinding[] cBindings = getChannelBindings();
+        quantumManager.initStrategies(qd, cBindings);
+
         // Create an appropriate rendering strategy.
         renderingStrategy = RenderingStrategy.makeNew(rndDef.getModel());
         
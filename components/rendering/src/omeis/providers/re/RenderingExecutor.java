@@ -0,0 +1,262 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ome.system.metrics.Histogram;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+import omeis.providers.re.quantum.QuantizationException;
+
+/**
+ * Runs the {@link RenderingTask}s of all the {@link RenderingStrategy}
+ * implementations on a pool of threads shared by the process.
+ * <p>
+ * The pool is sized to the number of available processors unless configured
+ * otherwise. When its queue is full or once it is shut down, tasks are run
+ * on the calling thread which keeps the number of threads bounded without
+ * ever rejecting work.
+ * </p>
+ * <p>
+ * On the server a single instance is created by Spring and installed via
+ * {@link #register()}; other users (e.g. unit tests) lazily get a default
+ * instance from {@link #getInstance()}.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class RenderingExecutor {
+
+    /** The logger for this particular class */
+    private static Logger log = LoggerFactory.getLogger(RenderingExecutor.class);
+
+    /** The default size of the task queue. */
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    /** The instance shared by all renderers in this process. */
+    private static RenderingExecutor instance;
+
+    /** The pool doing the actual work. */
+    private final ThreadPoolExecutor pool;
+
+    /** Number of tasks waiting in the queue when a task is submitted. */
+    private final Histogram queueDepth;
+
+    /** Time between the submission of a task and its completion. */
+    private final Timer taskLatency;
+
+    /** Time spent by a task in the queue before being run. */
+    private final Timer queueWait;
+
+    /**
+     * Returns the rendering executor shared by this process, creating one
+     * sized to the available processors if none has been registered.
+     *
+     * @return See above.
+     */
+    public static synchronized RenderingExecutor getInstance() {
+        if (instance == null) {
+            instance = new RenderingExecutor(0, DEFAULT_QUEUE_SIZE);
+        }
+        return instance;
+    }
+
+    /**
+     * Creates a new instance which does not collect metrics.
+     *
+     * @param threads The maximum number of threads. Values lower than
+     *                <code>1</code> mean one thread per available processor.
+     * @param queueSize The maximum number of queued tasks.
+     */
+    public RenderingExecutor(int threads, int queueSize) {
+        this(threads, queueSize, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threads The maximum number of threads. Values lower than
+     *                <code>1</code> mean one thread per available processor.
+     * @param queueSize The maximum number of queued tasks. Values lower than
+     *                <code>1</code> mean {@link #DEFAULT_QUEUE_SIZE}.
+     * @param metrics Used to export the queue depth and task latencies.
+     */
+    public RenderingExecutor(int threads, int queueSize, Metrics metrics) {
+        if (threads < 1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (queueSize < 1) {
+            queueSize = DEFAULT_QUEUE_SIZE;
+        }
+        pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new RenderingThreadFactory(),
+                new CallerRunsAlwaysPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        queueDepth = metrics.histogram(this, "queueDepth");
+        taskLatency = metrics.timer(this, "taskLatency");
+        queueWait = metrics.timer(this, "queueWait");
+        log.info("Rendering executor with " + threads + " threads and a "
+                + "queue of " + queueSize + " tasks");
+    }
+
+    /**
+     * Installs this instance as the one returned by {@link #getInstance()}.
+     * Used as the Spring <code>init-method</code>.
+     */
+    public void register() {
+        synchronized (RenderingExecutor.class) {
+            RenderingExecutor previous = instance;
+            instance = this;
+            if (previous != null && previous != this) {
+                previous.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new tasks. Tasks already submitted are run to
+     * completion. Used as the Spring <code>destroy-method</code>.
+     */
+    public void shutdown() {
+        synchronized (RenderingExecutor.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Returns the number of tasks currently waiting to be run.
+     *
+     * @return See above.
+     */
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Submits a task for asynchronous execution.
+     *
+     * @param task The task to run.
+     * @return The future representing the pending result of the task.
+     */
+    public Future<Object> submit(final RenderingTask task) {
+        queueDepth.update(pool.getQueue().size());
+        final Timer.Context latency = taskLatency.time();
+        final Timer.Context wait = queueWait.time();
+        return pool.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                wait.stop();
+                try {
+                    return task.call();
+                } finally {
+                    latency.stop();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs all the passed tasks, the first one in the calling thread and the
+     * others in the pool, and waits for all of them to complete.
+     *
+     * @param tasks The tasks to run.
+     * @throws QuantizationException If an error occurs while quantizing a
+     *                               pixels intensity value.
+     */
+    public void invokeAll(RenderingTask[] tasks) throws QuantizationException {
+        int n = tasks.length;
+        Future[] futures = new Future[n]; // [0] unused.
+        while (0 < --n) {
+            futures[n] = submit(tasks[n]);
+        }
+
+        // Call the task in the current thread.
+        QuantizationException error = null;
+        if (n == 0) {
+            try {
+                tasks[0].call();
+            } catch (QuantizationException e) {
+                error = e;
+            }
+        }
+
+        // Wait for all forked tasks (if any) to complete, even after a
+        // failure, so that no task is still writing into the buffer.
+        RuntimeException failure = null;
+        for (n = 1; n < futures.length; ++n) {
+            try {
+                futures[n].get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof QuantizationException) {
+                    if (error == null) {
+                        error = (QuantizationException) cause;
+                    }
+                } else if (failure == null) {
+                    failure = new RuntimeException(cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new RuntimeException(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs rejected tasks on the calling thread, including once the pool is
+     * shut down. {@link ThreadPoolExecutor.CallerRunsPolicy} silently
+     * discards them in that case, leaving their futures pending forever for
+     * a renderer which got this instance just before it was replaced.
+     */
+    public static class CallerRunsAlwaysPolicy
+            implements RejectedExecutionHandler {
+
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            r.run();
+        }
+    }
+
+    /**
+     * Creates daemon threads with recognizable names.
+     */
+    private static class RenderingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "rendering-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
@@ -146,6 +146,22 @@ abstract class RenderingStrategy {
         }
     }
 
+    /**
+     * Retrieves the maximum number of reasonable tasks to schedule based on
+     * image size and <i>maxTasks</i>.
+     * 
+     * @param size The width along the X2 axis.
+     * @return the number of tasks to schedule.
+     */
+    protected int numTasks(int size) {
+        for (int i = maxTasks; i > 0; i--) {
+            if (size % i == 0) {
+                return i;
+            }
+        }
+        return 1;
+    }
+
     /**
      * Constructs a strategy.
      */
@@ -64,6 +64,13 @@ public class CodomainChain {
     /** The upper bound of the codomain interval. */
     private int intervalEnd;
 
+    /**
+     * Incremented each time the lookup table is rebuilt, so that the quantum
+     * strategies that folded the chain into their own table can tell that it
+     * is out of date.
+     */
+    private volatile int version;
+
     /** Builds the lookup table. */
     private void buildLUT() {
         LUT = new int[intervalEnd - intervalStart + 1];
@@ -82,6 +89,7 @@ public class CodomainChain {
             }
             LUT[x - intervalStart] = v;
         }
+        version++;
     }
 
     /**
@@ -229,6 +237,16 @@ public class CodomainChain {
         return intervalStart;
     }
 
+    /**
+     * Returns the version of the lookup table. The version changes each time
+     * the chain or its interval is modified.
+     * 
+     * @return See above.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * Removes all {@link CodomainMapContext}s except the identity and resets
      * the interval.
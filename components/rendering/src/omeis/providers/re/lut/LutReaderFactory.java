@@ -23,14 +23,153 @@ package omeis.providers.re.lut;
 
 import java.io.File;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Initializes the reader corresponding to the specified lookup table.
+ * Parsed tables can be shared through {@link #readCached(File)} since the
+ * readers are not modified once read.
  * @author Jean-Marie Burel &nbsp;&nbsp;&nbsp;&nbsp;
  * <a href="mailto:j.burel@dundee.ac.uk">j.burel@dundee.ac.uk</a>
  * @since 5.3
  */
 public class LutReaderFactory {
 
+    /** The maximum number of parsed lookup tables to keep. */
+    static final int MAX_CACHED = 1000;
+
+    /** The parsed lookup tables shared by this process keyed by path. */
+    private static final Cache<String, CachedLut> CACHE =
+            CacheBuilder.newBuilder().maximumSize(MAX_CACHED).build();
+
+    /**
+     * A parsed lookup table along with the state of the file and of its
+     * directory at the time it was read.
+     */
+    private static class CachedLut {
+
+        /** The parsed lookup table. */
+        private final LutReader reader;
+
+        /** The modification time of the file. */
+        private final long lastModified;
+
+        /** The length of the file. */
+        private final long length;
+
+        /** The modification time of the directory containing the file. */
+        private final long dirLastModified;
+
+        CachedLut(LutReader reader, long lastModified, long length,
+                long dirLastModified)
+        {
+            this.reader = reader;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.dirLastModified = dirLastModified;
+        }
+
+        /**
+         * Returns <code>true</code> if neither the file nor its directory
+         * changed since the table was read.
+         */
+        boolean isCurrent(long lastModified, long length,
+                long dirLastModified)
+        {
+            return this.lastModified == lastModified
+                    && this.length == length
+                    && this.dirLastModified == dirLastModified;
+        }
+    }
+
+    /**
+     * Returns the modification time of the directory containing the file or
+     * <code>0</code> if it cannot be determined.
+     *
+     * @param file The file to handle.
+     * @return See above.
+     */
+    private static long dirLastModified(File file)
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        return dir == null ? 0L : dir.lastModified();
+    }
+
+    /**
+     * Returns the parsed lookup table for the specified file, only reading
+     * it if it has not been read before or if the file or the directory
+     * containing it (e.g. the <code>luts</code> directory) changed since.
+     * Files which cannot be read or parsed are not cached, so that they are
+     * read again once fixed.
+     *
+     * @param file The file to read.
+     * @return See above, <code>null</code> if the file cannot be parsed, in
+     *         which case nothing is cached.
+     * @throws Exception Thrown if the file cannot be read, e.g. a
+     *         {@link java.io.FileNotFoundException} if it does not exist,
+     *         in which case nothing is cached.
+     */
+    public static LutReader readCached(File file)
+        throws Exception
+    {
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        long dirLastModified = dirLastModified(file);
+        CachedLut cached = CACHE.getIfPresent(key);
+        if (cached != null &&
+                cached.isCurrent(lastModified, length, dirLastModified)) {
+            return cached.reader;
+        }
+        if (cached != null) {
+            // The directory changed: other tables may have been replaced.
+            if (cached.dirLastModified != dirLastModified) {
+                invalidate(file.getAbsoluteFile().getParentFile());
+            } else {
+                CACHE.invalidate(key);
+            }
+        }
+        LutReader reader = read(file);
+        if (reader != null) {
+            CACHE.put(key, new CachedLut(reader, lastModified, length,
+                    dirLastModified));
+        }
+        return reader;
+    }
+
+    /**
+     * Returns <code>true</code> if a parsed lookup table is cached for the
+     * specified file, whether or not it is still current.
+     *
+     * @param file The file to check.
+     * @return See above.
+     */
+    static boolean isCached(File file)
+    {
+        return CACHE.getIfPresent(file.getAbsolutePath()) != null;
+    }
+
+    /**
+     * Discards the cached lookup tables read from the specified directory.
+     *
+     * @param dir The directory or <code>null</code> to discard all the
+     *            cached lookup tables.
+     */
+    public static void invalidate(File dir)
+    {
+        if (dir == null) {
+            CACHE.invalidateAll();
+            return;
+        }
+        String prefix = dir.getAbsolutePath() + File.separator;
+        for (String key : CACHE.asMap().keySet()) {
+            if (key.startsWith(prefix)) {
+                CACHE.invalidate(key);
+            }
+        }
+    }
+
     /**
      * Reads the specified file.
      *
@@ -0,0 +1,238 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.metadata;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ome.util.PixelData;
+import omeis.providers.re.data.Plane2D;
+
+/**
+ * Computes the histogram of a plane in a single pass. The bin of each pixel is
+ * computed directly from its value and the plane is divided into stripes of
+ * rows which are counted in parallel by a fork-join pool shared by the whole
+ * process.
+ * <p>
+ * This class is stateless and thread-safe: many threads, e.g. services
+ * resetting the rendering settings of several images, may compute histograms
+ * concurrently.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class PlaneHistogram {
+
+    /** Below this number of pixels a stripe is not split any further. */
+    static final int MIN_PIXELS_PER_TASK = 64 * 1024;
+
+    /** The pool shared by all the histogram computations. */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /**
+     * Counts the pixels of the passed plane falling into each of
+     * <code>bins</code> equally sized bins covering
+     * <code>[min, max[</code>, bin <code>i</code> covering
+     * <code>[min + i * size, min + (i + 1) * size[</code> where
+     * <code>size = (max - min) / bins</code>. Pixels outside these bins are
+     * not counted.
+     *
+     * @param plane The plane to handle.
+     * @param sizeX1 The number of pixels along the <i>X1</i>-axis.
+     * @param sizeX2 The number of pixels along the <i>X2</i>-axis.
+     * @param min The lower bound of the first bin.
+     * @param max The upper bound of the last bin.
+     * @param bins The number of bins.
+     * @return The number of pixels in each bin.
+     */
+    public static int[] compute(Plane2D plane, int sizeX1, int sizeX2,
+            double min, double max, int bins) {
+        if (bins < 1) {
+            throw new IllegalArgumentException("Invalid number of bins.");
+        }
+        if (!(max > min) || sizeX1 < 1 || sizeX2 < 1) {
+            return new int[bins];
+        }
+        return POOL.invoke(new StripeTask(plane, sizeX1, 0, sizeX2, min, max,
+                bins));
+    }
+
+    /**
+     * Returns a view of the buffer backing the passed pixel data, positioned
+     * at its first byte and with the byte order of the pixel data.
+     *
+     * @param data The pixel data.
+     * @return See above.
+     */
+    private static ByteBuffer getBuffer(PixelData data) {
+        ByteBuffer buffer = data.getData().duplicate();
+        // duplicate() does not preserve the byte order.
+        buffer.order(data.getOrder());
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * Counts the pixels of the rows <code>[x2Start, x2End[</code>, splitting
+     * the stripe in two as long as it is large enough.
+     */
+    private static class StripeTask extends RecursiveTask<int[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Plane2D plane;
+
+        private final int sizeX1;
+
+        private final int x2Start;
+
+        private final int x2End;
+
+        private final double min;
+
+        private final double max;
+
+        private final int bins;
+
+        /** The size of a bin. */
+        private final double size;
+
+        /** The number of bins per unit of pixel intensity. */
+        private final double scale;
+
+        StripeTask(Plane2D plane, int sizeX1, int x2Start, int x2End,
+                double min, double max, int bins) {
+            this.plane = plane;
+            this.sizeX1 = sizeX1;
+            this.x2Start = x2Start;
+            this.x2End = x2End;
+            this.min = min;
+            this.max = max;
+            this.bins = bins;
+            this.size = (max - min) / bins;
+            this.scale = 1 / size;
+        }
+
+        @Override
+        protected int[] compute() {
+            int rows = x2End - x2Start;
+            if (rows > 1 && (long) rows * sizeX1 > MIN_PIXELS_PER_TASK) {
+                int middle = x2Start + rows / 2;
+                StripeTask top = new StripeTask(plane, sizeX1, x2Start, middle,
+                        min, max, bins);
+                StripeTask bottom = new StripeTask(plane, sizeX1, middle,
+                        x2End, min, max, bins);
+                top.fork();
+                int[] totals = bottom.compute();
+                int[] other = top.join();
+                for (int i = 0; i < bins; i++) {
+                    totals[i] += other[i];
+                }
+                return totals;
+            }
+            int[] totals = new int[bins];
+            if (plane.isXYPlanar()) {
+                count(totals, plane.getData(), sizeX1 * x2Start,
+                        sizeX1 * x2End);
+            } else {
+                for (int x2 = x2Start; x2 < x2End; ++x2) {
+                    for (int x1 = 0; x1 < sizeX1; ++x1) {
+                        add(totals, plane.getPixelValue(x1, x2));
+                    }
+                }
+            }
+            return totals;
+        }
+
+        /**
+         * Adds the value to the bin <code>i</code> such that
+         * <code>min + i * size &lt;= v &lt; min + (i + 1) * size</code>, if
+         * any. The index is estimated with a multiplication then corrected
+         * so that values on the bounds are binned exactly as when comparing
+         * them to each bin's bounds.
+         *
+         * @param totals The bins.
+         * @param v The pixel intensity value.
+         */
+        private void add(int[] totals, double v) {
+            if (!(v >= min)) {
+                return;
+            }
+            double q = (v - min) * scale;
+            if (q > bins) {
+                return;
+            }
+            int bin = (int) q;
+            if (bin > 0 && v < min + bin * size) {
+                bin--;
+            } else if (v >= min + (bin + 1) * size) {
+                bin++;
+            }
+            if (bin < bins) {
+                totals[bin]++;
+            }
+        }
+
+        /**
+         * Counts the pixels <code>[start, end[</code> of the passed data,
+         * reading the backing buffer through a view of the primitive type of
+         * the pixels.
+         *
+         * @param totals The bins.
+         * @param data The pixel data.
+         * @param start The index of the first pixel.
+         * @param end The index after the last pixel.
+         */
+        private void count(int[] totals, PixelData data, int start, int end) {
+            boolean signed = data.isSigned();
+            switch (data.javaType()) {
+                case PixelData.BYTE:
+                    ByteBuffer bytes = getBuffer(data);
+                    for (int i = start; i < end; i++) {
+                        add(totals, signed ? bytes.get(i) : bytes.get(i) & 0xFF);
+                    }
+                    break;
+                case PixelData.SHORT:
+                    ShortBuffer shorts = getBuffer(data).asShortBuffer();
+                    for (int i = start; i < end; i++) {
+                        add(totals,
+                                signed ? shorts.get(i) : shorts.get(i) & 0xFFFF);
+                    }
+                    break;
+                case PixelData.INT:
+                    IntBuffer ints = getBuffer(data).asIntBuffer();
+                    for (int i = start; i < end; i++) {
+                        add(totals, signed ? ints.get(i)
+                                : ints.get(i) & 0xFFFFFFFFL);
+                    }
+                    break;
+                case PixelData.FLOAT:
+                    FloatBuffer floats = getBuffer(data).asFloatBuffer();
+                    for (int i = start; i < end; i++) {
+                        add(totals, floats.get(i));
+                    }
+                    break;
+                case PixelData.DOUBLE:
+                    DoubleBuffer doubles = getBuffer(data).asDoubleBuffer();
+                    for (int i = start; i < end; i++) {
+                        add(totals, doubles.get(i));
+                    }
+                    break;
+                default:
+                    for (int i = start; i < end; i++) {
+                        add(totals, data.getPixelValue(i));
+                    }
+            }
+        }
+    }
+}
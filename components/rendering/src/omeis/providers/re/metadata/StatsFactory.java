@@ -87,53 +87,14 @@ public class StatsFactory {
      */
     private void computeBins(Plane2D p2D, double gMin, int sizeX2,
             int sizeX1) {
-    	int[] totals = new int[NB_BIN];
-        /*
-         * Segment[] segments = new Segment[NB_BIN]; for (int i = 0; i < NB_BIN;
-         * i++) { segments[i] = new Segment( gMin + i * sizeBin, 0, gMin + (i +
-         * 1) * sizeBin, 0); }
-         */
         BasicSegment[] segments = new BasicSegment[NB_BIN];
         for (int i = 0; i < NB_BIN; i++) {
             segments[i] = new BasicSegment(gMin + i * sizeBin, gMin + (i + 1)
                     * sizeBin);
         }
-
         // check segment [o,e[
-        double v;
-        BasicSegment segment;
-        if (p2D.isXYPlanar()) {
-            // modified code
-            int size = sizeX1 * sizeX2;
-            for (int j = 0; j < size; j++) {
-                v = p2D.getPixelValue(j);
-                for (int i = 0; i < segments.length; i++) {
-                    segment = segments[i];
-                    if (v >= segment.x1 && v < segment.x2) {
-                        totals[i]++;
-                        break;
-                    }
-                } // end i
-            }
-        } else {
-            for (int x2 = 0; x2 < sizeX2; ++x2) {
-                for (int x1 = 0; x1 < sizeX1; ++x1) {
-                    v = p2D.getPixelValue(x1, x2);
-                    for (int i = 0; i < segments.length; i++) {
-                        segment = segments[i];
-                        if (v >= segment.x1 && v < segment.x2) {
-                            totals[i]++;
-                            break;
-                        }
-                        /*
-                         * if (!segments[i].equals(1, pointX1, pointX2) &&
-                         * segments[i].lies(pointX1, pointX2)) { totals[i]++;
-                         * break; }
-                         */
-                    } // end i
-                } // end x1
-            }// end x2
-        }
+        int[] totals = PlaneHistogram.compute(p2D, sizeX1, sizeX2, gMin,
+                segments[NB_BIN - 1].x2, NB_BIN);
 
         double total = sizeX2 * sizeX1;
         for (int i = 0; i < totals.length; i++) {
@@ -279,6 +240,38 @@ public class StatsFactory {
         }
     }
 
+    /**
+     * Computes the location of the pixels' values of the passed plane, which
+     * determines the inputWindow and the noiseReduction flag. Unlike
+     * {@link #computeLocationStats(Pixels, PixelBuffer, PlaneDef, int)},
+     * this reads the pixel data; the histogram is computed in parallel by
+     * {@link PlaneHistogram}. As an instance holds the results of the last
+     * computation, use one instance per thread.
+     *
+     * @param plane The plane to analyze.
+     * @param sizeX1 The number of pixels along the <i>X1</i>-axis.
+     * @param sizeX2 The number of pixels along the <i>X2</i>-axis.
+     * @param gMin The global minimum of the channel.
+     * @param gMax The global maximum of the channel.
+     */
+    public void computeLocationStats(Plane2D plane, int sizeX1, int sizeX2,
+            double gMin, double gMax) {
+        locationStats = new double[NB_BIN];
+        noiseReduction = false;
+        inputStart = gMin;
+        inputEnd = gMax;
+        if (gMax - gMin < RANGE_RGB) {
+            // Too few values to be worth binning.
+            return;
+        }
+        sizeBin = (gMax - gMin) / NB_BIN;
+        epsilon = sizeBin / EPSILON;
+        // computeBins() only moves the bounds inwards from these.
+        inputStart = gMax;
+        inputEnd = gMin;
+        computeBins(plane, gMin, sizeX2, sizeX1);
+    }
+
     /**
      * Returns the statistics.
      * 
@@ -0,0 +1,79 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.quantum;
+
+import ome.model.enums.Family;
+import omeis.providers.re.codomain.CodomainChain;
+
+/**
+ * Look-up table holding the mapped value of each bin of the input window of a
+ * {@link QuantumStrategy}, see {@link QuantumStrategy#getBin(double)}. Used by
+ * the strategies whose pixel types have too many values for a table with one
+ * entry per value, i.e. {@link Quantization_float} and
+ * {@link Quantization_32_bit}. The codomain transformations of the strategy,
+ * if any, are folded into the table. The table remembers the settings it was
+ * built for so that a strategy can check that it is still current.
+ *
+ * @since 5.3.0
+ */
+class BinnedLut {
+
+    /** The mapped value of each bin. */
+    final int[] values;
+
+    /** The settings the table was built for. */
+    private final double windowStart, windowEnd, curveCoefficient;
+
+    private final boolean noiseReduction;
+
+    private final Family family;
+
+    private final QuantumMap valueMapper;
+
+    private final CodomainChain codomainChain;
+
+    private final int codomainChainVersion;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param qs The strategy the table is built for.
+     * @param values The mapped value of each bin.
+     */
+    BinnedLut(QuantumStrategy qs, int[] values) {
+        this.values = values;
+        windowStart = qs.getWindowStart();
+        windowEnd = qs.getWindowEnd();
+        curveCoefficient = qs.getCurveCoefficient();
+        noiseReduction = qs.getNoiseReduction();
+        family = qs.getFamily();
+        valueMapper = qs.valueMapper;
+        codomainChain = qs.getCodomainChain();
+        codomainChainVersion = codomainChain == null ? 0
+                : codomainChain.getVersion();
+    }
+
+    /**
+     * Returns <code>true</code> if the table was built with the current
+     * settings of the passed strategy, <code>false</code> otherwise.
+     *
+     * @param qs The strategy to check.
+     * @return See above.
+     */
+    boolean isFor(QuantumStrategy qs) {
+        return windowStart == qs.getWindowStart()
+                && windowEnd == qs.getWindowEnd()
+                && curveCoefficient == qs.getCurveCoefficient()
+                && noiseReduction == qs.getNoiseReduction()
+                && family == qs.getFamily()
+                && valueMapper == qs.valueMapper
+                && codomainChain == qs.getCodomainChain()
+                && (codomainChain == null
+                    || codomainChainVersion == codomainChain.getVersion());
+    }
+}
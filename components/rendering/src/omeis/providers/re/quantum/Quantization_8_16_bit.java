@@ -7,8 +7,13 @@
 
 package omeis.providers.re.quantum;
 
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
 import ome.model.core.Pixels;
 import ome.model.display.QuantumDef;
+import ome.util.PixelData;
+import omeis.providers.re.codomain.CodomainChain;
 
 /**
  * Quantization process. In charge of building a look-up table for each active
@@ -31,8 +36,17 @@ import ome.model.display.QuantumDef;
  */
 public class Quantization_8_16_bit extends QuantumStrategy {
 
-    /** The look-up table. */
-    private byte[] LUT;
+    /**
+     * The look-up table. The codomain transformations, if any, are folded
+     * into it.
+     */
+    private volatile byte[] LUT;
+
+    /** The codomain chain folded into the look-up table. */
+    private CodomainChain lutChain;
+
+    /** The version of the codomain chain folded into the look-up table. */
+    private int lutChainVersion;
 
     /** The lowest pixel intensity value. */
     private int min;
@@ -109,7 +123,6 @@ public class Quantization_8_16_bit extends QuantumStrategy {
                     "Lookup table of size %d greater than supported size %f",
                     range, MAX_SIZE_LUT));
         }
-        LUT = new byte[lutMax-lutMin+1];
     }
 
     /**
@@ -123,17 +136,8 @@ public class Quantization_8_16_bit extends QuantumStrategy {
     {
         int pMax = (int) getPixelsTypeMax();
         if (pMax != 0) return;
-        if (s < lutMin && e > lutMax) {
-            lutMin = s;
-            lutMax = e;
-            LUT = new byte[lutMax-lutMin+1];
-        } else if (s < lutMin && e <= lutMax) {
-            lutMin = s;
-            LUT = new byte[lutMax-lutMin+1];
-        } else if (s >= lutMin && e > lutMax) {
-            lutMax = e;
-            LUT = new byte[lutMax-lutMin+1];
-        }
+        if (s < lutMin) lutMin = s;
+        if (e > lutMax) lutMax = e;
     }
 
     /**
@@ -217,9 +221,11 @@ public class Quantization_8_16_bit extends QuantumStrategy {
      * is a linear map: y = a1*x+b1 where b1 = codomainStart and a1 =
      * (qDef.cdEnd-qDef.cdStart)/((double) qDef.bitResolution); g: [0,
      * 2^n-1]-&lt;[cdStart, cdEnd]. For some reasons, we cannot compute directly
-     * gof.
+     * gof. The codomain transformations are then applied to the result, so
+     * that they cost nothing per pixel. The table is filled before being
+     * published so that concurrent readers never see a partial table.
      */
-    private void buildLUT() {
+    private synchronized void buildLUT() {
     	double dStart = getWindowStart(), dEnd = getWindowEnd();
         if (LUT == null) {
             initLUT((int) dStart, (int) dEnd);
@@ -238,12 +244,16 @@ public class Quantization_8_16_bit extends QuantumStrategy {
         // Initializes the decile map.
         double v = initDecileMap(dStart, dEnd);
         QuantumMap normalize = new PolynomialMap();
-        
+        CodomainChain cc = getCodomainChain();
+        int chainVersion = cc == null ? 0 : cc.getVersion();
+        byte[] table = new byte[lutMax-lutMin+1];
+        byte start = (byte) applyCodomainChain(cdStart);
+        byte end = (byte) applyCodomainChain(cdEnd);
 
         // Build the LUT
         int x = lutMin;
         for (; x < dStart; ++x) {
-            LUT[x - lutMin] = (byte) cdStart;
+            table[x - lutMin] = start;
         }
 
         for (; x < dEnd; ++x) {
@@ -260,12 +270,46 @@ public class Quantization_8_16_bit extends QuantumStrategy {
             v = aNormalized * (valueMapper.transform(v, k) - ysNormalized);
             v = Math.round(v);
             v = Math.round(a1 * v + cdStart);
-            LUT[x - lutMin] = (byte) v;
+            table[x - lutMin] = (byte) applyCodomainChain((int) v);
         }
 
         for (; x <= lutMax; ++x) {
-            LUT[x - lutMin] = (byte) cdEnd;
+            table[x - lutMin] = end;
         }
+        lutChain = cc;
+        lutChainVersion = chainVersion;
+        LUT = table;
+    }
+
+    /**
+     * Returns the look-up table, rebuilding it first if the codomain chain
+     * was replaced or modified since it was built.
+     *
+     * @return See above.
+     */
+    private byte[] getLUT() {
+        byte[] table = LUT;
+        if (isChainOutdated()) {
+            synchronized (this) {
+                if (isChainOutdated()) {
+                    buildLUT();
+                }
+                table = LUT;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns <code>true</code> if the codomain chain folded into the look-up
+     * table is not the current one, <code>false</code> otherwise.
+     *
+     * @return See above.
+     */
+    private boolean isChainOutdated() {
+        CodomainChain cc = getCodomainChain();
+        return cc != lutChain
+                || (cc != null && cc.getVersion() != lutChainVersion);
     }
 
     /** The input window size changed, rebuild the LUT. */
@@ -286,6 +330,17 @@ public class Quantization_8_16_bit extends QuantumStrategy {
         super(qd, pixels);
     }
 
+    /**
+     * Overridden to indicate that the codomain chain is folded into the
+     * look-up table.
+     *
+     * @see QuantumStrategy#isCodomainChainApplied(CodomainChain)
+     */
+    @Override
+    public boolean isCodomainChainApplied(CodomainChain cc) {
+        return cc == getCodomainChain();
+    }
+
     /**
      * Implemented as specified in {@link QuantumStrategy}.
      * 
@@ -311,8 +366,54 @@ public class Quantization_8_16_bit extends QuantumStrategy {
                 if (x > lutMax) x = lutMax;
             } else x = lutMax;
         }
-        int i = LUT[x - lutMin];
+        int i = getLUT()[x - lutMin];
         return i & 0xFF;
     }
 
+    /**
+     * Overridden to apply the look-up table directly to the 8 and 16-bit
+     * values read from the backing buffer. Values outside of the table are
+     * handled by {@link #quantize(double)}.
+     *
+     * @see QuantumStrategy#quantize(PixelData, int, int, int[])
+     */
+    @Override
+    public void quantize(PixelData data, int offset, int count, int[] dest)
+            throws QuantizationException
+    {
+        byte[] lut = getLUT();
+        int lo = lutMin;
+        int hi = lutMax;
+        boolean signed = data.isSigned();
+        int end = offset + count;
+        int j = 0;
+        int x;
+        switch (data.javaType()) {
+            case PixelData.BYTE:
+                ByteBuffer bytes = getBuffer(data);
+                for (int i = offset; i < end; i++) {
+                    x = signed ? bytes.get(i) : bytes.get(i) & 0xFF;
+                    if (x < lo || x > hi) {
+                        dest[j++] = quantize(x);
+                    } else {
+                        dest[j++] = lut[x - lo] & 0xFF;
+                    }
+                }
+                break;
+            case PixelData.SHORT:
+                ShortBuffer shorts = getBuffer(data).asShortBuffer();
+                for (int i = offset; i < end; i++) {
+                    x = signed ? shorts.get(i) : shorts.get(i) & 0xFFFF;
+                    if (x < lo || x > hi) {
+                        dest[j++] = quantize(x);
+                    } else {
+                        dest[j++] = lut[x - lo] & 0xFF;
+                    }
+                }
+                break;
+            default:
+                super.quantize(data, offset, count, dest);
+        }
+    }
+
 }
@@ -23,15 +23,9 @@
 
 package omeis.providers.re.quantum;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-
 import ome.model.core.Pixels;
 import ome.model.display.QuantumDef;
-
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import omeis.providers.re.codomain.CodomainChain;
 
 /**
  * Quantization process. In charge of building a look-up table for each active
@@ -82,8 +76,12 @@ public class Quantization_float extends QuantumStrategy {
      */
     private int cdStart, cdEnd;
 
-    /** The mapped values.*/
-    private LoadingCache<Double, Integer> values;
+    /**
+     * The mapped value of each bin of the input window, see
+     * {@link QuantumStrategy#getBin(double)}. <code>null</code> until the
+     * first value is mapped or after the window changes.
+     */
+    private volatile BinnedLut lut;
 
     /**
      * Initializes the coefficient of the normalize mapping operation.
@@ -160,7 +158,7 @@ public class Quantization_float extends QuantumStrategy {
     /** The input window size changed, re-map the values. */
     @Override
     protected void onWindowChange() {
-        values.invalidateAll();
+        lut = null;
     }
 
     /**
@@ -173,13 +171,6 @@ public class Quantization_float extends QuantumStrategy {
      */
     public Quantization_float(QuantumDef qd, Pixels pixels) {
         super(qd, pixels);
-        values = CacheBuilder.newBuilder()
-                .expireAfterWrite(10, TimeUnit.MINUTES)
-                .build(new CacheLoader<Double, Integer>() {
-                    public Integer load(Double key) throws Exception {
-                        return _quantize(key);
-                    }
-                });
     }
 
     /**
@@ -220,6 +211,56 @@ public class Quantization_float extends QuantumStrategy {
         return ((byte) v) & 0xFF;
     }
 
+    /**
+     * Maps every bin of the current input window, applying the codomain
+     * transformations if any.
+     *
+     * @return See above.
+     * @throws QuantizationException Thrown if an error occurred during
+     *                               the mapping.
+     */
+    private synchronized BinnedLut buildLut() throws QuantizationException
+    {
+        BinnedLut current = lut;
+        if (current != null && current.isFor(this)) {
+            return current;
+        }
+        // Read the settings before mapping so that a concurrent change of
+        // the codomain chain gets the table rebuilt.
+        current = new BinnedLut(this, new int[getBinCount()]);
+        int[] values = current.values;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = applyCodomainChain(_quantize(getBinValue(i)));
+        }
+        lut = current;
+        return current;
+    }
+
+    /**
+     * Maps the value, applying the codomain transformations if any, without
+     * using the look-up table.
+     *
+     * @param value The value to handle.
+     * @return The mapped value.
+     * @throws QuantizationException Thrown if an error occurred during
+     *                               the mapping.
+     */
+    synchronized int quantizeDirect(double value) throws QuantizationException
+    {
+        return applyCodomainChain(_quantize(getMiddleRange(value)));
+    }
+
+    /**
+     * Overridden to indicate that the codomain chain is folded into the
+     * look-up table.
+     *
+     * @see QuantumStrategy#isCodomainChainApplied(CodomainChain)
+     */
+    @Override
+    public boolean isCodomainChainApplied(CodomainChain cc) {
+        return cc == getCodomainChain();
+    }
+
     /**
      * Implemented as specified in {@link QuantumStrategy}.
      *
@@ -227,11 +268,11 @@ public class Quantization_float extends QuantumStrategy {
      */
     @Override
     public int quantize(double value) throws QuantizationException {
-        try {
-            return values.get(getMiddleRange(value));
-        } catch (ExecutionException e) {
-            throw new QuantizationException(e);
+        BinnedLut current = lut;
+        if (current == null || !current.isFor(this)) {
+            current = buildLut();
         }
+        return current.values[getBin(value)];
     }
 
 }
@@ -7,10 +7,18 @@
 
 package omeis.providers.re.quantum;
 
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
 import ome.model.core.Pixels;
 import ome.model.display.QuantumDef;
 import ome.model.enums.Family;
+import ome.util.PixelData;
 
+import omeis.providers.re.codomain.CodomainChain;
 import omeis.providers.re.data.PlaneFactory;
 import omeis.providers.re.metadata.StatsFactory;
 
@@ -56,6 +64,18 @@ public abstract class QuantumStrategy {
     
     /** The maximum size of the cache.*/
     static final long MAX_SIZE = 1000;
+
+    /** Bin of the values lower than the window start. */
+    private static final int BIN_BELOW = 0;
+
+    /** Bin of the values greater than the window end. */
+    private static final int BIN_ABOVE = 1;
+
+    /** Bin of the window start. */
+    private static final int BIN_START = 2;
+
+    /** Index of the first bin inside the window. */
+    private static final int BIN_FIRST = 3;
     
     /** The minimum value for the pixels type. */
     private double pixelsTypeMin;
@@ -103,6 +123,12 @@ public abstract class QuantumStrategy {
     /** Reference to the value mapper. */
     protected QuantumMap valueMapper;
 
+    /**
+     * The codomain transformations to apply to the quantized values,
+     * <code>null</code> if none.
+     */
+    private CodomainChain codomainChain;
+
     /**
      * Defines the value mapper corresponding to the specified family.
      * 
@@ -245,6 +271,80 @@ public abstract class QuantumStrategy {
         return (min+(v-1)*step+min+v*step)/2;
     }
 
+    /**
+     * Returns the width of the ranges of the input window returned by
+     * {@link #getMiddleRange(double)}.
+     *
+     * @return See above.
+     */
+    private double getRangeStep()
+    {
+        return Math.abs(getWindowEnd() - getWindowStart())
+                / (qDef.getCdEnd() - qDef.getCdStart() + 1);
+    }
+
+    /**
+     * Returns the number of bins of the current input window, see
+     * {@link #getBin(double)}. This is at most the size of the codomain
+     * plus four.
+     *
+     * @return See above.
+     */
+    protected int getBinCount()
+    {
+        double step = getRangeStep();
+        if (!(step > 0)) {
+            return BIN_FIRST;
+        }
+        int n = (int) ((getWindowEnd() - getWindowStart()) / step);
+        return BIN_FIRST + 1 + Math.max(0, n);
+    }
+
+    /**
+     * Returns the index of the bin the passed value belongs to. All the
+     * values of a bin have the same {@link #getMiddleRange(double) middle
+     * range}, returned by {@link #getBinValue(int)}, so a strategy whose
+     * mapping only depends on the middle range can map them with a look-up
+     * table of {@link #getBinCount()} entries.
+     *
+     * @param value The value to handle.
+     * @return See above.
+     */
+    protected int getBin(double value)
+    {
+        double min = getWindowStart();
+        double max = getWindowEnd();
+        if (value < min) return BIN_BELOW;
+        if (value > max) return BIN_ABOVE;
+        if (value == min) return BIN_START;
+        return BIN_FIRST + (int) ((value-min)/getRangeStep());
+    }
+
+    /**
+     * Returns the middle range of the values of the passed bin, i.e. the
+     * value {@link #getMiddleRange(double)} returns for each of them.
+     *
+     * @param bin The index of the bin, see {@link #getBin(double)}.
+     * @return See above.
+     */
+    protected double getBinValue(int bin)
+    {
+        double min = getWindowStart();
+        double max = getWindowEnd();
+        double step = getRangeStep();
+        switch (bin) {
+            case BIN_BELOW:
+                return min;
+            case BIN_ABOVE:
+                return max;
+            case BIN_START:
+                return min+step/2;
+            default:
+                int v = bin - BIN_FIRST;
+                return (min+(v-1)*step+min+v*step)/2;
+        }
+    }
+
     /**
      * Sets the maximum range of the input window.
      * 
@@ -431,6 +531,47 @@ public abstract class QuantumStrategy {
      */
     public double getWindowEnd() { return windowEnd; }
 
+    /**
+     * Sets the codomain transformations to apply to the quantized values.
+     * Strategies holding a look-up table fold the chain into it, so that
+     * {@link #quantize(double)} returns the transformed values, see
+     * {@link #isCodomainChainApplied(CodomainChain)}. The table is rebuilt
+     * when the chain is modified.
+     * 
+     * @param cc The chain or <code>null</code>.
+     */
+    public void setCodomainChain(CodomainChain cc) { codomainChain = cc; }
+
+    /**
+     * Returns the codomain transformations to apply to the quantized values.
+     * 
+     * @return See above.
+     */
+    public CodomainChain getCodomainChain() { return codomainChain; }
+
+    /**
+     * Returns <code>true</code> if the values returned by
+     * {@link #quantize(double)} have already been transformed by the passed
+     * chain, <code>false</code> if the caller has to apply it.
+     * 
+     * @param cc The chain to check.
+     * @return See above.
+     */
+    public boolean isCodomainChainApplied(CodomainChain cc) { return false; }
+
+    /**
+     * Applies the codomain transformations, if any, to a quantized value.
+     * Used by the subclasses when building their look-up table.
+     * 
+     * @param value The quantized value.
+     * @return The transformed value.
+     */
+    protected int applyCodomainChain(int value)
+    {
+        CodomainChain cc = codomainChain;
+        return cc == null ? value : cc.transform(value);
+    }
+
     /**
      * Notifies when the input interval has changed or the mapping strategy has
      * changed.
@@ -451,4 +592,104 @@ public abstract class QuantumStrategy {
      */
     public abstract int quantize(double value) throws QuantizationException;
 
+    /**
+     * Maps <code>count</code> consecutive pixel intensity values, starting at
+     * the pixel <code>offset</code> of the passed data, to values in the
+     * codomain interval. This reads the backing buffer through a view of the
+     * primitive type of the pixels, avoiding the per-pixel type dispatch of
+     * {@link PixelData#getPixelValue(int)}. Subclasses holding a look-up
+     * table should override this method to apply it directly.
+     *
+     * @param data
+     *            The pixel data to read.
+     * @param offset
+     *            The offset of the first pixel (not taking into account the
+     *            number of bytes per pixel).
+     * @param count
+     *            The number of pixels to quantize.
+     * @param dest
+     *            The array to store the quantized values in, from index
+     *            <code>0</code>.
+     * @throws QuantizationException
+     *             If one of the values could not be mapped.
+     */
+    public void quantize(PixelData data, int offset, int count, int[] dest)
+            throws QuantizationException
+    {
+        boolean signed = data.isSigned();
+        int end = offset + count;
+        int j = 0;
+        switch (data.javaType()) {
+            case PixelData.BYTE:
+                ByteBuffer bytes = getBuffer(data);
+                if (signed) {
+                    for (int i = offset; i < end; i++) {
+                        dest[j++] = quantize(bytes.get(i));
+                    }
+                } else {
+                    for (int i = offset; i < end; i++) {
+                        dest[j++] = quantize(bytes.get(i) & 0xFF);
+                    }
+                }
+                break;
+            case PixelData.SHORT:
+                ShortBuffer shorts = getBuffer(data).asShortBuffer();
+                if (signed) {
+                    for (int i = offset; i < end; i++) {
+                        dest[j++] = quantize(shorts.get(i));
+                    }
+                } else {
+                    for (int i = offset; i < end; i++) {
+                        dest[j++] = quantize(shorts.get(i) & 0xFFFF);
+                    }
+                }
+                break;
+            case PixelData.INT:
+                IntBuffer ints = getBuffer(data).asIntBuffer();
+                if (signed) {
+                    for (int i = offset; i < end; i++) {
+                        dest[j++] = quantize(ints.get(i));
+                    }
+                } else {
+                    for (int i = offset; i < end; i++) {
+                        dest[j++] = quantize(ints.get(i) & 0xFFFFFFFFL);
+                    }
+                }
+                break;
+            case PixelData.FLOAT:
+                FloatBuffer floats = getBuffer(data).asFloatBuffer();
+                for (int i = offset; i < end; i++) {
+                    dest[j++] = quantize(floats.get(i));
+                }
+                break;
+            case PixelData.DOUBLE:
+                DoubleBuffer doubles = getBuffer(data).asDoubleBuffer();
+                for (int i = offset; i < end; i++) {
+                    dest[j++] = quantize(doubles.get(i));
+                }
+                break;
+            default:
+                for (int i = offset; i < end; i++) {
+                    dest[j++] = quantize(data.getPixelValue(i));
+                }
+        }
+    }
+
+    /**
+     * Returns a view of the buffer backing the passed pixel data, positioned
+     * at its first byte and with the byte order of the pixel data so that
+     * typed views created from it index pixels from <code>0</code>.
+     *
+     * @param data The pixel data.
+     * @return See above.
+     */
+    protected static ByteBuffer getBuffer(PixelData data)
+    {
+        ByteBuffer buffer = data.getData().duplicate();
+        // duplicate() does not preserve the byte order.
+        buffer.order(data.getOrder());
+        buffer.position(0);
+        return buffer;
+    }
+
 }
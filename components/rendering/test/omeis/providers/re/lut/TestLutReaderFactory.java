@@ -0,0 +1,98 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.lut;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link LutReaderFactory#readCached(File)} shares the parsed
+ * lookup tables and only caches the files it could parse.
+ */
+public class TestLutReaderFactory {
+
+    private File dir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("luts").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        LutReaderFactory.invalidate(dir);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /** Writes a file of the passed length. */
+    private File write(String name, int length) throws IOException {
+        File file = new File(dir, name);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testSecondReadCached() throws Exception {
+        File file = write("raw.lut", 768);
+        LutReader reader = LutReaderFactory.readCached(file);
+        Assert.assertNotNull(reader);
+        Assert.assertTrue(LutReaderFactory.isCached(file));
+        Assert.assertSame(LutReaderFactory.readCached(file), reader);
+    }
+
+    @Test
+    public void testChangedFileReadAgain() throws Exception {
+        File file = write("raw.lut", 768);
+        LutReader reader = LutReaderFactory.readCached(file);
+        file = write("raw.lut", 970);
+        LutReader other = LutReaderFactory.readCached(file);
+        Assert.assertNotNull(other);
+        Assert.assertNotSame(other, reader);
+    }
+
+    @Test
+    public void testMissingFileNotCached() throws Exception {
+        File file = new File(dir, "missing.lut");
+        try {
+            LutReaderFactory.readCached(file);
+            Assert.fail("Missing file read.");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertFalse(LutReaderFactory.isCached(file));
+    }
+
+    @Test
+    public void testUnreadableFileNotCached() throws Exception {
+        File file = write("bad.lut", 500);
+        Assert.assertNull(LutReaderFactory.readCached(file));
+        Assert.assertFalse(LutReaderFactory.isCached(file));
+        // Read again once fixed, even with an unchanged directory
+        file = write("bad.lut", 768);
+        Assert.assertNotNull(LutReaderFactory.readCached(file));
+    }
+}
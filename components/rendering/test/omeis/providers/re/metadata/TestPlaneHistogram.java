@@ -0,0 +1,114 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.metadata;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+import omeis.providers.re.data.Plane2D;
+import omeis.providers.re.data.PlaneDef;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test cases for {@link PlaneHistogram}, checked against a naive
+ * per-pixel computation.
+ */
+@Test
+public class TestPlaneHistogram {
+
+    private static final int SIZE_X = 512;
+
+    private static final int SIZE_Y = 300;
+
+    private static final int BINS = 20;
+
+    private Plane2D createPlane(String type, int bitSize, byte[] bytes) {
+        PixelsType pixelsType = new PixelsType(type);
+        pixelsType.setBitSize(bitSize);
+        Pixels pixels = new Pixels();
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        pixels.setPixelsType(pixelsType);
+        PlaneDef pd = new PlaneDef(PlaneDef.XY, 0);
+        pd.setZ(0);
+        return new Plane2D(pd, pixels,
+                new PixelData(type, ByteBuffer.wrap(bytes)));
+    }
+
+    private int[] naive(Plane2D plane, double min, double max) {
+        int[] totals = new int[BINS];
+        double size = (max - min) / BINS;
+        for (int j = 0; j < SIZE_X * SIZE_Y; j++) {
+            double v = plane.getPixelValue(j);
+            for (int i = 0; i < BINS; i++) {
+                if (v >= min + i * size && v < min + (i + 1) * size) {
+                    totals[i]++;
+                    break;
+                }
+            }
+        }
+        return totals;
+    }
+
+    public void testUint16() {
+        byte[] bytes = new byte[SIZE_X * SIZE_Y * 2];
+        new Random(1).nextBytes(bytes);
+        Plane2D plane = createPlane("uint16", 16, bytes);
+        int[] totals = PlaneHistogram.compute(plane, SIZE_X, SIZE_Y, 0, 65535,
+                BINS);
+        Assert.assertEquals(totals, naive(plane, 0, 65535));
+    }
+
+    public void testInt8SubRange() {
+        byte[] bytes = new byte[SIZE_X * SIZE_Y];
+        new Random(2).nextBytes(bytes);
+        Plane2D plane = createPlane("int8", 8, bytes);
+        int[] totals = PlaneHistogram.compute(plane, SIZE_X, SIZE_Y, -50, 70,
+                BINS);
+        Assert.assertEquals(totals, naive(plane, -50, 70));
+    }
+
+    public void testFloat() {
+        ByteBuffer buf = ByteBuffer.allocate(SIZE_X * SIZE_Y * 4);
+        Random random = new Random(3);
+        for (int i = 0; i < SIZE_X * SIZE_Y; i++) {
+            buf.putFloat((float) random.nextGaussian() * 100);
+        }
+        Plane2D plane = createPlane("float", 32, buf.array());
+        int[] totals = PlaneHistogram.compute(plane, SIZE_X, SIZE_Y, -250, 250,
+                BINS);
+        Assert.assertEquals(totals, naive(plane, -250, 250));
+    }
+
+    public void testEmptyRange() {
+        Plane2D plane = createPlane("uint8", 8, new byte[SIZE_X * SIZE_Y]);
+        int[] totals = PlaneHistogram.compute(plane, SIZE_X, SIZE_Y, 5, 5,
+                BINS);
+        Assert.assertEquals(totals, new int[BINS]);
+    }
+
+    public void testLocationStatsSaturated() {
+        // All the pixels in the first bin: no noise reduction and a window
+        // close to the minimum.
+        byte[] bytes = new byte[SIZE_X * SIZE_Y * 2];
+        Plane2D plane = createPlane("uint16", 16, bytes);
+        StatsFactory sf = new StatsFactory();
+        sf.computeLocationStats(plane, SIZE_X, SIZE_Y, 0, 65535);
+        Assert.assertFalse(sf.isNoiseReduction());
+        Assert.assertEquals(sf.getLocationStats()[0], 1.0, 1e-9);
+        Assert.assertTrue(sf.getInputEnd() < 65535);
+    }
+}
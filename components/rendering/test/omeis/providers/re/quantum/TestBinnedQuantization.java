@@ -0,0 +1,117 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.quantum;
+
+import java.util.Random;
+
+import ome.model.core.Pixels;
+import ome.model.display.QuantumDef;
+import ome.model.enums.Family;
+import ome.model.enums.PixelsType;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the binned look-up tables of {@link Quantization_float} and
+ * {@link Quantization_32_bit} map values like the direct evaluation of the
+ * quantum maps, i.e. that the error stays below one output level, for all
+ * the families, with and without noise reduction.
+ */
+@Test
+public class TestBinnedQuantization {
+
+    private static final String[] FAMILIES = {QuantumFactory.LINEAR,
+        QuantumFactory.POLYNOMIAL, QuantumFactory.LOGARITHMIC,
+        QuantumFactory.EXPONENTIAL};
+
+    private QuantumDef createQuantumDef(int cdStart, int cdEnd) {
+        QuantumDef qd = new QuantumDef();
+        qd.setCdStart(cdStart);
+        qd.setCdEnd(cdEnd);
+        qd.setBitResolution(QuantumFactory.DEPTH_8BIT);
+        return qd;
+    }
+
+    private Pixels createPixels(String type, int bitSize) {
+        PixelsType pixelsType = new PixelsType(type);
+        pixelsType.setBitSize(bitSize);
+        Pixels pixels = new Pixels();
+        pixels.setPixelsType(pixelsType);
+        return pixels;
+    }
+
+    /**
+     * Compares the table and the direct evaluation over values spread over
+     * and around the window, including its bounds.
+     */
+    private void assertSameMapping(QuantumStrategy qs, double start,
+            double end, Random random) throws Exception {
+        int maxError = 0;
+        double range = end - start;
+        for (int i = 0; i < 20000; i++) {
+            double value = start - range / 10
+                    + random.nextDouble() * range * 1.2;
+            int direct = directQuantize(qs, value);
+            maxError = Math.max(maxError, Math.abs(qs.quantize(value) - direct));
+        }
+        for (double value : new double[] {start, end, start - 1, end + 1}) {
+            int direct = directQuantize(qs, value);
+            maxError = Math.max(maxError, Math.abs(qs.quantize(value) - direct));
+        }
+        Assert.assertTrue(maxError < 1, "Maximum error: " + maxError);
+    }
+
+    private int directQuantize(QuantumStrategy qs, double value)
+            throws Exception {
+        if (qs instanceof Quantization_float) {
+            return ((Quantization_float) qs).quantizeDirect(value);
+        }
+        return ((Quantization_32_bit) qs).quantizeDirect(value);
+    }
+
+    private void checkStrategy(String type, int bitSize, double gMin,
+            double gMax, int cdStart, int cdEnd) throws Exception {
+        Random random = new Random(bitSize);
+        for (String value : FAMILIES) {
+            for (boolean noiseReduction : new boolean[] {false, true}) {
+                QuantumDef qd = createQuantumDef(cdStart, cdEnd);
+                Pixels pixels = createPixels(type, bitSize);
+                QuantumStrategy qs = "float".equals(type)
+                        ? new Quantization_float(qd, pixels)
+                        : new Quantization_32_bit(qd, pixels);
+                qs.setExtent(gMin, gMax);
+                double k = QuantumFactory.LINEAR.equals(value) ? 1 : 1.8;
+                qs.setQuantizationMap(new Family(value), k, noiseReduction);
+                qs.setWindow(gMin, gMax);
+                assertSameMapping(qs, gMin, gMax, random);
+                // Narrower window: the table must be rebuilt.
+                double start = gMin + (gMax - gMin) / 5;
+                double end = gMax - (gMax - gMin) / 3;
+                qs.setWindow(start, end);
+                assertSameMapping(qs, start, end, random);
+            }
+        }
+    }
+
+    public void testFloat() throws Exception {
+        checkStrategy("float", 32, -1000.5, 25000.25, 0, 255);
+    }
+
+    public void testFloatSmallCodomain() throws Exception {
+        checkStrategy("float", 32, 0, 1, 10, 200);
+    }
+
+    public void testInt32() throws Exception {
+        checkStrategy("int32", 32, -100000, 3000000, 0, 255);
+    }
+
+    public void testUint32() throws Exception {
+        checkStrategy("uint32", 32, 0, 4000000000.0, 0, 255);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.bioformats.perf;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.FormatException;
+import loci.formats.codec.CodecOptions;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+import ome.io.bioformats.PyramidCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the {@link PyramidCodec}s on pyramid tiles: the time to encode a
+ * tile, as done once when the pyramid is created, and the time to decode
+ * it, as done on every tile request served from the pyramid. The size of
+ * the encoded tile and its ratio to the raw tile are logged for each
+ * combination when the trial starts, e.g. <code>ant perf
+ * -DBENCH=PyramidCodecBenchmark</code>.
+ * <p>
+ * Tiles are smooth gradients with noise, closer to microscopy planes than
+ * pure noise; 16-bit tiles use 12 bits as most cameras do.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PyramidCodecBenchmark {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(PyramidCodecBenchmark.class);
+
+    /** The codec, a {@link PyramidCodec} name. */
+    @Param({"JPEG_2000", "ZLIB", "LZW", "UNCOMPRESSED"})
+    public String codec;
+
+    /** The pixels type of the tile. */
+    @Param({"uint8", "uint16"})
+    public String pixelsType;
+
+    /** The width and height of the tile. */
+    @Param({"256", "512"})
+    public int size;
+
+    private TiffCompression compression;
+
+    private CodecOptions encodeOptions;
+
+    private CodecOptions decodeOptions;
+
+    private byte[] tile;
+
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setup() throws FormatException {
+        compression = PyramidCodec.valueOf(codec).getCompression();
+        int bytesPerPixel = "uint16".equals(pixelsType)? 2 : 1;
+        int max = bytesPerPixel == 2? 4095 : 255;
+        Random random = new Random(42);
+        ByteBuffer buf = ByteBuffer.allocate(size * size * bytesPerPixel);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = (x + y) * max / (2 * size);
+                v = Math.min(max, v + random.nextInt(max / 16 + 1));
+                if (bytesPerPixel == 2) {
+                    buf.putShort((short) v);
+                } else {
+                    buf.put((byte) v);
+                }
+            }
+        }
+        tile = buf.array();
+
+        // As written by the pyramid writer, see TiffSaver.
+        IFD ifd = new IFD();
+        ifd.put(IFD.IMAGE_WIDTH, size);
+        ifd.put(IFD.IMAGE_LENGTH, size);
+        ifd.put(IFD.BITS_PER_SAMPLE, new int[] { bytesPerPixel * 8 });
+        ifd.put(IFD.SAMPLES_PER_PIXEL, 1);
+        ifd.put(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+        ifd.put(IFD.COMPRESSION, compression.getCode());
+        encodeOptions = compression.getCompressionCodecOptions(ifd);
+
+        // As read by the pyramid reader, see TiffParser.
+        decodeOptions = new CodecOptions();
+        decodeOptions.width = size;
+        decodeOptions.height = size;
+        decodeOptions.bitsPerSample = bytesPerPixel * 8;
+        decodeOptions.channels = 1;
+        decodeOptions.littleEndian = false;
+        decodeOptions.interleaved = true;
+        decodeOptions.maxBytes = tile.length;
+
+        encoded = encode();
+        log.info(String.format("%s %s %dx%d: %d bytes, %.1f%% of raw",
+                codec, pixelsType, size, size, encoded.length,
+                100.0 * encoded.length / tile.length));
+    }
+
+    @Benchmark
+    public byte[] encode() throws FormatException {
+        return compression.compress(tile, encodeOptions);
+    }
+
+    @Benchmark
+    public byte[] decode() throws FormatException {
+        return compression.decompress(encoded, decodeOptions);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio.perf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ome.io.nio.ReadBufferPool;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the arrays allocated to serve the tiles of a plane, as
+ * <code>RawPixelsBean.getTile</code> does, when walking a
+ * <code>uint16</code> plane whose last column and row of tiles are
+ * narrower. <code>session</code> reuses one array per session, reallocated
+ * whenever the size of the tile changes; <code>pool</code> borrows from a
+ * {@link ReadBufferPool} and releases once the tile is sent. Allocation
+ * rates are shown by the GC profiler, e.g. <code>ant perf
+ * -DBENCH=ReadBufferBenchmark -Djmh.args="-prof gc"</code>.
+ *
+ * @since 5.3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBufferBenchmark {
+
+    /** How the arrays are obtained: <code>session</code> or
+     * <code>pool</code>. */
+    @Param({"session", "pool"})
+    public String buffers;
+
+    /** The width and height of the plane. */
+    @Param({"1000", "2500"})
+    public int size;
+
+    /** The width and height of the tiles. */
+    @Param({"256"})
+    public int tileSize;
+
+    private File file;
+
+    private RomioPixelBuffer pixelBuffer;
+
+    private ReadBufferPool pool;
+
+    private byte[] readBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("readbuffer", ".pixels");
+        byte[] plane = new byte[size * size * 2];
+        new Random(42).nextBytes(plane);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(plane);
+        } finally {
+            out.close();
+        }
+
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(size);
+        pixels.setSizeY(size);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        pixels.setPixelsType(type);
+        pixelBuffer = new RomioPixelBuffer(file.getAbsolutePath(), pixels);
+        pool = new ReadBufferPool("pool".equals(buffers)? 64 << 20 : 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pixelBuffer.close();
+        file.delete();
+    }
+
+    private byte[] borrow(int length) {
+        if (pool.isEnabled()) {
+            return pool.borrow(length);
+        }
+        if (readBuffer == null || readBuffer.length != length) {
+            readBuffer = new byte[length];
+        }
+        return readBuffer;
+    }
+
+    /**
+     * Reads every tile of the plane, row by row.
+     *
+     * @return The sum of the first byte of the tiles.
+     */
+    @Benchmark
+    public long walkPlane() throws IOException {
+        long sum = 0;
+        for (int y = 0; y < size; y += tileSize) {
+            int h = Math.min(tileSize, size - y);
+            for (int x = 0; x < size; x += tileSize) {
+                int w = Math.min(tileSize, size - x);
+                byte[] tile = borrow(w * h * 2);
+                pixelBuffer.getTileDirect(0, 0, 0, x, y, w, h, tile);
+                // Marshalled by Ice, then handed back.
+                sum += tile[0];
+                pool.release(tile);
+            }
+        }
+        return sum;
+    }
+}
@@ -14,6 +14,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.util.Collections;
 import java.util.List;
 
 import loci.formats.FormatException;
@@ -51,15 +52,32 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
 
     private final static Logger log = LoggerFactory.getLogger(BfPyramidPixelBuffer.class);
 
-    private BfPixelBuffer delegate;
-
     /** Bio-Formats implementation used to write to the backing TIFF. */
     protected OmeroPixelsPyramidWriter writer;
 
+    /** Pool the readers of the backing TIFF are borrowed from. */
+    private final PyramidReaderPool pool;
+
+    /**
+     * Readers of the backing TIFF, shared with the other instances reading
+     * the same file. <code>null</code> until the first read.
+     */
+    private volatile PyramidReaderPool.Readers readers;
+
     /**
-     * Bio-Formats implementation the delegate uses to read the backing TIFF.
+     * Resolution level of this instance, applied to each reader borrowed.
+     * <code>null</code> for the full resolution.
      */
-    protected OmeroPixelsPyramidReader reader;
+    private volatile Integer resolutionLevel;
+
+    /** Number of resolution levels of the backing TIFF. */
+    private volatile int resolutionLevels;
+
+    /**
+     * Sizes of the resolution levels of the backing TIFF, from the full
+     * resolution down.
+     */
+    private volatile List<List<Integer>> resolutionDescriptions;
 
     /**
      * File's who absolute path will be passed to
@@ -90,6 +108,16 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /** Metadata implementation used when writing. */
     private IMetadata metadata;
 
+    /** The codec the tiles are written with. */
+    private PyramidCodec codec = PyramidCodec.JPEG_2000;
+
+    /**
+     * The lower resolution levels computed while writing and handed to the
+     * writer. <code>null</code> for JPEG-2000 pyramids written without them,
+     * whose lower levels are decoded back when the writer is closed.
+     */
+    private PyramidLevels levels;
+
     // LOCKING. See ticket #5083
 
     /**
@@ -157,13 +185,41 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         this(sizes, pixels, filePath, write, true); // init!
     }
 
+    /**
+     * Constructor borrowing the readers of the backing TIFF from a pool
+     * shared with the other instances reading the same pyramid, so that
+     * concurrent reads are not serialized on a single reader.
+     *
+     * @param pixels
+     * @param filePath
+     * @param write
+     * @param pool The pool to borrow the readers from.
+     * @throws IOException
+     * @throws FormatException
+     */
+    public BfPyramidPixelBuffer(Pixels pixels, String filePath, boolean write,
+            PyramidReaderPool pool)
+            throws IOException, FormatException
+    {
+        this(new ConfiguredTileSizes(), pixels, filePath, write, true, pool);
+    }
+
     protected BfPyramidPixelBuffer(TileSizes sizes, Pixels pixels, String filePath,
             boolean write, boolean init)
             throws IOException, FormatException
+    {
+        this(sizes, pixels, filePath, write, init, null);
+    }
+
+    protected BfPyramidPixelBuffer(TileSizes sizes, Pixels pixels, String filePath,
+            boolean write, boolean init, PyramidReaderPool pool)
+            throws IOException, FormatException
     {
         this.sizes = sizes;
         this.readerFile = new File(filePath);
         this.pixels = pixels;
+        // Without a shared pool, a single reader of our own as before.
+        this.pool = pool == null? new PyramidReaderPool(1) : pool;
         if (init) {
             init(filePath, write);
         }
@@ -204,10 +260,24 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             // note: we double checked readerFile exists just in case.
             lockFile.delete();
         }
-        reader = new OmeroPixelsPyramidReader();
-        delegate = new BfPixelBuffer(readerFile.getAbsolutePath(), reader);
-        byteOrder = delegate.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
-                : ByteOrder.BIG_ENDIAN;
+        PyramidReaderPool.Readers readers =
+            pool.open(readerFile.getAbsolutePath());
+        try {
+            BfPixelBuffer reader = readers.acquire();
+            try {
+                byteOrder = reader.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
+                        : ByteOrder.BIG_ENDIAN;
+                resolutionLevels = reader.getResolutionLevels();
+                resolutionDescriptions = Collections.unmodifiableList(
+                        reader.getResolutionDescriptions());
+            } finally {
+                readers.release(reader);
+            }
+        } catch (RuntimeException e) {
+            readers.close();
+            throw e;
+        }
+        this.readers = readers;
     }
 
     /**
@@ -245,6 +315,9 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             writer.setWriteSequentially(true);
             writer.setInterleaved(true);
             writer.setBigTiff(bigTiff);
+            writer.setCodec(codec);
+            writer.setTileSize(tileWidth, tileLength);
+            writer.setResolutionSource(levels);
             writer.setId(output);
         }
         catch (Exception e)
@@ -299,8 +372,12 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     private void addSeries(int tileWidth, int tileLength)
         throws EnumerationException
     {
+        int[] seriesLevels = codec.getSeriesLevels();
+        // The full resolution series first.
+        int[] allLevels = new int[seriesLevels.length + 1];
+        System.arraycopy(seriesLevels, 0, allLevels, 1, seriesLevels.length);
         int series = 0;
-        for (int level : new int[] { 0, 5, 4 })
+        for (int level : allLevels)
         {
             long imageWidth = pixels.getSizeX();
             long imageLength = pixels.getSizeY();
@@ -461,7 +538,21 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         return writerFile != null;
     }
 
-    private BfPixelBuffer delegate()
+    /**
+     * Returns the readers of the backing TIFF, closing the writer first if
+     * this instance is still in writing-mode.
+     */
+    private PyramidReaderPool.Readers readers()
+    {
+        PyramidReaderPool.Readers readers = this.readers;
+        if (readers != null)
+        {
+            return readers;
+        }
+        return initializeReaders();
+    }
+
+    private synchronized PyramidReaderPool.Readers initializeReaders()
     {
         if (isWrite())
         {
@@ -476,7 +567,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
                 throw new RuntimeException(e1);
             }
         }
-        else if (delegate == null)
+        else if (readers == null)
         {
             try {
                 initializeReader();
@@ -486,20 +577,101 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
                 throw new RuntimeException(e);
             }
         }
-        return delegate;
+        return readers;
+    }
+
+    /**
+     * Borrows a reader of the backing TIFF set to the resolution level of
+     * this instance. The reader must be handed back to <code>readers</code>.
+     *
+     * @param readers The readers of the backing TIFF.
+     * @return See above.
+     */
+    private BfPixelBuffer acquire(PyramidReaderPool.Readers readers)
+    {
+        return acquire(readers, resolutionLevel);
+    }
+
+    private BfPixelBuffer acquire(PyramidReaderPool.Readers readers,
+            Integer level)
+    {
+        BfPixelBuffer reader = readers.acquire();
+        try {
+            reader.setResolutionLevel(
+                    level == null? resolutionLevels - 1 : level);
+        } catch (RuntimeException e) {
+            readers.release(reader);
+            throw e;
+        }
+        return reader;
+    }
+
+    /**
+     * Borrows a reader of the backing TIFF set to the resolution level of
+     * this instance, hands it to <code>callback</code> and gives it back.
+     *
+     * @param callback The work to do with the reader.
+     * @return The value returned by <code>callback</code>.
+     * @throws E If <code>callback</code> fails.
+     */
+    private <T, E extends Exception> T withReader(
+            ReaderCallback<T, E> callback) throws E
+    {
+        final PyramidReaderPool.Readers readers = readers();
+        final BfPixelBuffer reader = acquire(readers);
+        try {
+            return callback.doWithReader(reader);
+        } finally {
+            readers.release(reader);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.bioformats.BfPixelBuffer#setTile(byte[], java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized void setTile(byte[] buffer, Integer z, Integer c,
+    public void setTile(byte[] buffer, Integer z, Integer c,
             Integer t, Integer x, Integer y, Integer w, Integer h)
         throws IOException, BufferOverflowException
+    {
+        setTile(buffer, z, c, t, x, y, w, h, null);
+    }
+
+    /**
+     * Writes a tile along with its lower resolutions, computed by the caller
+     * with {@link PyramidLevels#downsample} for the
+     * {@link #getSeriesLevels() levels stored as series}. Tiles written
+     * without them have their lower resolutions computed here if the
+     * pyramid stores them.
+     * @param buffer The tile, in the byte order of the pyramid.
+     * @param z Z-section offset.
+     * @param c Channel offset.
+     * @param t Timepoint offset.
+     * @param x X offset of the tile.
+     * @param y Y offset of the tile.
+     * @param w Width of the tile.
+     * @param h Height of the tile.
+     * @param lowerLevels The tile at each level stored as a series, may be
+     * <code>null</code>.
+     * @throws IOException
+     * @throws BufferOverflowException
+     * @since 5.3.0
+     */
+    public synchronized void setTile(byte[] buffer, Integer z, Integer c,
+            Integer t, Integer x, Integer y, Integer w, Integer h,
+            byte[][] lowerLevels)
+        throws IOException, BufferOverflowException
     {
         if (!isWrite())
         {
             throw new ApiUsageException("In read-only mode!");
         }
+        if (writer == null && (lowerLevels != null
+                || codec != PyramidCodec.JPEG_2000))
+        {
+            // First tile, the levels are handed to the writer on creation.
+            levels = new PyramidLevels(pixels, codec.getSeriesLevels(),
+                    w, h, writerFile.getAbsoluteFile().getParentFile());
+        }
         try
         {
             int planeCount = getSizeZ() * getSizeC() * getSizeT();
@@ -520,6 +692,61 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         {
             throw new RuntimeException(e);
         }
+        if (levels != null)
+        {
+            if (lowerLevels == null)
+            {
+                PixelData tile = new PixelData(
+                        pixels.getPixelsType().getValue(),
+                        ByteBuffer.wrap(buffer));
+                tile.setOrder(byteOrder);
+                lowerLevels = PyramidLevels.downsample(tile,
+                        pixels.getPixelsType().getValue(), w, h,
+                        levels.getTileWidth(), levels.getTileHeight(),
+                        codec.getSeriesLevels());
+            }
+            levels.add(z, c, t, x, y, w, h, lowerLevels);
+        }
+    }
+
+    /**
+     * Sets the codec the tiles are written with, {@link PyramidCodec#JPEG_2000}
+     * by default. Must be called before the first tile is written.
+     * @param codec The codec.
+     * @since 5.3.0
+     */
+    public synchronized void setCodec(PyramidCodec codec)
+    {
+        if (!isWrite())
+        {
+            throw new ApiUsageException("In read-only mode!");
+        }
+        if (writer != null)
+        {
+            throw new ApiUsageException("Tiles already written!");
+        }
+        this.codec = codec;
+    }
+
+    /**
+     * Returns the codec the tiles are written with.
+     * @return See above.
+     * @since 5.3.0
+     */
+    public synchronized PyramidCodec getCodec()
+    {
+        return codec;
+    }
+
+    /**
+     * Returns the resolution levels written as series after the full
+     * resolution series, see {@link PyramidCodec#getSeriesLevels()}.
+     * @return See above.
+     * @since 5.3.0
+     */
+    public synchronized int[] getSeriesLevels()
+    {
+        return codec.getSeriesLevels();
     }
 
     /**
@@ -537,8 +764,12 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         {
             try
             {
+                // TiffWriter does not list zlib among its compressions, the
+                // compression tag of each IFD selects the codec.
+                TiffCompression compression = codec == PyramidCodec.ZLIB?
+                        TiffCompression.UNCOMPRESSED : codec.getCompression();
                 initializeWriter(writerFile.getAbsolutePath(),
-                        TiffCompression.JPEG_2000.getCodecName(), true, w, h);
+                        compression.getCodecName(), true, w, h);
             }
             catch (Exception e)
             {
@@ -552,6 +783,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
                         OmeroPixelsPyramidWriter.IMAGE_DESCRIPTION);
             lastIFD.put(IFD.TILE_WIDTH, w);
             lastIFD.put(IFD.TILE_LENGTH, h);
+            lastIFD.put(IFD.COMPRESSION, codec.getCompression().getCode());
             if (log.isDebugEnabled())
             {
                 log.debug(String.format(
@@ -596,7 +828,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      * @throws IOException If there is a problem with the parameters or a
      * problem checking them.
      */
-    private synchronized void checkTileParameters(int x, int y, int w, int h)
+    private void checkTileParameters(int x, int y, int w, int h)
         throws IOException
     {
         // No-op.
@@ -623,21 +855,29 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#calculateMessageDigest()
      */
-    public synchronized byte[] calculateMessageDigest() throws IOException
+    public byte[] calculateMessageDigest() throws IOException
     {
-        return delegate().calculateMessageDigest();
+        return withReader(new ReaderCallback<byte[], IOException>() {
+            public byte[] doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                return reader.calculateMessageDigest();
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#checkBounds(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized void checkBounds(Integer x, Integer y, Integer z,
+    public void checkBounds(final Integer x, final Integer y, Integer z,
             Integer c, Integer t) throws DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        delegate().checkBounds(x, y, z, c, t);
+        final int rasterizedT = getRasterizedT(z, c, t);
+        withReader(new ReaderCallback<Void, RuntimeException>() {
+            public Void doWithReader(BfPixelBuffer reader) {
+                reader.checkBounds(x, y, 0, 0, rasterizedT);
+                return null;
+            }
+        });
     }
 
     /* (non-Javadoc)
@@ -645,28 +885,13 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      */
     public synchronized void close() throws IOException
     {
-        try
+        // Readers still in use by other calls are closed once released.
+        if (readers != null)
         {
-            if (delegate != null)
-            {
-                delegate.close();
-            }
-        }
-        catch (IOException e)
-        {
-            log.error("Failure to close delegate.", e);
-        }
-        delegate = null;
-
-        if (reader != null) {
-            try {
-                reader.close();
-            } catch (Exception e) {
-                log.warn("Failed to close reader", e);
-            } finally {
-                reader = null;
-            }
+            readers.close();
+            readers = null;
         }
+        resolutionLevel = null;
 
         closeWriter();
 
@@ -675,51 +900,65 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getByteWidth()
      */
-    public synchronized int getByteWidth()
+    public int getByteWidth()
     {
-        return delegate().getByteWidth();
+        return withReader(new ReaderCallback<Integer, RuntimeException>() {
+            public Integer doWithReader(BfPixelBuffer reader) {
+                return reader.getByteWidth();
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getCol(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getCol(Integer x, Integer z, Integer c,
-                                         Integer t)
+    public PixelData getCol(final Integer x, Integer z, Integer c,
+                            Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        PixelData data = delegate().getCol(x, z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<PixelData, IOException>() {
+            public PixelData doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                PixelData data = reader.getCol(x, 0, 0, rasterizedT);
+                data.setOrder(byteOrder);
+                return data;
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getColDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getColDirect(Integer x, Integer z, Integer c,
-            Integer t, byte[] buffer)
+    public byte[] getColDirect(final Integer x, Integer z, Integer c,
+            Integer t, final byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        return delegate().getColDirect(x, z, c, t, buffer);
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<byte[], IOException>() {
+            public byte[] doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                return reader.getColDirect(x, 0, 0, rasterizedT, buffer);
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getColSize()
      */
-    public synchronized Integer getColSize()
+    public Integer getColSize()
     {
-        return delegate().getColSize();
+        return withReader(new ReaderCallback<Integer, RuntimeException>() {
+            public Integer doWithReader(BfPixelBuffer reader) {
+                return reader.getColSize();
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getHypercube(java.util.List, java.util.List, java.util.List)
      */
-    public synchronized PixelData getHypercube(List<Integer> offset,
+    public PixelData getHypercube(List<Integer> offset,
             List<Integer> size, List<Integer> step)
         throws IOException, DimensionsOutOfBoundsException
     {
@@ -729,7 +968,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getHypercubeDirect(java.util.List, java.util.List, java.util.List, byte[])
      */
-    public synchronized byte[] getHypercubeDirect(List<Integer> offset,
+    public byte[] getHypercubeDirect(List<Integer> offset,
             List<Integer> size, List<Integer> step, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
@@ -739,7 +978,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getHypercubeSize(java.util.List, java.util.List, java.util.List)
      */
-    public synchronized Long getHypercubeSize(List<Integer> offset,
+    public Long getHypercubeSize(List<Integer> offset,
             List<Integer> size, List<Integer> step)
         throws DimensionsOutOfBoundsException
     {
@@ -749,94 +988,122 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getId()
      */
-    public synchronized long getId()
+    public long getId()
     {
-        return delegate().getId();
+        return withReader(new ReaderCallback<Long, RuntimeException>() {
+            public Long doWithReader(BfPixelBuffer reader) {
+                return reader.getId();
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPath()
      */
-    public synchronized String getPath()
+    public String getPath()
     {
-        return delegate().getPath();
+        return withReader(new ReaderCallback<String, RuntimeException>() {
+            public String doWithReader(BfPixelBuffer reader) {
+                return reader.getPath();
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlane(java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlane(Integer z, Integer c, Integer t)
+    public PixelData getPlane(Integer z, Integer c, Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        PixelData data = delegate().getPlane(z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<PixelData, IOException>() {
+            public PixelData doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                PixelData data = reader.getPlane(0, 0, rasterizedT);
+                data.setOrder(byteOrder);
+                return data;
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getPlaneDirect(Integer z, Integer c, Integer t,
-                                              byte[] buffer)
+    public byte[] getPlaneDirect(Integer z, Integer c, Integer t,
+                                 final byte[] buffer)
             throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        return delegate().getPlaneDirect(z, c, t, buffer);
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<byte[], IOException>() {
+            public byte[] doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                return reader.getPlaneDirect(0, 0, rasterizedT, buffer);
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneOffset(java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized Long getPlaneOffset(Integer z, Integer c, Integer t)
+    public Long getPlaneOffset(Integer z, Integer c, Integer t)
             throws DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        return delegate().getPlaneOffset(z, c, t);
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<Long, RuntimeException>() {
+            public Long doWithReader(BfPixelBuffer reader) {
+                return reader.getPlaneOffset(0, 0, rasterizedT);
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegion(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlaneRegion(Integer x, Integer y,
-            Integer width, Integer height, Integer z, Integer c, Integer t,
-            Integer stride)
+    public PixelData getPlaneRegion(final Integer x, final Integer y,
+            final Integer width, final Integer height, Integer z, Integer c,
+            Integer t, final Integer stride)
             throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        PixelData data =
-            delegate().getPlaneRegion(x, y, width, height, z, c, t, stride);
-        data.setOrder(byteOrder);
-        return data;
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<PixelData, IOException>() {
+            public PixelData doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                PixelData data = reader.getPlaneRegion(x, y, width, height,
+                        0, 0, rasterizedT, stride);
+                data.setOrder(byteOrder);
+                return data;
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegionDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getPlaneRegionDirect(Integer z, Integer c,
-            Integer t, Integer count, Integer offset, byte[] buffer)
+    public byte[] getPlaneRegionDirect(Integer z, Integer c,
+            Integer t, final Integer count, final Integer offset,
+            final byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        return getPlaneRegionDirect(z, c, t, count, offset, buffer);
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<byte[], IOException>() {
+            public byte[] doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                return reader.getPlaneRegionDirect(0, 0, rasterizedT,
+                        count, offset, buffer);
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneSize()
      */
-    public synchronized Long getPlaneSize()
+    public Long getPlaneSize()
     {
-        return delegate().getPlaneSize();
+        return withReader(new ReaderCallback<Long, RuntimeException>() {
+            public Long doWithReader(BfPixelBuffer reader) {
+                return reader.getPlaneSize();
+            }
+        });
     }
 
     /* (non-Javadoc)
@@ -859,50 +1126,62 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRow(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getRow(Integer y, Integer z, Integer c,
-                                         Integer t)
+    public PixelData getRow(final Integer y, Integer z, Integer c,
+                            Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        PixelData data = delegate().getRow(y, z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<PixelData, IOException>() {
+            public PixelData doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                PixelData data = reader.getRow(y, 0, 0, rasterizedT);
+                data.setOrder(byteOrder);
+                return data;
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getRowDirect(Integer y, Integer z, Integer c,
-            Integer t, byte[] buffer)
+    public byte[] getRowDirect(final Integer y, Integer z, Integer c,
+            Integer t, final byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        return delegate().getRowDirect(y, z, c, t, buffer);
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<byte[], IOException>() {
+            public byte[] doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                return reader.getRowDirect(y, 0, 0, rasterizedT, buffer);
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowOffset(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized Long getRowOffset(Integer y, Integer z, Integer c,
-                                          Integer t)
+    public Long getRowOffset(final Integer y, Integer z, Integer c,
+                             Integer t)
             throws DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        return delegate().getRowOffset(y, z, c, t);
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<Long, RuntimeException>() {
+            public Long doWithReader(BfPixelBuffer reader) {
+                return reader.getRowOffset(y, 0, 0, rasterizedT);
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowSize()
      */
-    public synchronized Integer getRowSize()
+    public Integer getRowSize()
     {
-        return delegate().getRowSize();
+        return withReader(new ReaderCallback<Integer, RuntimeException>() {
+            public Integer doWithReader(BfPixelBuffer reader) {
+                return reader.getRowSize();
+            }
+        });
     }
 
     /* (non-Javadoc)
@@ -928,31 +1207,31 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getSizeX()
      */
-    public synchronized int getSizeX()
+    public int getSizeX()
     {
-        if (delegate == null || delegate.reader.get() == null)
+        if (readers == null)
         {
             // The downstream reader has not been initialized, we don't need to
             // delegate and can't even if we wanted to because no data has
             // actually been written yet.
             return pixels.getSizeX();
         }
-        return delegate.getSizeX();
+        return getResolutionSizes().get(0);
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getSizeY()
      */
-    public synchronized int getSizeY()
+    public int getSizeY()
     {
-        if (delegate == null || delegate.reader.get() == null)
+        if (readers == null)
         {
             // The downstream reader has not been initialized, we don't need to
             // delegate and can't even if we wanted to because no data has
             // actually been written yet.
             return pixels.getSizeY();
         }
-        return delegate.getSizeY();
+        return getResolutionSizes().get(1);
     }
 
     /* (non-Javadoc)
@@ -995,44 +1274,57 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getStackSize()
      */
-    public synchronized Long getStackSize()
+    public Long getStackSize()
     {
-        return delegate().getStackSize();
+        return withReader(new ReaderCallback<Long, RuntimeException>() {
+            public Long doWithReader(BfPixelBuffer reader) {
+                return reader.getStackSize();
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTile(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getTile(Integer z, Integer c, Integer t,
-            Integer x, Integer y, Integer w, Integer h) throws IOException
+    public PixelData getTile(Integer z, Integer c, Integer t,
+            final Integer x, final Integer y, final Integer w,
+            final Integer h) throws IOException
     {
         checkTileParameters(x, y, w, h);
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        PixelData data = delegate().getTile(z, c, t, x, y, w, h);
-        data.setOrder(byteOrder);
-        return data;
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<PixelData, IOException>() {
+            public PixelData doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                PixelData data = reader.getTile(0, 0, rasterizedT, x, y, w, h);
+                data.setOrder(byteOrder);
+                return data;
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTileDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getTileDirect(Integer z, Integer c, Integer t,
-            Integer x, Integer y, Integer w, Integer h, byte[] buffer)
+    public byte[] getTileDirect(Integer z, Integer c, Integer t,
+            final Integer x, final Integer y, final Integer w,
+            final Integer h, final byte[] buffer)
         throws IOException
     {
         checkTileParameters(x, y, w, h);
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        return delegate().getTileDirect(z, c, t, x, y, w, h, buffer);
+        final int rasterizedT = getRasterizedT(z, c, t);
+        return withReader(new ReaderCallback<byte[], IOException>() {
+            public byte[] doWithReader(BfPixelBuffer reader)
+                    throws IOException {
+                return reader.getTileDirect(0, 0, rasterizedT, x, y, w, h,
+                        buffer);
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTimepoint(java.lang.Integer)
      */
-    public synchronized PixelData getTimepoint(Integer t) throws IOException,
+    public PixelData getTimepoint(Integer t) throws IOException,
             DimensionsOutOfBoundsException
     {
         throw new UnsupportedOperationException("Not supported.");
@@ -1041,7 +1333,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTimepointDirect(java.lang.Integer, byte[])
      */
-    public synchronized byte[] getTimepointDirect(Integer t, byte[] buffer)
+    public byte[] getTimepointDirect(Integer t, byte[] buffer)
             throws IOException, DimensionsOutOfBoundsException
     {
         throw new UnsupportedOperationException("Not supported.");
@@ -1059,33 +1351,49 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTimepointSize()
      */
-    public synchronized Long getTimepointSize()
+    public Long getTimepointSize()
     {
-        return delegate().getTimepointSize();
+        return withReader(new ReaderCallback<Long, RuntimeException>() {
+            public Long doWithReader(BfPixelBuffer reader) {
+                return reader.getTimepointSize();
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTotalSize()
      */
-    public synchronized Long getTotalSize()
+    public Long getTotalSize()
     {
-        return delegate().getTotalSize();
+        return withReader(new ReaderCallback<Long, RuntimeException>() {
+            public Long doWithReader(BfPixelBuffer reader) {
+                return reader.getTotalSize();
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#isFloat()
      */
-    public synchronized boolean isFloat()
+    public boolean isFloat()
     {
-        return delegate().isFloat();
+        return withReader(new ReaderCallback<Boolean, RuntimeException>() {
+            public Boolean doWithReader(BfPixelBuffer reader) {
+                return reader.isFloat();
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#isSigned()
      */
-    public synchronized boolean isSigned()
+    public boolean isSigned()
     {
-        return delegate().isSigned();
+        return withReader(new ReaderCallback<Boolean, RuntimeException>() {
+            public Boolean doWithReader(BfPixelBuffer reader) {
+                return reader.isSigned();
+            }
+        });
     }
 
     /* (non-Javadoc)
@@ -1186,57 +1494,95 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getResolutionLevel()
      */
-    public synchronized int getResolutionLevel()
+    public int getResolutionLevel()
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        return delegate().getResolutionLevel();
+        readers();
+        Integer level = resolutionLevel;
+        return level == null? resolutionLevels - 1 : level;
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getResolutionLevels()
      */
-    public synchronized int getResolutionLevels()
+    public int getResolutionLevels()
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        return delegate().getResolutionLevels();
+        readers();
+        return resolutionLevels;
     }
 
-    public synchronized List<List<Integer>> getResolutionDescriptions()
+    public List<List<Integer>> getResolutionDescriptions()
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        return delegate().getResolutionDescriptions();
+        readers();
+        return resolutionDescriptions;
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTileSize()
      */
-    public synchronized Dimension getTileSize()
+    public Dimension getTileSize()
     {
         if (isWrite())
         {
             return new Dimension(sizes.getTileWidth(), sizes.getTileHeight());
         }
-        return delegate().getTileSize();
+        return withReader(new ReaderCallback<Dimension, RuntimeException>() {
+            public Dimension doWithReader(BfPixelBuffer reader) {
+                return reader.getTileSize();
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#setResolutionLevel(int)
      */
-    public synchronized void setResolutionLevel(int resolutionLevel)
+    public void setResolutionLevel(int resolutionLevel)
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        delegate().setResolutionLevel(resolutionLevel);
+        // Let the reader validate the level before keeping it.
+        final PyramidReaderPool.Readers readers = readers();
+        readers.release(acquire(readers, resolutionLevel));
+        this.resolutionLevel = resolutionLevel;
+    }
+
+    /**
+     * Returns the size of the current resolution level.
+     * @return The width and height of the level.
+     */
+    private List<Integer> getResolutionSizes()
+    {
+        Integer level = resolutionLevel;
+        if (level == null)
+        {
+            return resolutionDescriptions.get(0);
+        }
+        // The highest resolution level (100%) is actually the first series
+        return resolutionDescriptions.get(
+                Math.abs(level - (resolutionLevels - 1)));
+    }
+
+    /**
+     * Work done with a reader borrowed by {@link #withReader(ReaderCallback)}.
+     *
+     * @param <T> The type of the value returned.
+     * @param <E> The type of the exception thrown, if checked.
+     */
+    private interface ReaderCallback<T, E extends Exception>
+    {
+        T doWithReader(BfPixelBuffer reader) throws E;
     }
 }
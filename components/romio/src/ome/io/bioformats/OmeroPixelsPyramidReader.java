@@ -6,18 +6,34 @@
 package ome.io.bioformats;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import loci.common.RandomAccessInputStream;
+import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
+import loci.formats.FormatTools;
 import loci.formats.in.MinimalTiffReader;
 import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.TiffCompression;
 import loci.formats.tiff.TiffParser;
 
 /**
  * File format reader for OMERO pixels pyramid files.
+ * <p>
+ * The resolution levels of JPEG-2000 pyramids are decoded from the
+ * codestream of the full resolution tiles. Pyramids written with another
+ * {@link PyramidCodec} store each lower resolution level as a series, which
+ * this reader exposes as the resolution levels of the full resolution one.
+ * </p>
  * 
  * @author Chris Allan, callan at blackcat dot ca
  * @since Beta4.3
@@ -28,6 +44,12 @@ public class OmeroPixelsPyramidReader extends MinimalTiffReader {
     private final static Logger log =
         LoggerFactory.getLogger(OmeroPixelsPyramidReader.class);
 
+    /**
+     * The IFDs of the lower resolution levels, from the largest down, of
+     * pyramids not written with JPEG-2000. <code>null</code> otherwise.
+     */
+    private List<IFDList> resolutionIFDs;
+
    /* (non-Javadoc)
     * @see loci.formats.FormatReader#isThisType(java.lang.String, boolean)
     */
@@ -98,6 +120,104 @@ public class OmeroPixelsPyramidReader extends MinimalTiffReader {
         super.close();
     }
 
+    /* (non-Javadoc)
+     * @see loci.formats.FormatReader#close(boolean)
+     */
+    @Override
+    public void close(boolean fileOnly) throws IOException
+    {
+        super.close(fileOnly);
+        if (!fileOnly)
+        {
+            resolutionIFDs = null;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see loci.formats.in.MinimalTiffReader#initFile(java.lang.String)
+     */
+    @Override
+    protected void initFile(String id) throws FormatException, IOException
+    {
+        super.initFile(id);
+        IFDList all = tiffParser.getIFDs();
+        if (all.isEmpty()
+            || all.get(0).getCompression() == TiffCompression.JPEG_2000)
+        {
+            return;
+        }
+        // Split the full resolution IFDs from those of each lower series.
+        IFDList main = new IFDList();
+        Map<Object, IFDList> series = new LinkedHashMap<Object, IFDList>();
+        for (IFD ifd : all)
+        {
+            Object tag = ifd.get(OmeroPixelsPyramidWriter.IFD_TAG_SERIES);
+            if (tag == null)
+            {
+                main.add(ifd);
+                continue;
+            }
+            IFDList list = series.get(tag);
+            if (list == null)
+            {
+                list = new IFDList();
+                series.put(tag, list);
+            }
+            list.add(ifd);
+        }
+        if (series.isEmpty())
+        {
+            return;
+        }
+        resolutionIFDs = new ArrayList<IFDList>(series.values());
+        Collections.sort(resolutionIFDs, new Comparator<IFDList>() {
+            public int compare(IFDList a, IFDList b)
+            {
+                try
+                {
+                    return Long.compare(b.get(0).getImageWidth(),
+                            a.get(0).getImageWidth());
+                }
+                catch (FormatException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        ifds = main;
+        CoreMetadata full = core.get(0);
+        // Pyramids store each plane as a timepoint, see BfPyramidPixelBuffer.
+        full.imageCount = main.size();
+        full.sizeT = main.size();
+        full.resolutionCount = resolutionIFDs.size() + 1;
+        for (IFDList list : resolutionIFDs)
+        {
+            CoreMetadata level = new CoreMetadata(full);
+            level.sizeX = (int) list.get(0).getImageWidth();
+            level.sizeY = (int) list.get(0).getImageLength();
+            level.resolutionCount = 1;
+            core.add(level);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see loci.formats.in.MinimalTiffReader#openBytes(int, byte[], int, int, int, int)
+     */
+    @Override
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+        throws FormatException, IOException
+    {
+        int resolution = getCoreIndex();
+        if (resolutionIFDs == null || resolution == 0)
+        {
+            return super.openBytes(no, buf, x, y, w, h);
+        }
+        FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
+        IFD ifd = resolutionIFDs.get(resolution - 1).get(no);
+        tiffParser.getSamples(ifd, buf, x, y, w, h);
+        return buf;
+    }
+
     @Override
     protected void setResolutionLevel(IFD ifd)
     {
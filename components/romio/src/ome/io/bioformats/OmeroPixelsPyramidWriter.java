@@ -7,6 +7,7 @@
 
 package ome.io.bioformats;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 import org.slf4j.Logger;
@@ -38,6 +39,55 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
     /** TIFF tag we're using to store the Bio-Formats plane number. */
     public static final int IFD_TAG_PLANE_NUMBER = 65001;
 
+    /**
+     * Planes of the lower resolution series computed while the full
+     * resolution tiles were written, or <code>null</code> to decode them
+     * back from the full resolution series during post processing.
+     */
+    private ResolutionSource resolutionSource;
+
+    /** The codec of the tiles, which decides how lower series are written. */
+    private PyramidCodec codec = PyramidCodec.JPEG_2000;
+
+    /** The width of the tiles of the lower series, if tiled. */
+    private int tileWidth;
+
+    /** The length of the tiles of the lower series, if tiled. */
+    private int tileLength;
+
+    /**
+     * Sets the codec of the tiles. Pyramids not written with
+     * {@link PyramidCodec#JPEG_2000} require a {@link ResolutionSource}.
+     * @param codec The codec.
+     */
+    public void setCodec(PyramidCodec codec)
+    {
+        this.codec = codec;
+    }
+
+    /**
+     * Sets the size of the tiles of the lower series of pyramids not written
+     * with {@link PyramidCodec#JPEG_2000}, usually that of the full
+     * resolution tiles.
+     * @param tileWidth The tile width.
+     * @param tileLength The tile length.
+     */
+    public void setTileSize(int tileWidth, int tileLength)
+    {
+        this.tileWidth = tileWidth;
+        this.tileLength = tileLength;
+    }
+
+    /**
+     * Sets the planes of the lower resolution series. The source is closed
+     * when this writer is closed.
+     * @param resolutionSource The source of the planes.
+     */
+    public void setResolutionSource(ResolutionSource resolutionSource)
+    {
+        this.resolutionSource = resolutionSource;
+    }
+
     /* (non-Javadoc)
      * @see loci.formats.out.TiffWriter#close()
      */
@@ -58,7 +108,17 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
             throw new IOException(m);
         } finally
         {
-            super.close();
+            try
+            {
+                if (resolutionSource != null)
+                {
+                    resolutionSource.close();
+                    resolutionSource = null;
+                }
+            } finally
+            {
+                super.close();
+            }
         }
     }
 
@@ -79,6 +139,20 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
      */
     protected void postProcess() throws IOException, FormatException
     {
+        if (codec != PyramidCodec.JPEG_2000)
+        {
+            if (resolutionSource == null)
+            {
+                throw new FormatException(
+                        "No lower resolution levels for " + codec);
+            }
+            int seriesCount = getMetadataRetrieve().getImageCount();
+            for (int series = 1; series < seriesCount; series++)
+            {
+                writeTiledSeries(series);
+            }
+            return;
+        }
         TiffReader reader = new TiffReader();
         try
         {
@@ -109,14 +183,22 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
         int sourceSeries = source.getSeriesCount() - series;
         source.setSeries(sourceSeries);
         int imageCount = source.getImageCount();
+        int sizeY = source.getSizeY();
+        int sizeX = source.getSizeX();
         setSeries(series);
+        if (resolutionSource != null)
+        {
+            sizeX = getMetadataRetrieve().getPixelsSizeX(series).getValue();
+            sizeY = getMetadataRetrieve().getPixelsSizeY(series).getValue();
+        }
         for (int i = 0; i < imageCount; i++)
         {
-            byte[] plane = source.openBytes(i);
+            byte[] plane = resolutionSource == null? source.openBytes(i)
+                    : resolutionSource.getTile(series, i, 0, 0, sizeX, sizeY);
             IFD ifd = new IFD();
             // Ensure that we're compressing all rows of the image in a single
             // JPEG 2000 block.
-            ifd.put(IFD.ROWS_PER_STRIP, new long[] { source.getSizeY() });
+            ifd.put(IFD.ROWS_PER_STRIP, new long[] { sizeY });
             // Set the TIFF image description so that we are able to
             // differentiate ourselves from basic TIFFs.
             ifd.put(IFD.IMAGE_DESCRIPTION, IMAGE_DESCRIPTION);
@@ -127,4 +209,67 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
             saveBytes(i, plane, ifd);
         }
     }
+
+    /**
+     * Writes a lower resolution series from the {@link ResolutionSource} in
+     * tiles compressed with the codec of the full resolution series. Unlike
+     * the series of JPEG-2000 pyramids, which are only used for the smallest
+     * levels, these are read a tile at a time.
+     * @param series The series to write.
+     * @throws FormatException
+     * @throws IOException
+     */
+    protected void writeTiledSeries(int series)
+        throws FormatException, IOException
+    {
+        int sizeX = getMetadataRetrieve().getPixelsSizeX(series).getValue();
+        int sizeY = getMetadataRetrieve().getPixelsSizeY(series).getValue();
+        int imageCount =
+                getMetadataRetrieve().getPixelsSizeT(series).getValue();
+        int w = Math.min(tileWidth, sizeX);
+        int h = Math.min(tileLength, sizeY);
+        setSeries(series);
+        for (int i = 0; i < imageCount; i++)
+        {
+            IFD ifd = new IFD();
+            ifd.put(IFD.TILE_WIDTH, w);
+            ifd.put(IFD.TILE_LENGTH, h);
+            ifd.put(IFD.COMPRESSION, codec.getCompression().getCode());
+            ifd.put(IFD.IMAGE_DESCRIPTION, IMAGE_DESCRIPTION);
+            ifd.put(IFD_TAG_SERIES, series);
+            ifd.put(IFD_TAG_PLANE_NUMBER, i);
+            for (int y = 0; y < sizeY; y += h)
+            {
+                for (int x = 0; x < sizeX; x += w)
+                {
+                    int tileW = Math.min(w, sizeX - x);
+                    int tileH = Math.min(h, sizeY - y);
+                    saveBytes(i, resolutionSource.getTile(
+                            series, i, x, y, tileW, tileH),
+                            ifd, x, y, tileW, tileH);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tiles of the lower resolution series of a pyramid.
+     */
+    public interface ResolutionSource extends Closeable
+    {
+        /**
+         * Returns a tile of a lower resolution series.
+         * @param series <code>1</code> for the smallest resolution level,
+         * <code>2</code> for the next one and so on.
+         * @param no The plane number.
+         * @param x The X offset of the tile.
+         * @param y The Y offset of the tile.
+         * @param w The width of the tile.
+         * @param h The height of the tile.
+         * @return The tile, in the byte order of the pyramid.
+         * @throws IOException If the tile cannot be read.
+         */
+        byte[] getTile(int series, int no, int x, int y, int w, int h)
+            throws IOException;
+    }
 }
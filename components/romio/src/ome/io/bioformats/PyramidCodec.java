@@ -0,0 +1,128 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.bioformats;
+
+import loci.formats.tiff.TiffCompression;
+
+/**
+ * The compressions the tiles of pixels pyramids may be written with.
+ * JPEG-2000 gives the smallest pyramids and, from its codestream, all the
+ * resolution levels of a tile; the other codecs are much cheaper to decode
+ * but store their lower resolution levels as additional series.
+ * <p>
+ * Readers do not need to be told which codec a pyramid was written with:
+ * the compression is recorded in each IFD of the pyramid.
+ * </p>
+ *
+ * @since 5.3.0
+ * @see BfPyramidPixelBuffer#setCodec(PyramidCodec)
+ */
+public enum PyramidCodec {
+
+    /** JPEG-2000, lossless. The codec of all pyramids before 5.3.0. */
+    JPEG_2000("jpeg2000", TiffCompression.JPEG_2000),
+
+    /** zlib (deflate). */
+    ZLIB("zlib", TiffCompression.DEFLATE),
+
+    /** LZW. */
+    LZW("lzw", TiffCompression.LZW),
+
+    /** No compression. */
+    UNCOMPRESSED("uncompressed", TiffCompression.UNCOMPRESSED);
+
+    /** The setting selecting a codec per pixels type. */
+    public static final String AUTO = "auto";
+
+    /** The resolution levels stored as series by JPEG-2000 pyramids. */
+    private static final int[] JPEG_2000_LEVELS = new int[] { 5, 4 };
+
+    /** The resolution levels stored as series by the other pyramids. */
+    private static final int[] SERIES_LEVELS = new int[] { 5, 4, 3, 2, 1 };
+
+    private final String setting;
+
+    private final TiffCompression compression;
+
+    private PyramidCodec(String setting, TiffCompression compression) {
+        this.setting = setting;
+        this.compression = compression;
+    }
+
+    /**
+     * Returns the value of <code>omero.pixeldata.pyramid_codec</code>
+     * selecting this codec.
+     * @return See above.
+     */
+    public String getSetting() {
+        return setting;
+    }
+
+    /**
+     * Returns the TIFF compression of the tiles.
+     * @return See above.
+     */
+    public TiffCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Returns the resolution levels stored as series after the full
+     * resolution series, smallest first. Level <code>n</code> is the full
+     * resolution scaled down by <code>2^n</code>. The levels not listed are
+     * decoded from the JPEG-2000 codestream of the full resolution tiles.
+     * @return See above.
+     */
+    public int[] getSeriesLevels() {
+        return (this == JPEG_2000? JPEG_2000_LEVELS : SERIES_LEVELS).clone();
+    }
+
+    /**
+     * Returns the codec used for pixels of the given type by the
+     * {@link #AUTO} setting: JPEG-2000 for 16-bit pixels, where its
+     * compression ratio pays for the decoding, and for bit pixels;
+     * zlib otherwise.
+     * @param pixelsType The pixels type, e.g. <code>uint16</code>.
+     * @return See above.
+     */
+    public static PyramidCodec forPixelsType(String pixelsType) {
+        if ("uint16".equals(pixelsType) || "int16".equals(pixelsType)
+                || "bit".equals(pixelsType)) {
+            return JPEG_2000;
+        }
+        return ZLIB;
+    }
+
+    /**
+     * Returns the codec selected by a value of
+     * <code>omero.pixeldata.pyramid_codec</code> for pixels of the given
+     * type. Bit pixels are always written with JPEG-2000 since their lower
+     * resolution levels are not computed while writing.
+     * @param setting The value of the setting, {@link #AUTO} or the setting
+     * of a codec. <code>null</code> or empty means {@link #JPEG_2000}.
+     * @param pixelsType The pixels type, e.g. <code>uint16</code>.
+     * @return See above.
+     * @throws IllegalArgumentException If the setting names no codec.
+     */
+    public static PyramidCodec fromSetting(String setting, String pixelsType) {
+        if (setting == null || setting.trim().length() == 0
+                || "bit".equals(pixelsType)) {
+            return JPEG_2000;
+        }
+        setting = setting.trim().toLowerCase();
+        if (AUTO.equals(setting)) {
+            return forPixelsType(pixelsType);
+        }
+        for (PyramidCodec codec : values()) {
+            if (codec.setting.equals(setting)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown pyramid codec: " + setting);
+    }
+}
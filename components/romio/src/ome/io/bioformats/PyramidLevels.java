@@ -0,0 +1,374 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.bioformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ome.model.core.Pixels;
+import ome.util.PixelData;
+
+/**
+ * The lower resolution levels of a pyramid being written, computed from the
+ * full resolution tiles as they are written and kept in a temporary file
+ * next to the pyramid until {@link OmeroPixelsPyramidWriter} writes them out
+ * as series when the pyramid is closed.
+ * <p>
+ * The lower resolutions of a tile are computed by {@link #downsample}, which
+ * callers may run concurrently ahead of the writing, and added in the order
+ * the tiles are written. The rows of tiles of each level are assembled in
+ * memory and written to the file one row of tiles at a time.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class PyramidLevels implements OmeroPixelsPyramidWriter.ResolutionSource {
+
+    /** The levels stored, in the order of their series. */
+    private final int[] levels;
+
+    private final int sizeC;
+
+    private final int sizeZ;
+
+    private final int tileWidth;
+
+    private final int tileHeight;
+
+    private final int bytesPerPixel;
+
+    /** The width of each level. */
+    private final int[] widths;
+
+    /** The size in bytes of a plane of each level. */
+    private final long[] planeSizes;
+
+    /** The offset in the file of the planes of each level. */
+    private final long[] offsets;
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final FileChannel channel;
+
+    /** The rows of tiles being assembled, one per level. */
+    private final byte[][] bands;
+
+    /** The height of each row of tiles being assembled. */
+    private final int[] bandHeights;
+
+    /** The plane number of {@link #bands}, <code>-1</code> if none. */
+    private long bandPlane = -1;
+
+    /** The full resolution offset of {@link #bands}. */
+    private int bandY;
+
+    /**
+     * Creates a new instance with a temporary file in the given directory.
+     * @param pixels The pixels set of the pyramid.
+     * @param levels The levels stored, in the order of their series, see
+     * {@link PyramidCodec#getSeriesLevels()}.
+     * @param tileWidth The width of the full resolution tiles.
+     * @param tileHeight The height of the full resolution tiles.
+     * @param directory The directory of the pyramid.
+     * @throws IOException If the temporary file cannot be created.
+     */
+    public PyramidLevels(Pixels pixels, int[] levels, int tileWidth,
+            int tileHeight, File directory) throws IOException {
+        this.levels = levels.clone();
+        this.sizeC = pixels.getSizeC();
+        this.sizeZ = pixels.getSizeZ();
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.bytesPerPixel = PixelData.getBitDepth(
+                pixels.getPixelsType().getValue()) / 8;
+        long planeCount = (long) pixels.getSizeZ() * pixels.getSizeC()
+                * pixels.getSizeT();
+        widths = new int[levels.length];
+        planeSizes = new long[levels.length];
+        offsets = new long[levels.length];
+        bands = new byte[levels.length][];
+        bandHeights = new int[levels.length];
+        long offset = 0;
+        for (int i = 0; i < levels.length; i++) {
+            widths[i] = scaledLength(pixels.getSizeX(), tileWidth, levels[i]);
+            int height =
+                    scaledLength(pixels.getSizeY(), tileHeight, levels[i]);
+            planeSizes[i] = (long) widths[i] * height * bytesPerPixel;
+            offsets[i] = offset;
+            offset += planeSizes[i] * planeCount;
+        }
+        file = File.createTempFile(".levels", ".tmp", directory);
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+    }
+
+    /**
+     * Returns the width of the full resolution tiles.
+     * @return See above.
+     */
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    /**
+     * Returns the height of the full resolution tiles.
+     * @return See above.
+     */
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * Adds the lower resolutions of a full resolution tile. Tiles must be
+     * added in the order they are written to the pyramid.
+     * @param z The z-section of the tile.
+     * @param c The channel of the tile.
+     * @param t The timepoint of the tile.
+     * @param x The X offset of the tile.
+     * @param y The Y offset of the tile.
+     * @param w The width of the tile.
+     * @param h The height of the tile.
+     * @param tileLevels The tile at each level, as returned by
+     * {@link #downsample}.
+     * @throws IOException If a row of tiles cannot be written out.
+     */
+    public synchronized void add(int z, int c, int t, int x, int y, int w,
+            int h, byte[][] tileLevels) throws IOException {
+        long no = ((long) t * sizeC + c) * sizeZ + z;
+        if (no != bandPlane || y != bandY) {
+            flush();
+            bandPlane = no;
+            bandY = y;
+            for (int i = 0; i < levels.length; i++) {
+                bandHeights[i] = scaledTileLength(h, tileHeight, levels[i]);
+                bands[i] = new byte[widths[i] * bandHeights[i] * bytesPerPixel];
+            }
+        }
+        for (int i = 0; i < levels.length; i++) {
+            int full = scaledTileLength(tileWidth, tileWidth, levels[i]);
+            int offset = x / tileWidth * full;
+            int width = scaledTileLength(w, tileWidth, levels[i]);
+            int rowSize = width * bytesPerPixel;
+            for (int row = 0; row < bandHeights[i]; row++) {
+                System.arraycopy(tileLevels[i], row * rowSize, bands[i],
+                        (row * widths[i] + offset) * bytesPerPixel, rowSize);
+            }
+        }
+    }
+
+    /**
+     * Writes out the rows of tiles being assembled.
+     * @throws IOException If they cannot be written.
+     */
+    private void flush() throws IOException {
+        if (bandPlane < 0) {
+            return;
+        }
+        for (int i = 0; i < levels.length; i++) {
+            int full = scaledTileLength(tileHeight, tileHeight, levels[i]);
+            long row = bandY / tileHeight * full;
+            ByteBuffer buffer = ByteBuffer.wrap(bands[i]);
+            long position = offsets[i] + bandPlane * planeSizes[i]
+                    + row * widths[i] * bytesPerPixel;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            bands[i] = null;
+        }
+        bandPlane = -1;
+    }
+
+    /* (non-Javadoc)
+     * @see ome.io.bioformats.OmeroPixelsPyramidWriter.ResolutionSource#getTile(int, int, int, int, int, int)
+     */
+    public synchronized byte[] getTile(int series, int no, int x, int y,
+            int w, int h) throws IOException {
+        flush();
+        int i = series - 1;
+        byte[] tile = new byte[w * h * bytesPerPixel];
+        long plane = offsets[i] + no * planeSizes[i];
+        if (x == 0 && w == widths[i]) {
+            // Whole rows are contiguous in the file.
+            read(tile, 0, tile.length, plane + (long) y * w * bytesPerPixel);
+            return tile;
+        }
+        for (int row = 0; row < h; row++) {
+            read(tile, row * w * bytesPerPixel, w * bytesPerPixel, plane
+                    + ((long) (y + row) * widths[i] + x) * bytesPerPixel);
+        }
+        return tile;
+    }
+
+    /**
+     * Reads bytes of the file.
+     * @param buf The buffer to read into.
+     * @param offset The offset in the buffer.
+     * @param length The number of bytes to read.
+     * @param position The position in the file.
+     * @throws IOException If the bytes cannot be read.
+     */
+    private void read(byte[] buf, int offset, int length, long position)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(buf, offset, length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Truncated " + file);
+            }
+            position += read;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    public synchronized void close() throws IOException {
+        try {
+            raf.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Computes the lower resolutions of a full resolution tile, each level
+     * from the one above by area averaging. The tile is not modified.
+     * @param tile The full resolution tile.
+     * @param pixelsType The pixels type of the tile.
+     * @param w The width of the tile.
+     * @param h The height of the tile.
+     * @param tileWidth The width of the full resolution tiles.
+     * @param tileHeight The height of the full resolution tiles.
+     * @param levels The levels to compute, in the order of their series.
+     * @return The tile at each level, in the byte order of the tile.
+     */
+    public static byte[][] downsample(PixelData tile, String pixelsType,
+            int w, int h, int tileWidth, int tileHeight, int[] levels) {
+        byte[][] tileLevels = new byte[levels.length][];
+        double[] above = new double[w * h];
+        for (int i = 0; i < above.length; i++) {
+            above[i] = tile.getPixelValue(i);
+        }
+        int aboveWidth = w;
+        int aboveHeight = h;
+        for (int i = levels.length - 1; i >= 0; i--) {
+            int width = scaledTileLength(w, tileWidth, levels[i]);
+            int height = scaledTileLength(h, tileHeight, levels[i]);
+            double[] scaled =
+                    resample(above, aboveWidth, aboveHeight, width, height);
+            PixelData level = new PixelData(pixelsType, ByteBuffer.wrap(
+                    new byte[width * height * tile.bytesPerPixel()]));
+            level.setOrder(tile.getOrder());
+            for (int j = 0; j < scaled.length; j++) {
+                double value = scaled[j];
+                if (!tile.isFloat()) {
+                    value = Math.rint(value);
+                    // Narrowing to int saturates, wrap unsigned values.
+                    if (tile.javaType() == PixelData.INT
+                            && value > Integer.MAX_VALUE) {
+                        value -= 4294967296d;
+                    }
+                }
+                level.setPixelValue(j, value);
+            }
+            tileLevels[i] = level.getData().array();
+            above = scaled;
+            aboveWidth = width;
+            aboveHeight = height;
+        }
+        return tileLevels;
+    }
+
+    /**
+     * Returns the length, at a resolution level, of a tile of the full
+     * resolution level, as laid out by {@link BfPyramidPixelBuffer}: full
+     * tiles are rounded, partial tiles are rounded or, when shorter than a
+     * pixel, rounded up.
+     * @param length The length of the tile.
+     * @param tileLength The length of the full tiles.
+     * @param level The resolution level.
+     * @return See above.
+     */
+    static int scaledTileLength(int length, int tileLength, int level) {
+        double factor = 1L << level;
+        if (length == tileLength) {
+            return (int) Math.max(Math.round(tileLength / factor), 1);
+        }
+        double scaled = length / factor;
+        return (int) (scaled < 1? Math.ceil(scaled) : Math.round(scaled));
+    }
+
+    /**
+     * Returns the length, at a resolution level, of the full resolution
+     * level.
+     * @param length The length of the full resolution level.
+     * @param tileLength The length of the full tiles.
+     * @param level The resolution level.
+     * @return See above.
+     */
+    static int scaledLength(int length, int tileLength, int level) {
+        int tiles = length / tileLength;
+        return tiles * scaledTileLength(tileLength, tileLength, level)
+                + scaledTileLength(length - tiles * tileLength, tileLength,
+                        level);
+    }
+
+    /**
+     * Resamples an image by averaging the area of the source covered by
+     * each pixel of the destination.
+     * @param source The source image.
+     * @param sourceWidth The width of the source image.
+     * @param sourceHeight The height of the source image.
+     * @param width The width of the destination image.
+     * @param height The height of the destination image.
+     * @return The destination image.
+     */
+    static double[] resample(double[] source, int sourceWidth,
+            int sourceHeight, int width, int height) {
+        double[] rows = new double[width * sourceHeight];
+        for (int y = 0; y < sourceHeight; y++) {
+            resample(source, y * sourceWidth, 1, sourceWidth,
+                    rows, y * width, 1, width);
+        }
+        double[] target = new double[width * height];
+        for (int x = 0; x < width; x++) {
+            resample(rows, x, width, sourceHeight, target, x, width, height);
+        }
+        return target;
+    }
+
+    /**
+     * Resamples a line of pixels by area averaging.
+     */
+    private static void resample(double[] source, int sourceOffset,
+            int sourceStride, int sourceLength, double[] target,
+            int targetOffset, int targetStride, int targetLength) {
+        double scale = (double) sourceLength / targetLength;
+        for (int i = 0; i < targetLength; i++) {
+            double start = i * scale;
+            double end = start + scale;
+            double sum = 0;
+            double weight = 0;
+            for (int j = (int) start; j < sourceLength && j < end; j++) {
+                double w = Math.min(end, j + 1) - Math.max(start, j);
+                if (w > 0) {
+                    sum += source[sourceOffset + j * sourceStride] * w;
+                    weight += w;
+                }
+            }
+            target[targetOffset + i * targetStride] =
+                    weight > 0? sum / weight : 0;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.bioformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import loci.formats.FormatException;
+import ome.conditions.ResourceError;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Histogram;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pools of readers of pixels pyramids, one pool per pyramid file
+ * shared by all the {@link BfPyramidPixelBuffer} instances open on that
+ * file. Each reader decodes a single tile at a time; with several readers
+ * per file, tile requests from different viewers of the same image are
+ * decoded in parallel instead of queuing behind a single reader.
+ * <p>
+ * Readers are created on demand, up to the maximum per file, and closed
+ * once the last buffer using the file is closed. The time spent waiting for
+ * a reader when all the readers of a file are busy is exported as
+ * <code>readerWait</code>, the number of such waits as
+ * <code>readerContention</code> and the number of readers in use as
+ * <code>readersInUse</code>; a pool whose readers are often all busy should
+ * be given more.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class PyramidReaderPool {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(PyramidReaderPool.class);
+
+    /** The maximum number of readers per file. */
+    private final int maxReaders;
+
+    /**
+     * The readers of each file, keyed by absolute path and modification time
+     * so that a pyramid written again is not read with stale readers.
+     */
+    private final Map<String, Readers> files = new HashMap<String, Readers>();
+
+    /** The time spent waiting for a reader. */
+    private final Timer readerWait;
+
+    /** The number of acquisitions which had to wait for a reader. */
+    private final Counter readerContention;
+
+    /** The number of readers of the file in use, after each acquisition. */
+    private final Histogram readersInUse;
+
+    /**
+     * Creates a new instance which does not collect metrics.
+     *
+     * @param maxReaders The maximum number of readers per file. Values lower
+     *                   than <code>1</code> mean one reader per available
+     *                   processor.
+     */
+    public PyramidReaderPool(int maxReaders) {
+        this(maxReaders, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxReaders The maximum number of readers per file. Values lower
+     *                   than <code>1</code> mean one reader per available
+     *                   processor.
+     * @param metrics Used to export the contention on the readers.
+     */
+    public PyramidReaderPool(int maxReaders, Metrics metrics) {
+        if (maxReaders < 1) {
+            maxReaders = Runtime.getRuntime().availableProcessors();
+        }
+        this.maxReaders = maxReaders;
+        readerWait = metrics.timer(this, "readerWait");
+        readerContention = metrics.counter(this, "readerContention");
+        readersInUse = metrics.histogram(this, "readersInUse");
+    }
+
+    /**
+     * Returns the maximum number of readers per file.
+     *
+     * @return See above.
+     */
+    public int getMaxReaders() {
+        return maxReaders;
+    }
+
+    /**
+     * Returns the readers of the passed pyramid file. Each call must be
+     * matched by a call to {@link Readers#close()}.
+     *
+     * @param path The absolute path of the pyramid file.
+     * @return See above.
+     */
+    synchronized Readers open(String path) {
+        String key = path + "@" + new File(path).lastModified();
+        Readers readers = files.get(key);
+        if (readers == null) {
+            readers = new Readers(key, path);
+            files.put(key, readers);
+        }
+        readers.users++;
+        return readers;
+    }
+
+    /**
+     * Releases a reference to the passed readers, closing them if it was the
+     * last one.
+     *
+     * @param readers The readers to release.
+     */
+    private void close(Readers readers) {
+        synchronized (this) {
+            if (--readers.users > 0) {
+                return;
+            }
+            files.remove(readers.key);
+        }
+        readers.closeIdle();
+    }
+
+    /**
+     * The readers of a single pyramid file.
+     */
+    final class Readers {
+
+        /** The key of these readers in {@link PyramidReaderPool#files}. */
+        private final String key;
+
+        /** The absolute path of the pyramid file. */
+        private final String path;
+
+        /** The readers not in use. */
+        private final Deque<BfPixelBuffer> idle = new ArrayDeque<BfPixelBuffer>();
+
+        /** The number of readers created and not closed. */
+        private int created;
+
+        /** The number of buffers using these readers, guarded by the pool. */
+        private int users;
+
+        /** Whether the last buffer using these readers was closed. */
+        private boolean closed;
+
+        private Readers(String key, String path) {
+            this.key = key;
+            this.path = path;
+        }
+
+        /**
+         * Returns a reader of the file, waiting for one to be released if
+         * all the readers are in use. The reader must be handed back with
+         * {@link #release(BfPixelBuffer)}.
+         *
+         * @return See above.
+         * @throws ResourceError If interrupted while waiting.
+         */
+        BfPixelBuffer acquire() {
+            synchronized (this) {
+                if (idle.isEmpty() && created >= maxReaders) {
+                    readerContention.inc();
+                    Timer.Context wait = readerWait.time();
+                    try {
+                        while (idle.isEmpty() && created >= maxReaders) {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ResourceError(
+                                "Interrupted waiting for a reader of " + path);
+                    } finally {
+                        wait.stop();
+                    }
+                }
+                BfPixelBuffer reader = idle.poll();
+                if (reader != null) {
+                    readersInUse.update(created - idle.size());
+                    return reader;
+                }
+                // Reserve the slot, the reader is created unlocked.
+                created++;
+                readersInUse.update(created - idle.size());
+            }
+            try {
+                return new BfPixelBuffer(path, new OmeroPixelsPyramidReader());
+            } catch (IOException e) {
+                discard();
+                throw new ResourceError(e.getMessage());
+            } catch (FormatException e) {
+                discard();
+                throw new ResourceError(e.getMessage());
+            } catch (RuntimeException e) {
+                discard();
+                throw e;
+            }
+        }
+
+        /**
+         * Hands back a reader obtained from {@link #acquire()}.
+         *
+         * @param reader The reader.
+         */
+        void release(BfPixelBuffer reader) {
+            synchronized (this) {
+                if (!closed) {
+                    idle.push(reader);
+                    notify();
+                    return;
+                }
+                created--;
+            }
+            close(reader);
+        }
+
+        /**
+         * Frees the slot of a reader which could not be created.
+         */
+        private synchronized void discard() {
+            created--;
+            notify();
+        }
+
+        /**
+         * Releases the reference of a buffer to these readers.
+         */
+        void close() {
+            PyramidReaderPool.this.close(this);
+        }
+
+        /**
+         * Closes the idle readers; readers still in use are closed when
+         * released.
+         */
+        private void closeIdle() {
+            Deque<BfPixelBuffer> toClose;
+            synchronized (this) {
+                closed = true;
+                toClose = new ArrayDeque<BfPixelBuffer>(idle);
+                created -= idle.size();
+                idle.clear();
+            }
+            for (BfPixelBuffer reader : toClose) {
+                close(reader);
+            }
+        }
+
+        /**
+         * Closes the passed reader, logging failures.
+         *
+         * @param reader The reader to close.
+         */
+        private void close(BfPixelBuffer reader) {
+            try {
+                reader.close();
+            } catch (Exception e) {
+                log.warn("Failed to close reader of " + path, e);
+            }
+        }
+    }
+}
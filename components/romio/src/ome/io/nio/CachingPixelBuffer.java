@@ -0,0 +1,255 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import ome.io.nio.TileCache.Key;
+import ome.io.nio.TileCache.Kind;
+import ome.model.core.Pixels;
+import ome.util.PixelData;
+
+/**
+ * Pixel buffer reading its tiles and planes through a {@link TileCache}
+ * shared with the other buffers of the process, delegating everything else
+ * to the buffer of the pixels set. Writes through this buffer invalidate the
+ * cached entries of the pixels set.
+ *
+ * @since 5.3.0
+ * @see PixelsService#setTileCache(TileCache)
+ */
+public class CachingPixelBuffer extends DelegatingPixelBuffer {
+
+    /** The id of the pixels set, the cache keys are of. */
+    private final long pixelsId;
+
+    /** The pixels type of the pixels set. */
+    private final String pixelsType;
+
+    /** The cache shared by all the buffers. */
+    private final TileCache cache;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param delegate The buffer to read on a cache miss.
+     * @param pixels The pixels set of the buffer.
+     * @param cache The cache shared by all the buffers.
+     */
+    public CachingPixelBuffer(PixelBuffer delegate, Pixels pixels,
+            TileCache cache) {
+        super(delegate);
+        this.pixelsId = pixels.getId();
+        this.pixelsType = pixels.getPixelsType().getValue();
+        this.cache = cache;
+    }
+
+    private Key key(Kind kind, int z, int c, int t, int x, int y, int w,
+            int h) {
+        return new Key(pixelsId, delegate.getResolutionLevel(), kind,
+                z, c, t, x, y, w, h);
+    }
+
+    private Key planeKey(Kind kind, int z, int c, int t) {
+        return key(kind, z, c, t, 0, 0,
+                delegate.getSizeX(), delegate.getSizeY());
+    }
+
+    /**
+     * Returns the cached data of <code>key</code> or, on a miss, caches and
+     * returns the data read.
+     */
+    private PixelData get(Key key, Read read) throws IOException {
+        ByteBuffer cached = cache.get(key);
+        if (cached != null) {
+            return new PixelData(pixelsType, cached);
+        }
+        long generation = cache.getGeneration();
+        PixelData data = read.read();
+        if (data != null) {
+            cache.put(key, data.getData(), generation);
+        }
+        return data;
+    }
+
+    /**
+     * Copies the cached data of <code>key</code> into <code>buffer</code>
+     * or, on a miss, caches the data read into it.
+     */
+    private byte[] getDirect(Key key, byte[] buffer, ReadDirect read)
+            throws IOException {
+        if (cache.get(key, buffer)) {
+            return buffer;
+        }
+        long generation = cache.getGeneration();
+        read.read(buffer);
+        cache.put(key, ByteBuffer.wrap(buffer), generation);
+        return buffer;
+    }
+
+    /** A read of the delegate on a cache miss. */
+    private interface Read {
+        PixelData read() throws IOException;
+    }
+
+    /** A read of the delegate into a buffer on a cache miss. */
+    private interface ReadDirect {
+        void read(byte[] buffer) throws IOException;
+    }
+
+    //
+    // Cached reads
+    //
+
+    public PixelData getTile(final Integer z, final Integer c,
+            final Integer t, final Integer x, final Integer y,
+            final Integer w, final Integer h) throws IOException {
+        return get(key(Kind.TILE, z, c, t, x, y, w, h), new Read() {
+            public PixelData read() throws IOException {
+                return delegate.getTile(z, c, t, x, y, w, h);
+            }
+        });
+    }
+
+    public byte[] getTileDirect(final Integer z, final Integer c,
+            final Integer t, final Integer x, final Integer y,
+            final Integer w, final Integer h, byte[] buffer)
+            throws IOException {
+        return getDirect(key(Kind.TILE_DIRECT, z, c, t, x, y, w, h), buffer,
+                new ReadDirect() {
+            public void read(byte[] buffer) throws IOException {
+                delegate.getTileDirect(z, c, t, x, y, w, h, buffer);
+            }
+        });
+    }
+
+    public PixelData getPlane(final Integer z, final Integer c,
+            final Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        return get(planeKey(Kind.PLANE, z, c, t), new Read() {
+            public PixelData read() throws IOException {
+                return delegate.getPlane(z, c, t);
+            }
+        });
+    }
+
+    public byte[] getPlaneDirect(final Integer z, final Integer c,
+            final Integer t, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        return getDirect(planeKey(Kind.PLANE_DIRECT, z, c, t), buffer,
+                new ReadDirect() {
+            public void read(byte[] buffer) throws IOException {
+                delegate.getPlaneDirect(z, c, t, buffer);
+            }
+        });
+    }
+
+    //
+    // Writes, invalidating the cache
+    //
+
+    public void setTile(byte[] buffer, Integer z, Integer c, Integer t,
+            Integer x, Integer y, Integer w, Integer h)
+            throws IOException, BufferOverflowException {
+        try {
+            delegate.setTile(buffer, z, c, t, x, y, w, h);
+        } finally {
+            cache.invalidate(pixelsId);
+        }
+    }
+
+    public void setRegion(Integer size, Long offset, byte[] buffer)
+            throws IOException, BufferOverflowException {
+        try {
+            delegate.setRegion(size, offset, buffer);
+        } finally {
+            cache.invalidate(pixelsId);
+        }
+    }
+
+    public void setRegion(Integer size, Long offset, ByteBuffer buffer)
+            throws IOException, BufferOverflowException {
+        try {
+            delegate.setRegion(size, offset, buffer);
+        } finally {
+            cache.invalidate(pixelsId);
+        }
+    }
+
+    public void setRow(ByteBuffer buffer, Integer y, Integer z, Integer c,
+            Integer t) throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        try {
+            delegate.setRow(buffer, y, z, c, t);
+        } finally {
+            cache.invalidate(pixelsId);
+        }
+    }
+
+    public void setPlane(ByteBuffer buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        try {
+            delegate.setPlane(buffer, z, c, t);
+        } finally {
+            cache.invalidate(pixelsId);
+        }
+    }
+
+    public void setPlane(byte[] buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        try {
+            delegate.setPlane(buffer, z, c, t);
+        } finally {
+            cache.invalidate(pixelsId);
+        }
+    }
+
+    public void setStack(ByteBuffer buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        try {
+            delegate.setStack(buffer, z, c, t);
+        } finally {
+            cache.invalidate(pixelsId);
+        }
+    }
+
+    public void setStack(byte[] buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        try {
+            delegate.setStack(buffer, z, c, t);
+        } finally {
+            cache.invalidate(pixelsId);
+        }
+    }
+
+    public void setTimepoint(ByteBuffer buffer, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        try {
+            delegate.setTimepoint(buffer, t);
+        } finally {
+            cache.invalidate(pixelsId);
+        }
+    }
+
+    public void setTimepoint(byte[] buffer, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        try {
+            delegate.setTimepoint(buffer, t);
+        } finally {
+            cache.invalidate(pixelsId);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import ome.util.PixelData;
+
+/**
+ * Pixel buffer delegating all its methods to another buffer, to be extended
+ * by the buffers adding behavior to some of them.
+ *
+ * @since 5.3.0
+ * @see CachingPixelBuffer
+ * @see PrefetchingPixelBuffer
+ */
+public class DelegatingPixelBuffer implements PixelBuffer {
+
+    /** The buffer delegated to. */
+    protected final PixelBuffer delegate;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param delegate The buffer to delegate to.
+     */
+    public DelegatingPixelBuffer(PixelBuffer delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the buffer delegated to.
+     *
+     * @return See above.
+     */
+    public PixelBuffer getDelegate() {
+        return delegate;
+    }
+
+    public PixelData getTile(Integer z, Integer c, Integer t, Integer x,
+            Integer y, Integer w, Integer h) throws IOException {
+        return delegate.getTile(z, c, t, x, y, w, h);
+    }
+
+    public byte[] getTileDirect(Integer z, Integer c, Integer t, Integer x,
+            Integer y, Integer w, Integer h, byte[] buffer)
+            throws IOException {
+        return delegate.getTileDirect(z, c, t, x, y, w, h, buffer);
+    }
+
+    public PixelData getPlane(Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getPlane(z, c, t);
+    }
+
+    public byte[] getPlaneDirect(Integer z, Integer c, Integer t,
+            byte[] buffer) throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getPlaneDirect(z, c, t, buffer);
+    }
+
+    public void setTile(byte[] buffer, Integer z, Integer c, Integer t,
+            Integer x, Integer y, Integer w, Integer h)
+            throws IOException, BufferOverflowException {
+        delegate.setTile(buffer, z, c, t, x, y, w, h);
+    }
+
+    public void setRegion(Integer size, Long offset, byte[] buffer)
+            throws IOException, BufferOverflowException {
+        delegate.setRegion(size, offset, buffer);
+    }
+
+    public void setRegion(Integer size, Long offset, ByteBuffer buffer)
+            throws IOException, BufferOverflowException {
+        delegate.setRegion(size, offset, buffer);
+    }
+
+    public void setRow(ByteBuffer buffer, Integer y, Integer z, Integer c,
+            Integer t) throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setRow(buffer, y, z, c, t);
+    }
+
+    public void setPlane(ByteBuffer buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setPlane(buffer, z, c, t);
+    }
+
+    public void setPlane(byte[] buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setPlane(buffer, z, c, t);
+    }
+
+    public void setStack(ByteBuffer buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setStack(buffer, z, c, t);
+    }
+
+    public void setStack(byte[] buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setStack(buffer, z, c, t);
+    }
+
+    public void setTimepoint(ByteBuffer buffer, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setTimepoint(buffer, t);
+    }
+
+    public void setTimepoint(byte[] buffer, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setTimepoint(buffer, t);
+    }
+
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    public void checkBounds(Integer x, Integer y, Integer z, Integer c,
+            Integer t) throws DimensionsOutOfBoundsException {
+        delegate.checkBounds(x, y, z, c, t);
+    }
+
+    public Long getPlaneSize() {
+        return delegate.getPlaneSize();
+    }
+
+    public Integer getRowSize() {
+        return delegate.getRowSize();
+    }
+
+    public Integer getColSize() {
+        return delegate.getColSize();
+    }
+
+    public Long getStackSize() {
+        return delegate.getStackSize();
+    }
+
+    public Long getTimepointSize() {
+        return delegate.getTimepointSize();
+    }
+
+    public Long getTotalSize() {
+        return delegate.getTotalSize();
+    }
+
+    public Long getHypercubeSize(List<Integer> offset, List<Integer> size,
+            List<Integer> step) throws DimensionsOutOfBoundsException {
+        return delegate.getHypercubeSize(offset, size, step);
+    }
+
+    public Long getRowOffset(Integer y, Integer z, Integer c, Integer t)
+            throws DimensionsOutOfBoundsException {
+        return delegate.getRowOffset(y, z, c, t);
+    }
+
+    public Long getPlaneOffset(Integer z, Integer c, Integer t)
+            throws DimensionsOutOfBoundsException {
+        return delegate.getPlaneOffset(z, c, t);
+    }
+
+    public Long getStackOffset(Integer c, Integer t)
+            throws DimensionsOutOfBoundsException {
+        return delegate.getStackOffset(c, t);
+    }
+
+    public Long getTimepointOffset(Integer t)
+            throws DimensionsOutOfBoundsException {
+        return delegate.getTimepointOffset(t);
+    }
+
+    public PixelData getHypercube(List<Integer> offset, List<Integer> size,
+            List<Integer> step)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getHypercube(offset, size, step);
+    }
+
+    public byte[] getHypercubeDirect(List<Integer> offset, List<Integer> size,
+            List<Integer> step, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getHypercubeDirect(offset, size, step, buffer);
+    }
+
+    public byte[] getPlaneRegionDirect(Integer z, Integer c, Integer t,
+            Integer count, Integer offset, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getPlaneRegionDirect(z, c, t, count, offset, buffer);
+    }
+
+    public PixelData getRegion(Integer size, Long offset) throws IOException {
+        return delegate.getRegion(size, offset);
+    }
+
+    public byte[] getRegionDirect(Integer size, Long offset, byte[] buffer)
+            throws IOException {
+        return delegate.getRegionDirect(size, offset, buffer);
+    }
+
+    public PixelData getRow(Integer y, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getRow(y, z, c, t);
+    }
+
+    public PixelData getCol(Integer x, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getCol(x, z, c, t);
+    }
+
+    public byte[] getRowDirect(Integer y, Integer z, Integer c, Integer t,
+            byte[] buffer) throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getRowDirect(y, z, c, t, buffer);
+    }
+
+    public byte[] getColDirect(Integer x, Integer z, Integer c, Integer t,
+            byte[] buffer) throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getColDirect(x, z, c, t, buffer);
+    }
+
+    public PixelData getPlaneRegion(Integer x, Integer y, Integer width,
+            Integer height, Integer z, Integer c, Integer t, Integer stride)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getPlaneRegion(x, y, width, height, z, c, t, stride);
+    }
+
+    public PixelData getStack(Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getStack(c, t);
+    }
+
+    public byte[] getStackDirect(Integer c, Integer t, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getStackDirect(c, t, buffer);
+    }
+
+    public PixelData getTimepoint(Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getTimepoint(t);
+    }
+
+    public byte[] getTimepointDirect(Integer t, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getTimepointDirect(t, buffer);
+    }
+
+    public byte[] calculateMessageDigest() throws IOException {
+        return delegate.calculateMessageDigest();
+    }
+
+    public int getByteWidth() {
+        return delegate.getByteWidth();
+    }
+
+    public boolean isSigned() {
+        return delegate.isSigned();
+    }
+
+    public boolean isFloat() {
+        return delegate.isFloat();
+    }
+
+    public String getPath() {
+        return delegate.getPath();
+    }
+
+    public long getId() {
+        return delegate.getId();
+    }
+
+    public int getSizeX() {
+        return delegate.getSizeX();
+    }
+
+    public int getSizeY() {
+        return delegate.getSizeY();
+    }
+
+    public int getSizeZ() {
+        return delegate.getSizeZ();
+    }
+
+    public int getSizeC() {
+        return delegate.getSizeC();
+    }
+
+    public int getSizeT() {
+        return delegate.getSizeT();
+    }
+
+    public int getResolutionLevels() {
+        return delegate.getResolutionLevels();
+    }
+
+    public int getResolutionLevel() {
+        return delegate.getResolutionLevel();
+    }
+
+    public void setResolutionLevel(int resolutionLevel) {
+        delegate.setResolutionLevel(resolutionLevel);
+    }
+
+    public Dimension getTileSize() {
+        return delegate.getTileSize();
+    }
+
+    public List<List<Integer>> getResolutionDescriptions() {
+        return delegate.getResolutionDescriptions();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + delegate + "]";
+    }
+}
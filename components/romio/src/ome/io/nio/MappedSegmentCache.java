@@ -0,0 +1,266 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only memory mappings of large aligned segments of ROMIO pixels files,
+ * shared by all the {@link RomioPixelBuffer} instances reading them. Rows,
+ * planes and regions falling within a segment are returned as views of the
+ * mapping, so that reading them costs no system call once the segment is
+ * mapped.
+ * <p>
+ * Segments are mapped on demand and forgotten, least recently used first,
+ * once the bytes mapped exceed the budget. Java offers no safe way to unmap
+ * a segment whose views may still be in use: a forgotten segment is unmapped
+ * by the garbage collector once its last view is collected. The number of
+ * requests served from a mapped segment is exported as
+ * <code>segmentHits</code>, the number of segments mapped as
+ * <code>segmentMisses</code> and the number forgotten as
+ * <code>segmentEvictions</code>; many evictions mean the budget is too small
+ * for the images being viewed.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class MappedSegmentCache {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(MappedSegmentCache.class);
+
+    /** The default size of a segment. (64MB) */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** The maximum number of bytes mapped by the cache. */
+    private final long maxBytes;
+
+    /** The size of the segments, to which they are aligned. */
+    private final int segmentSize;
+
+    /**
+     * The mapped segments, keyed by file and segment index, from the least
+     * to the most recently used.
+     */
+    private final LinkedHashMap<String, Segment> segments =
+            new LinkedHashMap<String, Segment>(16, 0.75f, true);
+
+    /** The number of bytes currently mapped by {@link #segments}. */
+    private long mappedBytes;
+
+    /** The number of regions returned from a mapped segment. */
+    private final Counter segmentHits;
+
+    /** The number of segments mapped. */
+    private final Counter segmentMisses;
+
+    /** The number of segments forgotten to stay within the budget. */
+    private final Counter segmentEvictions;
+
+    /**
+     * Creates a new instance with segments of {@link #DEFAULT_SEGMENT_SIZE}
+     * which does not collect metrics.
+     *
+     * @param maxBytes The maximum number of bytes mapped. Values lower than
+     *                 <code>1</code> disable the cache.
+     */
+    public MappedSegmentCache(long maxBytes) {
+        this(maxBytes, DEFAULT_SEGMENT_SIZE, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance with segments of {@link #DEFAULT_SEGMENT_SIZE}.
+     *
+     * @param maxBytes The maximum number of bytes mapped. Values lower than
+     *                 <code>1</code> disable the cache.
+     * @param metrics Used to export the use of the cache.
+     */
+    public MappedSegmentCache(long maxBytes, Metrics metrics) {
+        this(maxBytes, DEFAULT_SEGMENT_SIZE, metrics);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxBytes The maximum number of bytes mapped. Values lower than
+     *                 <code>1</code> disable the cache.
+     * @param segmentSize The size of the segments. Regions spanning two
+     *                    segments are not served by the cache.
+     * @param metrics Used to export the use of the cache.
+     */
+    public MappedSegmentCache(long maxBytes, int segmentSize, Metrics metrics) {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException(
+                    "Segment size must be positive: " + segmentSize);
+        }
+        this.maxBytes = maxBytes;
+        this.segmentSize = segmentSize;
+        segmentHits = metrics.counter(this, "segmentHits");
+        segmentMisses = metrics.counter(this, "segmentMisses");
+        segmentEvictions = metrics.counter(this, "segmentEvictions");
+    }
+
+    /**
+     * Returns whether the cache maps anything at all.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns the number of bytes currently mapped by the cache.
+     *
+     * @return See above.
+     */
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    /**
+     * Returns the key identifying a version of a pixels file, to be passed
+     * to {@link #getRegion(String, FileChannel, long, int)} by all the
+     * readers of that version.
+     *
+     * @param path The path of the pixels file.
+     * @return See above.
+     */
+    public static String fileKey(String path) {
+        return path + "@" + new File(path).lastModified();
+    }
+
+    /**
+     * Returns a read-only view of a region of a pixels file, mapping the
+     * segment containing it if needed. The view is big endian, positioned
+     * at <code>0</code> and limited to <code>size</code> bytes.
+     *
+     * @param fileKey The key of the file, see {@link #fileKey(String)}.
+     * @param channel An open channel on the file, used to map the segment.
+     * @param offset The offset of the region in the file.
+     * @param size The size of the region.
+     * @return See above or <code>null</code> if the cache is disabled or if
+     * the region does not fit in a single segment. The caller should then
+     * map the region itself.
+     * @throws IOException If the segment cannot be mapped.
+     */
+    public ByteBuffer getRegion(String fileKey, FileChannel channel,
+            long offset, int size) throws IOException {
+        if (!isEnabled() || size > maxBytes) {
+            return null;
+        }
+        long index = offset / segmentSize;
+        long start = index * segmentSize;
+        if (offset + size > start + segmentSize) {
+            return null;
+        }
+        ByteBuffer segment = getSegment(
+                fileKey + "#" + index, channel, start, offset + size);
+        ByteBuffer region = segment.duplicate();
+        region.position((int) (offset - start));
+        region.limit((int) (offset - start) + size);
+        return region.slice();
+    }
+
+    /**
+     * Returns the mapping of a segment, mapping it if it is not mapped or
+     * if its mapping ends before <code>end</code> because the file was
+     * extended since.
+     */
+    private synchronized ByteBuffer getSegment(String key, FileChannel channel,
+            long start, long end) throws IOException {
+        Segment segment = segments.get(key);
+        if (segment != null && start + segment.length >= end) {
+            segmentHits.inc();
+            return segment.buffer;
+        }
+        if (segment != null) {
+            segments.remove(key);
+            mappedBytes -= segment.length;
+        }
+        int length = (int) Math.min(segmentSize, channel.size() - start);
+        if (start + length < end) {
+            throw new IOException(String.format(
+                    "Region ending at %d is beyond the end of file %s",
+                    end, key));
+        }
+        MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, length);
+        segmentMisses.inc();
+        segments.put(key, new Segment(buffer, length));
+        mappedBytes += length;
+        evict();
+        return buffer;
+    }
+
+    /**
+     * Forgets the least recently used segments until the budget is met. The
+     * most recently used segment is always kept.
+     */
+    private void evict() {
+        Iterator<Segment> lru = segments.values().iterator();
+        while (mappedBytes > maxBytes && segments.size() > 1) {
+            mappedBytes -= lru.next().length;
+            lru.remove();
+            segmentEvictions.inc();
+        }
+    }
+
+    /**
+     * Forgets all the segments of a pixels file, whatever its version, e.g.
+     * before it is deleted.
+     *
+     * @param path The path of the pixels file.
+     */
+    public synchronized void invalidate(String path) {
+        String prefix = path + "@";
+        Iterator<Map.Entry<String, Segment>> it =
+                segments.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Segment> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                mappedBytes -= entry.getValue().length;
+                it.remove();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Forgot the segments of " + path);
+        }
+    }
+
+    /**
+     * A mapped segment.
+     */
+    private static final class Segment {
+
+        /** The mapping of the segment. */
+        private final ByteBuffer buffer;
+
+        /** The number of bytes mapped. */
+        private final int length;
+
+        private Segment(ByteBuffer buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the thumbnails written one file each under <code>Thumbnails</code>
+ * into the {@link PackedThumbnailStore} of the same data directory. The
+ * directories are walked in id order, so thumbnails of the same images end
+ * up next to each other in the containers. Each file is deleted once its
+ * thumbnail is packed, unless <code>--keep</code> is given, and thumbnails
+ * already packed are left alone, so an interrupted migration can simply be
+ * run again. The server must be stopped: the store is locked by the
+ * process using it.
+ * <p>
+ * Usage: <code>java ome.io.nio.PackedThumbnailMigration [--keep]
+ * [--container-size=BYTES] DATA_DIR</code>
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class PackedThumbnailMigration {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(PackedThumbnailMigration.class);
+
+    /** Orders thumbnails by id, directories by name. */
+    private final static Comparator<File> BY_ID = new Comparator<File>() {
+        public int compare(File a, File b) {
+            if (a.getName().length() != b.getName().length()
+                    && Character.isDigit(a.getName().charAt(0))
+                    && Character.isDigit(b.getName().charAt(0))) {
+                return a.getName().length() - b.getName().length();
+            }
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    private final File thumbnails;
+
+    private final PackedThumbnailStore store;
+
+    private final boolean keep;
+
+    private long migrated;
+
+    private long skipped;
+
+    private long bytes;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param root The data directory, e.g. <code>/OMERO</code>.
+     * @param store The store to pack the thumbnails into.
+     * @param keep Whether to keep the files of the thumbnails packed.
+     */
+    public PackedThumbnailMigration(String root, PackedThumbnailStore store,
+            boolean keep) {
+        this.thumbnails = new File(root,
+                AbstractFileSystemService.THUMBNAILS_PATH);
+        this.store = store;
+        this.keep = keep;
+    }
+
+    /**
+     * Packs all the thumbnails of the data directory.
+     *
+     * @return The number of thumbnails packed.
+     * @throws IOException If a thumbnail cannot be read or packed.
+     */
+    public long run() throws IOException {
+        if (thumbnails.isDirectory()) {
+            migrate(thumbnails);
+        }
+        log.info(String.format("Packed %d thumbnails (%d bytes), "
+                + "skipped %d already packed", migrated, bytes, skipped));
+        return migrated;
+    }
+
+    private void migrate(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, BY_ID);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (file.getName().startsWith("Dir-")) {
+                    migrate(file);
+                }
+                continue;
+            }
+            long id;
+            try {
+                id = Long.parseLong(file.getName());
+            } catch (NumberFormatException e) {
+                log.warn("Skipping " + file);
+                continue;
+            }
+            if (store.contains(id)) {
+                // Packed by the server since.
+                skipped++;
+            } else {
+                byte[] thumbnail = FileUtils.readFileToByteArray(file);
+                store.put(id, thumbnail);
+                migrated++;
+                bytes += thumbnail.length;
+            }
+            if (!keep && !file.delete()) {
+                log.warn("Failed to delete " + file);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean keep = false;
+        long containerSize = PackedThumbnailStore.DEFAULT_CONTAINER_SIZE;
+        String root = null;
+        for (String arg : args) {
+            if ("--keep".equals(arg)) {
+                keep = true;
+            } else if (arg.startsWith("--container-size=")) {
+                containerSize = Long.parseLong(
+                        arg.substring("--container-size=".length()));
+            } else if (root == null && !arg.startsWith("-")) {
+                root = arg;
+            } else {
+                root = null;
+                break;
+            }
+        }
+        if (root == null) {
+            System.err.println("usage: ome.io.nio.PackedThumbnailMigration "
+                    + "[--keep] [--container-size=BYTES] DATA_DIR");
+            System.exit(2);
+        }
+        PackedThumbnailStore store =
+                new PackedThumbnailStore(root, true, containerSize, 0);
+        try {
+            new PackedThumbnailMigration(root, store, keep).run();
+        } finally {
+            store.close();
+        }
+    }
+}
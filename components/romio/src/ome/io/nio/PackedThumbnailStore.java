@@ -0,0 +1,865 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ome.conditions.ResourceError;
+import ome.util.Utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores thumbnails appended to a few large container files rather than
+ * one file per thumbnail, so that tens of millions of thumbnails do not
+ * exhaust the inodes of the data directory and a set of thumbnails written
+ * together is read back in one sequential pass.
+ * <p>
+ * Each container <code>NNNNNN.pack</code> holds records of the thumbnail
+ * id, its length and its bytes, appended until the container reaches its
+ * size, and is accompanied by <code>NNNNNN.idx</code> listing the id,
+ * offset and length of each record, or the removal of an id. The indexes
+ * are read in order when the store is opened, into a map of ids to
+ * locations held in primitive arrays; entries torn by a crash are ignored.
+ * Replacing or removing a thumbnail only appends: {@link #compact()} later
+ * copies the live records of the containers mostly made of dead ones to
+ * the current container and deletes them.
+ * </p>
+ * <p>
+ * The store is locked while open, so that a single process writes to it.
+ * Thumbnails can be regenerated, so writes are not forced to disk.
+ * </p>
+ *
+ * @since 5.3.0
+ * @see ThumbnailService#setPackedStore(PackedThumbnailStore)
+ */
+public class PackedThumbnailStore {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(PackedThumbnailStore.class);
+
+    /** The directory of the store under the data directory. */
+    public final static String PACKED_THUMBNAILS_PATH = "PackedThumbnails";
+
+    /** The default size at which a container is sealed. */
+    public final static long DEFAULT_CONTAINER_SIZE = 256L * 1024 * 1024;
+
+    /** The largest container, as offsets are held in 40 bits. */
+    private final static long MAX_CONTAINER_SIZE = 1L << 40;
+
+    /** The size of a record header: the id and the length. */
+    private final static int HEADER_SIZE = 12;
+
+    /** The size of an index entry: the id, the offset and the length. */
+    private final static int INDEX_ENTRY_SIZE = 20;
+
+    /** The length of the index entries recording a removal. */
+    private final static int REMOVED = -1;
+
+    /** The largest gap between records read in a single pass. */
+    private final static int MAX_GAP = 64 * 1024;
+
+    /** The largest single read of consecutive records. */
+    private final static int MAX_READ = 4 * 1024 * 1024;
+
+    private final static Pattern CONTAINER_NAME =
+            Pattern.compile("(\\d{6})\\.pack");
+
+    /** The directory holding the containers, <code>null</code> if
+     * disabled. */
+    private final File directory;
+
+    /** The size at which a container is sealed. */
+    private final long containerSize;
+
+    /**
+     * Sealed containers whose live records make up less than this part are
+     * compacted.
+     */
+    private final double compactionRatio;
+
+    /** The lock of the directory, held while the store is open. */
+    private final FileLock directoryLock;
+
+    /** The containers, by number. */
+    private final TreeMap<Integer, Container> containers =
+            new TreeMap<Integer, Container>();
+
+    /** The location of each thumbnail. */
+    private final Index index = new Index();
+
+    /** The container thumbnails are appended to. */
+    private Container current;
+
+    /**
+     * Held to read a container, exclusively to delete it. Lookups and
+     * appends synchronize on the store.
+     */
+    private final ReadWriteLock deletionLock = new ReentrantReadWriteLock();
+
+    /** Held by {@link #compact()}. */
+    private final Object compactionLock = new Object();
+
+    /**
+     * Opens the store of a data directory, creating it if needed.
+     *
+     * @param root The data directory, e.g. <code>/OMERO</code>.
+     * @param enabled Whether thumbnails are packed at all. If not, the
+     *                store is not opened and holds no thumbnails.
+     * @param containerSize The size at which a container is sealed.
+     * @param compactionRatio Sealed containers whose live records make up
+     *                        less than this part are compacted.
+     */
+    public PackedThumbnailStore(String root, boolean enabled,
+            long containerSize, double compactionRatio) {
+        if (!enabled) {
+            this.directory = null;
+            this.containerSize = 0;
+            this.compactionRatio = 0;
+            this.directoryLock = null;
+            return;
+        }
+        this.directory = new File(root, PACKED_THUMBNAILS_PATH);
+        this.containerSize = containerSize > 0 ?
+                Math.min(containerSize, MAX_CONTAINER_SIZE)
+                : DEFAULT_CONTAINER_SIZE;
+        this.compactionRatio = compactionRatio;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new ResourceError("Cannot create " + directory);
+        }
+        try {
+            FileChannel channel = new RandomAccessFile(
+                    new File(directory, ".lock"), "rw").getChannel();
+            FileLock lock = null;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Already open in this process.
+            }
+            if (lock == null) {
+                channel.close();
+                throw new ResourceError(directory
+                        + " is in use by another process");
+            }
+            directoryLock = lock;
+            open();
+        } catch (IOException e) {
+            throw new ResourceError("Cannot open " + directory + ": "
+                    + e.getMessage());
+        }
+        log.info("Opened " + index.size() + " packed thumbnails in "
+                + containers.size() + " containers of " + directory);
+    }
+
+    /**
+     * Returns whether thumbnails are packed at all.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Reads the indexes of the containers and opens the last one for
+     * appending.
+     */
+    private void open() throws IOException {
+        String[] names = directory.list();
+        List<Integer> numbers = new ArrayList<Integer>();
+        for (String name : names == null ? new String[0] : names) {
+            Matcher m = CONTAINER_NAME.matcher(name);
+            if (m.matches()) {
+                numbers.add(Integer.valueOf(m.group(1)));
+            }
+        }
+        Collections.sort(numbers);
+        for (Integer number : numbers) {
+            Container container = new Container(directory, number);
+            containers.put(number, container);
+            readIndex(container);
+        }
+        for (int slot = 0; slot < index.capacity(); slot++) {
+            if (index.isUsed(slot)) {
+                Container container = containers.get(
+                        containerOf(index.locationAt(slot)));
+                container.liveBytes += HEADER_SIZE + index.lengthAt(slot);
+            }
+        }
+        if (containers.isEmpty()) {
+            current = new Container(directory, 1);
+            containers.put(current.number, current);
+        } else {
+            current = containers.lastEntry().getValue();
+            // Entries torn by a crash must not be read after appending.
+            current.index.truncate(current.indexSize);
+        }
+    }
+
+    /**
+     * Applies the entries of the index of a container. Entries past the end
+     * of the container or truncated were torn by a crash and are ignored.
+     */
+    private void readIndex(Container container) throws IOException {
+        long entries = container.index.size() / INDEX_ENTRY_SIZE;
+        ByteBuffer buf = ByteBuffer.allocate(
+                (int) Math.min(entries * INDEX_ENTRY_SIZE, 1024 * 1024));
+        long position = 0;
+        long valid = 0;
+        while (position < entries * INDEX_ENTRY_SIZE) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(),
+                    entries * INDEX_ENTRY_SIZE - position));
+            readFully(container.index, buf, position);
+            position += buf.limit();
+            buf.flip();
+            while (buf.remaining() >= INDEX_ENTRY_SIZE) {
+                long id = buf.getLong();
+                long offset = buf.getLong();
+                int length = buf.getInt();
+                if (length == REMOVED) {
+                    index.remove(id);
+                } else if (offset + HEADER_SIZE + length
+                        <= container.size) {
+                    index.put(id, location(container.number, offset),
+                            length);
+                } else {
+                    log.warn("Ignoring torn entries of " + container);
+                    break;
+                }
+                valid += INDEX_ENTRY_SIZE;
+            }
+            if (valid < position) {
+                break;
+            }
+        }
+        container.indexSize = valid;
+    }
+
+    //
+    // Reads
+    //
+
+    /**
+     * Returns whether a thumbnail is in the store.
+     *
+     * @param id The id of the thumbnail.
+     * @return See above.
+     */
+    public synchronized boolean contains(long id) {
+        return index.find(id) >= 0;
+    }
+
+    /**
+     * Returns the length of a thumbnail.
+     *
+     * @param id The id of the thumbnail.
+     * @return The length or <code>-1</code> if it is not in the store.
+     */
+    public synchronized int getLength(long id) {
+        int slot = index.find(id);
+        return slot < 0 ? -1 : index.lengthAt(slot);
+    }
+
+    /**
+     * Returns the number of thumbnails in the store.
+     *
+     * @return See above.
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the bytes of a thumbnail.
+     *
+     * @param id The id of the thumbnail.
+     * @return The bytes or <code>null</code> if it is not in the store.
+     * @throws IOException If the container cannot be read.
+     */
+    public byte[] get(long id) throws IOException {
+        Map<Long, byte[]> thumbnails = get(Arrays.asList(id));
+        return thumbnails.get(id);
+    }
+
+    /**
+     * Returns the bytes of several thumbnails, read container by container
+     * in the order of the records, consecutive records at once.
+     *
+     * @param ids The ids of the thumbnails.
+     * @return The bytes of the thumbnails in the store, by id.
+     * @throws IOException If a container cannot be read.
+     */
+    public Map<Long, byte[]> get(Collection<Long> ids) throws IOException {
+        Map<Long, byte[]> thumbnails = new HashMap<Long, byte[]>();
+        if (!isEnabled() || ids.isEmpty()) {
+            return thumbnails;
+        }
+        deletionLock.readLock().lock();
+        try {
+            List<Record> records = new ArrayList<Record>(ids.size());
+            synchronized (this) {
+                for (Long id : ids) {
+                    int slot = id == null ? -1 : index.find(id);
+                    if (slot >= 0) {
+                        records.add(new Record(id, index.locationAt(slot),
+                                index.lengthAt(slot)));
+                    }
+                }
+            }
+            Collections.sort(records);
+            int start = 0;
+            while (start < records.size()) {
+                int end = start + 1;
+                Record first = records.get(start);
+                while (end < records.size()) {
+                    Record next = records.get(end);
+                    Record last = records.get(end - 1);
+                    if (next.location >>> 40 != first.location >>> 40
+                            || next.offset() - last.end() > MAX_GAP
+                            || next.end() - first.offset() > MAX_READ) {
+                        break;
+                    }
+                    end++;
+                }
+                read(records.subList(start, end), thumbnails);
+                start = end;
+            }
+        } finally {
+            deletionLock.readLock().unlock();
+        }
+        return thumbnails;
+    }
+
+    /**
+     * Reads consecutive records of a container in a single read.
+     */
+    private void read(List<Record> records, Map<Long, byte[]> thumbnails)
+            throws IOException {
+        Record first = records.get(0);
+        Record last = records.get(records.size() - 1);
+        Container container;
+        synchronized (this) {
+            container = containers.get(containerOf(first.location));
+        }
+        ByteBuffer buf = ByteBuffer.allocate(
+                (int) (last.end() - first.offset()));
+        readFully(container.pack, buf, first.offset());
+        for (Record record : records) {
+            buf.position((int) (record.offset() - first.offset()));
+            long id = buf.getLong();
+            int length = buf.getInt();
+            if (id != record.id || length != record.length) {
+                log.error("Corrupt record of thumbnail " + record.id
+                        + " in " + container);
+                continue;
+            }
+            byte[] thumbnail = new byte[length];
+            buf.get(thumbnail);
+            thumbnails.put(id, thumbnail);
+        }
+    }
+
+    //
+    // Writes
+    //
+
+    /**
+     * Stores a thumbnail, replacing any previous version.
+     *
+     * @param id The id of the thumbnail.
+     * @param thumbnail The bytes of the thumbnail.
+     * @throws IOException If the container cannot be written.
+     */
+    public synchronized void put(long id, byte[] thumbnail)
+            throws IOException {
+        if (!isEnabled()) {
+            throw new IllegalStateException("Packed thumbnails disabled");
+        }
+        if (current.size > 0 && current.size + HEADER_SIZE + thumbnail.length
+                > containerSize) {
+            current = new Container(directory, current.number + 1);
+            containers.put(current.number, current);
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + thumbnail.length);
+        record.putLong(id).putInt(thumbnail.length).put(thumbnail).flip();
+        long offset = current.size;
+        writeFully(current.pack, record, offset);
+        current.size += record.capacity();
+        appendIndexEntry(id, offset, thumbnail.length);
+        forget(id);
+        index.put(id, location(current.number, offset), thumbnail.length);
+        current.liveBytes += record.capacity();
+    }
+
+    /**
+     * Removes thumbnails from the store.
+     *
+     * @param ids The ids of the thumbnails, ignored if not in the store.
+     * @throws IOException If the index cannot be written.
+     */
+    public synchronized void remove(Collection<Long> ids) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        for (Long id : ids) {
+            if (id != null && forget(id)) {
+                appendIndexEntry(id, -1, REMOVED);
+            }
+        }
+    }
+
+    /**
+     * Removes a thumbnail from the index, accounting for its record being
+     * dead.
+     *
+     * @return Whether the thumbnail was in the store.
+     */
+    private boolean forget(long id) {
+        int slot = index.find(id);
+        if (slot < 0) {
+            return false;
+        }
+        Container container =
+                containers.get(containerOf(index.locationAt(slot)));
+        container.liveBytes -= HEADER_SIZE + index.lengthAt(slot);
+        index.remove(id);
+        return true;
+    }
+
+    private void appendIndexEntry(long id, long offset, int length)
+            throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.putLong(id).putLong(offset).putInt(length).flip();
+        writeFully(current.index, entry, current.indexSize);
+        current.indexSize += INDEX_ENTRY_SIZE;
+    }
+
+    //
+    // Compaction
+    //
+
+    /**
+     * Copies the live records of the sealed containers mostly made of dead
+     * ones to the current container and deletes them. Reads and writes
+     * proceed meanwhile. Scheduled by <code>omero.thumbnails.compaction_cron
+     * </code>.
+     *
+     * @return The number of containers deleted.
+     */
+    public int compact() {
+        if (!isEnabled()) {
+            return 0;
+        }
+        synchronized (compactionLock) {
+            int compacted = 0;
+            for (Container container : candidates()) {
+                try {
+                    compact(container);
+                    compacted++;
+                } catch (IOException e) {
+                    log.error("Failed to compact " + container, e);
+                }
+            }
+            if (compacted > 0) {
+                log.info("Compacted " + compacted + " containers of "
+                        + directory);
+            }
+            return compacted;
+        }
+    }
+
+    /**
+     * Returns the sealed containers whose live records make up less than
+     * the compaction ratio.
+     */
+    private synchronized List<Container> candidates() {
+        List<Container> candidates = new ArrayList<Container>();
+        for (Container container : containers.values()) {
+            if (container != current && container.liveBytes
+                    < compactionRatio * container.size) {
+                candidates.add(container);
+            }
+        }
+        return candidates;
+    }
+
+    private void compact(Container container) throws IOException {
+        List<Record> live = new ArrayList<Record>();
+        boolean oldest;
+        synchronized (this) {
+            for (int slot = 0; slot < index.capacity(); slot++) {
+                if (index.isUsed(slot) && containerOf(index.locationAt(slot))
+                        == container.number) {
+                    live.add(new Record(index.keyAt(slot),
+                            index.locationAt(slot), index.lengthAt(slot)));
+                }
+            }
+            oldest = containers.firstKey() == container.number;
+        }
+        Collections.sort(live);
+        for (Record record : live) {
+            ByteBuffer buf = ByteBuffer.allocate(
+                    HEADER_SIZE + record.length);
+            readFully(container.pack, buf, record.offset());
+            byte[] thumbnail = new byte[record.length];
+            buf.position(HEADER_SIZE);
+            buf.get(thumbnail);
+            synchronized (this) {
+                // Unless replaced or removed meanwhile.
+                int slot = index.find(record.id);
+                if (slot >= 0 && index.locationAt(slot) == record.location) {
+                    put(record.id, thumbnail);
+                }
+            }
+        }
+        if (!oldest) {
+            // Removals still mask records of older containers.
+            for (Long id : removals(container)) {
+                synchronized (this) {
+                    if (index.find(id) < 0) {
+                        appendIndexEntry(id, -1, REMOVED);
+                    }
+                }
+            }
+        }
+        deletionLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                containers.remove(container.number);
+            }
+            container.close();
+            if (!container.indexFile.delete()
+                    || !container.packFile.delete()) {
+                log.warn("Failed to delete " + container);
+            }
+        } finally {
+            deletionLock.writeLock().unlock();
+        }
+    }
+
+    /** Returns the ids removed by the index of a container. */
+    private List<Long> removals(Container container) throws IOException {
+        List<Long> ids = new ArrayList<Long>();
+        ByteBuffer buf = ByteBuffer.allocate((int) container.indexSize);
+        readFully(container.index, buf, 0);
+        buf.flip();
+        while (buf.remaining() >= INDEX_ENTRY_SIZE) {
+            long id = buf.getLong();
+            buf.getLong();
+            if (buf.getInt() == REMOVED) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the number of bytes of the containers.
+     *
+     * @return See above.
+     */
+    public synchronized long getTotalBytes() {
+        long bytes = 0;
+        for (Container container : containers.values()) {
+            bytes += container.size;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes of the live records of the containers.
+     *
+     * @return See above.
+     */
+    public synchronized long getLiveBytes() {
+        long bytes = 0;
+        for (Container container : containers.values()) {
+            bytes += container.liveBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Closes the containers and releases the store for other processes.
+     * Used as the Spring <code>destroy-method</code>.
+     */
+    public void close() {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (compactionLock) {
+            synchronized (this) {
+                for (Container container : containers.values()) {
+                    container.close();
+                }
+                try {
+                    directoryLock.release();
+                    directoryLock.channel().close();
+                } catch (IOException e) {
+                    log.warn("Failed to release " + directory, e);
+                }
+            }
+        }
+    }
+
+    //
+    // Helpers
+    //
+
+    private static long location(int container, long offset) {
+        return ((long) container << 40) | offset;
+    }
+
+    private static int containerOf(long location) {
+        return (int) (location >>> 40);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf,
+            long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new EOFException("Read past the end of a container");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf,
+            long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * A container file and its index.
+     */
+    private static final class Container {
+
+        final int number;
+
+        final File packFile;
+
+        final File indexFile;
+
+        final FileChannel pack;
+
+        final FileChannel index;
+
+        /** The number of bytes of the container. */
+        long size;
+
+        /** The number of bytes of the valid entries of the index. */
+        long indexSize;
+
+        /** The number of bytes of the records still in the store. */
+        long liveBytes;
+
+        Container(File directory, int number) throws IOException {
+            this.number = number;
+            String name = String.format("%06d", number);
+            packFile = new File(directory, name + ".pack");
+            indexFile = new File(directory, name + ".idx");
+            pack = new RandomAccessFile(packFile, "rw").getChannel();
+            index = new RandomAccessFile(indexFile, "rw").getChannel();
+            size = pack.size();
+            indexSize = index.size();
+        }
+
+        void close() {
+            Utils.closeQuietly(pack);
+            Utils.closeQuietly(index);
+        }
+
+        @Override
+        public String toString() {
+            return packFile.getPath();
+        }
+    }
+
+    /**
+     * The location of a thumbnail, ordered by container and offset.
+     */
+    private static final class Record implements Comparable<Record> {
+
+        final long id;
+
+        final long location;
+
+        final int length;
+
+        Record(long id, long location, int length) {
+            this.id = id;
+            this.location = location;
+            this.length = length;
+        }
+
+        long offset() {
+            return location & ((1L << 40) - 1);
+        }
+
+        long end() {
+            return offset() + HEADER_SIZE + length;
+        }
+
+        public int compareTo(Record o) {
+            return location < o.location ? -1
+                    : (location == o.location ? 0 : 1);
+        }
+    }
+
+    /**
+     * Open addressing map of thumbnail ids to their location and length,
+     * held in primitive arrays to keep tens of millions of entries small.
+     */
+    static final class Index {
+
+        private final static long FREE = Long.MIN_VALUE;
+
+        private long[] keys;
+
+        private long[] locations;
+
+        private int[] lengths;
+
+        private int size;
+
+        Index() {
+            allocate(1024);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, FREE);
+            locations = new long[capacity];
+            lengths = new int[capacity];
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        boolean isUsed(int slot) {
+            return keys[slot] != FREE;
+        }
+
+        long keyAt(int slot) {
+            return keys[slot];
+        }
+
+        long locationAt(int slot) {
+            return locations[slot];
+        }
+
+        int lengthAt(int slot) {
+            return lengths[slot];
+        }
+
+        /** Returns the slot of a key or <code>-1</code>. */
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slot(key); keys[slot] != FREE;
+                    slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, long location, int length) {
+            if (key == FREE) {
+                throw new IllegalArgumentException("Invalid id: " + key);
+            }
+            if ((size + 1) * 4L > keys.length * 3L) {
+                long[] oldKeys = keys;
+                long[] oldLocations = locations;
+                int[] oldLengths = lengths;
+                allocate(keys.length * 2);
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != FREE) {
+                        put(oldKeys[i], oldLocations[i], oldLengths[i]);
+                    }
+                }
+            }
+            int mask = keys.length - 1;
+            int slot = slot(key);
+            while (keys[slot] != FREE && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == FREE) {
+                size++;
+            }
+            keys[slot] = key;
+            locations[slot] = location;
+            lengths[slot] = length;
+        }
+
+        /**
+         * Removes a key, shifting back the entries of its cluster so that
+         * lookups need no tombstones.
+         */
+        void remove(long key) {
+            int slot = find(key);
+            if (slot < 0) {
+                return;
+            }
+            int mask = keys.length - 1;
+            int gap = slot;
+            for (int next = (gap + 1) & mask; keys[next] != FREE;
+                    next = (next + 1) & mask) {
+                int home = slot(keys[next]);
+                // Move the entry unless its home lies cyclically in
+                // (gap, next].
+                boolean stays = gap <= next ?
+                        (gap < home && home <= next)
+                        : (gap < home || home <= next);
+                if (!stays) {
+                    keys[gap] = keys[next];
+                    locations[gap] = locations[next];
+                    lengths[gap] = lengths[next];
+                    gap = next;
+                }
+            }
+            keys[gap] = FREE;
+            size--;
+        }
+    }
+}
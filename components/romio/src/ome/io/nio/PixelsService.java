@@ -29,6 +29,8 @@ import ome.conditions.MissingPyramidException;
 import ome.conditions.ResourceError;
 import ome.io.bioformats.BfPixelBuffer;
 import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.bioformats.PyramidCodec;
+import ome.io.bioformats.PyramidReaderPool;
 import ome.io.messages.MissingPyramidMessage;
 import ome.io.messages.MissingStatsInfoMessage;
 import ome.parameters.Parameters;
@@ -36,7 +38,6 @@ import ome.system.metrics.Metrics;
 import ome.system.metrics.Timer;
 import ome.model.core.Pixels;
 import ome.model.stats.StatsInfo;
-import ome.util.PixelData;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -96,6 +97,44 @@ public class PixelsService extends AbstractFileSystemService
 	
 	private IQuery iQuery;
 
+    /**
+     * Pool of pyramid readers shared by the pyramid pixel buffers. If
+     * <code>null</code>, each buffer reads through a single reader of its own.
+     */
+    private PyramidReaderPool pyramidReaderPool;
+
+    /**
+     * Number of workers computing the lower resolution levels of each
+     * pyramid created.
+     */
+    private int pyramidWorkers = 2;
+
+    /**
+     * Codec of the pyramids created, a {@link PyramidCodec} setting or
+     * {@link PyramidCodec#AUTO}.
+     */
+    private String pyramidCodec = PyramidCodec.JPEG_2000.getSetting();
+
+    /**
+     * Cache of mapped segments shared by the ROMIO pixel buffers. If
+     * <code>null</code>, each buffer maps every region it reads.
+     */
+    private MappedSegmentCache segmentCache;
+
+    /**
+     * Cache of tiles and planes shared by the pixel buffers returned by
+     * {@link #getPixelBuffer(Pixels, boolean)}. If <code>null</code>, each
+     * buffer reads every tile and plane requested.
+     */
+    private TileCache tileCache;
+
+    /**
+     * Pool reading ahead for the pixel buffers returned by
+     * {@link #getPixelBuffer(Pixels, boolean)}. If <code>null</code>, the
+     * buffers do not read ahead.
+     */
+    private Prefetcher prefetcher;
+
 	/** Null plane byte array. */
 	public static final byte[] nullPlane = new byte[] { -128, 127, -128, 127,
 			-128, 127, -128, 127, -128, 127, // 10
@@ -188,6 +227,64 @@ public class PixelsService extends AbstractFileSystemService
         this.minmaxTimes = metrics.timer(this, "minmaxTimes");
     }
 
+    /**
+     * Sets the pool the pyramid pixel buffers borrow their readers from.
+     * @param pyramidReaderPool The pool to use.
+     */
+    public void setPyramidReaderPool(PyramidReaderPool pyramidReaderPool) {
+        this.pyramidReaderPool = pyramidReaderPool;
+    }
+
+    /**
+     * Sets the number of workers computing the lower resolution levels of
+     * each pyramid created.
+     * @param pyramidWorkers The number of workers. Values lower than
+     * <code>1</code> mean one worker per available processor.
+     */
+    public void setPyramidWorkers(int pyramidWorkers) {
+        this.pyramidWorkers = pyramidWorkers;
+    }
+
+    /**
+     * Sets the codec of the pyramids created. Existing pyramids are read
+     * with the codec they were written with.
+     * @param pyramidCodec The setting of a {@link PyramidCodec} or
+     * {@link PyramidCodec#AUTO} to select one per pixels type.
+     * @throws IllegalArgumentException If the setting names no codec.
+     */
+    public void setPyramidCodec(String pyramidCodec) {
+        // Fail on start-up rather than on the first pyramid.
+        PyramidCodec.fromSetting(pyramidCodec, "uint16");
+        this.pyramidCodec = pyramidCodec;
+    }
+
+    /**
+     * Sets the cache of mapped segments the read-only ROMIO pixel buffers
+     * read their regions from.
+     * @param segmentCache The cache to use or <code>null</code>.
+     */
+    public void setSegmentCache(MappedSegmentCache segmentCache) {
+        this.segmentCache = segmentCache;
+    }
+
+    /**
+     * Sets the cache of tiles and planes shared by the pixel buffers
+     * returned by {@link #getPixelBuffer(Pixels, boolean)}.
+     * @param tileCache The cache to use or <code>null</code>.
+     */
+    public void setTileCache(TileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Sets the pool reading ahead for the pixel buffers returned by
+     * {@link #getPixelBuffer(Pixels, boolean)}.
+     * @param prefetcher The pool to use or <code>null</code>.
+     */
+    public void setPrefetcher(Prefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
     public long getMemoizerWait() {
         return memoizerWait;
     }
@@ -231,6 +328,22 @@ public class PixelsService extends AbstractFileSystemService
      * @since OMERO-Beta4.3
      */
     public StatsInfo[] makePyramid(Pixels pixels)
+    {
+        return makePyramid(pixels, null);
+    }
+
+    /**
+     * Creates a pixels pyramid for a given set of pixels, notifying the
+     * passed instance as the tiles are written. If the pyramid file already
+     * exists, then a DEBUG message is logged and this method returns.
+     *
+     * @param pixels Pixels set to retrieve a pixel buffer for.
+     * @param progress Notified as the tiles are written, may be
+     * <code>null</code>.
+     * @since 5.3.0
+     */
+    public StatsInfo[] makePyramid(Pixels pixels,
+            PyramidBuilder.Progress progress)
     {
         final String pixelsFilePath = getPixelsPath(pixels.getId());
         final File pixelsFile = new File(pixelsFilePath);
@@ -305,7 +418,7 @@ public class PixelsService extends AbstractFileSystemService
 
             PixelsPyramidMinMaxStore minMaxStore = performWrite(
                     pixels, pixelsPyramidFile, pixelsPyramid,
-                    pixelsFile, pixelsFilePath, originalFilePath);
+                    pixelsFile, pixelsFilePath, originalFilePath, progress);
             if (minMaxStore != null)
             {
                 return minMaxStore.createStatsInfo();
@@ -332,7 +445,8 @@ public class PixelsService extends AbstractFileSystemService
     private PixelsPyramidMinMaxStore performWrite(
             final Pixels pixels,final File pixelsPyramidFile,
             final BfPyramidPixelBuffer pixelsPyramid, final File pixelsFile,
-            final String pixelsFilePath, final String originalFilePath) {
+            final String pixelsFilePath, final String originalFilePath,
+            final PyramidBuilder.Progress progress) {
 
         final PixelBuffer source;
         final Dimension tileSize;
@@ -394,54 +508,28 @@ public class PixelsService extends AbstractFileSystemService
 
         try
         {
-            final double totalTiles =
-                source.getSizeZ() * source.getSizeC() * source.getSizeT() *
-                (Math.ceil(source.getSizeX() / tileSize.getWidth())) *
-                (Math.ceil(source.getSizeY() / tileSize.getHeight()));
-            final int tenPercent = Math.max((int) totalTiles / 10, 1);
-            Utils.forEachTile(new TileLoopIteration() {
-                public void run(int z, int c, int t, int x, int y, int w,
-                            int h, int tileCount)
+            PyramidBuilder builder = new PyramidBuilder(pixels, source,
+                    pixelsPyramid, tileSize, pyramidWorkers);
+            builder.setTileTimes(tileTimes);
+            try
             {
-                if (log.isInfoEnabled()
-                    && tileCount % tenPercent == 0)
-                {
-                    log.info(String.format(
-                            "Pyramid creation for Pixels:%d %d/%d (%d%%).",
-                            pixels.getId(), tileCount + 1, (int) totalTiles,
-                            (int) (tileCount / totalTiles * 100)));
-                }
+                builder.build(progress);
+            }
+            catch (IOException e1)
+            {
+                log.error("FAIL -- Error during tile population", e1);
                 try
                 {
-                    Timer.Context ctx = tileTimes == null ? null : tileTimes.time();
-                    try {
-                        PixelData tile = source.getTile(z, c, t, x, y, w, h);
-                        pixelsPyramid.setTile(
-                            tile.getData().array(), z, c, t, x, y, w, h);
-                        tile.dispose();
-                    } finally {
-                        if (ctx != null) {
-                            ctx.stop();
-                        }
-                    }
+                    pixelsPyramidFile.delete();
+                    FileUtils.touch(pixelsPyramidFile); // ticket:5189
                 }
-                catch (IOException e1)
+                catch (Exception e2)
                 {
-                    log.error("FAIL -- Error during tile population", e1);
-                    try
-                    {
-                        pixelsPyramidFile.delete();
-                        FileUtils.touch(pixelsPyramidFile); // ticket:5189
-                    }
-                    catch (Exception e2)
-                    {
-                        log.warn("Error clearing empty or incomplete pixel " +
-                                 "buffer.", e2);
-                    }
-                    return;
+                    log.warn("Error clearing empty or incomplete pixel " +
+                             "buffer.", e2);
                 }
+                return minMaxStore;
             }
-            }, source, (int) tileSize.getWidth(), (int) tileSize.getHeight());
 
             log.info("SUCCESS -- Pyramid created for pixels id:" + pixels.getId());
 
@@ -488,12 +576,19 @@ public class PixelsService extends AbstractFileSystemService
      * @param write Whether or not to open the pixel buffer as read-write.
      * <code>true</code> opens as read-write, <code>false</code> opens as
      * read-only.
-     * @return A pixel buffer instance.
+     * @return A pixel buffer instance, reading its tiles and planes through
+     * the tile cache and reading ahead if set to.
      * @since OMERO-Beta4.3
      */
     public PixelBuffer getPixelBuffer(Pixels pixels, boolean write)
     {
         PixelBuffer pb = _getPixelBuffer(pixels, write);
+        if (tileCache != null && tileCache.isEnabled()) {
+            pb = new CachingPixelBuffer(pb, pixels, tileCache);
+        }
+        if (prefetcher != null && prefetcher.isEnabled()) {
+            pb = new PrefetchingPixelBuffer(pb, prefetcher);
+        }
         if (log.isDebugEnabled()) {
             log.debug(pb +" for " + pixels);
         }
@@ -833,7 +928,14 @@ public class PixelsService extends AbstractFileSystemService
                 // #5159. Creating the path if we need to write.
                 createSubpath(filePath);
             }
-            return new BfPyramidPixelBuffer(pixels, filePath, write);
+            BfPyramidPixelBuffer pixelsPyramid = new BfPyramidPixelBuffer(
+                    pixels, filePath, write, pyramidReaderPool);
+            if (pixelsPyramid.isWrite())
+            {
+                pixelsPyramid.setCodec(PyramidCodec.fromSetting(
+                        pyramidCodec, pixels.getPixelsType().getValue()));
+            }
+            return pixelsPyramid;
         }
         catch (Exception e)
         {
@@ -855,7 +957,10 @@ public class PixelsService extends AbstractFileSystemService
      */
     protected PixelBuffer createRomioPixelBuffer(String pixelsFilePath,
         Pixels pixels, boolean allowModification) {
-        return new RomioPixelBuffer(pixelsFilePath, pixels, allowModification);
+        RomioPixelBuffer pixbuf =
+                new RomioPixelBuffer(pixelsFilePath, pixels, allowModification);
+        pixbuf.setSegmentCache(segmentCache);
+        return pixbuf;
     }
 
     /**
@@ -876,6 +981,12 @@ public class PixelsService extends AbstractFileSystemService
 			String pixelPath = getPixelsPath(id);
 			file = new File(pixelPath);
 			fileName = file.getName();
+			if (segmentCache != null) {
+				segmentCache.invalidate(pixelPath);
+			}
+			if (tileCache != null) {
+				tileCache.invalidate(id);
+			}
 			if (file.exists()) {
 				success = file.delete();
 				if (!success) {
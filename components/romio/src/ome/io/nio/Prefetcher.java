@@ -0,0 +1,188 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of threads reading ahead for the {@link PrefetchingPixelBuffer}
+ * instances of the process. Each buffer watches the planes and tiles it is
+ * asked for and, once they follow each other along Z, T or across the
+ * plane, has the next ones read by this pool while the viewer is busy with
+ * the current one.
+ * <p>
+ * Requests served from a read-ahead are exported as
+ * <code>prefetchHits</code>, the others as <code>prefetchMisses</code> and
+ * the read-aheads discarded because the viewer went elsewhere as
+ * <code>prefetchWasted</code>. When the queue of the pool is full, further
+ * read-aheads are dropped rather than delaying the viewers.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class Prefetcher {
+
+    private final static Logger log = LoggerFactory.getLogger(Prefetcher.class);
+
+    /** The maximum number of read-aheads waiting for a thread. */
+    public static final int QUEUE_SIZE = 256;
+
+    /** The number of planes or tiles read ahead by each buffer. */
+    private final int depth;
+
+    /** The pool reading ahead, <code>null</code> if disabled. */
+    private final ThreadPoolExecutor pool;
+
+    /** The number of requests served from a read-ahead. */
+    private final Counter prefetchHits;
+
+    /** The number of requests not served from a read-ahead. */
+    private final Counter prefetchMisses;
+
+    /** The number of read-aheads discarded. */
+    private final Counter prefetchWasted;
+
+    /**
+     * Creates a new instance which does not collect metrics.
+     *
+     * @param depth The number of planes or tiles read ahead by each buffer.
+     *              Values lower than <code>1</code> disable read-ahead.
+     * @param threads The number of threads reading ahead. Values lower than
+     *                <code>1</code> mean one thread per available processor.
+     */
+    public Prefetcher(int depth, int threads) {
+        this(depth, threads, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param depth The number of planes or tiles read ahead by each buffer.
+     *              Values lower than <code>1</code> disable read-ahead.
+     * @param threads The number of threads reading ahead. Values lower than
+     *                <code>1</code> mean one thread per available processor.
+     * @param metrics Used to export the hit rate of the read-aheads.
+     */
+    public Prefetcher(int depth, int threads, Metrics metrics) {
+        this.depth = Math.max(0, depth);
+        if (threads < 1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (this.depth > 0) {
+            pool = new ThreadPoolExecutor(threads, threads,
+                    60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                    new PrefetchThreadFactory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            log.info("Reading " + depth + " planes or tiles ahead with "
+                    + threads + " threads");
+        } else {
+            pool = null;
+        }
+        prefetchHits = metrics.counter(this, "prefetchHits");
+        prefetchMisses = metrics.counter(this, "prefetchMisses");
+        prefetchWasted = metrics.counter(this, "prefetchWasted");
+    }
+
+    /**
+     * Returns whether buffers read ahead at all.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return pool != null;
+    }
+
+    /**
+     * Returns the number of planes or tiles read ahead by each buffer.
+     *
+     * @return See above.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Stops reading ahead. Read-aheads waiting for a thread are dropped,
+     * those already started are completed. Used as the Spring
+     * <code>destroy-method</code>.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Submits a read-ahead.
+     *
+     * @param task The read-ahead.
+     * @return The future of the read-ahead or <code>null</code> if it was
+     * dropped because the pool is busy, shut down or disabled.
+     */
+    Future<Object> submit(Callable<Object> task) {
+        if (pool == null) {
+            return null;
+        }
+        try {
+            return pool.submit(task);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /** Records a request served from a read-ahead. */
+    void hit() {
+        prefetchHits.inc();
+    }
+
+    /** Records a request not served from a read-ahead. */
+    void miss() {
+        prefetchMisses.inc();
+    }
+
+    /**
+     * Records read-aheads discarded.
+     *
+     * @param count The number of read-aheads discarded.
+     */
+    void wasted(int count) {
+        for (int i = 0; i < count; i++) {
+            prefetchWasted.inc();
+        }
+    }
+
+    /**
+     * Creates daemon threads with recognizable names.
+     */
+    private static class PrefetchThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "prefetch-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,620 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pixel buffer reading ahead of a viewer stepping through Z or T, or across
+ * a plane tile by tile. When two consecutive requests for planes or tiles of
+ * the same size differ by one step along Z or T, in either direction, or by
+ * one tile to the right or downwards, the next planes or tiles along that
+ * direction are read by the {@link Prefetcher} and kept until requested.
+ * A request off that direction discards them, as do all the other reads,
+ * e.g. rows or stacks.
+ * <p>
+ * The buffer delegated to is only used by one thread at a time, either the
+ * viewer's or a read-ahead: all the reads and writes hold the same lock.
+ * </p>
+ *
+ * @since 5.3.0
+ * @see PixelsService#setPrefetcher(Prefetcher)
+ */
+public class PrefetchingPixelBuffer extends DelegatingPixelBuffer {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(PrefetchingPixelBuffer.class);
+
+    /** The directions along which requests are followed. */
+    static enum Axis {
+        Z, T, X, Y;
+    }
+
+    /** The pool reading ahead. */
+    private final Prefetcher prefetcher;
+
+    /** Guards the use of the buffer delegated to. */
+    private final Object readLock = new Object();
+
+    /** The read-aheads, in the order of the direction followed. */
+    private final Map<Request, Future<Object>> pending =
+            new LinkedHashMap<Request, Future<Object>>();
+
+    /** The last request. */
+    private Request last;
+
+    /** The direction followed, <code>null</code> if none. */
+    private Axis axis;
+
+    /** The step along {@link #axis}, <code>1</code> or <code>-1</code>. */
+    private int step;
+
+    /** Whether the buffer was closed. */
+    private boolean closed;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param delegate The buffer to read from.
+     * @param prefetcher The pool reading ahead.
+     */
+    public PrefetchingPixelBuffer(PixelBuffer delegate, Prefetcher prefetcher) {
+        super(delegate);
+        this.prefetcher = prefetcher;
+    }
+
+    //
+    // Reads, followed
+    //
+
+    public PixelData getTile(Integer z, Integer c, Integer t, Integer x,
+            Integer y, Integer w, Integer h) throws IOException {
+        return (PixelData) read(new Request(false, getResolutionLevel(),
+                z, c, t, x, y, w, h, false), null);
+    }
+
+    public byte[] getTileDirect(Integer z, Integer c, Integer t, Integer x,
+            Integer y, Integer w, Integer h, byte[] buffer)
+            throws IOException {
+        return (byte[]) read(new Request(false, getResolutionLevel(),
+                z, c, t, x, y, w, h, true), buffer);
+    }
+
+    public PixelData getPlane(Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        return (PixelData) read(new Request(true, getResolutionLevel(),
+                z, c, t, 0, 0, getSizeX(), getSizeY(), false), null);
+    }
+
+    public byte[] getPlaneDirect(Integer z, Integer c, Integer t,
+            byte[] buffer) throws IOException, DimensionsOutOfBoundsException {
+        return (byte[]) read(new Request(true, getResolutionLevel(),
+                z, c, t, 0, 0, getSizeX(), getSizeY(), true), buffer);
+    }
+
+    /**
+     * Serves a request from its read-ahead if there is one, reads it
+     * otherwise, then reads ahead of it.
+     *
+     * @param request The request.
+     * @param buffer The buffer to read into, for direct requests.
+     * @return The data read: {@link PixelData} or <code>buffer</code>.
+     */
+    private Object read(Request request, byte[] buffer) throws IOException {
+        Future<Object> future;
+        synchronized (this) {
+            future = pending.remove(request);
+            follow(request);
+        }
+        Object data = null;
+        // A read-ahead not started yet is not waited for.
+        if (future != null && (future.isDone() || !future.cancel(false))) {
+            data = await(future);
+        }
+        if (data != null && request.direct) {
+            byte[] read = (byte[]) data;
+            if (read.length == buffer.length) {
+                System.arraycopy(read, 0, buffer, 0, read.length);
+                data = buffer;
+            } else {
+                data = null;
+            }
+        }
+        if (data != null) {
+            prefetcher.hit();
+        } else {
+            prefetcher.miss();
+            data = load(request, buffer);
+        }
+        readAhead(request.direct && buffer != null ? buffer.length : 0);
+        return data;
+    }
+
+    /** Returns the result of a read-ahead, <code>null</code> if it failed. */
+    private Object await(Future<Object> future) {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (ExecutionException e) {
+            log.debug("Read-ahead failed", e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Reads from the buffer delegated to.
+     *
+     * @param r The request to read.
+     * @param buffer The buffer to read into, for direct requests.
+     * @return The data read: {@link PixelData} or <code>buffer</code>.
+     */
+    private Object load(Request r, byte[] buffer) throws IOException {
+        synchronized (readLock) {
+            if (r.plane) {
+                return r.direct ? delegate.getPlaneDirect(r.z, r.c, r.t, buffer)
+                        : delegate.getPlane(r.z, r.c, r.t);
+            }
+            return r.direct
+                    ? delegate.getTileDirect(r.z, r.c, r.t, r.x, r.y, r.w, r.h,
+                            buffer)
+                    : delegate.getTile(r.z, r.c, r.t, r.x, r.y, r.w, r.h);
+        }
+    }
+
+    /**
+     * Updates the direction followed with a request, discarding the
+     * read-aheads if the request is off that direction.
+     */
+    private void follow(Request request) {
+        if (axis != null && request.equals(next(last, axis, step))) {
+            last = request;
+            return;
+        }
+        discard();
+        Request previous = last;
+        last = request;
+        if (previous == null) {
+            return;
+        }
+        for (Axis a : Axis.values()) {
+            for (int s = 1; s >= -1; s -= 2) {
+                if (request.equals(next(previous, a, s))) {
+                    axis = a;
+                    step = s;
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Discards the read-aheads and stops following. */
+    private void discard() {
+        axis = null;
+        int wasted = 0;
+        for (Future<Object> future : pending.values()) {
+            future.cancel(false);
+            wasted++;
+        }
+        pending.clear();
+        prefetcher.wasted(wasted);
+    }
+
+    /**
+     * Submits the read-aheads of the requests following the last one that
+     * are not yet read ahead.
+     *
+     * @param length The length of the buffers of direct requests.
+     */
+    private synchronized void readAhead(final int length) {
+        if (axis == null || closed) {
+            return;
+        }
+        Request next = last;
+        for (int i = 0; i < prefetcher.getDepth(); i++) {
+            next = next(next, axis, step);
+            if (next == null) {
+                break;
+            }
+            if (pending.containsKey(next)) {
+                continue;
+            }
+            final Request request = next;
+            Future<Object> future = prefetcher.submit(new Callable<Object>() {
+                public Object call() throws IOException {
+                    synchronized (readLock) {
+                        if (isStale(request)) {
+                            return null;
+                        }
+                        return load(request,
+                                request.direct ? new byte[length] : null);
+                    }
+                }
+            });
+            if (future == null) {
+                break;
+            }
+            pending.put(request, future);
+        }
+    }
+
+    /**
+     * Returns whether a read-ahead is no longer wanted or can no longer be
+     * read as requested. Called holding {@link #readLock}.
+     */
+    private boolean isStale(Request request) {
+        synchronized (this) {
+            if (closed || !pending.containsKey(request)) {
+                return true;
+            }
+        }
+        return delegate.getResolutionLevel() != request.level;
+    }
+
+    /**
+     * Returns the request following <code>r</code> along an axis, or
+     * <code>null</code> if it would be out of bounds.
+     */
+    private Request next(Request r, Axis axis, int step) {
+        switch (axis) {
+            case Z:
+                return r.z + step < 0 || r.z + step >= getSizeZ() ? null
+                        : new Request(r.plane, r.level, r.z + step, r.c, r.t,
+                                r.x, r.y, r.w, r.h, r.direct);
+            case T:
+                return r.t + step < 0 || r.t + step >= getSizeT() ? null
+                        : new Request(r.plane, r.level, r.z, r.c, r.t + step,
+                                r.x, r.y, r.w, r.h, r.direct);
+            case X:
+                // Tiles to the right, the last one of a row may be narrower.
+                if (r.plane || step < 0 || r.x + r.w >= getSizeX()) {
+                    return null;
+                }
+                return new Request(false, r.level, r.z, r.c, r.t, r.x + r.w,
+                        r.y, Math.min(r.w, getSizeX() - r.x - r.w), r.h,
+                        r.direct);
+            case Y:
+                // Tiles downwards, the last one of a column may be shorter.
+                if (r.plane || step < 0 || r.y + r.h >= getSizeY()) {
+                    return null;
+                }
+                return new Request(false, r.level, r.z, r.c, r.t, r.x,
+                        r.y + r.h, r.w, Math.min(r.h, getSizeY() - r.y - r.h),
+                        r.direct);
+            default:
+                return null;
+        }
+    }
+
+    //
+    // Other reads, discarding the read-aheads
+    //
+
+    public PixelData getRow(Integer y, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getRow(y, z, c, t);
+        }
+    }
+
+    public byte[] getRowDirect(Integer y, Integer z, Integer c, Integer t,
+            byte[] buffer) throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getRowDirect(y, z, c, t, buffer);
+        }
+    }
+
+    public PixelData getCol(Integer x, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getCol(x, z, c, t);
+        }
+    }
+
+    public byte[] getColDirect(Integer x, Integer z, Integer c, Integer t,
+            byte[] buffer) throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getColDirect(x, z, c, t, buffer);
+        }
+    }
+
+    public PixelData getPlaneRegion(Integer x, Integer y, Integer width,
+            Integer height, Integer z, Integer c, Integer t, Integer stride)
+            throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getPlaneRegion(x, y, width, height, z, c, t,
+                    stride);
+        }
+    }
+
+    public byte[] getPlaneRegionDirect(Integer z, Integer c, Integer t,
+            Integer count, Integer offset, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getPlaneRegionDirect(z, c, t, count, offset,
+                    buffer);
+        }
+    }
+
+    public PixelData getStack(Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getStack(c, t);
+        }
+    }
+
+    public byte[] getStackDirect(Integer c, Integer t, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getStackDirect(c, t, buffer);
+        }
+    }
+
+    public PixelData getTimepoint(Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getTimepoint(t);
+        }
+    }
+
+    public byte[] getTimepointDirect(Integer t, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getTimepointDirect(t, buffer);
+        }
+    }
+
+    public PixelData getHypercube(List<Integer> offset, List<Integer> size,
+            List<Integer> step)
+            throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getHypercube(offset, size, step);
+        }
+    }
+
+    public byte[] getHypercubeDirect(List<Integer> offset, List<Integer> size,
+            List<Integer> step, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        synchronized (unfollowed()) {
+            return delegate.getHypercubeDirect(offset, size, step, buffer);
+        }
+    }
+
+    public PixelData getRegion(Integer size, Long offset) throws IOException {
+        synchronized (unfollowed()) {
+            return delegate.getRegion(size, offset);
+        }
+    }
+
+    public byte[] getRegionDirect(Integer size, Long offset, byte[] buffer)
+            throws IOException {
+        synchronized (unfollowed()) {
+            return delegate.getRegionDirect(size, offset, buffer);
+        }
+    }
+
+    public byte[] calculateMessageDigest() throws IOException {
+        synchronized (unfollowed()) {
+            return delegate.calculateMessageDigest();
+        }
+    }
+
+    //
+    // Metadata read from the buffer delegated to
+    //
+
+    public int getResolutionLevels() {
+        synchronized (readLock) {
+            return delegate.getResolutionLevels();
+        }
+    }
+
+    public List<List<Integer>> getResolutionDescriptions() {
+        synchronized (readLock) {
+            return delegate.getResolutionDescriptions();
+        }
+    }
+
+    public Dimension getTileSize() {
+        synchronized (readLock) {
+            return delegate.getTileSize();
+        }
+    }
+
+    //
+    // Changes of resolution and writes, discarding the read-aheads
+    //
+
+    public void setResolutionLevel(int resolutionLevel) {
+        synchronized (this) {
+            discard();
+            last = null;
+        }
+        synchronized (readLock) {
+            delegate.setResolutionLevel(resolutionLevel);
+        }
+    }
+
+    public void setTile(byte[] buffer, Integer z, Integer c, Integer t,
+            Integer x, Integer y, Integer w, Integer h)
+            throws IOException, BufferOverflowException {
+        synchronized (unfollowed()) {
+            delegate.setTile(buffer, z, c, t, x, y, w, h);
+        }
+    }
+
+    public void setRegion(Integer size, Long offset, byte[] buffer)
+            throws IOException, BufferOverflowException {
+        synchronized (unfollowed()) {
+            delegate.setRegion(size, offset, buffer);
+        }
+    }
+
+    public void setRegion(Integer size, Long offset, ByteBuffer buffer)
+            throws IOException, BufferOverflowException {
+        synchronized (unfollowed()) {
+            delegate.setRegion(size, offset, buffer);
+        }
+    }
+
+    public void setRow(ByteBuffer buffer, Integer y, Integer z, Integer c,
+            Integer t) throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        synchronized (unfollowed()) {
+            delegate.setRow(buffer, y, z, c, t);
+        }
+    }
+
+    public void setPlane(ByteBuffer buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        synchronized (unfollowed()) {
+            delegate.setPlane(buffer, z, c, t);
+        }
+    }
+
+    public void setPlane(byte[] buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        synchronized (unfollowed()) {
+            delegate.setPlane(buffer, z, c, t);
+        }
+    }
+
+    public void setStack(ByteBuffer buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        synchronized (unfollowed()) {
+            delegate.setStack(buffer, z, c, t);
+        }
+    }
+
+    public void setStack(byte[] buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        synchronized (unfollowed()) {
+            delegate.setStack(buffer, z, c, t);
+        }
+    }
+
+    public void setTimepoint(ByteBuffer buffer, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        synchronized (unfollowed()) {
+            delegate.setTimepoint(buffer, t);
+        }
+    }
+
+    public void setTimepoint(byte[] buffer, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        synchronized (unfollowed()) {
+            delegate.setTimepoint(buffer, t);
+        }
+    }
+
+    /** Discards the read-aheads and forgets the last request. */
+    private synchronized void reset() {
+        discard();
+        last = null;
+    }
+
+    /**
+     * Discards the read-aheads for a read or write off the requests
+     * followed and returns the lock to hold while it uses the buffer
+     * delegated to.
+     *
+     * @return See above.
+     */
+    private Object unfollowed() {
+        reset();
+        return readLock;
+    }
+
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            discard();
+        }
+        synchronized (readLock) {
+            delegate.close();
+        }
+    }
+
+    /**
+     * A request for a plane or a tile.
+     */
+    private static final class Request {
+
+        /** Whether a whole plane is requested. */
+        final boolean plane;
+
+        /** Whether the request is for one of the <code>Direct</code> reads. */
+        final boolean direct;
+
+        final int level, z, c, t, x, y, w, h;
+
+        Request(boolean plane, int level, int z, int c, int t,
+                int x, int y, int w, int h, boolean direct) {
+            this.plane = plane;
+            this.level = level;
+            this.z = z;
+            this.c = c;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.direct = direct;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Request)) {
+                return false;
+            }
+            Request o = (Request) obj;
+            return plane == o.plane && direct == o.direct && level == o.level
+                    && z == o.z && c == o.c && t == o.t
+                    && x == o.x && y == o.y && w == o.w && h == o.h;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = plane ? 1 : 0;
+            hash = 2 * hash + (direct ? 1 : 0);
+            hash = 31 * hash + level;
+            hash = 31 * hash + z;
+            hash = 31 * hash + c;
+            hash = 31 * hash + t;
+            hash = 31 * hash + x;
+            hash = 31 * hash + y;
+            hash = 31 * hash + w;
+            hash = 31 * hash + h;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.bioformats.PyramidLevels;
+import ome.model.core.Pixels;
+import ome.system.metrics.Timer;
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the pyramid of a pixels set in three stages running concurrently:
+ * <ol>
+ * <li>a reader stage reading the tiles of the full resolution level from the
+ * source, in order;</li>
+ * <li>a configurable number of workers computing from each tile its part of
+ * the lower resolution levels stored in the pyramid, each level from the
+ * level above;</li>
+ * <li>a writer stage, on the calling thread, handing the tiles and their
+ * lower resolutions to the pyramid in order.</li>
+ * </ol>
+ * The full resolution tiles are compressed by the pyramid writer as they
+ * are written, which Bio-Formats only allows in order. The lower resolution
+ * levels are kept by the pyramid until it is closed so that they are not
+ * decoded back from the compressed full resolution level.
+ *
+ * @since 5.3.0
+ */
+public class PyramidBuilder {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(PyramidBuilder.class);
+
+    /**
+     * Notified by the writer stage as the tiles are written.
+     */
+    public interface Progress {
+
+        /**
+         * Invoked after each tile is written to the pyramid.
+         * @param pixelsId The pixels set the pyramid is built for.
+         * @param written The number of tiles written so far.
+         * @param total The total number of tiles.
+         */
+        void tileWritten(long pixelsId, int written, int total);
+    }
+
+    /** A tile of the full resolution level and its lower resolutions. */
+    private static final class Tile {
+
+        final int z, c, t, x, y, w, h;
+
+        final PixelData data;
+
+        /** The tile at each level stored as a series, if computed. */
+        byte[][] levels;
+
+        Tile(int z, int c, int t, int x, int y, int w, int h,
+                PixelData data) {
+            this.z = z;
+            this.c = c;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.data = data;
+        }
+    }
+
+    /** Thrown to stop the reader stage when the build is cancelled. */
+    private static final class Cancelled extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** The pixels set the pyramid is built for. */
+    private final Pixels pixels;
+
+    /** The full resolution source of the pyramid. */
+    private final PixelBuffer source;
+
+    /** The pyramid written to. */
+    private final BfPyramidPixelBuffer pyramid;
+
+    /** The levels stored as series by the pyramid. */
+    private final int[] seriesLevels;
+
+    private final int tileWidth;
+
+    private final int tileHeight;
+
+    /** The number of workers computing the lower resolution levels. */
+    private final int workers;
+
+    /**
+     * Whether the lower resolution levels are computed by the workers,
+     * <code>false</code> for bit pixels which are left to the writer.
+     */
+    private final boolean computeLevels;
+
+    /** Times the writing of each tile, may be <code>null</code>. */
+    private Timer tileTimes;
+
+    /**
+     * Creates a new instance.
+     * @param pixels The pixels set the pyramid is built for.
+     * @param source The full resolution source of the pyramid.
+     * @param pyramid The pyramid to write to, in writing-mode, with its
+     * codec set.
+     * @param tileSize The size of the tiles of the full resolution level.
+     * @param workers The number of workers computing the lower resolution
+     * levels. Values lower than <code>1</code> mean one worker per available
+     * processor.
+     */
+    public PyramidBuilder(Pixels pixels, PixelBuffer source,
+            BfPyramidPixelBuffer pyramid, Dimension tileSize, int workers) {
+        this.pixels = pixels;
+        this.source = source;
+        this.pyramid = pyramid;
+        this.seriesLevels = pyramid.getSeriesLevels();
+        this.tileWidth = (int) tileSize.getWidth();
+        this.tileHeight = (int) tileSize.getHeight();
+        this.workers = workers < 1?
+                Runtime.getRuntime().availableProcessors() : workers;
+        this.computeLevels =
+                !"bit".equals(pixels.getPixelsType().getValue());
+    }
+
+    /**
+     * Sets the timer of the writing of each tile.
+     * @param tileTimes The timer, may be <code>null</code>.
+     */
+    public void setTileTimes(Timer tileTimes) {
+        this.tileTimes = tileTimes;
+    }
+
+    /**
+     * Builds the pyramid. The pyramid is not closed.
+     * @param progress Notified as the tiles are written, may be
+     * <code>null</code>.
+     * @throws IOException If a tile cannot be read or written.
+     */
+    public void build(Progress progress) throws IOException {
+        final BlockingQueue<Future<Tile>> queue =
+                new ArrayBlockingQueue<Future<Tile>>(2 * workers);
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(workers, threadFactory());
+        final Thread reader = threadFactory().newThread(new Runnable() {
+            public void run() {
+                read(queue, executor);
+            }
+        });
+        reader.start();
+        try {
+            write(queue, progress);
+        } finally {
+            reader.interrupt();
+            executor.shutdownNow();
+            // The source must not be closed while still being read.
+            boolean interrupted = false;
+            while (reader.isAlive()) {
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The reader stage: reads the tiles in order and queues them, once
+     * their lower resolutions are computed, for the writer stage.
+     * @param queue The queue of the tiles to write.
+     * @param executor The workers.
+     */
+    private void read(final BlockingQueue<Future<Tile>> queue,
+            final ExecutorService executor) {
+        try {
+            Utils.forEachTile(new TileLoopIteration() {
+                public void run(int z, int c, int t, int x, int y, int w,
+                        int h, int tileCount) {
+                    final Tile tile;
+                    try {
+                        tile = new Tile(z, c, t, x, y, w, h,
+                                source.getTile(z, c, t, x, y, w, h));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    FutureTask<Tile> task = new FutureTask<Tile>(
+                            new Callable<Tile>() {
+                        public Tile call() {
+                            if (computeLevels) {
+                                downsample(tile);
+                            }
+                            return tile;
+                        }
+                    });
+                    if (computeLevels) {
+                        executor.execute(task);
+                    } else {
+                        task.run();
+                    }
+                    put(queue, task);
+                }
+            }, source, tileWidth, tileHeight);
+            put(queue, done(null, null));
+        } catch (Cancelled e) {
+            // The writer stage stopped.
+        } catch (RuntimeException e) {
+            Exception cause = e;
+            if (e.getCause() instanceof IOException) {
+                cause = (IOException) e.getCause();
+            }
+            try {
+                put(queue, done(null, cause));
+            } catch (Cancelled c) {
+                // The writer stage stopped.
+            }
+        }
+    }
+
+    /**
+     * Queues a tile for the writer stage.
+     * @param queue The queue of the tiles to write.
+     * @param tile The tile.
+     * @throws Cancelled If interrupted while waiting for the writer stage.
+     */
+    private static void put(BlockingQueue<Future<Tile>> queue,
+            Future<Tile> tile) {
+        try {
+            queue.put(tile);
+        } catch (InterruptedException e) {
+            throw new Cancelled();
+        }
+    }
+
+    /**
+     * Returns a completed future.
+     * @param tile The result of the future.
+     * @param failure The failure of the future, or <code>null</code>.
+     * @return See above.
+     */
+    private static Future<Tile> done(final Tile tile,
+            final Exception failure) {
+        FutureTask<Tile> task = new FutureTask<Tile>(new Callable<Tile>() {
+            public Tile call() throws Exception {
+                if (failure != null) {
+                    throw failure;
+                }
+                return tile;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    /**
+     * The writer stage: writes the queued tiles in order until the end of
+     * the queue, a <code>null</code> tile.
+     * @param queue The queue of the tiles to write.
+     * @param progress Notified as the tiles are written, may be
+     * <code>null</code>.
+     * @throws IOException If a tile cannot be read or written.
+     */
+    private void write(BlockingQueue<Future<Tile>> queue, Progress progress)
+            throws IOException {
+        final int totalTiles = source.getSizeZ() * source.getSizeC()
+                * source.getSizeT()
+                * ((source.getSizeX() + tileWidth - 1) / tileWidth)
+                * ((source.getSizeY() + tileHeight - 1) / tileHeight);
+        final int tenPercent = Math.max(totalTiles / 10, 1);
+        int tileCount = 0;
+        while (true) {
+            final Tile tile;
+            try {
+                tile = queue.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(
+                        "Interrupted creating pyramid for pixels id:"
+                        + pixels.getId());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+            if (tile == null) {
+                return;
+            }
+            if (log.isInfoEnabled() && tileCount % tenPercent == 0) {
+                log.info(String.format(
+                        "Pyramid creation for Pixels:%d %d/%d (%d%%).",
+                        pixels.getId(), tileCount + 1, totalTiles,
+                        (int) ((double) tileCount / totalTiles * 100)));
+            }
+            Timer.Context ctx = tileTimes == null ? null : tileTimes.time();
+            try {
+                pyramid.setTile(tile.data.getData().array(), tile.z, tile.c,
+                        tile.t, tile.x, tile.y, tile.w, tile.h, tile.levels);
+            } finally {
+                if (ctx != null) {
+                    ctx.stop();
+                }
+            }
+            tile.data.dispose();
+            tileCount++;
+            if (progress != null) {
+                progress.tileWritten(pixels.getId(), tileCount, totalTiles);
+            }
+        }
+    }
+
+    /**
+     * Computes the lower resolutions of a tile stored by the pyramid.
+     * @param tile The tile.
+     */
+    private void downsample(Tile tile) {
+        tile.levels = PyramidLevels.downsample(tile.data,
+                pixels.getPixelsType().getValue(), tile.w, tile.h,
+                tileWidth, tileHeight, seriesLevels);
+    }
+
+    /**
+     * Returns a factory of the daemon threads of the reader stage and of
+     * the workers.
+     * @return See above.
+     */
+    private ThreadFactory threadFactory() {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PyramidBuilder-"
+                        + pixels.getId() + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
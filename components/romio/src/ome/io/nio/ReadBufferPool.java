@@ -0,0 +1,182 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+
+/**
+ * Process-wide pool of the arrays tiles and planes are read into before
+ * being sent to the client, shared by all the sessions reading pixels so
+ * that serving a tile does not allocate an array of its size each time.
+ * Arrays are pooled by their exact length, as the whole array is sent.
+ * <p>
+ * An array is borrowed with {@link #borrow(int)} and must be handed back
+ * with {@link #release(byte[])} once nothing reads it any more, i.e. once
+ * the response holding it has been marshalled. Borrowed arrays hold the
+ * pixels last read into them: borrowers must overwrite them entirely.
+ * Arrays not borrowed from this pool, or already released, are ignored by
+ * {@link #release(byte[])}, so that an array is never lent twice.
+ * </p>
+ * <p>
+ * The pooled arrays are bounded in total by the size of the pool, those of
+ * the least recently released length being dropped first. The number of
+ * arrays borrowed from the pool is exported as <code>readBufferHits</code>
+ * and the number allocated as <code>readBufferMisses</code>.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class ReadBufferPool {
+
+    /** The maximum number of bytes held by the pool. */
+    private final long maxBytes;
+
+    /**
+     * The arrays not lent, by length, from the least to the most recently
+     * released length.
+     */
+    private final LinkedHashMap<Integer, ArrayDeque<byte[]>> free =
+            new LinkedHashMap<Integer, ArrayDeque<byte[]>>(16, 0.75f, true);
+
+    /**
+     * The arrays lent and not yet released. Arrays never released are
+     * simply garbage collected.
+     */
+    private final Set<byte[]> lent =
+            Collections.newSetFromMap(new WeakHashMap<byte[], Boolean>());
+
+    /** The number of bytes held by {@link #free}. */
+    private long bytes;
+
+    /** The number of arrays borrowed from the pool. */
+    private final Counter readBufferHits;
+
+    /** The number of arrays allocated. */
+    private final Counter readBufferMisses;
+
+    /**
+     * Creates a new instance which does not collect metrics.
+     *
+     * @param maxBytes The maximum number of bytes held. Values lower than
+     *                 <code>1</code> disable the pool.
+     */
+    public ReadBufferPool(long maxBytes) {
+        this(maxBytes, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxBytes The maximum number of bytes held. Values lower than
+     *                 <code>1</code> disable the pool.
+     * @param metrics Used to export the hit rate of the pool.
+     */
+    public ReadBufferPool(long maxBytes, Metrics metrics) {
+        this.maxBytes = Math.max(0, maxBytes);
+        readBufferHits = metrics.counter(this, "readBufferHits");
+        readBufferMisses = metrics.counter(this, "readBufferMisses");
+    }
+
+    /**
+     * Returns whether arrays are pooled at all.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns the number of bytes of the arrays held by the pool, not
+     * counting those lent.
+     *
+     * @return See above.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Borrows an array, allocating it if none of this length is pooled.
+     *
+     * @param size The length of the array.
+     * @return An array of length <code>size</code>, holding any data.
+     */
+    public synchronized byte[] borrow(int size) {
+        byte[] buffer = null;
+        ArrayDeque<byte[]> arrays = free.get(size);
+        if (arrays != null) {
+            buffer = arrays.pollLast();
+            if (arrays.isEmpty()) {
+                free.remove(size);
+            }
+        }
+        if (buffer == null) {
+            readBufferMisses.inc();
+            buffer = new byte[size];
+        } else {
+            readBufferHits.inc();
+            bytes -= size;
+        }
+        if (isEnabled()) {
+            lent.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Hands back an array borrowed from the pool. The array must not be
+     * read or written afterwards.
+     *
+     * @param buffer The array, ignored if <code>null</code> or not lent by
+     *               the pool.
+     */
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || !lent.remove(buffer)
+                || buffer.length > maxBytes) {
+            return;
+        }
+        ArrayDeque<byte[]> arrays = free.get(buffer.length);
+        if (arrays == null) {
+            arrays = new ArrayDeque<byte[]>();
+            free.put(buffer.length, arrays);
+        }
+        arrays.addLast(buffer);
+        bytes += buffer.length;
+        evict();
+    }
+
+    /**
+     * Drops pooled arrays, least recently released length first, until the
+     * pool is within its size.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Integer, ArrayDeque<byte[]>>> it =
+                free.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<Integer, ArrayDeque<byte[]>> entry = it.next();
+            ArrayDeque<byte[]> arrays = entry.getValue();
+            while (bytes > maxBytes && !arrays.isEmpty()) {
+                bytes -= arrays.pollFirst().length;
+            }
+            if (arrays.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+}
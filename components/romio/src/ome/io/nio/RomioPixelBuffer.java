@@ -80,6 +80,15 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      */
     private final boolean permitModification;
 
+    /**
+     * The cache of mapped segments regions are read from, <code>null</code>
+     * to map each region read.
+     */
+    private MappedSegmentCache segmentCache;
+
+    /** The key of the file in {@link #segmentCache}, set on the first read. */
+    private String segmentKey;
+
     /**
      * Creates a new instance. {@link #permitModification} defaults to false.
      * 
@@ -106,6 +115,17 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
         this.permitModification = permitModification;
     }
 
+    /**
+     * Sets the cache of mapped segments regions are read from. Buffers
+     * permitting modification do not use the cache and map each region read.
+     *
+     * @param segmentCache The cache to use or <code>null</code>.
+     * @since 5.3.0
+     */
+    public void setSegmentCache(MappedSegmentCache segmentCache) {
+        this.segmentCache = segmentCache;
+    }
+
     private void throwIfReadOnly() {
         if (!permitModification) {
             throw new ApiUsageException("Write-method not permitted.");
@@ -342,6 +362,17 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
          * there happens to be an error.
          */
 
+        if (segmentCache != null && !permitModification) {
+            if (segmentKey == null) {
+                segmentKey = MappedSegmentCache.fileKey(getPath());
+            }
+            ByteBuffer b = segmentCache.getRegion(
+                    segmentKey, fileChannel, offset, size);
+            if (b != null) {
+                // Views have no cleaner: disposing them leaves the segment.
+                return new PixelData(pixels.getPixelsType().getValue(), b);
+            }
+        }
         MappedByteBuffer b = fileChannel.map(MapMode.READ_ONLY, offset, size);
         return new PixelData(pixels.getPixelsType().getValue(), b);
     }
@@ -0,0 +1,255 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Process-wide cache of the compressed thumbnails most recently read by the
+ * {@link ThumbnailService}, so that grid views fetching the same thumbnails
+ * over and over are served without reading them from disk.
+ * <p>
+ * Thumbnails are cached by thumbnail id along with the version of their
+ * metadata when read: a thumbnail whose metadata has another version is a
+ * miss. Thumbnails written, removed or whose metadata is found dirty are
+ * invalidated. A thumbnail read from disk is only cached if no thumbnail was
+ * invalidated meanwhile, see {@link #stamp()}, so that a read racing a
+ * write never caches the previous bytes.
+ * </p>
+ * <p>
+ * The cache is bounded by the total number of bytes held; a size of
+ * <code>0</code> disables it. The cached arrays are handed out as is and
+ * must not be modified.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class ThumbnailCache {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(ThumbnailCache.class);
+
+    /** Bytes accounted for each thumbnail on top of its own. */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /** The maximum number of bytes held, <code>0</code> if disabled. */
+    private final long maxBytes;
+
+    /** The thumbnails by id or <code>null</code> if disabled. */
+    private final Cache<Long, Entry> cache;
+
+    /** The number of invalidations so far. */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    /**
+     * Creates a new instance which does not collect metrics.
+     *
+     * @param maxBytes The maximum number of bytes to hold. Values lower than
+     *                 <code>1</code> disable the cache.
+     */
+    public ThumbnailCache(long maxBytes) {
+        this(maxBytes, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxBytes The maximum number of bytes to hold. Values lower than
+     *                 <code>1</code> disable the cache.
+     * @param metrics Used to export the hit, miss and eviction counts.
+     */
+    public ThumbnailCache(long maxBytes, Metrics metrics) {
+        this.maxBytes = Math.max(0, maxBytes);
+        hits = metrics.counter(this, "hits");
+        misses = metrics.counter(this, "misses");
+        evictions = metrics.counter(this, "evictions");
+        if (this.maxBytes == 0) {
+            cache = null;
+            log.info("Thumbnail cache disabled");
+            return;
+        }
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(this.maxBytes)
+                .weigher(new Weigher<Long, Entry>() {
+                    public int weigh(Long id, Entry entry) {
+                        return entry.thumbnail.length + ENTRY_OVERHEAD;
+                    }
+                })
+                .removalListener(new RemovalListener<Long, Entry>() {
+                    public void onRemoval(
+                            RemovalNotification<Long, Entry> notification) {
+                        if (notification.wasEvicted()) {
+                            evictions.inc();
+                        }
+                    }
+                })
+                .build();
+        log.info("Thumbnail cache of " + this.maxBytes + " bytes");
+    }
+
+    /**
+     * Returns <code>true</code> if thumbnails are cached, <code>false</code>
+     * otherwise.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns the maximum number of bytes held by the cache.
+     *
+     * @return See above.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the cached thumbnail, counting the hit or miss.
+     *
+     * @param id The thumbnail id.
+     * @param version The version of the thumbnail metadata, may be
+     *                <code>null</code>.
+     * @return The compressed thumbnail or <code>null</code> if not cached
+     * for this version.
+     */
+    public byte[] get(long id, Integer version) {
+        if (cache == null) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(id);
+        if (entry == null || !entry.isVersion(version)) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return entry.thumbnail;
+    }
+
+    /**
+     * Returns the stamp to pass to
+     * {@link #put(long, Integer, byte[], long)}, to be taken before reading
+     * the thumbnail from disk.
+     *
+     * @return See above.
+     */
+    public long stamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Caches the passed thumbnail unless a thumbnail was invalidated since
+     * the stamp was taken. The array must not be modified afterwards since
+     * it is handed out as is by {@link #get(long, Integer)}.
+     *
+     * @param id The thumbnail id.
+     * @param version The version of the thumbnail metadata, may be
+     *                <code>null</code>.
+     * @param thumbnail The compressed thumbnail.
+     * @param stamp The value of {@link #stamp()} before the thumbnail was
+     *              read.
+     */
+    public void put(long id, Integer version, byte[] thumbnail, long stamp) {
+        if (cache == null || thumbnail == null) {
+            return;
+        }
+        cache.put(id, new Entry(version, thumbnail));
+        if (invalidations.get() != stamp) {
+            // Possibly read before a write, which may have invalidated
+            // before the put.
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Removes a thumbnail, whatever its version.
+     *
+     * @param id The thumbnail id.
+     */
+    public void invalidate(long id) {
+        if (cache == null) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        cache.invalidate(id);
+    }
+
+    /**
+     * Removes thumbnails, whatever their version.
+     *
+     * @param ids The thumbnail ids.
+     */
+    public void invalidate(Collection<Long> ids) {
+        if (cache == null) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        cache.invalidateAll(ids);
+    }
+
+    /**
+     * Removes all the cached thumbnails.
+     */
+    public void invalidateAll() {
+        if (cache == null) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns the number of thumbnails currently cached.
+     *
+     * @return See above.
+     */
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * A thumbnail and the version of its metadata.
+     */
+    private static final class Entry {
+
+        private final Integer version;
+
+        private final byte[] thumbnail;
+
+        private Entry(Integer version, byte[] thumbnail) {
+            this.version = version;
+            this.thumbnail = thumbnail;
+        }
+
+        private boolean isVersion(Integer other) {
+            return version == null ? other == null : version.equals(other);
+        }
+    }
+}
@@ -10,7 +10,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +42,48 @@ public class ThumbnailService extends AbstractFileSystemService {
         super(path);
     }
 
+    /** The store of packed thumbnails, if any. */
+    private PackedThumbnailStore packedStore;
+
+    /**
+     * Sets the store new thumbnails are packed into. Thumbnails still in
+     * their own file are read from it until migrated, see
+     * {@link PackedThumbnailMigration}.
+     *
+     * @param packedStore The store, ignored if disabled.
+     */
+    public void setPackedStore(PackedThumbnailStore packedStore) {
+        if (packedStore != null && packedStore.isEnabled()) {
+            this.packedStore = packedStore;
+        }
+    }
+
+    /** The cache of the thumbnails most recently read, if any. */
+    private ThumbnailCache thumbnailCache;
+
+    /**
+     * Sets the cache of the thumbnails most recently read.
+     *
+     * @param thumbnailCache The cache, ignored if disabled.
+     */
+    public void setThumbnailCache(ThumbnailCache thumbnailCache) {
+        if (thumbnailCache != null && thumbnailCache.isEnabled()) {
+            this.thumbnailCache = thumbnailCache;
+        }
+    }
+
+    /**
+     * Removes a thumbnail from the cache of the thumbnails most recently
+     * read, e.g. once its metadata is found to be out of date.
+     *
+     * @param thumbnailId the thumbnail id
+     */
+    public void invalidateCachedThumbnail(long thumbnailId) {
+        if (thumbnailCache != null) {
+            thumbnailCache.invalidate(thumbnailId);
+        }
+    }
+
     /**
      * Creates thumbnail on disk using byte array
      *
@@ -46,12 +93,21 @@ public class ThumbnailService extends AbstractFileSystemService {
      */
     public void createThumbnail(Thumbnail thumbnail, byte[] buf)
             throws IOException {
-        String path = getThumbnailPath(thumbnail.getId());
-        createSubpath(path);
+        try {
+            if (packedStore != null) {
+                packedStore.put(thumbnail.getId(), buf);
+                removeThumbnailFile(thumbnail.getId());
+                return;
+            }
+            String path = getThumbnailPath(thumbnail.getId());
+            createSubpath(path);
 
-        FileOutputStream stream = new FileOutputStream(path);
-        stream.write(buf);
-        stream.close();
+            FileOutputStream stream = new FileOutputStream(path);
+            stream.write(buf);
+            stream.close();
+        } finally {
+            invalidateCachedThumbnail(thumbnail.getId());
+        }
     }
 
     /**
@@ -60,10 +116,26 @@ public class ThumbnailService extends AbstractFileSystemService {
      * @param thumbnail
      */
     public long getThumbnailLength(Thumbnail thumbnail) {
+        if (packedStore != null) {
+            int length = packedStore.getLength(thumbnail.getId());
+            if (length >= 0) {
+                return length;
+            }
+        }
         File f = new File(getThumbnailPath(thumbnail.getId()));
         return f.length();
     }
 
+    /**
+     * Returns the length of a thumbnail in the packed store.
+     *
+     * @param thumbnailId the thumbnail id
+     * @return The length or <code>-1</code> if it is not packed.
+     */
+    public int getPackedThumbnailLength(long thumbnailId) {
+        return packedStore == null ? -1 : packedStore.getLength(thumbnailId);
+    }
+
     /**
      * Return byte array of Thumbnail
      *
@@ -72,8 +144,36 @@ public class ThumbnailService extends AbstractFileSystemService {
      * @throws IOException
      */
     public byte[] getThumbnail(Thumbnail thumbnail) throws IOException {
+        if (thumbnailCache == null) {
+            return readThumbnail(thumbnail);
+        }
+        byte[] buf = thumbnailCache.get(
+                thumbnail.getId(), thumbnail.getVersion());
+        if (buf == null) {
+            long stamp = thumbnailCache.stamp();
+            buf = readThumbnail(thumbnail);
+            thumbnailCache.put(thumbnail.getId(), thumbnail.getVersion(),
+                    buf, stamp);
+        }
+        return buf;
+    }
+
+    /**
+     * Reads the bytes of a thumbnail from disk.
+     *
+     * @param thumbnail
+     * @return a byte array
+     * @throws IOException
+     */
+    private byte[] readThumbnail(Thumbnail thumbnail) throws IOException {
+        if (packedStore != null) {
+            byte[] buf = packedStore.get(thumbnail.getId());
+            if (buf != null) {
+                return buf;
+            }
+        }
         byte[] buf = new byte[(int) getThumbnailLength(thumbnail)];
-        return getThumbnail(thumbnail, buf);
+        return readThumbnail(thumbnail, buf);
     }
 
     /**
@@ -86,6 +186,36 @@ public class ThumbnailService extends AbstractFileSystemService {
      */
     public byte[] getThumbnail(Thumbnail thumbnail, byte[] buf)
             throws IOException {
+        if (thumbnailCache != null) {
+            byte[] cached = thumbnailCache.get(
+                    thumbnail.getId(), thumbnail.getVersion());
+            if (cached != null) {
+                System.arraycopy(cached, 0, buf, 0,
+                        Math.min(cached.length, buf.length));
+                return buf;
+            }
+        }
+        return readThumbnail(thumbnail, buf);
+    }
+
+    /**
+     * Reads the bytes of a thumbnail from disk into a byte array.
+     *
+     * @param thumbnail
+     * @param buf
+     * @return a byte array
+     * @throws IOException
+     */
+    private byte[] readThumbnail(Thumbnail thumbnail, byte[] buf)
+            throws IOException {
+        if (packedStore != null) {
+            byte[] packed = packedStore.get(thumbnail.getId());
+            if (packed != null) {
+                System.arraycopy(packed, 0, buf, 0,
+                        Math.min(packed.length, buf.length));
+                return buf;
+            }
+        }
         String path = getThumbnailPath(thumbnail.getId());
         FileInputStream stream = new FileInputStream(path);
         try {
@@ -97,7 +227,75 @@ public class ThumbnailService extends AbstractFileSystemService {
     }
 
     /**
-     * Return FileOutputStream of Thumbnail
+     * Returns the bytes of several thumbnails. Cached thumbnails are not
+     * read; packed thumbnails are read container by container in a single
+     * pass, the others from their own file.
+     *
+     * @param thumbnails The thumbnail metadata.
+     * @return The bytes of the thumbnails by thumbnail id, missing if the
+     * thumbnail is not on disk.
+     * @throws IOException
+     */
+    public Map<Long, byte[]> getThumbnails(Collection<Thumbnail> thumbnails)
+            throws IOException {
+        if (thumbnailCache == null) {
+            return readThumbnails(thumbnails);
+        }
+        Map<Long, byte[]> values = new HashMap<Long, byte[]>();
+        List<Thumbnail> toRead = new ArrayList<Thumbnail>();
+        for (Thumbnail thumbnail : thumbnails) {
+            byte[] buf = thumbnailCache.get(
+                    thumbnail.getId(), thumbnail.getVersion());
+            if (buf == null) {
+                toRead.add(thumbnail);
+            } else {
+                values.put(thumbnail.getId(), buf);
+            }
+        }
+        if (!toRead.isEmpty()) {
+            long stamp = thumbnailCache.stamp();
+            Map<Long, byte[]> read = readThumbnails(toRead);
+            for (Thumbnail thumbnail : toRead) {
+                thumbnailCache.put(thumbnail.getId(), thumbnail.getVersion(),
+                        read.get(thumbnail.getId()), stamp);
+            }
+            values.putAll(read);
+        }
+        return values;
+    }
+
+    /**
+     * Reads the bytes of several thumbnails from disk.
+     *
+     * @param thumbnails The thumbnail metadata.
+     * @return The bytes of the thumbnails by thumbnail id, missing if the
+     * thumbnail is not on disk.
+     * @throws IOException
+     */
+    private Map<Long, byte[]> readThumbnails(Collection<Thumbnail> thumbnails)
+            throws IOException {
+        Map<Long, byte[]> values = new HashMap<Long, byte[]>();
+        if (packedStore != null) {
+            List<Long> ids = new ArrayList<Long>(thumbnails.size());
+            for (Thumbnail thumbnail : thumbnails) {
+                ids.add(thumbnail.getId());
+            }
+            values.putAll(packedStore.get(ids));
+        }
+        for (Thumbnail thumbnail : thumbnails) {
+            if (!values.containsKey(thumbnail.getId())
+                    && new File(getThumbnailPath(thumbnail.getId())).exists()) {
+                byte[] buf = new byte[(int) getThumbnailLength(thumbnail)];
+                values.put(thumbnail.getId(), readThumbnail(thumbnail, buf));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Return FileOutputStream of Thumbnail. The thumbnail is written to its
+     * own file even if thumbnails are packed; prefer
+     * {@link #createThumbnail(Thumbnail, byte[])}.
      * 
      * @param thumbnail
      * @return a {@link FileOutputStream}
@@ -105,9 +303,24 @@ public class ThumbnailService extends AbstractFileSystemService {
      */
     public FileOutputStream getThumbnailOutputStream(Thumbnail thumbnail)
             throws IOException {
-        String path = getThumbnailPath(thumbnail.getId());
+        final long id = thumbnail.getId();
+        if (packedStore != null) {
+            // Would otherwise be read instead of the file.
+            packedStore.remove(Collections.singleton(id));
+        }
+        String path = getThumbnailPath(id);
         createSubpath(path);
-        return new FileOutputStream(path);
+        return new FileOutputStream(path) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // Once written, as for createThumbnail().
+                    invalidateCachedThumbnail(id);
+                }
+            }
+        };
     }
 
     /**
@@ -118,6 +331,9 @@ public class ThumbnailService extends AbstractFileSystemService {
      */
     public boolean getThumbnailExists(Thumbnail thumbnail)
             throws IOException {
+        if (packedStore != null && packedStore.contains(thumbnail.getId())) {
+            return true;
+        }
         String path = getThumbnailPath(thumbnail.getId());
         return new File(path).exists();
     }
@@ -131,28 +347,57 @@ public class ThumbnailService extends AbstractFileSystemService {
      * @throws ResourceError If deletion fails.
      */
     public void removeThumbnails(List<Long> thumbnailIds) {
-        File file;
-        boolean success = false;
-
+        removePackedThumbnails(thumbnailIds);
         for (Long id : thumbnailIds)
         {
-            String thumbnailPath = getThumbnailPath(id);
-            file = new File(thumbnailPath);
-            if (file.exists())
+            removeThumbnailFile(id);
+        }
+    }
+
+    /**
+     * Removes thumbnails from the packed store and from the cache of the
+     * thumbnails most recently read, leaving their own file if any.
+     *
+     * @param thumbnailIds the thumbnail ids
+     * @throws ResourceError If the store cannot be written.
+     */
+    public void removePackedThumbnails(Collection<Long> thumbnailIds) {
+        if (thumbnailCache != null) {
+            thumbnailCache.invalidate(thumbnailIds);
+        }
+        if (packedStore == null) {
+            return;
+        }
+        try {
+            packedStore.remove(thumbnailIds);
+        } catch (IOException e) {
+            throw new ResourceError("Packed thumbnail deletion failed: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the file of a thumbnail if any.
+     *
+     * @param id the thumbnail id
+     * @throws ResourceError If deletion fails.
+     */
+    private void removeThumbnailFile(Long id) {
+        File file = new File(getThumbnailPath(id));
+        if (file.exists())
+        {
+            boolean success = file.delete();
+            if (!success)
             {
-                success = file.delete();
-                if (!success)
-                {
-                    throw new ResourceError("Thumbnail " + file.getName()
-                            + " deletion failed");
-                }
-                else
+                throw new ResourceError("Thumbnail " + file.getName()
+                        + " deletion failed");
+            }
+            else
+            {
+                if (log.isInfoEnabled())
                 {
-                    if (log.isInfoEnabled())
-                    {
-                        log.info("INFO: Thumbnail " + file.getName()
-                                + " deleted.");
-                    }
+                    log.info("INFO: Thumbnail " + file.getName()
+                            + " deleted.");
                 }
             }
         }
@@ -0,0 +1,387 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.util.PixelData;
+
+/**
+ * Process-wide cache of the tiles and planes read from pixel buffers, shared
+ * by all the {@link CachingPixelBuffer} instances handed out by
+ * {@link PixelsService}, so that a tile decoded for one session is served to
+ * the other sessions viewing the same image without reading or decoding it
+ * again.
+ * <p>
+ * The cached bytes are held off the heap in direct buffers, bounded in
+ * total by the size of the cache, and released as soon as they are evicted,
+ * least recently used first. Callers are handed copies, so they may modify
+ * or dispose what they are given. The number of requests served from the
+ * cache is exported as <code>tileHits</code>, the number read from the
+ * pixel buffer as <code>tileMisses</code> and the number of entries evicted
+ * as <code>tileEvictions</code>.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class TileCache {
+
+    /** The maximum number of bytes held by the cache. */
+    private final long maxBytes;
+
+    /** The maximum number of bytes of a single entry. */
+    private final long maxEntryBytes;
+
+    /** The entries, from the least to the most recently used. */
+    private final LinkedHashMap<Key, Entry> entries =
+            new LinkedHashMap<Key, Entry>(256, 0.75f, true);
+
+    /** The keys of the entries of each pixels set. */
+    private final Map<Long, Set<Key>> keysByPixels =
+            new HashMap<Long, Set<Key>>();
+
+    /** The number of bytes held by {@link #entries}. */
+    private long bytes;
+
+    /** Incremented by each invalidation, see {@link #getGeneration()}. */
+    private long generation;
+
+    /** The number of requests served from the cache. */
+    private final Counter tileHits;
+
+    /** The number of requests not served from the cache. */
+    private final Counter tileMisses;
+
+    /** The number of entries evicted to stay within the size of the cache. */
+    private final Counter tileEvictions;
+
+    /**
+     * Creates a new instance which does not collect metrics.
+     *
+     * @param maxBytes The maximum number of bytes held. Values lower than
+     *                 <code>1</code> disable the cache.
+     */
+    public TileCache(long maxBytes) {
+        this(maxBytes, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance. Entries larger than an eighth of the cache,
+     * typically whole planes of large images, are not cached so as not to
+     * evict many tiles for a single plane.
+     *
+     * @param maxBytes The maximum number of bytes held. Values lower than
+     *                 <code>1</code> disable the cache.
+     * @param metrics Used to export the use of the cache.
+     */
+    public TileCache(long maxBytes, Metrics metrics) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / 8;
+        tileHits = metrics.counter(this, "tileHits");
+        tileMisses = metrics.counter(this, "tileMisses");
+        tileEvictions = metrics.counter(this, "tileEvictions");
+    }
+
+    /**
+     * Returns whether the cache holds anything at all.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns the number of bytes currently held by the cache.
+     *
+     * @return See above.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the current generation of the cache, to be passed to
+     * {@link #put(Key, ByteBuffer, long)} with the data read after this
+     * call.
+     *
+     * @return See above.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns a copy of a cached entry.
+     *
+     * @param key The key of the entry.
+     * @return A heap buffer positioned at <code>0</code> with the byte order
+     * of the cached data, or <code>null</code> if the entry is not cached.
+     */
+    public ByteBuffer get(Key key) {
+        ByteBuffer copy;
+        ByteOrder order;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                tileMisses.inc();
+                return null;
+            }
+            tileHits.inc();
+            // Copied under the lock: an evicted entry is freed at once.
+            ByteBuffer data = entry.data.duplicate();
+            data.clear();
+            copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data);
+            order = entry.order;
+        }
+        copy.flip();
+        copy.order(order);
+        return copy;
+    }
+
+    /**
+     * Copies a cached entry into a buffer.
+     *
+     * @param key The key of the entry.
+     * @param buffer The buffer to fill, of the size of the entry.
+     * @return <code>true</code> if the entry was copied, <code>false</code>
+     * if it is not cached or is not of the size of <code>buffer</code>.
+     */
+    public synchronized boolean get(Key key, byte[] buffer) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.size() != buffer.length) {
+            tileMisses.inc();
+            return false;
+        }
+        tileHits.inc();
+        ByteBuffer data = entry.data.duplicate();
+        data.clear();
+        data.get(buffer);
+        return true;
+    }
+
+    /**
+     * Caches a copy of the remaining bytes of <code>data</code> and of its
+     * byte order, replacing any entry of the same key. The position of
+     * <code>data</code> is not changed. Nothing is cached if any pixels set
+     * was invalidated since <code>generation</code> was obtained, as the
+     * data may have been read before a write.
+     *
+     * @param key The key of the entry.
+     * @param data The data to cache.
+     * @param generation The generation of the cache before the data was
+     *                   read, see {@link #getGeneration()}.
+     */
+    public void put(Key key, ByteBuffer data, long generation) {
+        int size = data.remaining();
+        if (!isEnabled() || size > maxEntryBytes) {
+            return;
+        }
+        // Copied unlocked, allocation may have to wait for a collection.
+        ByteBuffer copy = ByteBuffer.allocateDirect(size);
+        copy.put(data.duplicate());
+        copy.flip();
+        synchronized (this) {
+            if (generation != this.generation) {
+                free(copy);
+                return;
+            }
+            Entry previous = entries.put(key, new Entry(copy, data.order()));
+            if (previous != null) {
+                bytes -= previous.size();
+                previous.free();
+            }
+            Set<Key> keys = keysByPixels.get(key.pixelsId);
+            if (keys == null) {
+                keys = new HashSet<Key>();
+                keysByPixels.put(key.pixelsId, keys);
+            }
+            keys.add(key);
+            bytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is within its
+     * size.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> lru = entries.entrySet().iterator();
+        while (bytes > maxBytes && lru.hasNext()) {
+            Map.Entry<Key, Entry> eldest = lru.next();
+            lru.remove();
+            forget(eldest.getKey(), eldest.getValue());
+            tileEvictions.inc();
+        }
+    }
+
+    /** Releases an entry removed from {@link #entries}. */
+    private void forget(Key key, Entry entry) {
+        Set<Key> keys = keysByPixels.get(key.pixelsId);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByPixels.remove(key.pixelsId);
+            }
+        }
+        bytes -= entry.size();
+        entry.free();
+    }
+
+    /**
+     * Evicts all the entries of a pixels set, e.g. after its data was
+     * written or deleted.
+     *
+     * @param pixelsId The id of the pixels set.
+     */
+    public synchronized void invalidate(long pixelsId) {
+        generation++;
+        Set<Key> keys = keysByPixels.remove(pixelsId);
+        if (keys == null) {
+            return;
+        }
+        for (Key key : keys) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                bytes -= entry.size();
+                entry.free();
+            }
+        }
+    }
+
+    /**
+     * Releases a direct buffer now rather than when it is collected, see
+     * {@link PixelData#dispose()}.
+     */
+    private static void free(ByteBuffer data) {
+        new PixelData("uint8", data).dispose();
+    }
+
+    /**
+     * The kinds of data cached, which are not interchangeable: the
+     * <code>Direct</code> methods of {@link PixelBuffer} return swapped
+     * bytes where the others may return bytes in the order of the file.
+     */
+    public static enum Kind {
+        TILE, TILE_DIRECT, PLANE, PLANE_DIRECT;
+    }
+
+    /**
+     * Identifies an entry: a tile or a plane of a pixels set at a resolution
+     * level.
+     */
+    public static final class Key {
+
+        private final long pixelsId;
+
+        private final int resolutionLevel;
+
+        private final Kind kind;
+
+        private final int z, c, t, x, y, w, h;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param pixelsId The id of the pixels set.
+         * @param resolutionLevel The resolution level read.
+         * @param kind The kind of data.
+         * @param z The Z-section.
+         * @param c The channel.
+         * @param t The timepoint.
+         * @param x The X offset of the tile, <code>0</code> for planes.
+         * @param y The Y offset of the tile, <code>0</code> for planes.
+         * @param w The width of the tile or plane.
+         * @param h The height of the tile or plane.
+         */
+        public Key(long pixelsId, int resolutionLevel, Kind kind,
+                int z, int c, int t, int x, int y, int w, int h) {
+            this.pixelsId = pixelsId;
+            this.resolutionLevel = resolutionLevel;
+            this.kind = kind;
+            this.z = z;
+            this.c = c;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return pixelsId == other.pixelsId
+                    && resolutionLevel == other.resolutionLevel
+                    && kind == other.kind
+                    && z == other.z && c == other.c && t == other.t
+                    && x == other.x && y == other.y
+                    && w == other.w && h == other.h;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (int) (pixelsId ^ (pixelsId >>> 32));
+            hash = 31 * hash + resolutionLevel;
+            hash = 31 * hash + kind.ordinal();
+            hash = 31 * hash + z;
+            hash = 31 * hash + c;
+            hash = 31 * hash + t;
+            hash = 31 * hash + x;
+            hash = 31 * hash + y;
+            hash = 31 * hash + w;
+            hash = 31 * hash + h;
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%d@%d %d,%d,%d %d,%d %dx%d]", kind,
+                    pixelsId, resolutionLevel, z, c, t, x, y, w, h);
+        }
+    }
+
+    /**
+     * A cached entry, off the heap.
+     */
+    private static final class Entry {
+
+        private final ByteBuffer data;
+
+        /** The byte order of the data cached, restored on the copies. */
+        private final ByteOrder order;
+
+        private Entry(ByteBuffer data, ByteOrder order) {
+            this.data = data;
+            this.order = order;
+        }
+
+        private int size() {
+            return data.capacity();
+        }
+
+        private void free() {
+            TileCache.free(data);
+        }
+    }
+}
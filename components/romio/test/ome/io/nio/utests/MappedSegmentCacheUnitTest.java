@@ -0,0 +1,211 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ome.io.nio.MappedSegmentCache;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.system.metrics.NullMetrics;
+import ome.util.PixelData;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link RomioPixelBuffer} instances reading through a
+ * {@link MappedSegmentCache}, with segments of one plane.
+ * @since 5.3.0
+ */
+public class MappedSegmentCacheUnitTest {
+
+    private static final int SIZE_X = 32;
+
+    private static final int SIZE_Y = 32;
+
+    private static final int PLANES = 4;
+
+    private static final int PLANE_SIZE = SIZE_X * SIZE_Y;
+
+    private File file;
+
+    private Pixels pixels;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        file = File.createTempFile("segments", ".pixels");
+        byte[] data = new byte[PLANES * PLANE_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = value(i);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(2);
+        pixels.setSizeC(1);
+        pixels.setSizeT(2);
+        pixels.setPixelsType(type);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        file.delete();
+    }
+
+    /** The value of the byte at the passed offset of the file. */
+    private static byte value(int offset) {
+        return (byte) (offset * 7 + offset / PLANE_SIZE);
+    }
+
+    private MappedSegmentCache cache(int segments) {
+        return new MappedSegmentCache(
+                segments * PLANE_SIZE, PLANE_SIZE, new NullMetrics());
+    }
+
+    private RomioPixelBuffer buffer(MappedSegmentCache cache) {
+        RomioPixelBuffer buffer =
+                new RomioPixelBuffer(file.getAbsolutePath(), pixels);
+        buffer.setSegmentCache(cache);
+        return buffer;
+    }
+
+    private void assertRegion(ByteBuffer region, int offset, int size) {
+        assertEquals(region.remaining(), size);
+        for (int i = 0; i < size; i++) {
+            assertEquals(region.get(i), value(offset + i));
+        }
+    }
+
+    @Test
+    public void testPlanesAndRows() throws Exception {
+        MappedSegmentCache cache = cache(PLANES);
+        RomioPixelBuffer buffer = buffer(cache);
+        try {
+            PixelData plane = buffer.getPlane(1, 0, 1);
+            assertRegion(plane.getData(), 3 * PLANE_SIZE, PLANE_SIZE);
+            plane.dispose();
+            PixelData row = buffer.getRow(5, 0, 0, 1);
+            assertRegion(row.getData(), 2 * PLANE_SIZE + 5 * SIZE_X, SIZE_X);
+            row.dispose();
+            // Disposing the views leaves the segments mapped.
+            plane = buffer.getPlane(1, 0, 1);
+            assertRegion(plane.getData(), 3 * PLANE_SIZE, PLANE_SIZE);
+            assertEquals(cache.getMappedBytes(), 2 * PLANE_SIZE);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testSharedBetweenBuffers() throws Exception {
+        MappedSegmentCache cache = cache(PLANES);
+        RomioPixelBuffer first = buffer(cache);
+        RomioPixelBuffer second = buffer(cache);
+        try {
+            first.getPlane(0, 0, 0);
+            second.getPlane(0, 0, 0);
+            assertEquals(cache.getMappedBytes(), PLANE_SIZE);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        MappedSegmentCache cache = cache(2);
+        RomioPixelBuffer buffer = buffer(cache);
+        try {
+            for (int t = 0; t < 2; t++) {
+                for (int z = 0; z < 2; z++) {
+                    PixelData plane = buffer.getPlane(z, 0, t);
+                    assertRegion(plane.getData(),
+                            (t * 2 + z) * PLANE_SIZE, PLANE_SIZE);
+                    assertTrue(cache.getMappedBytes() <= 2 * PLANE_SIZE);
+                }
+            }
+            assertEquals(cache.getMappedBytes(), 2 * PLANE_SIZE);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testRegionSpanningSegments() throws Exception {
+        MappedSegmentCache cache = cache(PLANES);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            String key = MappedSegmentCache.fileKey(file.getAbsolutePath());
+            assertNull(cache.getRegion(key, channel, PLANE_SIZE - 8, 16));
+            assertEquals(cache.getMappedBytes(), 0);
+            ByteBuffer region = cache.getRegion(key, channel, PLANE_SIZE, 16);
+            assertNotNull(region);
+            assertRegion(region, PLANE_SIZE, 16);
+        } finally {
+            raf.close();
+        }
+        // Spanning regions are still read by the buffer, mapped directly.
+        RomioPixelBuffer buffer = buffer(cache);
+        try {
+            PixelData region = buffer.getRegion(16, (long) PLANE_SIZE - 8);
+            assertRegion(region.getData(), PLANE_SIZE - 8, 16);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        MappedSegmentCache cache = cache(PLANES);
+        RomioPixelBuffer buffer = buffer(cache);
+        try {
+            buffer.getPlane(0, 0, 0);
+            buffer.getPlane(1, 0, 0);
+            cache.invalidate(file.getAbsolutePath());
+            assertEquals(cache.getMappedBytes(), 0);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        MappedSegmentCache cache = cache(0);
+        RomioPixelBuffer buffer = buffer(cache);
+        try {
+            PixelData plane = buffer.getPlane(0, 0, 1);
+            assertRegion(plane.getData(), 2 * PLANE_SIZE, PLANE_SIZE);
+            assertEquals(cache.getMappedBytes(), 0);
+        } finally {
+            buffer.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import ome.conditions.ResourceError;
+import ome.io.nio.AbstractFileSystemService;
+import ome.io.nio.PackedThumbnailMigration;
+import ome.io.nio.PackedThumbnailStore;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the {@link PackedThumbnailStore} across reopening, compaction and
+ * migration.
+ * @since 5.3.0
+ */
+public class PackedThumbnailStoreUnitTest {
+
+    /** Small containers, so that the tests span several. */
+    private static final long CONTAINER_SIZE = 4096;
+
+    private File root;
+
+    private PackedThumbnailStore store;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        root = File.createTempFile("packed", "");
+        root.delete();
+        root.mkdir();
+        store = open();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        store.close();
+        FileUtils.deleteDirectory(root);
+    }
+
+    private PackedThumbnailStore open() {
+        return new PackedThumbnailStore(root.getAbsolutePath(), true,
+                CONTAINER_SIZE, 0.5);
+    }
+
+    private PackedThumbnailStore reopen() {
+        store.close();
+        store = open();
+        return store;
+    }
+
+    /** Returns the distinct bytes of a thumbnail. */
+    private byte[] thumbnail(long id, int length) {
+        byte[] thumbnail = new byte[length];
+        for (int i = 0; i < length; i++) {
+            thumbnail[i] = (byte) (id * 31 + i);
+        }
+        return thumbnail;
+    }
+
+    private File directory() {
+        return new File(root, PackedThumbnailStore.PACKED_THUMBNAILS_PATH);
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        store.put(1, thumbnail(1, 100));
+        store.put(2, thumbnail(2, 200));
+        assertTrue(Arrays.equals(store.get(1), thumbnail(1, 100)));
+        assertEquals(store.getLength(2), 200);
+        assertNull(store.get(3));
+        assertEquals(store.getLength(3), -1);
+    }
+
+    @Test
+    public void testReplaceAndRemoveSurviveReopening() throws IOException {
+        store.put(1, thumbnail(1, 100));
+        store.put(2, thumbnail(2, 100));
+        store.put(1, thumbnail(10, 150));
+        store.remove(Arrays.asList(2L));
+        reopen();
+        assertTrue(Arrays.equals(store.get(1), thumbnail(10, 150)));
+        assertFalse(store.contains(2));
+        assertEquals(store.size(), 1);
+    }
+
+    @Test
+    public void testGetSetAcrossContainers() throws IOException {
+        List<Long> ids = new ArrayList<Long>();
+        for (long id = 1; id <= 100; id++) {
+            store.put(id, thumbnail(id, 300));
+            ids.add(id);
+        }
+        // Thumbnails overflow into further containers.
+        assertTrue(directory().list().length > 4);
+        ids.add(1000L);
+        Map<Long, byte[]> thumbnails = reopen().get(ids);
+        assertEquals(thumbnails.size(), 100);
+        for (long id = 1; id <= 100; id++) {
+            assertTrue(Arrays.equals(thumbnails.get(id), thumbnail(id, 300)));
+        }
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        for (long id = 1; id <= 100; id++) {
+            store.put(id, thumbnail(id, 300));
+        }
+        long total = store.getTotalBytes();
+        List<Long> removed = new ArrayList<Long>();
+        for (long id = 1; id <= 80; id++) {
+            if (id != 5) {
+                removed.add(id);
+            }
+        }
+        store.remove(removed);
+        assertTrue(store.compact() > 0);
+        assertTrue(store.getTotalBytes() < total);
+        assertEquals(store.getLiveBytes(), 21 * (300 + 12));
+        // Removals are not undone by compacting the containers they
+        // were recorded in.
+        reopen();
+        assertEquals(store.size(), 21);
+        for (long id = 1; id <= 100; id++) {
+            assertEquals(store.contains(id), id > 80 || id == 5);
+        }
+        // Moved out of a compacted container.
+        assertTrue(Arrays.equals(store.get(5), thumbnail(5, 300)));
+        assertTrue(Arrays.equals(store.get(100), thumbnail(100, 300)));
+    }
+
+    @Test
+    public void testTornIndexEntryIgnored() throws IOException {
+        store.put(1, thumbnail(1, 100));
+        store.close();
+        // As if the process died writing the entry of a second thumbnail.
+        RandomAccessFile index = new RandomAccessFile(
+                new File(directory(), "000001.idx"), "rw");
+        try {
+            index.seek(index.length());
+            index.writeLong(2);
+            index.writeLong(112);
+        } finally {
+            index.close();
+        }
+        store = open();
+        assertEquals(store.size(), 1);
+        store.put(3, thumbnail(3, 100));
+        reopen();
+        assertEquals(store.size(), 2);
+        assertTrue(Arrays.equals(store.get(3), thumbnail(3, 100)));
+    }
+
+    @Test(expectedExceptions = ResourceError.class)
+    public void testSingleProcess() {
+        // The store is already open.
+        open();
+    }
+
+    @Test
+    public void testMigration() throws IOException {
+        File thumbnails = new File(root,
+                AbstractFileSystemService.THUMBNAILS_PATH);
+        File dir = new File(thumbnails, "Dir-001");
+        dir.mkdirs();
+        FileUtils.writeByteArrayToFile(new File(thumbnails, "7"),
+                thumbnail(7, 50));
+        FileUtils.writeByteArrayToFile(new File(dir, "1234"),
+                thumbnail(1234, 60));
+        store.put(7, thumbnail(8, 50));
+        long migrated = new PackedThumbnailMigration(root.getAbsolutePath(),
+                store, false).run();
+        assertEquals(migrated, 1);
+        assertTrue(Arrays.equals(store.get(1234), thumbnail(1234, 60)));
+        // Thumbnails already packed are newer than their file.
+        assertTrue(Arrays.equals(store.get(7), thumbnail(8, 50)));
+        assertFalse(new File(dir, "1234").exists());
+        assertFalse(new File(thumbnails, "7").exists());
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.io.nio.PrefetchingPixelBuffer;
+import ome.io.nio.Prefetcher;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link PrefetchingPixelBuffer} instances reading ahead two planes
+ * or tiles.
+ * @since 5.3.0
+ */
+public class PrefetchingPixelBufferUnitTest {
+
+    private static final int SIZE_X = 32;
+
+    private static final int SIZE_Y = 32;
+
+    private static final int SIZE_Z = 6;
+
+    private static final int PLANE_SIZE = SIZE_X * SIZE_Y;
+
+    private File file;
+
+    private Pixels pixels;
+
+    private Prefetcher prefetcher;
+
+    /** The reads of the buffer delegated to, e.g. <code>z=2</code>. */
+    private final List<String> reads =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /** The reads done by the threads of the prefetcher. */
+    private final List<String> readAheads =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /** The threads reading from the buffer delegated to. */
+    private final AtomicInteger readers = new AtomicInteger();
+
+    /** Set if the buffer delegated to was read by two threads at once. */
+    private final AtomicBoolean overlapped = new AtomicBoolean();
+
+    /** Counted down once a slow read-ahead started. */
+    private CountDownLatch slowReadAhead;
+
+    private PrefetchingPixelBuffer buffer;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        file = File.createTempFile("prefetch", ".pixels");
+        byte[] data = new byte[SIZE_Z * PLANE_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / PLANE_SIZE + 1);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(SIZE_Z);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        pixels.setPixelsType(type);
+        prefetcher = new Prefetcher(2, 1);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        prefetcher.shutdown();
+        file.delete();
+    }
+
+    @BeforeMethod
+    public void createBuffer() {
+        reads.clear();
+        readAheads.clear();
+        overlapped.set(false);
+        slowReadAhead = null;
+        RomioPixelBuffer romio =
+                new RomioPixelBuffer(file.getAbsolutePath(), pixels) {
+            @Override
+            public PixelData getPlane(Integer z, Integer c, Integer t)
+                    throws IOException, DimensionsOutOfBoundsException {
+                record("z=" + z);
+                return super.getPlane(z, c, t);
+            }
+
+            @Override
+            public PixelData getTile(Integer z, Integer c, Integer t,
+                    Integer x, Integer y, Integer w, Integer h)
+                    throws IOException {
+                record("x=" + x + ",w=" + w);
+                return super.getTile(z, c, t, x, y, w, h);
+            }
+
+            @Override
+            public PixelData getRegion(Integer size, Long offset)
+                    throws IOException {
+                if (readers.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                try {
+                    if (slowReadAhead != null && isReadAhead()) {
+                        slowReadAhead.countDown();
+                        sleep(100);
+                    }
+                    return super.getRegion(size, offset);
+                } finally {
+                    readers.decrementAndGet();
+                }
+            }
+        };
+        buffer = new PrefetchingPixelBuffer(romio, prefetcher);
+    }
+
+    @AfterMethod
+    public void closeBuffer() throws IOException {
+        buffer.close();
+    }
+
+    private boolean isReadAhead() {
+        return Thread.currentThread().getName().startsWith("prefetch-");
+    }
+
+    private void record(String read) {
+        reads.add(read);
+        if (isReadAhead()) {
+            readAheads.add(read);
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Waits for the read-aheads of the passed reads to be done. */
+    private void awaitReadAheads(String... expected)
+            throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            boolean done = true;
+            for (String read : expected) {
+                done &= readAheads.contains(read);
+            }
+            if (done) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /** Returns the number of reads starting with the passed prefix. */
+    private int count(List<String> reads, String prefix) {
+        int count = 0;
+        synchronized (reads) {
+            for (String read : reads) {
+                if (read.startsWith(prefix)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void assertPlane(PixelData plane, int z) {
+        assertEquals(plane.size(), PLANE_SIZE);
+        assertEquals(plane.getPixelValue(0), (double) (z + 1));
+        assertEquals(plane.getPixelValue(PLANE_SIZE - 1), (double) (z + 1));
+    }
+
+    @Test
+    public void testNoReadAheadOfRandomAccess() throws Exception {
+        assertPlane(buffer.getPlane(3, 0, 0), 3);
+        assertPlane(buffer.getPlane(0, 0, 0), 0);
+        assertPlane(buffer.getPlane(5, 0, 0), 5);
+        Thread.sleep(50);
+        assertTrue(readAheads.isEmpty(), readAheads.toString());
+    }
+
+    @Test
+    public void testReadAheadAlongZ() throws Exception {
+        assertPlane(buffer.getPlane(0, 0, 0), 0);
+        assertPlane(buffer.getPlane(1, 0, 0), 1);
+        awaitReadAheads("z=2", "z=3");
+        assertPlane(buffer.getPlane(2, 0, 0), 2);
+        assertPlane(buffer.getPlane(3, 0, 0), 3);
+        awaitReadAheads("z=4", "z=5");
+        assertPlane(buffer.getPlane(4, 0, 0), 4);
+        assertPlane(buffer.getPlane(5, 0, 0), 5);
+        // Every plane was read once, all but the first two ahead.
+        assertEquals(reads.size(), SIZE_Z, reads.toString());
+        assertEquals(readAheads.size(), SIZE_Z - 2, readAheads.toString());
+    }
+
+    @Test
+    public void testReadAheadBackwards() throws Exception {
+        assertPlane(buffer.getPlane(5, 0, 0), 5);
+        assertPlane(buffer.getPlane(4, 0, 0), 4);
+        awaitReadAheads("z=3", "z=2");
+        assertPlane(buffer.getPlane(3, 0, 0), 3);
+        assertEquals(reads.size(), 4, reads.toString());
+    }
+
+    @Test
+    public void testPatternBreakDiscards() throws Exception {
+        buffer.getPlane(0, 0, 0);
+        buffer.getPlane(1, 0, 0);
+        awaitReadAheads("z=2", "z=3");
+        // Going back reads again and reads nothing further ahead.
+        assertPlane(buffer.getPlane(0, 0, 0), 0);
+        assertEquals(reads.size(), 5, reads.toString());
+        Thread.sleep(50);
+        assertEquals(readAheads.size(), 2, readAheads.toString());
+    }
+
+    @Test
+    public void testReadAheadAcrossPlane() throws Exception {
+        buffer.getTile(0, 0, 0, 0, 0, 12, 12);
+        buffer.getTile(0, 0, 0, 12, 0, 12, 12);
+        // The last tile of the row is narrower.
+        awaitReadAheads("x=24,w=8");
+        PixelData tile = buffer.getTile(0, 0, 0, 24, 0, 8, 12);
+        assertEquals(tile.size(), 8 * 12);
+        // ROMIO tiles are read from their plane, only count the tiles.
+        assertEquals(count(reads, "x="), 3, reads.toString());
+        assertEquals(count(readAheads, "x="), 1, readAheads.toString());
+    }
+
+    @Test
+    public void testOtherReadsWaitForReadAhead() throws Exception {
+        slowReadAhead = new CountDownLatch(1);
+        buffer.getPlane(0, 0, 0);
+        buffer.getPlane(1, 0, 0);
+        assertTrue(slowReadAhead.await(5, TimeUnit.SECONDS));
+        // Read while the read-ahead of the third plane is in flight.
+        PixelData stack = buffer.getStack(0, 0);
+        assertEquals(stack.size(), SIZE_Z * PLANE_SIZE);
+        assertEquals(stack.getPixelValue(2 * PLANE_SIZE), 3.0);
+        PixelData row = buffer.getRow(0, 4, 0, 0);
+        assertEquals(row.size(), SIZE_X);
+        assertEquals(row.getPixelValue(0), 5.0);
+        assertFalse(overlapped.get());
+        // The read-ahead of the fourth plane was discarded.
+        Thread.sleep(50);
+        assertEquals(readAheads.size(), 1, readAheads.toString());
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.nio.InMemoryPlanarPixelBuffer;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PyramidBuilder;
+import ome.model.core.Pixels;
+import ome.util.PixelData;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the building of pyramids by {@link PyramidBuilder}, with the lower
+ * resolution levels computed by its workers.
+ * @since 5.3.0
+ */
+public class PyramidBuilderUnitTest extends AbstractPyramidPixelBufferUnitTest {
+
+    private final AtomicInteger written = new AtomicInteger();
+
+    private int total;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        createService();
+        BfPyramidPixelBuffer pyramid =
+                (BfPyramidPixelBuffer) service._getPixelBuffer(pixels, true);
+        PyramidBuilder builder = new PyramidBuilder(pixels,
+                new ConstantPlanes(pixels), pyramid,
+                new Dimension(tileWidth, tileHeight), 2);
+        try {
+            builder.build(new PyramidBuilder.Progress() {
+                public void tileWritten(long pixelsId, int written, int total) {
+                    PyramidBuilderUnitTest.this.written.incrementAndGet();
+                    PyramidBuilderUnitTest.this.total = total;
+                }
+            });
+        } finally {
+            pyramid.close();
+        }
+        pixelBuffer = service._getPixelBuffer(pixels, true);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        if (pixelBuffer != null) {
+            pixelBuffer.close();
+        }
+        deleteRoot();
+    }
+
+    @Test
+    public void testProgress() {
+        assertEquals(total, sizeZ * sizeC * sizeT * 4 * 4);
+        assertEquals(written.get(), total);
+    }
+
+    @Test
+    public void testLowerLevelSizes() {
+        List<List<Integer>> descriptions =
+                pixelBuffer.getResolutionDescriptions();
+        // Three full tiles and a remainder of 232 by 242 pixels.
+        assertTrue(descriptions.contains(
+                Arrays.asList(3 * 16 + 15, 3 * 16 + 15)));
+        assertTrue(descriptions.contains(
+                Arrays.asList(3 * 8 + 7, 3 * 8 + 8)));
+    }
+
+    @Test
+    public void testLowerLevelsAreAveraged() throws IOException {
+        PixelBuffer buffer = service._getPixelBuffer(pixels, true);
+        try {
+            for (int level = 0; level < buffer.getResolutionLevels(); level++) {
+                buffer.setResolutionLevel(level);
+                if (buffer.getSizeX() > tileWidth / 4) {
+                    // Not one of the levels computed by the builder.
+                    continue;
+                }
+                for (int t = 0; t < sizeT; t++) {
+                    for (int c = 0; c < sizeC; c++) {
+                        for (int z = 0; z < sizeZ; z++) {
+                            assertConstant(buffer.getTile(z, c, t, 0, 0,
+                                    buffer.getSizeX(), buffer.getSizeY()),
+                                    value(z, c, t));
+                        }
+                    }
+                }
+            }
+        } finally {
+            buffer.close();
+        }
+    }
+
+    private void assertConstant(PixelData tile, int expected) {
+        try {
+            for (int i = 0; i < tile.size(); i++) {
+                assertEquals(tile.getPixelValue(i), (double) expected);
+            }
+        } finally {
+            tile.dispose();
+        }
+    }
+
+    @Test
+    public void testTemporaryLevelsDeleted() {
+        File directory = new File(pixelBuffer.getPath()).getParentFile();
+        for (String name : directory.list()) {
+            assertTrue(!name.endsWith(".tmp"), name);
+        }
+    }
+
+    /**
+     * The value of every pixel of a plane of {@link ConstantPlanes}.
+     */
+    private static int value(int z, int c, int t) {
+        return 100 * ((t * sizeC + c) * sizeZ + z + 1);
+    }
+
+    /**
+     * A source whose planes have a single value each, so that any average
+     * of the plane is that value.
+     */
+    private static class ConstantPlanes extends InMemoryPlanarPixelBuffer {
+
+        private final Pixels pixels;
+
+        ConstantPlanes(Pixels pixels) {
+            super(pixels, null);
+            this.pixels = pixels;
+        }
+
+        @Override
+        public PixelData getTile(Integer z, Integer c, Integer t, Integer x,
+                Integer y, Integer w, Integer h) {
+            ByteBuffer tile = ByteBuffer.allocate(w * h * 2);
+            short value = (short) value(z, c, t);
+            while (tile.hasRemaining()) {
+                tile.putShort(value);
+            }
+            tile.flip();
+            return new PixelData(pixels.getPixelsType().getValue(), tile);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.bioformats.PyramidCodec;
+import ome.io.nio.TileLoopIteration;
+import ome.io.nio.Utils;
+import ome.util.PixelData;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link BfPyramidPixelBuffer} instances written with a codec other
+ * than JPEG-2000, whose lower resolution levels are stored as series.
+ * @since 5.3.0
+ */
+public class PyramidCodecUnitTest extends AbstractPyramidPixelBufferUnitTest {
+
+    private List<String> hashDigests = new ArrayList<String>();
+
+    @BeforeClass
+    public void setup() throws IOException {
+        createService();
+        service.setPyramidCodec(PyramidCodec.ZLIB.getSetting());
+        pixelBuffer = service._getPixelBuffer(pixels, true);
+        assertEquals(((BfPyramidPixelBuffer) pixelBuffer).getCodec(),
+                PyramidCodec.ZLIB);
+        writeTiles(hashDigests);
+        pixelBuffer.close();
+        pixelBuffer = service._getPixelBuffer(pixels, true);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        if (pixelBuffer != null) {
+            pixelBuffer.close();
+        }
+        deleteRoot();
+    }
+
+    @Test
+    public void testFromSetting() {
+        assertEquals(PyramidCodec.fromSetting(null, "uint8"),
+                PyramidCodec.JPEG_2000);
+        assertEquals(PyramidCodec.fromSetting("LZW", "uint8"),
+                PyramidCodec.LZW);
+        assertEquals(PyramidCodec.fromSetting("auto", "uint8"),
+                PyramidCodec.ZLIB);
+        assertEquals(PyramidCodec.fromSetting("auto", "uint16"),
+                PyramidCodec.JPEG_2000);
+        assertEquals(PyramidCodec.fromSetting("zlib", "bit"),
+                PyramidCodec.JPEG_2000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownSetting() {
+        service.setPyramidCodec("jpeg");
+    }
+
+    @Test
+    public void testResolutionLevels() {
+        assertEquals(pixelBuffer.getResolutionLevels(), 6);
+        assertEquals(pixelBuffer.getResolutionLevel(), 5);
+    }
+
+    @Test
+    public void testResolutionLevelChangeOfDimensions() {
+        try {
+            pixelBuffer.setResolutionLevel(
+                    pixelBuffer.getResolutionLevels() - 2);
+            assertEquals(pixelBuffer.getSizeX(), sizeX / 2);
+            assertEquals(pixelBuffer.getSizeY(), sizeY / 2);
+            pixelBuffer.setResolutionLevel(0);
+            // Three full tiles of 8 pixels and a remainder of 7 by 8.
+            assertEquals(pixelBuffer.getSizeX(), 31);
+            assertEquals(pixelBuffer.getSizeY(), 32);
+        } finally {
+            pixelBuffer.setResolutionLevel(
+                    pixelBuffer.getResolutionLevels() - 1);
+        }
+    }
+
+    @Test
+    public void testReadTilesLossless() throws IOException {
+        Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int tileWidth,
+                            int tileHeight, int tileCount) {
+                try
+                {
+                    ChecksumProviderFactory cpf =
+                            new ChecksumProviderFactoryImpl();
+                    PixelData tile = pixelBuffer.getTile(z, c, t, x, y,
+                            tileWidth, tileHeight);
+                    String readDigest = cpf.getProvider(ChecksumType.MD5)
+                            .putBytes(tile.getData()).checksumAsString();
+                    assertEquals(readDigest, hashDigests.get(tileCount));
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, pixelBuffer, tileWidth, tileHeight);
+    }
+
+    @Test
+    public void testReadLowerLevelTile() throws IOException {
+        try {
+            pixelBuffer.setResolutionLevel(
+                    pixelBuffer.getResolutionLevels() - 3);
+            PixelData tile = pixelBuffer.getTile(0, 1, 2, 64, 64, 64, 64);
+            assertEquals(tile.size(), 64 * 64);
+        } finally {
+            pixelBuffer.setResolutionLevel(
+                    pixelBuffer.getResolutionLevels() - 1);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.bioformats.PyramidReaderPool;
+import ome.io.nio.PixelBuffer;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link BfPyramidPixelBuffer} instances sharing the readers of a
+ * {@link PyramidReaderPool}.
+ * @since 5.3.0
+ */
+public class PyramidReaderPoolUnitTest extends AbstractPyramidPixelBufferUnitTest {
+
+    @BeforeClass
+    public void setup() throws IOException {
+        createService();
+        service.setPyramidReaderPool(new PyramidReaderPool(2));
+        pixelBuffer = service._getPixelBuffer(pixels, true);
+        writeTiles(new ArrayList<String>());
+        pixelBuffer.close();
+        pixelBuffer = service._getPixelBuffer(pixels, true);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        if (pixelBuffer != null) {
+            pixelBuffer.close();
+        }
+        deleteRoot();
+    }
+
+    @Test
+    public void testResolutionLevelPerBuffer() throws IOException {
+        PixelBuffer other = service._getPixelBuffer(pixels, true);
+        try {
+            other.setResolutionLevel(other.getResolutionLevels() - 2);
+            assertEquals(other.getSizeX(), sizeX / 2);
+            assertEquals(pixelBuffer.getSizeX(), sizeX);
+            assertEquals(pixelBuffer.getResolutionLevel(),
+                    pixelBuffer.getResolutionLevels() - 1);
+            assertEquals(other.getTile(0, 0, 0, 0, 0, 64, 64).size(), 64 * 64);
+            assertEquals(pixelBuffer.getTile(0, 0, 0, 0, 0, 64, 64).size(),
+                    64 * 64);
+        } finally {
+            other.close();
+        }
+        // The readers are still open for the remaining buffer.
+        assertEquals(pixelBuffer.getTile(0, 0, 0, 0, 0, 64, 64).size(),
+                64 * 64);
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final List<byte[]> expected = new ArrayList<byte[]>();
+        for (int t = 0; t < sizeT; t++) {
+            expected.add(pixelBuffer.getTileDirect(0, 0, t, 0, 0, tileWidth,
+                    tileHeight, new byte[tileWidth * tileHeight * bytesPerPixel]));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> tiles = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 4 * sizeT; i++) {
+                final int t = i % sizeT;
+                tiles.add(executor.submit(new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+                        return pixelBuffer.getTileDirect(0, 0, t, 0, 0,
+                                tileWidth, tileHeight,
+                                new byte[tileWidth * tileHeight * bytesPerPixel]);
+                    }
+                }));
+            }
+            for (int i = 0; i < tiles.size(); i++) {
+                assertTrue(Arrays.equals(tiles.get(i).get(),
+                        expected.get(i % sizeT)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
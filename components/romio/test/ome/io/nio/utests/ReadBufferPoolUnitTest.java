@@ -0,0 +1,89 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import ome.io.nio.ReadBufferPool;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the lending of arrays by {@link ReadBufferPool}.
+ * @since 5.3.0
+ */
+public class ReadBufferPoolUnitTest {
+
+    @Test
+    public void testReleasedArrayLentAgain() {
+        ReadBufferPool pool = new ReadBufferPool(1024);
+        byte[] first = pool.borrow(100);
+        assertEquals(first.length, 100);
+        pool.release(first);
+        assertEquals(pool.getBytes(), 100);
+        assertSame(pool.borrow(100), first);
+        assertEquals(pool.getBytes(), 0);
+    }
+
+    @Test
+    public void testArraysOfOtherLengthsNotLent() {
+        ReadBufferPool pool = new ReadBufferPool(1024);
+        byte[] tile = pool.borrow(100);
+        pool.release(tile);
+        byte[] edge = pool.borrow(60);
+        assertEquals(edge.length, 60);
+        assertNotSame(pool.borrow(100), edge);
+    }
+
+    @Test
+    public void testBorrowedArraysNotShared() {
+        ReadBufferPool pool = new ReadBufferPool(1024);
+        byte[] first = pool.borrow(100);
+        byte[] second = pool.borrow(100);
+        assertNotSame(second, first);
+        pool.release(first);
+        // Releasing twice must not have the array lent twice.
+        pool.release(first);
+        assertEquals(pool.getBytes(), 100);
+        assertSame(pool.borrow(100), first);
+        assertNotSame(pool.borrow(100), first);
+    }
+
+    @Test
+    public void testForeignArraysIgnored() {
+        ReadBufferPool pool = new ReadBufferPool(1024);
+        pool.release(new byte[100]);
+        pool.release(null);
+        assertEquals(pool.getBytes(), 0);
+    }
+
+    @Test
+    public void testLeastRecentlyReleasedLengthDropped() {
+        ReadBufferPool pool = new ReadBufferPool(250);
+        byte[] plane = pool.borrow(200);
+        byte[] tile = pool.borrow(100);
+        pool.release(plane);
+        pool.release(tile);
+        // The plane is dropped to make room for the tile.
+        assertEquals(pool.getBytes(), 100);
+        assertSame(pool.borrow(100), tile);
+        assertNotSame(pool.borrow(200), plane);
+    }
+
+    @Test
+    public void testDisabled() {
+        ReadBufferPool pool = new ReadBufferPool(0);
+        assertFalse(pool.isEnabled());
+        byte[] tile = pool.borrow(100);
+        pool.release(tile);
+        assertEquals(pool.getBytes(), 0);
+        assertNotSame(pool.borrow(100), tile);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import ome.io.nio.ThumbnailCache;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the versions, byte budget and invalidation of
+ * {@link ThumbnailCache}.
+ * @since 5.3.0
+ */
+public class ThumbnailCacheUnitTest {
+
+    @Test
+    public void testDisabled() {
+        ThumbnailCache cache = new ThumbnailCache(0);
+        assertFalse(cache.isEnabled());
+        cache.put(1, 0, new byte[10], cache.stamp());
+        assertNull(cache.get(1, 0));
+    }
+
+    @Test
+    public void testVersions() {
+        ThumbnailCache cache = new ThumbnailCache(1024 * 1024);
+        byte[] thumbnail = new byte[10];
+        cache.put(1, 0, thumbnail, cache.stamp());
+        assertSame(cache.get(1, 0), thumbnail);
+        // Metadata saved since.
+        assertNull(cache.get(1, 1));
+        assertNull(cache.get(1, null));
+        assertNull(cache.get(2, 0));
+        cache.put(1, null, thumbnail, cache.stamp());
+        assertSame(cache.get(1, null), thumbnail);
+    }
+
+    @Test
+    public void testByteBudget() {
+        ThumbnailCache cache = new ThumbnailCache(10000);
+        for (long id = 0; id < 100; id++) {
+            cache.put(id, 0, new byte[1000], cache.stamp());
+        }
+        assertTrue(cache.size() < 10);
+        assertTrue(cache.size() > 0);
+    }
+
+    @Test
+    public void testInvalidate() {
+        ThumbnailCache cache = new ThumbnailCache(1024 * 1024);
+        for (long id = 1; id <= 3; id++) {
+            cache.put(id, 0, new byte[1], cache.stamp());
+        }
+        cache.invalidate(1);
+        assertNull(cache.get(1, 0));
+        cache.invalidate(Arrays.asList(2L));
+        assertNull(cache.get(2, 0));
+        assertEquals(cache.size(), 1);
+        cache.invalidateAll();
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testReadRacingWriteNotCached() {
+        ThumbnailCache cache = new ThumbnailCache(1024 * 1024);
+        long stamp = cache.stamp();
+        // Written while the previous bytes were being read.
+        cache.invalidate(1);
+        cache.put(1, 0, new byte[1], stamp);
+        assertNull(cache.get(1, 0));
+        cache.put(1, 0, new byte[1], cache.stamp());
+        assertEquals(cache.size(), 1);
+    }
+}
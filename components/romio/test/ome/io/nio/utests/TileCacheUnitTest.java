@@ -0,0 +1,195 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ome.io.nio.CachingPixelBuffer;
+import ome.io.nio.RomioPixelBuffer;
+import ome.io.nio.TileCache;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link CachingPixelBuffer} instances sharing a {@link TileCache}.
+ * @since 5.3.0
+ */
+public class TileCacheUnitTest {
+
+    private static final int SIZE_X = 64;
+
+    private static final int SIZE_Y = 64;
+
+    private static final int PLANE_SIZE = SIZE_X * SIZE_Y;
+
+    private File file;
+
+    private Pixels pixels;
+
+    private int reads;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        file = File.createTempFile("tiles", ".pixels");
+        byte[] data = new byte[2 * PLANE_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 3);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(2);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        pixels.setPixelsType(type);
+        reads = 0;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Returns a caching buffer over a ROMIO buffer counting its tile reads.
+     */
+    private CachingPixelBuffer buffer(TileCache cache) {
+        RomioPixelBuffer romio =
+                new RomioPixelBuffer(file.getAbsolutePath(), pixels, true) {
+            @Override
+            public PixelData getTile(Integer z, Integer c, Integer t,
+                    Integer x, Integer y, Integer w, Integer h)
+                    throws IOException {
+                reads++;
+                return super.getTile(z, c, t, x, y, w, h);
+            }
+        };
+        return new CachingPixelBuffer(romio, pixels, cache);
+    }
+
+    private byte[] bytes(PixelData data) {
+        byte[] bytes = new byte[data.size()];
+        data.getData().duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testTileReadOnce() throws IOException {
+        TileCache cache = new TileCache(1024 * 1024);
+        CachingPixelBuffer first = buffer(cache);
+        CachingPixelBuffer second = buffer(cache);
+        try {
+            byte[] read = bytes(first.getTile(1, 0, 0, 16, 16, 32, 32));
+            byte[] cached = bytes(second.getTile(1, 0, 0, 16, 16, 32, 32));
+            assertEquals(reads, 1);
+            assertTrue(Arrays.equals(cached, read));
+            assertEquals(cache.getBytes(), 32 * 32);
+            // Another tile, or the same tile of another plane, is read.
+            first.getTile(0, 0, 0, 16, 16, 32, 32);
+            first.getTile(1, 0, 0, 0, 16, 32, 32);
+            assertEquals(reads, 3);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testCallersGetCopies() throws IOException {
+        TileCache cache = new TileCache(1024 * 1024);
+        CachingPixelBuffer buffer = buffer(cache);
+        try {
+            byte[] expected = bytes(buffer.getTile(0, 0, 0, 0, 0, 8, 8));
+            PixelData tile = buffer.getTile(0, 0, 0, 0, 0, 8, 8);
+            tile.setPixelValue(0, 255);
+            tile.dispose();
+            byte[] cached = bytes(buffer.getTile(0, 0, 0, 0, 0, 8, 8));
+            assertTrue(Arrays.equals(cached, expected));
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testWriteInvalidates() throws IOException {
+        TileCache cache = new TileCache(1024 * 1024);
+        CachingPixelBuffer buffer = buffer(cache);
+        try {
+            buffer.getTile(0, 0, 0, 0, 0, 8, 8);
+            byte[] plane = new byte[PLANE_SIZE];
+            Arrays.fill(plane, (byte) 7);
+            buffer.setPlane(plane, 0, 0, 0);
+            assertEquals(cache.getBytes(), 0);
+            PixelData tile = buffer.getTile(0, 0, 0, 0, 0, 8, 8);
+            assertEquals(tile.getPixelValue(0), 7.0);
+            assertEquals(reads, 2);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testDirectReads() throws IOException {
+        TileCache cache = new TileCache(1024 * 1024);
+        CachingPixelBuffer buffer = buffer(cache);
+        try {
+            byte[] expected = buffer.getPlaneDirect(1, 0, 0,
+                    new byte[PLANE_SIZE]);
+            byte[] cached = buffer.getPlaneDirect(1, 0, 0,
+                    new byte[PLANE_SIZE]);
+            assertTrue(Arrays.equals(cached, expected));
+            assertEquals(cache.getBytes(), PLANE_SIZE);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        // Room for eight tiles of 16 by 16 pixels.
+        TileCache cache = new TileCache(8 * 16 * 16);
+        CachingPixelBuffer buffer = buffer(cache);
+        try {
+            for (int x = 0; x < SIZE_X; x += 16) {
+                for (int y = 0; y < SIZE_Y; y += 16) {
+                    buffer.getTile(0, 0, 0, x, y, 16, 16);
+                    assertTrue(cache.getBytes() <= 8 * 16 * 16);
+                }
+            }
+            // The most recently read tile is still cached.
+            buffer.getTile(0, 0, 0, SIZE_X - 16, SIZE_Y - 16, 16, 16);
+            assertEquals(reads, 16);
+            // Tiles larger than an eighth of the cache are not cached.
+            buffer.getTile(0, 0, 0, 0, 0, 32, 32);
+            buffer.getTile(0, 0, 0, 0, 0, 32, 32);
+            assertEquals(reads, 18);
+        } finally {
+            buffer.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.logic.perf;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import ome.logic.CompressImpl;
+import ome.util.ImageUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link CompressImpl#compressToStream(BufferedImage,
+ * java.io.OutputStream)} with the previous implementation, which looked up
+ * a new JPEG writer and created a new image output stream on every call.
+ * Images are packed integer RGB images, as produced by the renderer.
+ * Running with several threads, e.g. <code>ant perf
+ * -DBENCH=CompressBenchmark -Djmh.args="-t 4"</code>, shows the behaviour
+ * under concurrent rendering.
+ *
+ * @since 5.3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressBenchmark {
+
+    /** The width and height of the images. */
+    @Param({"256", "512", "1024"})
+    public int size;
+
+    /** The compression quality. */
+    @Param({"0.85"})
+    public float quality;
+
+    private BufferedImage image;
+
+    private CompressImpl compress;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        int[] buf = new int[size * size];
+        // Smooth gradients with some noise, closer to rendered planes than
+        // pure noise.
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = (x + y) * 255 / (2 * size);
+                int n = random.nextInt(16);
+                buf[y * size + x] = (v << 16) | ((v + n) << 8) | (255 - v);
+            }
+        }
+        image = ImageUtil.createBufferedImage(buf, size, size);
+        compress = new CompressImpl();
+        compress.setCompressionLevel(quality);
+    }
+
+    @Benchmark
+    public byte[] legacy() throws IOException {
+        ImageWriter jpegWriter =
+                ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam iwp = jpegWriter.getDefaultWriteParam();
+        iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        iwp.setCompressionQuality(quality);
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        ImageOutputStream imageOutputStream = null;
+        try {
+            imageOutputStream = ImageIO.createImageOutputStream(byteStream);
+            jpegWriter.setOutput(imageOutputStream);
+            jpegWriter.write(null, new IIOImage(image, null, null), iwp);
+        } finally {
+            if (imageOutputStream != null)
+                imageOutputStream.close();
+        }
+        return byteStream.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] pooled() throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        compress.compressToStream(image, byteStream);
+        return byteStream.toByteArray();
+    }
+}
@@ -11,12 +11,6 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
-
 import ome.api.local.LocalCompress;
 
 public class CompressImpl implements LocalCompress {
@@ -30,25 +24,8 @@ public class CompressImpl implements LocalCompress {
     public void compressToStream(BufferedImage image, OutputStream outputStream)
     	throws IOException
     {
-        // Get a JPEG image writer
-        ImageWriter jpegWriter =
-        	ImageIO.getImageWritersByFormatName("jpeg").next();
-
-        // Setup the compression value from (0.05, 0.75 and 0.95)
-        ImageWriteParam iwp = jpegWriter.getDefaultWriteParam();
-        iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        iwp.setCompressionQuality(quality);
-
-        // Write the JPEG to our ByteArray stream
-    	ImageOutputStream imageOutputStream = null;
-        try {
-        	imageOutputStream = ImageIO.createImageOutputStream(outputStream);
-        	jpegWriter.setOutput(imageOutputStream);
-        	jpegWriter.write(null, new IIOImage(image, null, null), iwp);
-        } finally {
-        	if (imageOutputStream != null)
-        		imageOutputStream.close();
-        }
+        // Writers, streams and scratch buffers are reused per thread
+        JpegEncoder.get().encode(image, quality, outputStream);
     }
 
 	/* (non-Javadoc)
@@ -0,0 +1,360 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.logic;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * Encodes images as JPEG, reusing across calls the image writer, the
+ * in-memory stream the writer writes to and, for the packed integer RGB
+ * images produced by the renderer, the interleaved RGB image handed to the
+ * writer. Encoders are not thread-safe; {@link #get()} returns the encoder
+ * of the calling thread.
+ * <p>
+ * Since an encoder lives as long as its thread, the image and stream it
+ * reuses are dropped once a call needs more than
+ * {@link #MAX_RETAINED_BYTES} for either, so that each thread only pins
+ * the memory needed for thumbnails and tiles.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public final class JpegEncoder {
+
+    /**
+     * The size, in bytes, above which the interleaved image and the stream
+     * buffer are not kept for the next call.
+     */
+    public static final int MAX_RETAINED_BYTES = 1024 * 1024;
+
+    /** The encoder of each thread, created on first use. */
+    private static final ThreadLocal<JpegEncoder> ENCODERS =
+            new ThreadLocal<JpegEncoder>() {
+        @Override
+        protected JpegEncoder initialValue() {
+            return new JpegEncoder();
+        }
+    };
+
+    /** The colour model of the interleaved RGB images. */
+    private static final ColorModel RGB = new ComponentColorModel(
+            ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+            Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+    /** The band offsets of the interleaved RGB images. */
+    private static final int[] RGB_OFFSETS = new int[] { 0, 1, 2 };
+
+    /** The masks of the packed integer RGB images, see ImageUtil. */
+    private static final int[] PACKED_MASKS =
+            new int[] { 0x00ff0000, 0x0000ff00, 0x000000ff };
+
+    /** The writer, kept across calls. */
+    private final ImageWriter writer;
+
+    /** The parameters of {@link #writer}, quality set on each call. */
+    private final ImageWriteParam param;
+
+    /** The stream {@link #writer} writes to, reset on each call. */
+    private final ByteArrayImageOutputStream stream =
+            new ByteArrayImageOutputStream();
+
+    /** The last interleaved RGB image, reused while the size is unchanged. */
+    private BufferedImage interleaved;
+
+    /**
+     * Returns the encoder of the calling thread.
+     *
+     * @return See above.
+     */
+    public static JpegEncoder get() {
+        return ENCODERS.get();
+    }
+
+    /**
+     * Creates a new instance.
+     */
+    private JpegEncoder() {
+        Iterator<ImageWriter> writers =
+                ImageIO.getImageWritersByFormatName("jpeg");
+        writer = writers.next();
+        param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    }
+
+    /**
+     * Encodes the passed image and writes it to the passed stream.
+     *
+     * @param image The image to encode.
+     * @param quality The compression quality, between <code>0</code> and
+     * <code>1</code>.
+     * @param outputStream The stream to write to.
+     * @throws IOException If the image cannot be encoded or written.
+     */
+    public void encode(BufferedImage image, float quality,
+            OutputStream outputStream) throws IOException {
+        try {
+            RenderedImage source = image;
+            if (isPackedRgb(image)) {
+                source = toInterleaved(image);
+            }
+            param.setCompressionQuality(quality);
+            stream.clear();
+            try {
+                writer.setOutput(stream);
+                writer.write(null, new IIOImage(source, null, null), param);
+            } finally {
+                writer.setOutput(null);
+            }
+            stream.writeTo(outputStream);
+        } finally {
+            trim();
+        }
+    }
+
+    /**
+     * Returns the number of bytes held by the interleaved image and the
+     * stream buffer kept for the next call.
+     *
+     * @return See above.
+     */
+    public int getRetainedBytes() {
+        int bytes = stream.capacity();
+        if (interleaved != null) {
+            bytes += interleavedBytes(interleaved.getWidth(),
+                    interleaved.getHeight());
+        }
+        return bytes;
+    }
+
+    /**
+     * Drops the interleaved image and shrinks the stream buffer if they are
+     * larger than {@link #MAX_RETAINED_BYTES}.
+     */
+    private void trim() {
+        if (interleaved != null && interleavedBytes(interleaved.getWidth(),
+                interleaved.getHeight()) > MAX_RETAINED_BYTES) {
+            interleaved = null;
+        }
+        stream.trim(MAX_RETAINED_BYTES);
+    }
+
+    /**
+     * Returns the size of an interleaved RGB image.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return See above.
+     */
+    private static int interleavedBytes(int width, int height) {
+        return width * height * 3;
+    }
+
+    /**
+     * Returns <code>true</code> if the passed image is an RGB image packed
+     * into a single integer per pixel with no padding, as created by
+     * {@link ome.util.ImageUtil#createBufferedImage(int[], int, int)},
+     * <code>false</code> otherwise.
+     *
+     * @param image The image to check.
+     * @return See above.
+     */
+    public static boolean isPackedRgb(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt)
+                || raster.getSampleModelTranslateX() != 0
+                || raster.getSampleModelTranslateY() != 0) {
+            return false;
+        }
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+                || !(image.getColorModel() instanceof DirectColorModel)) {
+            return false;
+        }
+        SinglePixelPackedSampleModel sm =
+                (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DirectColorModel cm = (DirectColorModel) image.getColorModel();
+        return !cm.hasAlpha()
+                && sm.getScanlineStride() == image.getWidth()
+                && Arrays.equals(sm.getBitMasks(), PACKED_MASKS)
+                && cm.getRedMask() == PACKED_MASKS[0]
+                && cm.getGreenMask() == PACKED_MASKS[1]
+                && cm.getBlueMask() == PACKED_MASKS[2];
+    }
+
+    /**
+     * Copies the passed packed integer RGB image into an interleaved RGB
+     * image owned by this encoder.
+     *
+     * @param image The image to copy.
+     * @return See above.
+     */
+    private BufferedImage toInterleaved(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (interleaved == null || interleaved.getWidth() != width
+                || interleaved.getHeight() != height) {
+            WritableRaster raster = Raster.createInterleavedRaster(
+                    new DataBufferByte(interleavedBytes(width, height)),
+                    width, height,
+                    width * 3, 3, RGB_OFFSETS, null);
+            interleaved = new BufferedImage(RGB, raster, false, null);
+        }
+        DataBufferInt source = (DataBufferInt) image.getRaster().getDataBuffer();
+        int[] pixels = source.getData();
+        byte[] rgb = ((DataBufferByte)
+                interleaved.getRaster().getDataBuffer()).getData();
+        int offset = source.getOffset();
+        int end = offset + width * height;
+        int j = 0;
+        int pixel;
+        for (int i = offset; i < end; i++) {
+            pixel = pixels[i];
+            rgb[j++] = (byte) (pixel >> 16);
+            rgb[j++] = (byte) (pixel >> 8);
+            rgb[j++] = (byte) pixel;
+        }
+        return interleaved;
+    }
+
+    /**
+     * An image output stream backed by a growable byte array which, unlike
+     * the streams provided by {@link ImageIO}, can be reset and reused.
+     */
+    private static final class ByteArrayImageOutputStream
+        extends ImageOutputStreamImpl {
+
+        /** The initial size of {@link #buf}. */
+        private static final int INITIAL_CAPACITY = 64 * 1024;
+
+        /** The bytes written, valid up to {@link #count}. */
+        private byte[] buf = new byte[INITIAL_CAPACITY];
+
+        /** The number of bytes written. */
+        private int count;
+
+        /** Discards the bytes written, keeping the backing array. */
+        void clear() {
+            streamPos = 0;
+            flushedPos = 0;
+            bitOffset = 0;
+            count = 0;
+        }
+
+        /**
+         * Returns the size of the backing array.
+         *
+         * @return See above.
+         */
+        int capacity() {
+            return buf.length;
+        }
+
+        /**
+         * Discards the bytes written and replaces the backing array by one
+         * of the initial size if it grew larger than the passed size.
+         *
+         * @param maxCapacity The largest backing array to keep.
+         */
+        void trim(int maxCapacity) {
+            clear();
+            if (buf.length > maxCapacity) {
+                buf = new byte[INITIAL_CAPACITY];
+            }
+        }
+
+        /**
+         * Writes the bytes written so far to the passed stream.
+         *
+         * @param out The stream to write to.
+         * @throws IOException If the bytes cannot be written.
+         */
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buf, 0, count);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= count) {
+                return -1;
+            }
+            return buf[(int) streamPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= count) {
+                return -1;
+            }
+            int n = Math.min(len, count - (int) streamPos);
+            System.arraycopy(buf, (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            ensureCapacity((int) streamPos + 1);
+            buf[(int) streamPos++] = (byte) b;
+            count = Math.max(count, (int) streamPos);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            ensureCapacity((int) streamPos + len);
+            System.arraycopy(b, off, buf, (int) streamPos, len);
+            streamPos += len;
+            count = Math.max(count, (int) streamPos);
+        }
+
+        @Override
+        public long length() {
+            return count;
+        }
+
+        /**
+         * Grows the backing array so that it holds at least the passed
+         * number of bytes.
+         *
+         * @param capacity The required capacity.
+         */
+        private void ensureCapacity(int capacity) {
+            if (capacity > buf.length) {
+                byte[] grown = new byte[Math.max(capacity, buf.length * 2)];
+                System.arraycopy(buf, 0, grown, 0, count);
+                buf = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import ome.conditions.InternalException;
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.RenderingTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The frames of a batch requested from
+ * {@link RenderingBean#renderCompressedBatch(List)}. The frames are rendered
+ * one after the other by the caller while those already rendered are
+ * compressed on the {@link RenderingExecutor}, at most a given number of
+ * them waiting for their compression at any time.
+ * <p>
+ * Frames found in the tile cache are neither rendered nor compressed, the
+ * others are cached once compressed. The first failure is thrown to the
+ * caller and the compressions still pending are cancelled.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class FrameBatch {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(FrameBatch.class);
+
+    /**
+     * Renders and compresses the frames of a batch, called by the thread
+     * running the batch except for {@link #compress(BufferedImage)}.
+     */
+    public interface Frames {
+
+        /**
+         * Returns the key of the frame in the tile cache.
+         *
+         * @param i The index of the frame.
+         * @return See above, <code>null</code> if the frame is not cached.
+         */
+        RenderedTileCache.Key getKey(int i);
+
+        /**
+         * Renders the frame.
+         *
+         * @param i The index of the frame.
+         * @return See above.
+         */
+        BufferedImage render(int i);
+
+        /**
+         * Compresses a rendered frame, called by the
+         * {@link RenderingExecutor}.
+         *
+         * @param image The rendered frame.
+         * @return See above.
+         */
+        byte[] compress(BufferedImage image);
+    }
+
+    private final RenderingExecutor executor;
+
+    private final RenderedTileCache tileCache;
+
+    private final int maxInFlight;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param executor Compresses the rendered frames.
+     * @param tileCache The cache of compressed tiles, may be
+     *                  <code>null</code> if no frame has a key.
+     * @param maxInFlight The maximum number of rendered frames waiting for
+     *                    their compression.
+     */
+    public FrameBatch(RenderingExecutor executor, RenderedTileCache tileCache,
+            int maxInFlight) {
+        this.executor = executor;
+        this.tileCache = tileCache;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Renders and compresses the frames.
+     *
+     * @param n The number of frames.
+     * @param frames Renders and compresses the frames.
+     * @return The compressed frames, in order.
+     */
+    public byte[][] run(int n, final Frames frames) {
+        Future<?>[] pending = new Future<?>[n];
+        try {
+            byte[][] compressed = new byte[n][];
+            RenderedTileCache.Key[] keys = new RenderedTileCache.Key[n];
+            int done = 0;
+            for (int i = 0; i < n; i++) {
+                keys[i] = frames.getKey(i);
+                if (keys[i] != null) {
+                    compressed[i] = tileCache.get(keys[i]);
+                }
+                if (compressed[i] == null) {
+                    final BufferedImage image = frames.render(i);
+                    pending[i] = executor.submit(new RenderingTask() {
+                        public Object call() {
+                            return frames.compress(image);
+                        }
+                    });
+                }
+                // Bound the number of rendered images held in memory.
+                for (; i + 1 - done > maxInFlight; done++) {
+                    collect(pending, compressed, keys, done);
+                }
+            }
+            for (; done < n; done++) {
+                collect(pending, compressed, keys, done);
+            }
+            return compressed;
+        } finally {
+            for (Future<?> future : pending) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the compression of the frame <code>i</code>, if one was
+     * submitted, and caches the result.
+     *
+     * @param pending The pending compressions.
+     * @param compressed The compressed frames.
+     * @param keys The tile cache keys of the frames.
+     * @param i The index of the frame.
+     */
+    private void collect(Future<?>[] pending, byte[][] compressed,
+            RenderedTileCache.Key[] keys, int i) {
+        if (pending[i] == null) {
+            return;
+        }
+        try {
+            compressed[i] = (byte[]) pending[i].get();
+            pending[i] = null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalException("Interrupted while compressing.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            log.error("Could not compress rendered image.", cause);
+            throw new InternalException(cause.getMessage());
+        }
+        if (keys[i] != null) {
+            tileCache.put(keys[i], compressed[i]);
+        }
+    }
+}
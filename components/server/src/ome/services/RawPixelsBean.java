@@ -29,6 +29,7 @@ import ome.conditions.ValidationException;
 import ome.io.nio.DimensionsOutOfBoundsException;
 import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
+import ome.io.nio.ReadBufferPool;
 import ome.io.nio.RomioPixelBuffer;
 import ome.model.core.Pixels;
 import ome.parameters.Parameters;
@@ -81,6 +82,9 @@ public class RawPixelsBean extends AbstractStatefulBean implements
 
     /** A copy buffer for the pixel retrieval. */
     private transient byte[] readBuffer;
+
+    /** The arrays planes and tiles are read into, if pooled. */
+    private transient ReadBufferPool readBufferPool;
     
     /** Pixels set cache. */
     private transient Map<Long, Pixels> pixelsCache;
@@ -142,6 +146,20 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         this.sql = sql;
     }
 
+    /**
+     * Read buffer pool Bean injector. When the pool is enabled,
+     * {@link #getPlane(int, int, int)} and
+     * {@link #getTile(int, int, int, int, int, int, int)} return arrays
+     * borrowed from it, to be released by the caller once sent.
+     * @param readBufferPool a <code>ReadBufferPool</code>
+     */
+    public synchronized final void setReadBufferPool(
+            ReadBufferPool readBufferPool) {
+        getBeanHelper().throwIfAlreadySet(this.readBufferPool,
+                readBufferPool);
+        this.readBufferPool = readBufferPool;
+    }
+
     // ~ Lifecycle methods
     // =========================================================================
 
@@ -379,15 +397,14 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         errorIfNotLoaded();
 
         int size = RomioPixelBuffer.safeLongToInteger(buffer.getPlaneSize());
-        if (readBuffer == null || readBuffer.length != size) {
-            readBuffer = new byte[size];
-        }
+        byte[] plane = borrowReadBuffer(size);
         try {
-            readBuffer = buffer.getPlaneDirect(arg0, arg1, arg2, readBuffer);
+            plane = buffer.getPlaneDirect(arg0, arg1, arg2, plane);
         } catch (Exception e) {
+            releaseReadBuffer(plane);
             handleException(e);
         }
-        return readBuffer;
+        return plane;
     }
 
     @RolesAllowed("user")
@@ -675,6 +692,30 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         return b;
     }
 
+    /**
+     * Returns an array to read a plane or a tile into: borrowed from the
+     * pool if enabled, the copy buffer of the session otherwise.
+     */
+    private byte[] borrowReadBuffer(int size) {
+        if (readBufferPool != null && readBufferPool.isEnabled()) {
+            return readBufferPool.borrow(size);
+        }
+        if (readBuffer == null || readBuffer.length != size) {
+            readBuffer = new byte[size];
+        }
+        return readBuffer;
+    }
+
+    /**
+     * Hands back an array returned by {@link #borrowReadBuffer(int)} which
+     * is not returned to the caller.
+     */
+    private void releaseReadBuffer(byte[] buffer) {
+        if (readBufferPool != null) {
+            readBufferPool.release(buffer);
+        }
+    }
+
     private synchronized void handleException(Exception e) {
 
         if (e instanceof RootException) {
@@ -782,15 +823,14 @@ public class RawPixelsBean extends AbstractStatefulBean implements
 
         int size = RomioPixelBuffer.safeLongToInteger(
                 (long) w * (long) h * buffer.getByteWidth());
-        if (readBuffer == null || readBuffer.length != size) {
-            readBuffer = new byte[size];
-        }
+        byte[] tile = borrowReadBuffer(size);
         try {
-            readBuffer = buffer.getTileDirect(z, c, t, x, y, w, h, readBuffer);
+            tile = buffer.getTileDirect(z, c, t, x, y, w, h, tile);
         } catch (Exception e) {
+            releaseReadBuffer(tile);
             handleException(e);
         }
-        return readBuffer;
+        return tile;
     }
 
     /* (non-Javadoc)
@@ -0,0 +1,335 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import ome.model.display.ChannelBinding;
+import ome.model.display.QuantumDef;
+import ome.model.display.RenderingDef;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.data.RegionDef;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Process-wide cache of compressed rendered planes and tiles, shared by all
+ * {@link RenderingBean} instances. Many users panning over the same image
+ * with unchanged rendering settings request exactly the same tiles; this
+ * cache allows those to be served without re-reading and re-rendering the
+ * pixel data.
+ * <p>
+ * Entries are keyed by the pixels set, the resolution level, the plane (and
+ * region) rendered, a digest of all the settings affecting the output (see
+ * {@link #settingsHash(Renderer)}) and the compression level. The cache is
+ * bounded by the total number of bytes held; a size of <code>0</code>
+ * disables it.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class RenderedTileCache {
+
+    /** The logger for this particular class */
+    private static final Logger log =
+            LoggerFactory.getLogger(RenderedTileCache.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The maximum number of bytes held, <code>0</code> if disabled. */
+    private final long maxBytes;
+
+    /** The compressed tiles or <code>null</code> if disabled. */
+    private final Cache<Key, byte[]> cache;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    /**
+     * Creates a new instance which does not collect metrics.
+     *
+     * @param maxBytes The maximum number of bytes to hold. Values lower than
+     *                 <code>1</code> disable the cache.
+     */
+    public RenderedTileCache(long maxBytes) {
+        this(maxBytes, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxBytes The maximum number of bytes to hold. Values lower than
+     *                 <code>1</code> disable the cache.
+     * @param metrics Used to export the hit, miss and eviction counts.
+     */
+    public RenderedTileCache(long maxBytes, Metrics metrics) {
+        this.maxBytes = Math.max(0, maxBytes);
+        hits = metrics.counter(this, "hits");
+        misses = metrics.counter(this, "misses");
+        evictions = metrics.counter(this, "evictions");
+        if (this.maxBytes == 0) {
+            cache = null;
+            log.info("Rendered tile cache disabled");
+            return;
+        }
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(this.maxBytes)
+                .weigher(new Weigher<Key, byte[]>() {
+                    public int weigh(Key key, byte[] value) {
+                        return value.length;
+                    }
+                })
+                .removalListener(new RemovalListener<Key, byte[]>() {
+                    public void onRemoval(
+                            RemovalNotification<Key, byte[]> notification) {
+                        if (notification.wasEvicted()) {
+                            evictions.inc();
+                        }
+                    }
+                })
+                .build();
+        log.info("Rendered tile cache of " + this.maxBytes + " bytes");
+    }
+
+    /**
+     * Returns <code>true</code> if tiles are cached, <code>false</code>
+     * otherwise.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns the maximum number of bytes held by the cache.
+     *
+     * @return See above.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the cached tile for the passed key, counting the hit or miss.
+     *
+     * @param key The key built by {@link #key}.
+     * @return The compressed tile or <code>null</code> if not cached.
+     */
+    public byte[] get(Key key) {
+        if (cache == null) {
+            return null;
+        }
+        byte[] tile = cache.getIfPresent(key);
+        if (tile == null) {
+            misses.inc();
+        } else {
+            hits.inc();
+        }
+        return tile;
+    }
+
+    /**
+     * Caches the passed compressed tile. The array must not be modified
+     * afterwards since it is handed out as is by {@link #get(Key)}.
+     *
+     * @param key The key built by {@link #key}.
+     * @param tile The compressed tile.
+     */
+    public void put(Key key, byte[] tile) {
+        if (cache == null || tile == null) {
+            return;
+        }
+        cache.put(key, tile);
+    }
+
+    /**
+     * Removes all the tiles of the passed pixels set, whatever the settings
+     * they were rendered with.
+     *
+     * @param pixelsId The id of the pixels set.
+     */
+    public void invalidate(long pixelsId) {
+        if (cache == null) {
+            return;
+        }
+        Iterator<Key> i = cache.asMap().keySet().iterator();
+        while (i.hasNext()) {
+            if (i.next().pixelsId == pixelsId) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all the cached tiles.
+     */
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the number of tiles currently cached.
+     *
+     * @return See above.
+     */
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * Builds the key identifying a tile.
+     *
+     * @param pixelsId The id of the pixels set.
+     * @param resolutionLevel The resolution level rendered.
+     * @param pd The plane (and region) rendered.
+     * @param settings The digest returned by
+     *                 {@link #settingsHash(Renderer)}.
+     * @param compression The compression level.
+     * @return See above.
+     */
+    public static Key key(long pixelsId, int resolutionLevel, PlaneDef pd,
+            String settings, float compression) {
+        return new Key(pixelsId, resolutionLevel, pd, settings, compression);
+    }
+
+    /**
+     * Returns a stable digest of all the settings of the renderer which
+     * affect the rendered image: the rendering model, the quantum definition,
+     * the active channel bindings and the codomain transformations.
+     * Enumerations are identified by their id so that loaded and unloaded
+     * instances produce the same digest.
+     *
+     * @param renderer The renderer.
+     * @return See above.
+     */
+    public static String settingsHash(Renderer renderer) {
+        Hasher h = Hashing.murmur3_128().newHasher();
+        RenderingDef def = renderer.getRenderingDef();
+        h.putLong(def.getModel().getId());
+        QuantumDef qd = def.getQuantization();
+        h.putInt(qd.getCdStart());
+        h.putInt(qd.getCdEnd());
+        h.putInt(qd.getBitResolution());
+        ChannelBinding[] bindings = renderer.getChannelBindings();
+        for (int w = 0; w < bindings.length; w++) {
+            ChannelBinding cb = bindings[w];
+            h.putBoolean(cb.getActive());
+            if (!cb.getActive()) {
+                continue;
+            }
+            h.putInt(w);
+            h.putLong(cb.getFamily().getId());
+            h.putDouble(cb.getCoefficient());
+            h.putDouble(cb.getInputStart());
+            h.putDouble(cb.getInputEnd());
+            h.putBoolean(cb.getNoiseReduction());
+            h.putInt(cb.getRed());
+            h.putInt(cb.getGreen());
+            h.putInt(cb.getBlue());
+            h.putInt(cb.getAlpha());
+            String lut = cb.getLookupTable();
+            h.putString(lut == null ? "" : lut, UTF8);
+        }
+        // The chain is fully described by its lookup table.
+        CodomainChain cc = renderer.getCodomainChain();
+        int end = cc.getIntervalEnd();
+        for (int x = cc.getIntervalStart(); x <= end; x++) {
+            h.putInt(cc.transform(x));
+        }
+        return h.hash().toString();
+    }
+
+    /**
+     * Identifies a compressed tile.
+     */
+    public static final class Key {
+
+        private final long pixelsId;
+
+        private final int resolutionLevel;
+
+        /** Slice, x, y, z, t, stride and region of the plane definition. */
+        private final int[] plane;
+
+        private final String settings;
+
+        private final int compression;
+
+        private final int hashCode;
+
+        private Key(long pixelsId, int resolutionLevel, PlaneDef pd,
+                String settings, float compression) {
+            this.pixelsId = pixelsId;
+            this.resolutionLevel = resolutionLevel;
+            RegionDef r = pd.getRegion();
+            plane = new int[] {pd.getSlice(), pd.getX(), pd.getY(), pd.getZ(),
+                    pd.getT(), pd.getStride(),
+                    r == null ? -1 : r.getX(), r == null ? -1 : r.getY(),
+                    r == null ? -1 : r.getWidth(),
+                    r == null ? -1 : r.getHeight()};
+            this.settings = settings;
+            this.compression = Float.floatToIntBits(compression);
+            int result = (int) (pixelsId ^ (pixelsId >>> 32));
+            result = 31 * result + resolutionLevel;
+            result = 31 * result + Arrays.hashCode(plane);
+            result = 31 * result + settings.hashCode();
+            result = 31 * result + this.compression;
+            hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return pixelsId == other.pixelsId
+                    && resolutionLevel == other.resolutionLevel
+                    && compression == other.compression
+                    && Arrays.equals(plane, other.plane)
+                    && settings.equals(other.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return "Key(pixels=" + pixelsId + ", level=" + resolutionLevel
+                    + ", plane=" + Arrays.toString(plane)
+                    + ", settings=" + settings + ")";
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
 import ome.api.IRenderingSettings;
+import ome.api.IScale;
 import ome.api.IUpdate;
 import ome.api.ServiceInterface;
 import ome.api.ThumbnailStore;
@@ -53,6 +54,7 @@ import ome.util.ShallowCopy;
 import omeis.providers.re.RGBBuffer;
 import omeis.providers.re.Renderer;
 import omeis.providers.re.RenderingEngine;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.codomain.CodomainMapContext;
 import omeis.providers.re.data.PlaneDef;
 import omeis.providers.re.data.RegionDef;
@@ -97,6 +99,13 @@ public class RenderingBean implements RenderingEngine, Serializable {
     /** Reference to the logger. */
     private static final Logger log = LoggerFactory.getLogger(RenderingBean.class);
 
+    /**
+     * The maximum number of rendered frames of a batch waiting for their
+     * compression, see {@link #renderCompressedBatch(List)}.
+     */
+    private static final int MAX_FRAMES_IN_FLIGHT =
+            2 * Runtime.getRuntime().availableProcessors();
+
     /**
      * Returns the service corresponding to this class.
      * 
@@ -158,6 +167,12 @@ public class RenderingBean implements RenderingEngine, Serializable {
     /** The resolution level to be used by the pixel buffer. */
     private Integer resolutionLevel;
 
+    /** Cache of compressed tiles shared by all the rendering engines. */
+    private transient RenderedTileCache tileCache;
+
+    /** Reference to the service used to resample scaled renders. */
+    private transient IScale scaleService;
+
     /**
      * True when an explicit rendering def ID was passed into the
      * server. In this case, a call to {@link #saveCurrentSettings()}
@@ -189,6 +204,25 @@ public class RenderingBean implements RenderingEngine, Serializable {
         this.helper = helper;
     }
 
+    /**
+     * Sets the cache of compressed tiles shared by all the rendering engines.
+     *
+     * @param tileCache The cache or <code>null</code> not to cache tiles.
+     */
+    public void setTileCache(RenderedTileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Sets the service used to resample the images rendered by
+     * {@link #renderCompressedScaled(PlaneDef, int, int)}.
+     *
+     * @param scaleService The scaling service.
+     */
+    public void setScaleService(IScale scaleService) {
+        this.scaleService = scaleService;
+    }
+
     @RolesAllowed("user")
     public long getRenderingDefId() {
         if (rendDefObj == null || rendDefObj.getId() == null) {
@@ -527,43 +561,228 @@ public class RenderingBean implements RenderingEngine, Serializable {
     public byte[] renderCompressed(PlaneDef pd) {
         rwl.writeLock().lock();
 
-        ByteArrayOutputStream byteStream = null;
         try {
-            final Map<byte[], Integer> overlays = getMasks(pd);
-            if (overlays.size() > 0) {
-                renderer.setOverlays(overlays);
+            RenderedTileCache.Key key = getTileKey(pd);
+            if (key != null) {
+                byte[] tile = tileCache.get(key);
+                if (tile != null) {
+                    return tile;
+                }
             }
-            int stride = pd.getStride();
-            if (stride < 0) stride = 0;
-            stride++;
-            int[] buf = renderAsPackedInt(pd);
-            int sizeX = pixelsObj.getSizeX();
-            int sizeY = pixelsObj.getSizeY();
-            RegionDef region = pd.getRegion();
-            if (region != null) {
-                sizeX = region.getWidth();
-                sizeY = region.getHeight();
+            byte[] tile = compress(renderAsImage(pd));
+            if (key != null) {
+                tileCache.put(key, tile);
             }
-            sizeX = sizeX/stride;
-            sizeY = sizeY/stride;
-            BufferedImage image = ImageUtil.createBufferedImage(buf, sizeX,
-                    sizeY);
-            byteStream = new ByteArrayOutputStream();
+            return tile;
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Implemented as specified by the {@link RenderingEngine} interface. The
+     * planes are rendered one after the other in the calling thread, each
+     * render being itself parallelized by the rendering strategy, while the
+     * frames already rendered are compressed by the shared
+     * {@link RenderingExecutor}. At most {@link #MAX_FRAMES_IN_FLIGHT} frames
+     * wait for their compression at any time, see {@link FrameBatch}.
+     * 
+     * @see RenderingEngine#renderCompressedBatch(List)
+     */
+    @RolesAllowed("user")
+    public byte[][] renderCompressedBatch(final List<PlaneDef> pds) {
+        if (pds == null) {
+            throw new ValidationException("No planes to render.");
+        }
+        for (PlaneDef pd : pds) {
+            if (pd == null) {
+                throw new ValidationException("Null plane in the batch.");
+            }
+        }
+        rwl.writeLock().lock();
+
+        try {
+            errorIfInvalidState();
+            FrameBatch batch = new FrameBatch(RenderingExecutor.getInstance(),
+                    tileCache, MAX_FRAMES_IN_FLIGHT);
+            return batch.run(pds.size(), new FrameBatch.Frames() {
+                public RenderedTileCache.Key getKey(int i) {
+                    return getTileKey(pds.get(i));
+                }
+
+                public BufferedImage render(int i) {
+                    return renderAsImage(pds.get(i));
+                }
+
+                public byte[] compress(BufferedImage image) {
+                    return RenderingBean.this.compress(image);
+                }
+            });
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Implemented as specified by the {@link RenderingEngine} interface. Only
+     * the tiles of the selected resolution level covering the region are
+     * read, so that an overview of a large image reads a small fraction of
+     * the bytes of the full resolution region.
+     *
+     * @see RenderingEngine#renderCompressedScaled(PlaneDef, int, int)
+     */
+    @RolesAllowed("user")
+    public byte[] renderCompressedScaled(PlaneDef pd, int sizeX, int sizeY) {
+        if (pd == null) {
+            throw new ValidationException("No plane to render.");
+        }
+        if (pd.getSlice() != PlaneDef.XY) {
+            throw new ValidationException("Only XY planes can be scaled.");
+        }
+        if (sizeX <= 0 || sizeY <= 0) {
+            throw new ValidationException(String.format(
+                    "Invalid size %dx%d.", sizeX, sizeY));
+        }
+        rwl.writeLock().lock();
+
+        Integer previousLevel = null;
+        try {
+            errorIfInvalidState();
+            errorIfInvalidPlane(pd);
+            List<List<Integer>> levels = renderer.getResolutionDescriptions();
+            if (levels.size() > 1) {
+                // The region is given at the full resolution.
+                previousLevel = renderer.getResolutionLevel();
+                renderer.setResolutionLevel(levels.size() - 1);
+            }
+            checkPlaneDef(pd);
+            ScaledRegion scaled =
+                    new ScaledRegion(levels, pd.getRegion(), sizeX, sizeY);
+            RegionDef region = scaled.getRegion();
+            int levelWidth = region.getWidth();
+            int levelHeight = region.getHeight();
+            if (log.isDebugEnabled()) {
+                log.debug(String.format(
+                        "Rendering %s as %dx%d from level %d region %s",
+                        pd.getRegion(), sizeX, sizeY,
+                        scaled.getResolutionLevel(), region));
+            }
+
+            PlaneDef levelPd = new PlaneDef(PlaneDef.XY, pd.getT());
+            levelPd.setZ(pd.getZ());
+            levelPd.setRegion(region);
+            if (levels.size() > 1) {
+                renderer.setResolutionLevel(scaled.getResolutionLevel());
+            }
+            int[] buf = renderer.renderAsPackedInt(levelPd, null);
+            BufferedImage image = ImageUtil.createBufferedImage(
+                    buf, levelWidth, levelHeight);
+            if (levelWidth != sizeX || levelHeight != sizeY) {
+                // The scaling service truncates the scaled size; half a
+                // pixel more is enough to land on the requested size.
+                image = scaleService.scaleBufferedImage(image,
+                        (sizeX + 0.5f) / levelWidth,
+                        (sizeY + 0.5f) / levelHeight);
+            }
+            return compress(image);
+        } catch (IOException e) {
+            log.error("IO error while rendering.", e);
+            throw new ResourceError(e.getMessage());
+        } catch (QuantizationException e) {
+            log.error("Quantization exception while rendering.", e);
+            throw new InternalException(e.getMessage());
+        } finally {
+            if (previousLevel != null) {
+                renderer.setResolutionLevel(previousLevel);
+            }
+            rwl.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Renders the passed plane, taking into account the stride and region.
+     * Must be called with the write lock held.
+     *
+     * @param pd The plane (and region) to render.
+     * @return See above.
+     */
+    private BufferedImage renderAsImage(PlaneDef pd) {
+        final Map<byte[], Integer> overlays = getMasks(pd);
+        if (overlays.size() > 0) {
+            renderer.setOverlays(overlays);
+        }
+        int stride = pd.getStride();
+        if (stride < 0) stride = 0;
+        stride++;
+        int[] buf = renderAsPackedInt(pd);
+        int sizeX = pixelsObj.getSizeX();
+        int sizeY = pixelsObj.getSizeY();
+        RegionDef region = pd.getRegion();
+        if (region != null) {
+            sizeX = region.getWidth();
+            sizeY = region.getHeight();
+        }
+        sizeX = sizeX/stride;
+        sizeY = sizeY/stride;
+        return ImageUtil.createBufferedImage(buf, sizeX, sizeY);
+    }
+
+    /**
+     * Compresses the passed image with the current compression level.
+     *
+     * @param image The image to compress.
+     * @return The compressed image.
+     * @throws ResourceError If the image could not be compressed.
+     */
+    private byte[] compress(BufferedImage image) {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try {
             compressionSrv.compressToStream(image, byteStream);
             return byteStream.toByteArray();
         } catch (IOException e) {
             log.error("Could not compress rendered image.", e);
             throw new ResourceError(e.getMessage());
-        } finally {
-            rwl.writeLock().unlock();
-            try {
-                if (byteStream != null) {
-                    byteStream.close();
-                }
-            } catch (IOException e) {
-                log.error("Could not close byte stream.", e);
-                throw new ResourceError(e.getMessage());
-            }
+        }
+    }
+
+    /**
+     * Returns the key identifying the compressed tile for the passed plane
+     * with the current settings or <code>null</code> if the tile should not
+     * be cached, i.e. if the cache is disabled or overlays are rendered.
+     * Must be called with the write lock held.
+     *
+     * @param pd The plane (and region) to render.
+     * @return See above.
+     */
+    private RenderedTileCache.Key getTileKey(PlaneDef pd) {
+        if (tileCache == null || !tileCache.isEnabled()
+                || pd.getRenderShapes()) {
+            return null;
+        }
+        errorIfInvalidState();
+        Map<byte[], Integer> overlays = renderer.getOverlays();
+        if (overlays != null && overlays.size() > 0) {
+            return null;
+        }
+        checkPlaneDef(pd);
+        if (resolutionLevel != null)
+        {
+            renderer.setResolutionLevel(resolutionLevel);
+        }
+        return RenderedTileCache.key(pixelsObj.getId(),
+                renderer.getResolutionLevel(), pd,
+                RenderedTileCache.settingsHash(renderer),
+                compressionSrv.getCompressionLevel());
+    }
+
+    /**
+     * Removes the cached tiles of the current pixels set. Called when the
+     * rendering settings are saved.
+     */
+    private void invalidateTiles() {
+        if (tileCache != null && pixelsObj != null
+                && pixelsObj.getId() != null) {
+            tileCache.invalidate(pixelsObj.getId());
         }
     }
 
@@ -721,6 +940,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
                     // *** Ticket #848 -- Chris Allan <callan@blackcat.ca> ***
                     load();
                 }
+                invalidateTiles();
             }
             return rendDefObj.getId();
         } finally {
@@ -862,6 +1082,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
                 // *** Ticket #848 -- Chris Allan <callan@blackcat.ca> ***
             }
             load();
+            invalidateTiles();
             return id;
         } finally {
             rwl.writeLock().unlock();
@@ -1583,6 +1804,24 @@ public class RenderingBean implements RenderingEngine, Serializable {
         }
     }
 
+    /**
+     * Throws an {@link ApiUsageException} if the Z-section or timepoint of
+     * the plane definition is not in the Pixels set.
+     * @param pd Plane definition to validate.
+     */
+    private void errorIfInvalidPlane(PlaneDef pd) {
+        if (pd.getZ() < 0 || pd.getZ() >= pixelsObj.getSizeZ()) {
+            throw new ApiUsageException(String.format(
+                    "Invalid Z-section %d, sizeZ is %d.",
+                    pd.getZ(), pixelsObj.getSizeZ()));
+        }
+        if (pd.getT() < 0 || pd.getT() >= pixelsObj.getSizeT()) {
+            throw new ApiUsageException(String.format(
+                    "Invalid timepoint %d, sizeT is %d.",
+                    pd.getT(), pixelsObj.getSizeT()));
+        }
+    }
+
     /**
      * Close the active renderer, cleaning up any potential messes left by the
      * included pixel buffer.
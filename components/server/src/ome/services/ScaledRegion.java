@@ -0,0 +1,98 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.util.List;
+
+import omeis.providers.re.data.RegionDef;
+
+/**
+ * The resolution level and region read by
+ * {@link RenderingBean#renderCompressedScaled(omeis.providers.re.data.PlaneDef, int, int)}
+ * to render a region of the full resolution image at a given size. The
+ * smallest level still at least as large as the requested size is selected,
+ * so that only the tiles of that level covering the region are read.
+ *
+ * @since 5.3.0
+ */
+public class ScaledRegion {
+
+    /** The selected resolution level, counting up to the full resolution. */
+    private final int resolutionLevel;
+
+    /** The region of the selected resolution level to read. */
+    private final RegionDef region;
+
+    /**
+     * Selects the resolution level and maps the region onto it.
+     *
+     * @param levels The sizes of the resolution levels, from the full
+     *               resolution down, as returned by
+     *               {@link omeis.providers.re.Renderer#getResolutionDescriptions()}.
+     *               A single level if the image has no pyramid.
+     * @param fullRegion The region of the full resolution image to render,
+     *                   or <code>null</code> for the whole image. The parts
+     *                   outside of the image are ignored.
+     * @param sizeX The requested width.
+     * @param sizeY The requested height.
+     */
+    public ScaledRegion(List<List<Integer>> levels, RegionDef fullRegion,
+            int sizeX, int sizeY) {
+        int fullX = levels.get(0).get(0);
+        int fullY = levels.get(0).get(1);
+        int x = 0;
+        int y = 0;
+        int width = fullX;
+        int height = fullY;
+        if (fullRegion != null) {
+            x = Math.max(0, Math.min(fullRegion.getX(), fullX - 1));
+            y = Math.max(0, Math.min(fullRegion.getY(), fullY - 1));
+            width = Math.max(1, Math.min(fullRegion.getWidth(), fullX - x));
+            height = Math.max(1, Math.min(fullRegion.getHeight(), fullY - y));
+        }
+        int index = 0;
+        for (int i = levels.size() - 1; i > 0; i--) {
+            List<Integer> level = levels.get(i);
+            if ((long) width * level.get(0) >= (long) sizeX * fullX
+                    && (long) height * level.get(1) >= (long) sizeY * fullY) {
+                index = i;
+                break;
+            }
+        }
+        int levelX = levels.get(index).get(0);
+        int levelY = levels.get(index).get(1);
+        double ratioX = (double) levelX / fullX;
+        double ratioY = (double) levelY / fullY;
+        int left = Math.min((int) Math.floor(x * ratioX), levelX - 1);
+        int top = Math.min((int) Math.floor(y * ratioY), levelY - 1);
+        int right = Math.min((int) Math.ceil((x + width) * ratioX), levelX);
+        int bottom = Math.min((int) Math.ceil((y + height) * ratioY), levelY);
+        resolutionLevel = levels.size() - 1 - index;
+        region = new RegionDef(left, top, Math.max(1, right - left),
+                Math.max(1, bottom - top));
+    }
+
+    /**
+     * Returns the selected resolution level, <code>0</code> being the
+     * lowest resolution.
+     *
+     * @return See above.
+     */
+    public int getResolutionLevel() {
+        return resolutionLevel;
+    }
+
+    /**
+     * Returns the region of the selected resolution level to read.
+     *
+     * @return See above.
+     */
+    public RegionDef getRegion() {
+        return region;
+    }
+}
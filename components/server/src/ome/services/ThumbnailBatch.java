@@ -0,0 +1,198 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import ome.api.IUpdate;
+import ome.model.display.Thumbnail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The thumbnails of a set requested from {@link ThumbnailBean} and the
+ * metadata to save once they are all retrieved. The missing thumbnails are
+ * rendered on the {@link ThumbnailExecutor}, at most
+ * {@link ThumbnailExecutor#getThreads()} at once, oldest first.
+ * <p>
+ * A thumbnail which fails to render is returned as <code>null</code> and its
+ * metadata is not saved. All the metadata is saved in a single call.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class ThumbnailBatch {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(ThumbnailBatch.class);
+
+    private final ThumbnailExecutor executor;
+
+    /** The thumbnails by Pixels ID, <code>null</code> if failed. */
+    private final Map<Long, byte[]> thumbnails = new HashMap<Long, byte[]>();
+
+    /** The metadata to save. */
+    private final List<Thumbnail> toSave = new ArrayList<Thumbnail>();
+
+    /** Thumbnails being rendered, oldest first. */
+    private final LinkedList<Pending> pending = new LinkedList<Pending>();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param executor Renders the missing thumbnails, may be
+     *                 <code>null</code> if they are rendered one after the
+     *                 other by the caller.
+     */
+    public ThumbnailBatch(ThumbnailExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns whether the missing thumbnails are rendered in parallel.
+     *
+     * @return See above.
+     */
+    public boolean isParallel() {
+        return executor != null && executor.isEnabled();
+    }
+
+    /**
+     * Returns the thumbnails by Pixels ID, to be filled in by the caller
+     * for those not rendered in parallel.
+     *
+     * @return See above.
+     */
+    public Map<Long, byte[]> getThumbnails() {
+        return thumbnails;
+    }
+
+    /**
+     * Adds thumbnail metadata to save.
+     *
+     * @param metadata The thumbnail metadata.
+     */
+    public void save(Thumbnail metadata) {
+        toSave.add(metadata);
+    }
+
+    /**
+     * Returns the number of thumbnails being rendered.
+     *
+     * @return See above.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Waits for the oldest thumbnail being rendered if as many thumbnails
+     * as there are threads are in flight. To be called before preparing the
+     * renderer of the next thumbnail to submit, which bounds the number of
+     * pixel buffers held open by the set.
+     */
+    public void awaitSlot() {
+        if (pending.size() >= executor.getThreads()) {
+            complete(pending.removeFirst());
+        }
+    }
+
+    /**
+     * Submits a missing thumbnail for rendering.
+     *
+     * @param pixelsId The Pixels ID of the thumbnail.
+     * @param metadata The thumbnail metadata.
+     * @param dirtyMetadata Whether the metadata must be saved once the
+     *                      thumbnail is written.
+     * @param task Renders, compresses and writes the thumbnail.
+     */
+    public void submit(Long pixelsId, Thumbnail metadata,
+            boolean dirtyMetadata, Callable<byte[]> task) {
+        pending.add(new Pending(pixelsId, metadata, dirtyMetadata,
+                executor.submit(task)));
+    }
+
+    /**
+     * Waits for all the thumbnails being rendered.
+     */
+    public void awaitAll() {
+        while (!pending.isEmpty()) {
+            complete(pending.removeFirst());
+        }
+    }
+
+    /**
+     * Waits for all the thumbnails being rendered then saves all the
+     * metadata at once.
+     *
+     * @param iUpdate Used to save the metadata.
+     * @return The thumbnails by Pixels ID, <code>null</code> if failed.
+     */
+    public Map<Long, byte[]> complete(IUpdate iUpdate) {
+        awaitAll();
+        iUpdate.saveArray(toSave.toArray(new Thumbnail[toSave.size()]));
+        return thumbnails;
+    }
+
+    /**
+     * Waits for a thumbnail being rendered and adds it to the thumbnails to
+     * return and its metadata to those to save, if dirty.
+     */
+    private void complete(Pending thumbnail) {
+        Throwable failure;
+        try {
+            thumbnails.put(thumbnail.pixelsId, thumbnail.future.get());
+            if (thumbnail.dirtyMetadata) {
+                toSave.add(thumbnail.metadata);
+            }
+            return;
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        }
+        log.warn("Retrieving thumbnail in set for " +
+                "Pixels ID " + thumbnail.pixelsId + " failed.", failure);
+        thumbnails.put(thumbnail.pixelsId, null);
+    }
+
+    /**
+     * A thumbnail of the set being rendered by the {@link ThumbnailExecutor}.
+     */
+    private static class Pending {
+
+        /** The Pixels ID of the thumbnail. */
+        final Long pixelsId;
+
+        /** The thumbnail metadata. */
+        final Thumbnail metadata;
+
+        /** Whether the metadata needs saving once the thumbnail is written. */
+        final boolean dirtyMetadata;
+
+        /** The compressed thumbnail. */
+        final Future<byte[]> future;
+
+        Pending(Long pixelsId, Thumbnail metadata, boolean dirtyMetadata,
+                Future<byte[]> future) {
+            this.pixelsId = pixelsId;
+            this.metadata = metadata;
+            this.dirtyMetadata = dirtyMetadata;
+            this.future = future;
+        }
+    }
+}
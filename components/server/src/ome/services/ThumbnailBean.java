@@ -9,7 +9,6 @@ import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
@@ -21,6 +20,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
@@ -128,6 +128,9 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** If the file service checking for disk overflow. */
     private transient boolean diskSpaceChecking;
 
+    /** Renders the missing thumbnails of a set in parallel. */
+    private transient ThumbnailExecutor thumbnailExecutor;
+
     /** If the renderer is dirty. */
     private Boolean dirty = true;
 
@@ -482,6 +485,18 @@ public class ThumbnailBean extends AbstractLevel2Service
         this.settingsService = settingsService;
     }
 
+    /**
+     * Thumbnail executor Bean injector.
+     *
+     * @param thumbnailExecutor
+     *            the pool rendering the missing thumbnails of a set.
+     */
+    public void setThumbnailExecutor(ThumbnailExecutor thumbnailExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.thumbnailExecutor,
+                thumbnailExecutor);
+        this.thumbnailExecutor = thumbnailExecutor;
+    }
+
     /**
      * Compresses a buffered image thumbnail to disk.
      *
@@ -499,18 +514,38 @@ public class ThumbnailBean extends AbstractLevel2Service
             iRepositoryInfo.sanityCheckRepository();
         }
 
-        FileOutputStream stream = ioService.getThumbnailOutputStream(thumb);
-        try {
-            if (inProgress) {
-                compressInProgressImageToStream(thumb, stream);
-            } else {
-                compressionService.compressToStream(image, stream);
-            }
-        } finally {
-            stream.close();
+        if (inProgress) {
+            // Written at once, possibly appended to a packed container.
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            compressInProgressImageToStream(thumb, stream);
+            ioService.createThumbnail(thumb, stream.toByteArray());
+        } else {
+            writeThumbnail(thumb, image);
         }
     }
 
+    /**
+     * Compresses a buffered image thumbnail and writes it at once, possibly
+     * appended to a packed container. Only uses thread-safe services so
+     * that the thumbnails of a set may be written in parallel.
+     *
+     * @param thumb
+     *            the thumbnail metadata.
+     * @param image
+     *            the thumbnail's buffered image.
+     * @return the compressed thumbnail.
+     * @throws IOException
+     *             if there is a problem writing to disk.
+     */
+    private byte[] writeThumbnail(Thumbnail thumb, BufferedImage image)
+    throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        compressionService.compressToStream(image, stream);
+        byte[] thumbnail = stream.toByteArray();
+        ioService.createThumbnail(thumb, thumbnail);
+        return thumbnail;
+    }
+
     /**
      * Compresses the <i>in progress</i> image to a stream.
      * @param thumb The thumbnail metadata.
@@ -606,6 +641,26 @@ public class ThumbnailBean extends AbstractLevel2Service
             theZ = settings.getDefaultZ();
         if (theT == null)
             theT = settings.getDefaultT();
+        return renderScaledImage(renderer, pixels, thumbnailMetadata,
+                theZ, theT);
+    }
+
+    /**
+     * Renders a plane at the resolution level closest to the size of the
+     * thumbnail and scales it to that size. Only uses the passed objects
+     * and thread-safe services so that the thumbnails of a set may be
+     * rendered in parallel.
+     *
+     * @param renderer the renderer of the pixels set.
+     * @param pixels the pixels set, as loaded for the renderer.
+     * @param thumbnailMetadata the thumbnail metadata.
+     * @param theZ the optical section (offset across the Z-axis) requested.
+     * @param theT the timepoint (offset across the T-axis) requested.
+     * @return a scaled buffered image.
+     */
+    private BufferedImage renderScaledImage(Renderer renderer, Pixels pixels,
+            Thumbnail thumbnailMetadata, int theZ, int theT)
+    {
         PlaneDef pd = new PlaneDef(PlaneDef.XY, theT);
         pd.setZ(theZ);
         // Use a resolution level that matches our requested size if we can
@@ -833,6 +888,23 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** Actually does the work specified by {@link createThumbnail()}.*/
     private Thumbnail _createThumbnail() {
         StopWatch s1 = new Slf4JStopWatch("omero._createThumbnail");
+        updateMetadataVersion();
+        BufferedImage image = createScaledImage(null, null);
+        try {
+            compressThumbnailToDisk(thumbnailMetadata, image);
+            s1.stop();
+            return thumbnailMetadata;
+        } catch (IOException e) {
+            log.error("Thumbnail could not be compressed.", e);
+            throw new ResourceError(e.getMessage());
+        }
+    }
+
+    /**
+     * Increments the version of the thumbnail metadata about to be
+     * re-generated if the rendering settings changed since.
+     */
+    private void updateMetadataVersion() {
         if (thumbnailMetadata == null) {
             throw new ValidationException("Missing thumbnail metadata.");
         } else if (ctx.dirtyMetadata(pixels.getId())) {
@@ -846,6 +918,8 @@ public class ThumbnailBean extends AbstractLevel2Service
             Long ownerId = thumbnailMetadata.getDetails().getOwner().getId();
             Long rndOwnerId = settings.getDetails().getOwner().getId();
             if (rndOwnerId.equals(ownerId)) {
+                // Rendered with the previous settings, about to be replaced.
+                ioService.invalidateCachedThumbnail(thumbnailMetadata.getId());
                 Pixels unloadedPixels = new Pixels(pixels.getId(), false);
                 thumbnailMetadata.setPixels(unloadedPixels);
                 _setMetadataVersion(thumbnailMetadata, inProgress);
@@ -863,16 +937,6 @@ public class ThumbnailBean extends AbstractLevel2Service
         // dirtyMetadata is left false here because we may be creating a
         // thumbnail for the first time and the Thumbnail object has just been
         // created upstream of us.
-
-        BufferedImage image = createScaledImage(null, null);
-        try {
-            compressThumbnailToDisk(thumbnailMetadata, image);
-            s1.stop();
-            return thumbnailMetadata;
-        } catch (IOException e) {
-            log.error("Thumbnail could not be compressed.", e);
-            throw new ResourceError(e.getMessage());
-        }
     }
 
     private static void _setMetadataVersion(Thumbnail tb, boolean inProgress) {
@@ -973,10 +1037,12 @@ public class ThumbnailBean extends AbstractLevel2Service
      */
     private Map<Long, byte[]> retrieveThumbnailSet(Set<Long> pixelsIds)
     {
-        // Our return value HashMap
-        Map<Long, byte[]> toReturn = new HashMap<Long, byte[]>();
+        // Our return value and the metadata to save
+        ThumbnailBatch batch = new ThumbnailBatch(thumbnailExecutor);
+        Map<Long, byte[]> toReturn = batch.getThumbnails();
 
-        List<Thumbnail> toSave = new ArrayList<Thumbnail>();
+        Map<Long, Thumbnail> toRead = new HashMap<Long, Thumbnail>();
+        boolean parallel = batch.isParallel();
         for (Long pixelsId : pixelsIds)
         {
             // Ensure that the renderer has been made dirty otherwise the
@@ -1015,11 +1081,33 @@ public class ThumbnailBean extends AbstractLevel2Service
                     // that we want to use, but retrieveThumbnail likes to
                     // re-generate. For the moment, we're saving and restoring
                     // that value to prevent creating a new one.
-                    byte[] thumbnail = retrieveThumbnail(false);
-                    toReturn.put(pixelsId, thumbnail);
+                    if (inProgress)
+                    {
+                        toReturn.put(pixelsId, retrieveThumbnail(false));
+                    }
+                    else if (parallel && !ctx.isThumbnailCached(pixelsId))
+                    {
+                        // Bounds the pixel buffers held open by the set.
+                        batch.awaitSlot();
+                        if (submitThumbnail(pixelsId, batch))
+                        {
+                            // Saved once rendered.
+                            dirtyMetadata = false;
+                        }
+                        else
+                        {
+                            toRead.put(pixelsId, thumbnailMetadata);
+                        }
+                    }
+                    else
+                    {
+                        // Read with the others once all are on disk.
+                        createThumbnailIfNotCached();
+                        toRead.put(pixelsId, thumbnailMetadata);
+                    }
                     if (dirtyMetadata)
                     {
-                        toSave.add(thumbnailMetadata);
+                        batch.save(thumbnailMetadata);
                     }
                 }
                 finally
@@ -1034,11 +1122,13 @@ public class ThumbnailBean extends AbstractLevel2Service
                 toReturn.put(pixelsId, null);
             }
         }
+        // Cached thumbnails are read while the missing ones are rendered.
+        readThumbnailSet(toRead, toReturn);
         // We're doing the update or creation and save as a two step
         // process due to the possible unloaded Pixels. If we do not,
         // Pixels will be unloaded and we will hit
         // IllegalStateException's when checking update events.
-        iUpdate.saveArray(toSave.toArray(new Thumbnail[toSave.size()]));
+        batch.complete(iUpdate);
         // Ensure that we do not have "dirty" pixels or rendering settings left
         // around in the Hibernate session cache.
         iQuery.clear();
@@ -1046,6 +1136,104 @@ public class ThumbnailBean extends AbstractLevel2Service
         return toReturn;
     }
 
+    /**
+     * Prepares the metadata and the renderer of the current thumbnail, as
+     * {@link #_createThumbnail()} does, and hands them over to the
+     * {@link ThumbnailExecutor} which renders, compresses and writes the
+     * thumbnail.
+     * @param pixelsId The Pixels ID of the current thumbnail.
+     * @param batch The thumbnails of the set.
+     * @return <code>true</code> if the thumbnail was submitted,
+     * <code>false</code> if the Pixels set turned out to be in progress,
+     * the in progress image having been written instead.
+     * @throws IOException If the in progress image cannot be written.
+     */
+    private boolean submitThumbnail(Long pixelsId, ThumbnailBatch batch)
+        throws IOException
+    {
+        updateMetadataVersion();
+        errorIfInvalidState();
+        if (inProgress)
+        {
+            compressThumbnailToDisk(thumbnailMetadata, null);
+            return false;
+        }
+        if (diskSpaceChecking)
+        {
+            iRepositoryInfo.sanityCheckRepository();
+        }
+        final Renderer planeRenderer = renderer;
+        final Pixels planePixels = pixels;
+        final Thumbnail metadata = thumbnailMetadata;
+        final int theZ = settings.getDefaultZ();
+        final int theT = settings.getDefaultT();
+        // The renderer sets the sizes of the resolution level on the Pixels
+        // while rendering; detached, they are never flushed by the queries
+        // made meanwhile for the next thumbnails.
+        iQuery.evict(planePixels);
+        // Closed by the worker.
+        renderer = null;
+        try
+        {
+            batch.submit(pixelsId, metadata, dirtyMetadata,
+                    new Callable<byte[]>() {
+                public byte[] call() throws IOException {
+                    try
+                    {
+                        BufferedImage image = renderScaledImage(planeRenderer,
+                                planePixels, metadata, theZ, theT);
+                        return writeThumbnail(metadata, image);
+                    }
+                    finally
+                    {
+                        planeRenderer.close();
+                    }
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            planeRenderer.close();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a set of thumbnails at once, packed thumbnails being read in a
+     * single pass over their containers.
+     * @param toRead The thumbnail metadata by Pixels ID.
+     * @param toReturn Map of Pixels ID vs. thumbnail bytes to fill in.
+     */
+    private void readThumbnailSet(Map<Long, Thumbnail> toRead,
+            Map<Long, byte[]> toReturn)
+    {
+        if (toRead.isEmpty())
+        {
+            return;
+        }
+        Map<Long, byte[]> values;
+        try
+        {
+            values = ioService.getThumbnails(toRead.values());
+        }
+        catch (IOException e)
+        {
+            log.warn("Reading thumbnail set failed.", e);
+            values = Collections.emptyMap();
+        }
+        for (Map.Entry<Long, Thumbnail> entry : toRead.entrySet())
+        {
+            byte[] thumbnail = values.get(entry.getValue().getId());
+            if (thumbnail == null)
+            {
+                log.warn("Retrieving thumbnail in set for " +
+                        "Pixels ID " + entry.getKey() + " failed.");
+            }
+            toReturn.put(entry.getKey(), thumbnail);
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -1116,22 +1304,7 @@ public class ThumbnailBean extends AbstractLevel2Service
 
         try
         {
-            boolean cached = ctx.isThumbnailCached(pixels.getId());
-            if (cached)
-            {
-                if (log.isDebugEnabled())
-                {
-                    log.debug("Cache hit.");
-                }
-            }
-            else
-            {
-                if (log.isDebugEnabled())
-                {
-                    log.debug("Cache miss, thumbnail missing or out of date.");
-                }
-                _createThumbnail();
-            }
+            createThumbnailIfNotCached();
             byte[] thumbnail = ioService.getThumbnail(thumbnailMetadata);
             return thumbnail;
         }
@@ -1142,6 +1315,30 @@ public class ThumbnailBean extends AbstractLevel2Service
         }
     }
 
+    /**
+     * Creates the thumbnail unless it is in the on disk cache and up to
+     * date.
+     */
+    private void createThumbnailIfNotCached()
+    {
+        boolean cached = ctx.isThumbnailCached(pixels.getId());
+        if (cached)
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("Cache hit.");
+            }
+        }
+        else
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("Cache miss, thumbnail missing or out of date.");
+            }
+            _createThumbnail();
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -1405,5 +1602,4 @@ public class ThumbnailBean extends AbstractLevel2Service
             throw ie;
         }
     }
-
 }
@@ -0,0 +1,154 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+import omeis.providers.re.RenderingExecutor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide, size-bounded pool of threads rendering and compressing the
+ * missing thumbnails of the sets requested from {@link ThumbnailBean}. The
+ * pool is distinct from the {@link omeis.providers.re.RenderingExecutor}
+ * since each thumbnail renders its plane on the latter and waits for it.
+ * <p>
+ * Each thumbnail set keeps at most {@link #getThreads()} thumbnails in
+ * flight, which bounds the number of pixel buffers it holds open. When the
+ * queue shared by concurrent sets is full or once the pool is shut down,
+ * thumbnails are rendered by the requesting thread itself so that no set
+ * waits for a thumbnail which is never rendered.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class ThumbnailExecutor {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(ThumbnailExecutor.class);
+
+    /** The size of the queue shared by concurrent thumbnail sets. */
+    private static final int QUEUE_SIZE = 1024;
+
+    /** The number of threads, <code>0</code> if disabled. */
+    private final int threads;
+
+    /** The pool doing the actual work, <code>null</code> if disabled. */
+    private final ThreadPoolExecutor pool;
+
+    /** Time between the submission of a thumbnail and its completion. */
+    private final Timer thumbnailLatency;
+
+    /**
+     * Creates a new instance which does not collect metrics.
+     *
+     * @param threads The number of threads. <code>0</code> disables the
+     *                pool, thumbnails being rendered one after the other.
+     */
+    public ThumbnailExecutor(int threads) {
+        this(threads, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threads The number of threads. <code>0</code> disables the
+     *                pool, thumbnails being rendered one after the other.
+     * @param metrics Used to export the thumbnail latencies.
+     */
+    public ThumbnailExecutor(int threads, Metrics metrics) {
+        this.threads = Math.max(0, threads);
+        if (this.threads > 0) {
+            pool = new ThreadPoolExecutor(this.threads, this.threads,
+                    60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                    new ThumbnailThreadFactory(),
+                    new RenderingExecutor.CallerRunsAlwaysPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            log.info("Thumbnail executor with " + this.threads + " threads");
+        } else {
+            pool = null;
+        }
+        thumbnailLatency = metrics.timer(this, "thumbnailLatency");
+    }
+
+    /**
+     * Returns whether thumbnails are rendered in parallel.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return pool != null;
+    }
+
+    /**
+     * Returns the number of threads, which is also the number of thumbnails
+     * of a set in flight at once.
+     *
+     * @return See above.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Submits a thumbnail for rendering.
+     *
+     * @param task Renders, compresses and stores the thumbnail.
+     * @return The future representing the compressed thumbnail.
+     */
+    public <T> Future<T> submit(final Callable<T> task) {
+        final Timer.Context latency = thumbnailLatency.time();
+        return pool.submit(new Callable<T>() {
+            public T call() throws Exception {
+                try {
+                    return task.call();
+                } finally {
+                    latency.stop();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops accepting new thumbnails. Thumbnails already submitted are
+     * rendered to completion. Used as the Spring
+     * <code>destroy-method</code>.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Creates daemon threads with recognizable names.
+     */
+    private static class ThumbnailThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "thumbnail-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
@@ -18,9 +18,13 @@
 package ome.services.delete.files;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import ome.io.nio.AbstractFileSystemService;
+import ome.io.nio.ThumbnailService;
+import ome.system.OmeroContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,10 +41,56 @@ public class ThumbnailFileDeletions extends AbstractFileDeletions {
     private static final Logger log = LoggerFactory.getLogger(ThumbnailFileDeletions.class);
 
     public ThumbnailFileDeletions(AbstractFileSystemService afs, Set<Long> deletedIds) {
+        this(afs, deletedIds, null);
+    }
+
+    /** The service of the packed thumbnail store, if any. */
+    private final ThumbnailService thumbnailService;
+
+    /**
+     * Also removes the deleted thumbnails from the packed thumbnail store and
+     * the thumbnail cache of the thumbnail service of <code>ctx</code>, if
+     * any, once {@link #deleteLocal()} is called.
+     */
+    public ThumbnailFileDeletions(AbstractFileSystemService afs, Set<Long> deletedIds,
+            OmeroContext ctx) {
         super(afs, deletedIds);
         for (Long id : deletedIds) {
             String filePath = afs.getThumbnailPath(id);
             addLocalFile(new File(filePath), id);
         }
+        if (ctx != null && ctx.containsBean("/OMERO/Thumbs")) {
+            thumbnailService = ctx.getBean("/OMERO/Thumbs", ThumbnailService.class);
+        } else {
+            thumbnailService = null;
+        }
+    }
+
+    /**
+     * Also removes the deleted thumbnails from the packed thumbnail store.
+     * If that fails, they are all counted as failed.
+     */
+    @Override
+    public int deleteLocal() {
+        if (thumbnailService != null && !deletedIds.isEmpty()) {
+            Map<Long, Integer> lengths = new HashMap<Long, Integer>();
+            for (Long id : deletedIds) {
+                lengths.put(id, thumbnailService.getPackedThumbnailLength(id));
+            }
+            try {
+                thumbnailService.removePackedThumbnails(deletedIds);
+            } catch (RuntimeException e) {
+                log.warn("Failed to remove packed thumbnails: " + deletedIds, e);
+                for (Map.Entry<Long, Integer> entry : lengths.entrySet()) {
+                    Long id = entry.getKey();
+                    int length = entry.getValue();
+                    if (length >= 0) {
+                        fail(new File(afs.getThumbnailPath(id)), id,
+                                (long) length);
+                    }
+                }
+            }
+        }
+        return super.deleteLocal();
     }
 }
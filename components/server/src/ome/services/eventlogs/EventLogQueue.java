@@ -19,12 +19,11 @@
 package ome.services.eventlogs;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 
 import ome.model.IObject;
@@ -52,6 +51,11 @@ import org.springframework.context.ApplicationEvent;
  * most critical. As with other implementations, {@link #hasNext()} is used for
  * loading data if necessary, while {@link #next()} simply returns an object. In
  * some cases, nulls may be returned, which consumers must contend with.
+ * <p>
+ * The public methods are synchronized so that failures and backlog entries
+ * may be reported from the indexing worker threads. Failures may then be
+ * reported for entries returned before the last one.
+ * </p>
  *
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 5.0.3
@@ -86,8 +90,9 @@ public class EventLogQueue extends PersistentEventLogLoader {
     /**
      * Simple container for the data returned from
      * {@link SqlAction#getEventLogPartitions(java.util.Collection, java.util.Collection, long, long)}
-     * . State is mutable so that subsequent data for the same IObject can be
-     * merged into a single representation.
+     * . Created from the queued data of the object when it is about to be
+     * processed; subsequent data for the same IObject is merged into that
+     * queued data beforehand.
      *
      * @since 5.0.3
      */
@@ -100,7 +105,7 @@ public class EventLogQueue extends PersistentEventLogLoader {
          * represents a backlog item.
          * @see EventLog#getId()
          */
-        long eventLog;
+        final long eventLog;
 
         /**
          * Class name for this {@link EventLog}.
@@ -118,13 +123,13 @@ public class EventLogQueue extends PersistentEventLogLoader {
          * Action for this {@link EventLog}.
          * @see EventLog#getAction()
          */
-        String action;
+        final String action;
 
         /**
          * Number of rows that were skipped by the {@link SqlAction}
          * windowing function.
          */
-        int skipped;
+        final int skipped;
 
         State state = State.OPEN;
 
@@ -136,12 +141,6 @@ public class EventLogQueue extends PersistentEventLogLoader {
             this.skipped = skipped;
         }
 
-        public void update(long eventLogId, String action, int skipped) {
-            this.eventLog = eventLogId;
-            this.action = action;
-            this.skipped = skipped;
-        }
-
         public void pass() {
             state = State.PASS;
         }
@@ -193,71 +192,153 @@ public class EventLogQueue extends PersistentEventLogLoader {
     }
 
     /**
-     * Collection of collections which must be kept in sync during additions
-     * and removals. Three queues are available from which {@link Entry}
-     * instances will be "popped": {@link #priorityQ}, {@link #regularQ},
-     * and {@link #failureQ}. At the same time, an index is maintained per
-     * each {@link EventLog#getEntityType() entityType} so that later log
-     * items are not repeated.
+     * First-in, first-out queue of entries stored in parallel primitive arrays
+     * used as a ring buffer, rather than as one {@link Entry} instance per
+     * item. The capacity is always a power of two. Items keep their position
+     * in the arrays until polled, unless the queue is resized.
      *
-     * @since 5.0.3
+     * @since 5.3.0
      */
-    private static class Data implements Serializable {
-
-        private static final Logger log = LoggerFactory.getLogger(Data.class);
+    private static class Ring implements Serializable {
 
         private static final long serialVersionUID = 1L;
 
+        private long[] eventLogs;
+
+        private long[] objIds;
+
+        private int[] skipped;
+
+        /** Indexes in {@link EventLogQueue#types}. */
+        private byte[] types;
+
+        /** Indexes in {@link Data#actions}. */
+        private byte[] actions;
+
+        /** Position of the oldest item. */
+        private int head;
+
+        private int size;
+
+        Ring(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            eventLogs = new long[capacity];
+            objIds = new long[capacity];
+            skipped = new int[capacity];
+            types = new byte[capacity];
+            actions = new byte[capacity];
+        }
+
+        int capacity() {
+            return objIds.length;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean isFull() {
+            return size == objIds.length;
+        }
+
         /**
-         * Intended to hide access to much of the {@link Map} interface in order
-         * to simplify keeping the various collections in sync.
-         *
-         * @since 5.0.3
+         * Returns the position in the arrays of the i-th oldest item.
          */
-        private class Entries implements Serializable {
+        int position(int i) {
+            return (head + i) & (objIds.length - 1);
+        }
 
-            private static final long serialVersionUID = 1L;
+        /**
+         * Appends an item, the queue must not be full.
+         *
+         * @return the position of the new item in the arrays.
+         */
+        int add(long eventLog, int type, long objId, int action, int skip) {
+            final int pos = position(size++);
+            eventLogs[pos] = eventLog;
+            types[pos] = (byte) type;
+            objIds[pos] = objId;
+            actions[pos] = (byte) action;
+            skipped[pos] = skip;
+            return pos;
+        }
 
-            private final Map<Long, Entry> entries;
+        /**
+         * Removes the oldest item, the position of which is {@link #head}.
+         */
+        void poll() {
+            head = position(1);
+            size--;
+        }
 
-            public Entries(Map<Long, Entry> entries) {
-                this.entries = entries;
+        /**
+         * Copies the items to new arrays, the oldest item moving to position
+         * 0.
+         */
+        void resize(int capacity) {
+            final long[] oldEventLogs = eventLogs, oldObjIds = objIds;
+            final int[] oldSkipped = skipped;
+            final byte[] oldTypes = types, oldActions = actions;
+            final int oldHead = head, oldMask = oldObjIds.length - 1;
+            allocate(capacity);
+            for (int i = 0; i < size; i++) {
+                final int pos = (oldHead + i) & oldMask;
+                eventLogs[i] = oldEventLogs[pos];
+                objIds[i] = oldObjIds[pos];
+                skipped[i] = oldSkipped[pos];
+                types[i] = oldTypes[pos];
+                actions[i] = oldActions[pos];
             }
+            head = 0;
+        }
+    }
 
-            public Entry get(Long objId) {
-                return this.entries.get(objId);
-            }
+    /**
+     * Collection of collections which must be kept in sync during additions
+     * and removals. Three queues are available from which {@link Entry}
+     * instances will be "popped": {@link #priorityQ}, {@link #regularQ},
+     * and {@link #failureQ}. At the same time, an index is maintained of
+     * the queued objects by {@link EventLog#getEntityType() entityType} and
+     * id so that later log items are not repeated.
+     * <p>
+     * The queued items are held in {@link Ring} buffers of primitives and
+     * indexed by an open-addressing table of their positions, which takes
+     * about {@link EventLogQueue#BYTES_PER_ENTRY} bytes per item. An
+     * {@link Entry} is only created for the item being processed.
+     * </p>
+     *
+     * @since 5.0.3
+     */
+    private static class Data implements Serializable {
 
-            private void addRegular(Entry entry) {
-                entries.put(entry.objId, entry);
-                regularQ.add(entry);
-                regularCount.inc();
-            }
+        private static final long serialVersionUID = 1L;
 
-            public void addPriority(Entry entry) {
-                entries.put(entry.objId, entry);
-                priorityQ.add(entry);
-                priorityCount.inc();
-            }
-        }
+        /**
+         * Initial capacity of the queues, to which they shrink back once
+         * empty.
+         */
+        private static final int INITIAL_CAPACITY = 1024;
 
         /**
-         * A weak-valued map of all the entries to be found elsewhere in the
-         * queues.
+         * Bit set in the codes of {@link #index} for items of
+         * {@link #priorityQ}, the other bits being the position of the item.
          */
-        final private Entries[] entriesArray;
+        private static final int PRIORITY = 1 << 30;
 
         /**
          * Priority queue, essentially the backlog from other implementations,
          * which should be handled first.
          */
-        final private LinkedList<Entry> priorityQ = new LinkedList<Entry>();
+        final private Ring priorityQ = new Ring(INITIAL_CAPACITY);
 
         /**
-         * Ordered list of {@link Entry} items which should be processed next if
-         * there is nothing in the priority queue.
+         * Ordered list of items which should be processed next if there is
+         * nothing in the priority queue.
          */
-        final private LinkedList<Entry> regularQ = new LinkedList<Entry>();
+        final private Ring regularQ = new Ring(INITIAL_CAPACITY);
 
         /**
          * List of failed items. They may be retried when no other processing is
@@ -265,34 +346,121 @@ public class EventLogQueue extends PersistentEventLogLoader {
          */
         final private LinkedList<WrappedEventLog> failureQ = new LinkedList<WrappedEventLog>();
 
+        /**
+         * Linear probing table of the items of both queues, keyed by type
+         * and object id. Each cell holds the code of an item plus one, 0
+         * marking empty cells. Kept at most half full.
+         */
+        private int[] index = new int[2 * INITIAL_CAPACITY];
+
+        /**
+         * Number of non-empty cells of {@link #index}.
+         */
+        private int indexed;
+
         /**
          * @see EventLogQueue#types
          */
         final private List<String> types;
 
+        /**
+         * Distinct actions seen so far, indexed by {@link Ring#actions}.
+         */
+        final private List<String> actions = new ArrayList<String>();
+
         final transient private Counter priorityCount, regularCount, failureCount;
 
         public Data(Counter priority, Counter regular, Counter failure,
                 List<String> types) {
+            if (types.size() > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many types: "
+                        + types.size());
+            }
             this.priorityCount = priority;
             this.regularCount = regular;
             this.failureCount = failure;
             this.types = types;
-            this.entriesArray = new Entries[types.size()];
-            for (int i = 0; i < types.size(); i++) {
-                this.entriesArray[i] = new Entries(new HashMap<Long, Entry>());
-            }
         }
 
         /**
-         * Return the {@link Entry} map which matches the given type.
+         * Return the index of the given type, or -1 if not indexed.
          */
-        protected Entries entries(String type) {
-            int idx = types.indexOf(type);
-            if (idx >= 0) {
-                return entriesArray[idx];
+        protected int type(String type) {
+            return types.indexOf(type);
+        }
+
+        private int action(String action) {
+            int idx = actions.indexOf(action);
+            if (idx < 0) {
+                if (actions.size() > Byte.MAX_VALUE) {
+                    throw new IllegalStateException("Too many actions: "
+                            + actions);
+                }
+                idx = actions.size();
+                actions.add(action);
             }
-            return null;
+            return idx;
+        }
+
+        //
+        // Codes of the queued items
+        //
+
+        private static Ring ring(Data data, int code) {
+            return (code & PRIORITY) != 0 ? data.priorityQ : data.regularQ;
+        }
+
+        private static int position(int code) {
+            return code & ~PRIORITY;
+        }
+
+        /**
+         * Returns the code of the queued item for the given object, or -1 if
+         * not queued.
+         */
+        public int find(int type, long objId) {
+            final int cell = cell(type, objId);
+            return cell < 0 ? -1 : index[cell] - 1;
+        }
+
+        public void addRegular(long eventLog, int type, long objId,
+                String action, int skipped) {
+            add(regularQ, 0, eventLog, type, objId, action, skipped);
+            regularCount.inc();
+        }
+
+        public void addPriority(long eventLog, int type, long objId,
+                String action, int skipped) {
+            add(priorityQ, PRIORITY, eventLog, type, objId, action, skipped);
+            priorityCount.inc();
+        }
+
+        /**
+         * Replaces the event log, action and number of skipped rows of a
+         * queued item with those of a later row.
+         */
+        public void update(int code, long eventLog, String action,
+                int skipped) {
+            final Ring ring = ring(this, code);
+            final int pos = position(code);
+            ring.eventLogs[pos] = eventLog;
+            ring.actions[pos] = (byte) action(action);
+            ring.skipped[pos] = skipped;
+        }
+
+        public void skip(int code) {
+            ring(this, code).skipped[position(code)]++;
+        }
+
+        /**
+         * Creates an {@link Entry} holding a copy of a queued item.
+         */
+        public Entry entry(int code) {
+            final Ring ring = ring(this, code);
+            final int pos = position(code);
+            return new Entry(ring.eventLogs[pos], types.get(ring.types[pos]),
+                    ring.objIds[pos], actions.get(ring.actions[pos]),
+                    ring.skipped[pos]);
         }
 
         public boolean hasNext() {
@@ -306,22 +474,29 @@ public class EventLogQueue extends PersistentEventLogLoader {
         }
 
         public Entry next() {
-            String which = null;
-            Entry entry = null;
+            final Ring ring;
+            final int code;
             if (!priorityQ.isEmpty()) {
-                entry = priorityQ.remove(0);
+                ring = priorityQ;
+                code = PRIORITY | ring.head;
                 priorityCount.dec();
-                which = "priority";
             } else if (!regularQ.isEmpty()) {
-                entry = regularQ.remove(0);
+                ring = regularQ;
+                code = ring.head;
                 regularCount.dec();
-                which = "regular";
             } else {
                 throw new NoSuchElementException();
             }
-            entries(entry.objType).entries.remove(entry.objId);
-//            log.debug("Returning {}. Remaining: priority={}, regular={}",
-//                    entry, priorityCount.getCount(), regularCount.getCount());
+            final Entry entry = entry(code);
+            remove(ring.types[ring.head], ring.objIds[ring.head]);
+            ring.poll();
+            if (ring.isEmpty() && ring.capacity() > INITIAL_CAPACITY) {
+                // Give back the memory of a large backlog.
+                ring.resize(INITIAL_CAPACITY);
+                if (!hasNext()) {
+                    index = new int[2 * INITIAL_CAPACITY];
+                }
+            }
             return entry;
         }
 
@@ -330,7 +505,109 @@ public class EventLogQueue extends PersistentEventLogLoader {
             failureQ.add(wrapped);
             wrapped.entry.fail();
             failureCount.inc();
-            // Note: this will stay in the hash map to prevent future access.
+        }
+
+        //
+        // Index
+        //
+
+        private void add(Ring ring, int flag, long eventLog, int type,
+                long objId, String action, int skipped) {
+            if (ring.isFull()) {
+                if (ring.capacity() >= PRIORITY / 2) {
+                    throw new IllegalStateException("Queue full");
+                }
+                ring.resize(2 * ring.capacity());
+                reindex(index.length);
+            }
+            if (2 * (indexed + 1) > index.length) {
+                reindex(2 * index.length);
+            }
+            final int pos = ring.add(eventLog, type, objId, action(action),
+                    skipped);
+            insert(flag | pos, type, objId);
+        }
+
+        private static int hash(int type, long objId) {
+            long h = objId * 31 + type;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+
+        private int hash(int cell) {
+            final int code = index[cell] - 1;
+            final Ring ring = ring(this, code);
+            final int pos = position(code);
+            return hash(ring.types[pos], ring.objIds[pos]);
+        }
+
+        private int cell(int type, long objId) {
+            final int mask = index.length - 1;
+            for (int cell = hash(type, objId) & mask; index[cell] != 0;
+                    cell = (cell + 1) & mask) {
+                final int code = index[cell] - 1;
+                final Ring ring = ring(this, code);
+                final int pos = position(code);
+                if (ring.objIds[pos] == objId && ring.types[pos] == type) {
+                    return cell;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(int code, int type, long objId) {
+            final int mask = index.length - 1;
+            int cell = hash(type, objId) & mask;
+            while (index[cell] != 0) {
+                cell = (cell + 1) & mask;
+            }
+            index[cell] = code + 1;
+            indexed++;
+        }
+
+        /**
+         * Removes an item from the index, shifting back the items which
+         * follow it in its run of cells so that lookups need no tombstones.
+         */
+        private void remove(int type, long objId) {
+            int empty = cell(type, objId);
+            if (empty < 0) {
+                return;
+            }
+            final int mask = index.length - 1;
+            index[empty] = 0;
+            indexed--;
+            for (int cell = (empty + 1) & mask; index[cell] != 0;
+                    cell = (cell + 1) & mask) {
+                final int home = hash(cell) & mask;
+                final boolean reachable = empty <= cell
+                        ? empty < home && home <= cell
+                        : empty < home || home <= cell;
+                if (!reachable) {
+                    index[empty] = index[cell];
+                    index[cell] = 0;
+                    empty = cell;
+                }
+            }
+        }
+
+        /**
+         * Rebuilds the index, e.g. after a queue was resized.
+         */
+        private void reindex(int capacity) {
+            index = new int[capacity];
+            indexed = 0;
+            reindex(priorityQ, PRIORITY);
+            reindex(regularQ, 0);
+        }
+
+        private void reindex(Ring ring, int flag) {
+            for (int i = 0; i < ring.size; i++) {
+                final int pos = ring.position(i);
+                insert(flag | pos, ring.types[pos], ring.objIds[pos]);
+            }
         }
 
     }
@@ -343,6 +620,13 @@ public class EventLogQueue extends PersistentEventLogLoader {
      */
     final static public int DEFAULT_MAX = 1000 * 1000;
 
+    /**
+     * Rough upper bound of the number of bytes taken by each entry in the
+     * queue: 22 bytes of primitives in a queue which may be only half full
+     * after growing plus the cells of the index.
+     */
+    final static int BYTES_PER_ENTRY = 64;
+
     /**
      * Array of entity types which will be used in
      * {@link SqlAction#getEventLogPartitions(String[], String[], long, long)}
@@ -407,12 +691,12 @@ public class EventLogQueue extends PersistentEventLogLoader {
         this.regularCount = metrics.counter(this, "regularCount");
         this.failureCount = metrics.counter(this, "failureCount");
 
-        // Rough testing shows each entry in the queue to take up about
-        // 100 bytes of storage. If the max would use "too much memory",
-        // then scale it down by 10%. E.g. the default would use ~100MB,
+        // Each entry in the queue takes up at most BYTES_PER_ENTRY bytes
+        // of storage. If the max would use "too much memory",
+        // then scale it down by 10%. E.g. the default would use ~64MB,
         // if this is more than 25% of memory, scale down.
         long memory = Runtime.getRuntime().maxMemory();
-        long queueBytes = max * 100;
+        long queueBytes = (long) max * BYTES_PER_ENTRY;
         if (queueBytes >  (.25 * memory)) {
             this.max = max/10;
             log.warn("max_partition_size set to more than 25% of "
@@ -471,28 +755,34 @@ public class EventLogQueue extends PersistentEventLogLoader {
             Long objId, String action,
             Integer skipped) {
         boolean added = false;
-        final Data.Entries entries = data.entries(type);
-        Entry entry = entries.get(objId);
-        if (entry == null) {
-            entry = new Entry(eventLogId, type, objId, action, skipped);
-            entries.addRegular(entry);
+        final int typeIdx = data.type(type);
+        if (typeIdx < 0) {
+            log.error("Type not available for indexing:" + type);
+            return false;
+        }
+        final int code = data.find(typeIdx, objId);
+        if (code < 0) {
+            data.addRegular(eventLogId, typeIdx, objId, action, skipped);
             added = true;
         } else {
-            entry.update(eventLogId, action,  skipped);
+            data.update(code, eventLogId, action,  skipped);
         }
         return added;
     }
 
     @Override
-    public void onApplicationEvent(ApplicationEvent arg0) {
+    public synchronized void onApplicationEvent(ApplicationEvent arg0) {
         if (arg0 instanceof EventLogFailure) {
             EventLogFailure failure = (EventLogFailure) arg0;
             if (failure.wasSource(this)) {
-                if (lastReturned != failure.log) {
-                    log.error("lastReturned is not failure item!");
+                if (lastReturned == failure.log) {
+                    lastReturned.timer.stop(); // In case of fail
+                    lastReturned = null; // Prevent success later
+                } else if (!(failure.log instanceof WrappedEventLog)) {
+                    log.error("Failure item not returned by this queue!");
+                    return;
                 }
-                lastReturned.timer.stop(); // In case of fail
-                lastReturned = null; // Prevent success later
+                // Otherwise already passed, e.g. when indexed in parallel.
                 data.fail(failure);
             }
         } else {
@@ -535,7 +825,7 @@ public class EventLogQueue extends PersistentEventLogLoader {
      * include: "stop" being set, the batch size being met, the current
      * id in the database being equivalent to the newest event log.
      */
-    public boolean hasNext() {
+    public synchronized boolean hasNext() {
 
         if (isStopSet()) {
             return false;
@@ -557,7 +847,7 @@ public class EventLogQueue extends PersistentEventLogLoader {
      * Return a wrapped version of {@link ome.services.eventlogs.EventLogQueue.Data#next()} which could possibly be
      * null.
      */
-    public EventLog next() {
+    public synchronized EventLog next() {
         nextCount.inc();
         return offer(data.next());
     }
@@ -593,29 +883,29 @@ public class EventLogQueue extends PersistentEventLogLoader {
      * event of that type.
      */
     @Override
-    public boolean addEventLog(Class<? extends IObject> cls, long id) {
+    public synchronized boolean addEventLog(Class<? extends IObject> cls, long id) {
         final boolean debug = log.isDebugEnabled();
         final String type = cls.getName();
-        final Data.Entries entries = data.entries(type);
-        if (entries == null) {
+        final int typeIdx = data.type(type);
+        if (typeIdx < 0) {
             if (debug) {
                 log.debug("Type not available for backlog:" + type);
             }
             return false;
         }
 
-        Entry entry = entries.get(id);
-        if (entry != null) {
+        final int code = data.find(typeIdx, id);
+        if (code >= 0) {
+            data.skip(code);
             if (debug) {
-                log.debug("Entry already scheduled:" + entry);
+                log.debug("Entry already scheduled:" + data.entry(code));
             }
-            entry.skipped++;
            return false;
         } else {
-            entry = new Entry(-1, type, id, "REINDEX", 0);
-            entries.addPriority(entry);
+            data.addPriority(-1, typeIdx, id, "REINDEX", 0);
             if (debug) {
-                log.debug("New backlog entry:" + entry);
+                log.debug("New backlog entry:" + data.entry(
+                        data.find(typeIdx, id)));
             }
             return true;
         }
@@ -19,6 +19,13 @@
 
 package ome.services.fulltext;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import ome.model.IAnnotated;
 import ome.model.IGlobal;
@@ -29,7 +36,9 @@ import ome.services.eventlogs.EventLogFailure;
 import ome.services.eventlogs.EventLogLoader;
 import ome.services.eventlogs.PersistentEventLogLoader;
 import ome.services.util.Executor.SimpleWork;
+import ome.system.EventContext;
 import ome.system.OmeroContext;
+import ome.system.Principal;
 import ome.system.ServiceFactory;
 import ome.system.metrics.Histogram;
 import ome.system.metrics.Metrics;
@@ -72,7 +81,16 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         long id;
         IObject obj;
 
-        abstract void go(FullTextSession session);
+        /**
+         * Queues the work, which is only written to the index on
+         * {@link FullTextSession#flushToIndexes()}.
+         */
+        abstract void add(FullTextSession session);
+
+        void go(FullTextSession session) {
+            add(session);
+            session.flushToIndexes();
+        }
 
         abstract void log(Logger log);
     }
@@ -84,9 +102,8 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         }
 
         @Override
-        void go(FullTextSession session) {
+        void add(FullTextSession session) {
             session.purge(type, id);
-            session.flushToIndexes();
         }
 
         @Override
@@ -104,9 +121,8 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         }
 
         @Override
-        void go(FullTextSession session) {
+        void add(FullTextSession session) {
             session.index(obj);
-            session.flushToIndexes();
         }
 
         @Override
@@ -125,6 +141,8 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
     final protected Histogram completeSlow, completeFast;
 
+    final protected Histogram throughput, backlog;
+
     protected int reps = 5;
 
     protected long batch;
@@ -138,6 +156,11 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
     protected OmeroContext context = null;
 
+    /**
+     * Indexes the batches in parallel if set and enabled.
+     */
+    protected FullTextWorkers workers = null;
+
     /**
      * Spring injector. Sets the number of indexing runs will be made if there
      * is a substantial backlog.
@@ -154,6 +177,13 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         this.dryRun = dryRun;
     }
 
+    /**
+     * Spring injector. Sets the workers indexing the batches in parallel.
+     */
+    public void setWorkers(FullTextWorkers workers) {
+        this.workers = workers;
+    }
+
     public void setApplicationContext(ApplicationContext ctx) {
         this.context = (OmeroContext) ctx;
     }
@@ -172,6 +202,10 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
                 metrics.histogram(this, "percentCompleteSlow");
         this.completeFast =
                 metrics.histogram(this, "percentCompleteFast");
+        this.throughput =
+                metrics.histogram(this, "objectsPerSecond");
+        this.backlog =
+                metrics.histogram(this, "backlog");
     }
 
     /**
@@ -193,6 +227,7 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
     public Object doWork(Session session, ServiceFactory sf) {
         int count = 1;
         int perbatch = 0;
+        int total = 0;
         long start = System.currentTimeMillis();
         Timer.Context timer = null;
         do {
@@ -215,6 +250,7 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
                     fullTextSession.setFlushMode(FlushMode.MANUAL);
                     fullTextSession.setCacheMode(CacheMode.IGNORE);
                     perbatch = doIndexingWithWorldRead(sf, fullTextSession);
+                    total += perbatch;
             } finally {
                 timer.stop();
                 count++;
@@ -225,9 +261,12 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             log.debug("No objects indexed");
         } else {
             final long elapsed = (System.currentTimeMillis() - start);
+            throughput.update((int) (1000L * total / Math.max(1L, elapsed)));
             if (loader instanceof PersistentEventLogLoader) {
                 long currId = ((PersistentEventLogLoader) loader).getCurrentId();
                 long lastId = loader.lastEventLog().getId();
+                backlog.update((int) Math.min(Integer.MAX_VALUE,
+                        Math.max(0L, lastId - currId)));
                 String which = "~";
                 double perc = 0.0f;
                 if (batchTimer.getCount() % reportingLoops == 0) {
@@ -254,10 +293,124 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
     }
 
     private int doIndexingWithWorldRead(ServiceFactory sf, FullTextSession session) {
+        if (workers != null && workers.isEnabled()) {
+            return doParallelIndexing(sf);
+        }
         int rc = doIndexing(session);
         return rc;
     }
 
+    /**
+     * Drains a batch of {@link EventLog} instances from the loader and has
+     * the {@link FullTextWorkers} index them, each chunk in a transaction of
+     * its own logged in to the current session. The failures are published
+     * once the whole batch is done since the loader is not thread-safe.
+     */
+    protected int doParallelIndexing(ServiceFactory sf) {
+
+        final List<EventLog> eventLogs = new ArrayList<EventLog>();
+        for (EventLog eventLog : loader) {
+            if (!dryRun && eventLog != null) {
+                eventLogs.add(eventLog);
+            }
+        }
+        if (eventLogs.isEmpty()) {
+            return 0;
+        }
+
+        final EventContext ec = sf.getAdminService().getEventContext();
+        final Principal principal = new Principal(ec.getCurrentSessionUuid(),
+                ec.getCurrentGroupName(), ec.getCurrentEventType());
+        try {
+            for (EventLogFailure failure :
+                    workers.index(this, principal, eventLogs)) {
+                publishFailure(failure);
+            }
+        } finally {
+            parserSession.closeParsedFiles();
+        }
+        return eventLogs.size();
+    }
+
+    /**
+     * Indexes a chunk of {@link EventLog} instances on one of the
+     * {@link FullTextWorkers}. The objects are loaded with one query per
+     * type and written to the index with a single flush. If that flush
+     * fails, each object is indexed again on its own in order to find those
+     * which failed.
+     *
+     * @return the failures, to be published by the caller.
+     */
+    List<EventLogFailure> indexChunk(FullTextSession session,
+            List<EventLog> eventLogs) {
+
+        final Map<Class, Set<Long>> ids = new HashMap<Class, Set<Long>>();
+        for (EventLog eventLog : eventLogs) {
+            Class type = asClassOrNull(eventLog.getEntityType());
+            if (type != null && isIndexAction(eventLog.getAction())) {
+                Set<Long> set = ids.get(type);
+                if (set == null) {
+                    set = new HashSet<Long>();
+                    ids.put(type, set);
+                }
+                set.add(eventLog.getEntityId());
+            }
+        }
+        final Map<Class, Map<Long, IObject>> objects =
+                new HashMap<Class, Map<Long, IObject>>();
+        for (Map.Entry<Class, Set<Long>> entry : ids.entrySet()) {
+            objects.put(entry.getKey(),
+                    getAll(session, entry.getKey(), entry.getValue()));
+        }
+
+        final List<EventLogFailure> failures = new ArrayList<EventLogFailure>();
+        final List<EventLog> added = new ArrayList<EventLog>();
+        final List<Action> actions = new ArrayList<Action>();
+        for (EventLog eventLog : eventLogs) {
+            Class type = asClassOrNull(eventLog.getEntityType());
+            if (type == null) {
+                continue;
+            }
+            long id = eventLog.getEntityId();
+            Action action = null;
+            if ("DELETE".equals(eventLog.getAction())) {
+                action = new Purge(type, id);
+            } else if (isIndexAction(eventLog.getAction())) {
+                action = indexOrPurge(type, id,
+                        objects.get(type).get(id), eventLog);
+            } else if (log.isDebugEnabled()) {
+                log.debug("Unknown action type: " + eventLog.getAction());
+            }
+            if (action != null) {
+                try {
+                    action.add(session);
+                    added.add(eventLog);
+                    actions.add(action);
+                } catch (Exception e) {
+                    failures.add(new EventLogFailure(loader, eventLog, e));
+                }
+            }
+        }
+
+        try {
+            session.flushToIndexes();
+        } catch (Exception e) {
+            log.warn(String.format("Failed to index %s objects at once; "
+                    + "indexing them one by one", actions.size()), e);
+            for (int i = 0; i < actions.size(); i++) {
+                try {
+                    actions.get(i).go(session);
+                } catch (Exception e1) {
+                    failures.add(new EventLogFailure(loader, added.get(i), e1));
+                }
+            }
+        }
+        for (Action action : actions) {
+            action.log(log);
+        }
+        return failures;
+    }
+
     public int doIndexing(FullTextSession session) {
 
         int count = 0;
@@ -288,19 +441,9 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             Action action = null;
             if ("DELETE".equals(act)) {
                 action = new Purge(type, id);
-            } else if ("REINDEX".equals(act) || "UPDATE".equals(act) || "INSERT".equals(act)) {
+            } else if (isIndexAction(act)) {
                 IObject obj = get(session, type, id);
-                if (obj == null) {
-                    // This object was deleted before the indexer caught up with
-                    // the INSERT/UDPDATE log. Though this isn't a problem itself,
-                    // this does mean that the indexer is likely going too slow.
-                    log.debug(String.format("Null returned! Purging "
-                            + "since cannot index %s:Id_%s for %s", type
-                            .getName(), id, eventLog));
-                    action = new Purge(type, id);
-                } else {
-                    action = new Index(obj);
-                }
+                action = indexOrPurge(type, id, obj, eventLog);
             } else {
                 // Likely CHGRP-VALIDATION, PIXELDATA or similar.
                 if (log.isDebugEnabled()) {
@@ -312,19 +455,42 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
                 try {
                     action.go(session);
                 } catch (Exception e) {
-                    try {
-                        this.context.publishMessage(new EventLogFailure(loader, eventLog, e));
-                    } catch (RuntimeException re) {
-                        throw re;
-                    } catch (Throwable e1) {
-                        throw new RuntimeException(e1);
-                    }
+                    publishFailure(new EventLogFailure(loader, eventLog, e));
                 }
                 action.log(log);
             }
         }
     }
 
+    private void publishFailure(EventLogFailure failure) {
+        try {
+            this.context.publishMessage(failure);
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Throwable e1) {
+            throw new RuntimeException(e1);
+        }
+    }
+
+    private boolean isIndexAction(String act) {
+        return "REINDEX".equals(act) || "UPDATE".equals(act)
+                || "INSERT".equals(act);
+    }
+
+    private Action indexOrPurge(Class type, long id, IObject obj,
+            EventLog eventLog) {
+        if (obj == null) {
+            // This object was deleted before the indexer caught up with
+            // the INSERT/UDPDATE log. Though this isn't a problem itself,
+            // this does mean that the indexer is likely going too slow.
+            log.debug(String.format("Null returned! Purging "
+                    + "since cannot index %s:Id_%s for %s", type
+                    .getName(), id, eventLog));
+            return new Purge(type, id);
+        }
+        return new Index(obj);
+    }
+
     /**
      * Default implementation suggests doing more if fewer than {@link #reps}
      * runs have been made and if there are still more than
@@ -355,6 +521,34 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
     }
 
     protected IObject get(Session session, Class type, long id) {
+        QueryBuilder qb = queryBuilder(type);
+        qb.where().and("this.id = :id");
+        qb.param("id", id);
+
+        return (IObject) qb.query(session).uniqueResult();
+    }
+
+    /**
+     * Loads the given objects with a single query, as {@link #get(Session,
+     * Class, long)} does for one object.
+     *
+     * @return the objects found, by id.
+     */
+    protected Map<Long, IObject> getAll(Session session, Class type,
+            Collection<Long> ids) {
+        QueryBuilder qb = queryBuilder(type);
+        qb.where().and("this.id in (:ids)");
+        qb.paramList("ids", ids);
+
+        final Map<Long, IObject> objects = new HashMap<Long, IObject>();
+        for (Object obj : qb.query(session).list()) {
+            // Fetching the annotation links repeats the rows.
+            objects.put(((IObject) obj).getId(), (IObject) obj);
+        }
+        return objects;
+    }
+
+    private QueryBuilder queryBuilder(Class type) {
         QueryBuilder qb = new QueryBuilder();
         qb.select("this").from(type.getName(), "this");
         if (IAnnotated.class.isAssignableFrom(type)) {
@@ -371,9 +565,6 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             qb.join("this.details.owner", "owner", false, true);
             qb.join("this.details.group", "group", false, true);
         }
-        qb.where().and("this.id = :id");
-        qb.param("id", id);
-
-        return (IObject) qb.query(session).uniqueResult();
+        return qb;
     }
 }
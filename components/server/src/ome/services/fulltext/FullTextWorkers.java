@@ -0,0 +1,296 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.fulltext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.conditions.InternalException;
+import ome.model.meta.EventLog;
+import ome.services.eventlogs.EventLogFailure;
+import ome.services.util.Executor;
+import ome.system.Principal;
+import ome.system.ServiceFactory;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.Search;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Pool of threads indexing the batches of {@link EventLog} instances drained
+ * by the {@link FullTextIndexer} in parallel. Each batch is split into
+ * disjoint partitions by object so that no object is indexed by two workers
+ * at once. Each worker indexes its partition in chunks of
+ * {@link #getCommitSize()} objects, each chunk in its own transaction: the
+ * objects are loaded, their documents built and their files parsed
+ * concurrently with the other workers, while Hibernate Search serializes
+ * the writes to the Lucene index, one commit per chunk.
+ * <p>
+ * With fewer than two threads, the pool is disabled and the
+ * {@link FullTextIndexer} indexes each {@link EventLog} in turn.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class FullTextWorkers {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(FullTextWorkers.class);
+
+    private final Executor executor;
+
+    private final Map<String, String> callContext;
+
+    /** The number of threads, <code>1</code> if disabled. */
+    private final int threads;
+
+    /** The number of objects indexed per transaction. */
+    private final int commitSize;
+
+    /** The pool doing the actual work, <code>null</code> if disabled. */
+    private final ExecutorService pool;
+
+    /** Length of time for indexing and committing one chunk. */
+    private final Timer commitTime;
+
+    /**
+     * Creates a new instance which does not collect metrics.
+     *
+     * @param executor Used to run each chunk in its own transaction.
+     * @param threads The number of threads. Values lower than <code>2</code>
+     *                disable the pool.
+     * @param commitSize The number of objects indexed per transaction.
+     */
+    public FullTextWorkers(Executor executor, int threads, int commitSize) {
+        this(executor, threads, commitSize, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param executor Used to run each chunk in its own transaction.
+     * @param threads The number of threads. Values lower than <code>2</code>
+     *                disable the pool.
+     * @param commitSize The number of objects indexed per transaction.
+     * @param metrics Used to export the commit times.
+     */
+    public FullTextWorkers(Executor executor, int threads, int commitSize,
+            Metrics metrics) {
+        this.executor = executor;
+        this.threads = Math.max(1, threads);
+        this.commitSize = Math.max(1, commitSize);
+        final Map<String, String> context = new HashMap<String, String>();
+        context.put("omero.group", "-1");
+        this.callContext = Collections.unmodifiableMap(context);
+        this.commitTime = metrics.timer(this, "commitTime");
+        if (this.threads > 1) {
+            pool = Executors.newFixedThreadPool(this.threads,
+                    new FullTextThreadFactory());
+            log.info("Full-text indexing with " + this.threads
+                    + " threads, committing every " + this.commitSize
+                    + " objects");
+        } else {
+            pool = null;
+        }
+    }
+
+    /**
+     * Returns whether the {@link EventLog} instances are indexed in
+     * parallel.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return pool != null;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getCommitSize() {
+        return commitSize;
+    }
+
+    /**
+     * Indexes the given {@link EventLog} instances and waits for all of
+     * them to be done. The failures are returned rather than published
+     * since the {@link ome.services.eventlogs.EventLogLoader} which is to
+     * handle them is not thread-safe.
+     *
+     * @param indexer The indexer which drained the {@link EventLog}
+     *                instances.
+     * @param principal The principal of the indexing session, used to log
+     *                  in each chunk.
+     * @param eventLogs The {@link EventLog} instances to index, in order.
+     * @return The failures, in no specific order.
+     * @throws InternalException If a worker failed outside of the chunk
+     *                           transactions, once all the workers are done.
+     */
+    public List<EventLogFailure> index(final FullTextIndexer indexer,
+            final Principal principal, List<EventLog> eventLogs) {
+        final List<List<EventLog>> partitions = partition(eventLogs);
+        final List<Future<List<EventLogFailure>>> futures =
+                new ArrayList<Future<List<EventLogFailure>>>();
+        for (final List<EventLog> partition : partitions) {
+            if (partition.isEmpty()) {
+                continue;
+            }
+            futures.add(pool.submit(new Callable<List<EventLogFailure>>() {
+                public List<EventLogFailure> call() {
+                    return indexPartition(indexer, principal, partition);
+                }
+            }));
+        }
+
+        final List<EventLogFailure> failures = new ArrayList<EventLogFailure>();
+        Throwable cause = null;
+        for (Future<List<EventLogFailure>> future : futures) {
+            try {
+                failures.addAll(future.get());
+            } catch (InterruptedException e) {
+                // No worker may keep indexing once the batch is given up.
+                for (Future<List<EventLogFailure>> f : futures) {
+                    f.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new InternalException("Interrupted while indexing");
+            } catch (ExecutionException e) {
+                // Waits for the other workers before giving up the batch.
+                log.error("Failed to index partition", e.getCause());
+                if (cause == null) {
+                    cause = e.getCause();
+                }
+            }
+        }
+        if (cause != null) {
+            InternalException ie =
+                    new InternalException("Failed to index: " + cause);
+            ie.initCause(cause);
+            throw ie;
+        }
+        return failures;
+    }
+
+    /**
+     * Splits the {@link EventLog} instances by object among the workers,
+     * preserving their order within each partition.
+     */
+    List<List<EventLog>> partition(List<EventLog> eventLogs) {
+        final List<List<EventLog>> partitions = new ArrayList<List<EventLog>>();
+        for (int i = 0; i < threads; i++) {
+            partitions.add(new ArrayList<EventLog>());
+        }
+        for (EventLog eventLog : eventLogs) {
+            final long id = eventLog.getEntityId();
+            final String type = eventLog.getEntityType();
+            int hash = 31 * (int) (id ^ (id >>> 32))
+                    + (type == null ? 0 : type.hashCode());
+            partitions.get((hash & Integer.MAX_VALUE) % threads).add(eventLog);
+        }
+        return partitions;
+    }
+
+    /**
+     * Indexes one partition on the current worker thread, one transaction
+     * per chunk. If a transaction fails as a whole, all the {@link EventLog}
+     * instances of its chunk are considered failed.
+     */
+    @SuppressWarnings("unchecked")
+    List<EventLogFailure> indexPartition(FullTextIndexer indexer,
+            Principal principal, List<EventLog> partition) {
+        final List<EventLogFailure> failures = new ArrayList<EventLogFailure>();
+        for (int from = 0; from < partition.size(); from += commitSize) {
+            final List<EventLog> chunk = partition.subList(from,
+                    Math.min(from + commitSize, partition.size()));
+            final Timer.Context timer = commitTime.time();
+            try {
+                failures.addAll((List<EventLogFailure>) executor.execute(
+                        callContext, principal, new IndexChunk(indexer, chunk)));
+            } catch (Exception e) {
+                log.error("Failed to index " + chunk.size() + " objects", e);
+                for (EventLog eventLog : chunk) {
+                    failures.add(new EventLogFailure(indexer.loader,
+                            eventLog, e));
+                }
+            } finally {
+                timer.stop();
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Stops the worker threads once the current batch, if any, is indexed.
+     * Used as the Spring <code>destroy-method</code>.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Indexes one chunk of {@link EventLog} instances in a transaction of
+     * its own.
+     */
+    private static class IndexChunk extends Executor.SimpleWork {
+
+        private final FullTextIndexer indexer;
+
+        private final List<EventLog> chunk;
+
+        IndexChunk(FullTextIndexer indexer, List<EventLog> chunk) {
+            super("FullTextWorkers", "index", chunk.size());
+            this.indexer = indexer;
+            this.chunk = chunk;
+        }
+
+        @Transactional(readOnly = true)
+        public Object doWork(Session session, ServiceFactory sf) {
+            FullTextSession fullTextSession = Search
+                    .getFullTextSession(session);
+            fullTextSession.setFlushMode(FlushMode.MANUAL);
+            fullTextSession.setCacheMode(CacheMode.IGNORE);
+            return indexer.indexChunk(fullTextSession, chunk);
+        }
+    }
+
+    /**
+     * Creates daemon threads with recognizable names.
+     */
+    private static class FullTextThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "fulltext-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
@@ -12,6 +12,7 @@ import java.util.NoSuchElementException;
 import ome.api.IQuery;
 import ome.conditions.LockTimeout;
 import ome.io.nio.PixelsService;
+import ome.io.nio.PyramidBuilder;
 import ome.model.core.Channel;
 import ome.model.core.Pixels;
 import ome.model.meta.Event;
@@ -107,8 +108,18 @@ public class PixelDataHandler extends SimpleWork {
      * @see <a href="http://trac.openmicroscopy.org/ome/ticket/5814">ticket:5814</a>
      */
     public void handleEventLog(EventLog eventLog, Session session, ServiceFactory sf) {
+        handleEventLog(eventLog, session, sf, null);
+    }
+
+    /**
+     * As {@link #handleEventLog(EventLog, Session, ServiceFactory)},
+     * notifying the passed instance as the tiles of the pyramid are written.
+     */
+    public void handleEventLog(EventLog eventLog, Session session,
+            ServiceFactory sf, PyramidBuilder.Progress progress) {
         final long start = System.currentTimeMillis();
-        final boolean handled = process(eventLog.getEntityId(), sf, session);
+        final boolean handled =
+            process(eventLog.getEntityId(), sf, session, progress);
         final String msg = String.format("EventLog:%s(entityId=%s) [%s ms.]",
                 eventLog.getId(), eventLog.getEntityId(),
                 (System.currentTimeMillis() - start));
@@ -131,6 +142,15 @@ public class PixelDataHandler extends SimpleWork {
      * @return See above.
      */
     public boolean process(Long id, ServiceFactory sf, Session s) {
+        return process(id, sf, s, null);
+    }
+
+    /**
+     * As {@link #process(Long, ServiceFactory, Session)}, notifying the
+     * passed instance as the tiles of the pyramid are written.
+     */
+    public boolean process(Long id, ServiceFactory sf, Session s,
+            PyramidBuilder.Progress progress) {
 
         final Pixels pixels = getPixels(id, sf);
 
@@ -141,7 +161,7 @@ public class PixelDataHandler extends SimpleWork {
 
         try
         {
-            StatsInfo[] statsInfo = pixelsService.makePyramid(pixels);
+            StatsInfo[] statsInfo = pixelsService.makePyramid(pixels, progress);
             if(statsInfo == null) {
                 // Either exists or failed to be created, but that's
                 // the PixelsService's business. It should throw an exception
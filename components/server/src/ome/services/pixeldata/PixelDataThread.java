@@ -14,6 +14,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
@@ -21,6 +22,7 @@ import java.util.concurrent.TimeUnit;
 
 import ome.conditions.InternalException;
 import ome.io.messages.MissingPyramidMessage;
+import ome.io.nio.PyramidBuilder;
 import ome.model.core.Pixels;
 import ome.model.enums.EventType;
 import ome.model.meta.Event;
@@ -34,6 +36,7 @@ import ome.services.util.Executor;
 import ome.system.EventContext;
 import ome.system.Principal;
 import ome.system.ServiceFactory;
+import ome.system.metrics.Counter;
 import ome.system.metrics.Metrics;
 import ome.system.metrics.NullMetrics;
 import ome.system.metrics.Timer;
@@ -75,6 +78,22 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
 
     private final Timer batchTimer;
 
+    /** Number of pyramid tiles written. */
+    private final Counter pyramidTiles;
+
+    /** Fraction of the tiles written of each pyramid being built. */
+    private final Map<Long, Double> pyramidProgress =
+            new ConcurrentHashMap<Long, Double>();
+
+    /** Notified by the pyramids being built as their tiles are written. */
+    private final PyramidBuilder.Progress progress =
+            new PyramidBuilder.Progress() {
+        public void tileWritten(long pixelsId, int written, int total) {
+            pyramidTiles.inc();
+            pyramidProgress.put(pixelsId, (double) written / total);
+        }
+    };
+
     /**
      * Uses default {@link Principal} for processing
      */
@@ -158,6 +177,7 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
         this.uuid = uuid;
         this.numThreads = numThreads;
         this.batchTimer = metrics.timer(this, "batch");
+        this.pyramidTiles = metrics.counter(this, "pyramidTiles");
     }
 
     /**
@@ -233,17 +253,21 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
 
         private final EventLog log;
 
+        private final PyramidBuilder.Progress progress;
+
         HandleEventLog(EventLog log, PixelDataHandler handler,
+                PyramidBuilder.Progress progress,
                 Object self, String description, Object...args) {
             super(self, description, args);
             this.handler = handler;
             this.log = log;
+            this.progress = progress;
         }
 
         @Transactional(readOnly=false)
         @Override
         public Object doWork(Session session, ServiceFactory sf) {
-            this.handler.handleEventLog(log, session, sf);
+            this.handler.handleEventLog(log, session, sf, progress);
             return null;
         }
 
@@ -254,13 +278,24 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
         try {
              executor.execute(getPrincipal(),
                      new HandleEventLog(log, (PixelDataHandler) work,
-                             this, "handleEventLog"));
+                             progress, this, "handleEventLog"));
              return log;
         } finally {
+            pyramidProgress.remove(log.getEntityId());
             timer.stop();
         }
     }
 
+    /**
+     * Returns the progress of the pyramids being built.
+     *
+     * @return The fraction of the tiles written of each pyramid being
+     * built, by pixels id.
+     */
+    public Map<Long, Double> getPyramidProgress() {
+        return new HashMap<Long, Double>(pyramidProgress);
+    }
+
     /**
      * Basic handling just logs at ERROR level. Subclasses (especially for
      * testing) can do more.
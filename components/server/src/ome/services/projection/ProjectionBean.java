@@ -9,7 +9,15 @@ package ome.services.projection;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -89,18 +97,16 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                                int algorithm, int timepoint, int channelIndex, 
                                int stepping, int start, int end)
     {
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
-        PixelBuffer pixelBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
-        zIntervalBoundsCheck(start, end, ctx.pixels.getSizeZ());
+        Pixels pixels = iQuery.get(Pixels.class, pixelsId);
+        PixelBuffer pixelBuffer = pixelsService.getPixelBuffer(pixels, false);
+        zIntervalBoundsCheck(start, end, pixels.getSizeZ());
         outOfBoundsStepping(stepping);
         outOfBoundsCheck(channelIndex, "channel");
         outOfBoundsCheck(timepoint, "timepoint");
-        Integer v = ctx.pixels.getSizeT();
+        Integer v = pixels.getSizeT();
         if (timepoint >= v)
             throw new ValidationException("timepoint must be <"+v);
-        v = ctx.pixels.getSizeC();
+        v = pixels.getSizeC();
         if (channelIndex >= v)
             throw new ValidationException("channel index must be <"+v);
         try
@@ -108,44 +114,21 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
 
             if (pixelsType == null)
             {
-                pixelsType = ctx.pixels.getPixelsType();
+                pixelsType = pixels.getPixelsType();
             }
             else
             {
                 pixelsType = iQuery.get(PixelsType.class, pixelsType.getId());
             }
 
-            ctx.planeSizeInPixels = 
-                ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
-            int planeSize = 
-                ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
+            int planeSizeInPixels = pixels.getSizeX() * pixels.getSizeY();
+            int planeSize =
+                planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
             byte[] buf = new byte[planeSize];
-            ctx.from = pixelBuffer.getStack(channelIndex, timepoint);
-            ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
-
-            switch (algorithm)
-            {
-                case IProjection.MAXIMUM_INTENSITY:
-                {
-                    projectStackMax(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.MEAN_INTENSITY:
-                {
-                    projectStackMean(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.SUM_INTENSITY:
-                {
-                    projectStackSum(ctx, stepping, start, end, false);
-                    break;
-                }
-                default:
-                {
-                    throw new IllegalArgumentException(
-                            "Unknown algorithm: " + algorithm);
-                }
-            }
+            StackProjector projector = new StackProjector(
+                    algorithm, planeSizeInPixels, stepping, start, end);
+            projector.project(pixelBuffer, channelIndex, timepoint,
+                    new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf)));
             return buf;
         }
         catch (IOException e)
@@ -160,7 +143,7 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         {
             String error = String.format(
                     "C=%d or T=%d out of range for Pixels Id %d: %s",
-                    channelIndex, timepoint, ctx.pixels.getId(), e.getMessage());
+                    channelIndex, timepoint, pixels.getId(), e.getMessage());
             log.error(error, e);
             throw new ValidationException(error);
         }
@@ -176,9 +159,6 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                 throw new ResourceError(
                         e.getMessage() + " Please check server log.");
             }
-            if (ctx.from != null) {
-                ctx.from.dispose();
-            }
         }
     }
 
@@ -193,13 +173,12 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                               int zStart, int zEnd, String name)
     {
         // First, copy and resize our image with sizeZ = 1.
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
-        Image image = ctx.pixels.getImage();
+        Pixels pixels = iQuery.get(Pixels.class, pixelsId);
+        Image image = pixels.getImage();
         name = name == null? image.getName() + " Projection" : name;
         //size of the new buffer.
         //Add control for z
-        zIntervalBoundsCheck(zStart, zEnd, ctx.pixels.getSizeZ());
+        zIntervalBoundsCheck(zStart, zEnd, pixels.getSizeZ());
         outOfBoundsStepping(stepping);
 
         Integer sizeT = tEnd-tStart+1;
@@ -215,7 +194,7 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         Pixels newPixels = newImage.getPixels(0);
         if (pixelsType == null)
         {
-            pixelsType = ctx.pixels.getPixelsType();
+            pixelsType = pixels.getPixelsType();
         }
         else
         {
@@ -225,84 +204,50 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         
         // Project each stack for each channel and each timepoint in the
         // entire image, copying into the pixel buffer the projected pixels.
+        // Stacks are projected concurrently while the projected planes are
+        // written in order, on this thread, as they complete.
         PixelBuffer sourceBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
+                pixels, false);
         try {
             PixelBuffer destinationBuffer = pixelsService.getPixelBuffer(
                     newPixels, true);
             try
             {
-                ctx.planeSizeInPixels = ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
+                int planeSizeInPixels =
+                    pixels.getSizeX() * pixels.getSizeY();
                 int planeSize =
-                    ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
-                byte[] buf = new byte[planeSize];
-                ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
+                    planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
+                StackProjector projector = new StackProjector(algorithm,
+                        planeSizeInPixels, stepping, zStart, zEnd);
+                List<ProjectionTask> tasks = new ArrayList<ProjectionTask>();
                 int newC = 0;
                 for (Integer c : channels)
                 {
-                    ctx.minimum = Double.MAX_VALUE;
-                    ctx.maximum = Double.MIN_VALUE;
                     for (int t = tStart; t <= tEnd; t++)
                     {
-                        try
-                        {
-                            ctx.from = sourceBuffer.getStack(c, t);
-                            switch (algorithm)
-                            {
-                                case IProjection.MAXIMUM_INTENSITY:
-                                {
-                                    projectStackMax(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.MEAN_INTENSITY:
-                                {
-                                    projectStackMean(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.SUM_INTENSITY:
-                                {
-                                    projectStackSum(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                default:
-                                {
-                                    throw new IllegalArgumentException(
-                                            "Unknown algorithm: " + algorithm);
-                                }
-                            }
-                            destinationBuffer.setPlane(buf, 0, newC, t);
-                        }
-                        catch (IOException e)
-                        {
-                            String error = String.format(
-                                    "I/O error retrieving stack C=%d T=%d: %s",
-                                    c, t, e.getMessage());
-                            log.error(error, e);
-                            throw new ResourceError(error);
-                        }
-                        catch (DimensionsOutOfBoundsException e)
-                        {
-                            String error = String.format(
-                                    "C=%d or T=%d out of range for Pixels Id %d: %s",
-                                    c, t, ctx.pixels.getId(), e.getMessage());
-                            log.error(error, e);
-                            throw new ValidationException(error);
-                        } finally {
-                            if (ctx.from != null) {
-                                ctx.from.dispose();
-                            }
-                        }
+                        tasks.add(new ProjectionTask(projector, sourceBuffer,
+                                pixelsType.getValue(), planeSize, c, newC, t));
                     }
-                    // Handle the change of minimum and maximum for this channel.
+                    newC++;
+                }
+                double[] minimum = new double[newC];
+                double[] maximum = new double[newC];
+                Arrays.fill(minimum, Double.MAX_VALUE);
+                Arrays.fill(maximum, Double.MIN_VALUE);
+                writeProjections(tasks, destinationBuffer, pixels.getId(),
+                        minimum, maximum);
+                for (newC = 0; newC < minimum.length; newC++)
+                {
+                    // Handle the change of minimum and maximum for this
+                    // channel.
                     Channel channel = newPixels.getChannel(newC);
                     StatsInfo si = new StatsInfo();
-                    si.setGlobalMin(ctx.minimum);
-                    si.setGlobalMax(ctx.maximum);
+                    si.setGlobalMin(minimum[newC]);
+                    si.setGlobalMax(maximum[newC]);
                     channel.setStatsInfo(si);
                     // Set our methodology
                     newPixels.setMethodology(
                             IProjection.METHODOLOGY_STRINGS[algorithm]);
-                    newC++;
                 }
             }
             finally
@@ -333,7 +278,119 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         newImage = iUpdate.saveAndReturnObject(newImage);
         return newImage.getId();
     }
-    
+
+    /**
+     * Runs the passed projections on the pool of the {@link StackProjector},
+     * keeping at most one projection per worker in flight, and writes the
+     * projected planes to the destination buffer in the order of the tasks.
+     * @param tasks The projections to run.
+     * @param destinationBuffer The buffer to write the projected planes to.
+     * @param pixelsId The identifier of the source Pixels set, used for
+     * error reporting.
+     * @param minimum The minimum of the projected planes of each channel,
+     * updated as the planes are written.
+     * @param maximum The maximum of the projected planes of each channel,
+     * updated as the planes are written.
+     */
+    private void writeProjections(List<ProjectionTask> tasks,
+            PixelBuffer destinationBuffer, long pixelsId,
+            double[] minimum, double[] maximum)
+    {
+        int inFlight = StackProjector.POOL.getParallelism();
+        Deque<ProjectionTask> running = new ArrayDeque<ProjectionTask>();
+        Iterator<ProjectionTask> pending = tasks.iterator();
+        try
+        {
+            while (pending.hasNext() || !running.isEmpty())
+            {
+                while (pending.hasNext() && running.size() < inFlight)
+                {
+                    ProjectionTask task = pending.next();
+                    task.future = StackProjector.POOL.submit(task);
+                    running.add(task);
+                }
+                ProjectionTask task = running.poll();
+                try
+                {
+                    double[] minMax = getProjection(task);
+                    destinationBuffer.setPlane(task.buf, 0, task.newC, task.t);
+                    task.buf = null;
+                    minimum[task.newC] = Math.min(minimum[task.newC], minMax[0]);
+                    maximum[task.newC] = Math.max(maximum[task.newC], minMax[1]);
+                }
+                catch (IOException e)
+                {
+                    String error = String.format(
+                            "I/O error retrieving stack C=%d T=%d: %s",
+                            task.c, task.t, e.getMessage());
+                    log.error(error, e);
+                    throw new ResourceError(error);
+                }
+                catch (DimensionsOutOfBoundsException e)
+                {
+                    String error = String.format(
+                            "C=%d or T=%d out of range for Pixels Id %d: %s",
+                            task.c, task.t, pixelsId, e.getMessage());
+                    log.error(error, e);
+                    throw new ValidationException(error);
+                }
+            }
+        }
+        finally
+        {
+            // Only left over on failure: the source buffer is about to be
+            // closed so let the projections still running know.
+            for (ProjectionTask task : running)
+            {
+                task.future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Waits for the passed projection to complete.
+     * @param task The projection.
+     * @return The minimum and maximum of the projected plane.
+     * @throws IOException If a plane of the stack could not be read.
+     * @throws DimensionsOutOfBoundsException If the stack is out of range.
+     */
+    private double[] getProjection(ProjectionTask task)
+        throws IOException, DimensionsOutOfBoundsException
+    {
+        try
+        {
+            return task.future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new ResourceError(String.format(
+                    "Interrupted projecting stack C=%d T=%d",
+                    task.c, task.t));
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof DimensionsOutOfBoundsException)
+            {
+                throw (DimensionsOutOfBoundsException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new ResourceError(cause.getMessage());
+        }
+    }
+
     /**
      * Ensures that a particular dimension value is not out of range (ex. less
      * than zero).
@@ -379,176 +436,64 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     }
     
     /**
-     * Projects a stack based on the maximum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Projects the stack of one channel and timepoint into a plane of its
+     * own.
+     *
+     * Class is static to prevent any instances from holding onto
+     * {@link ProjectionBean} instances.
      */
-    private void projectStackMax(ProjectionContext ctx, int stepping,
-                                 int start, int end, boolean doMinMax)
+    private static class ProjectionTask implements Callable<double[]>
     {
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        /** The projector to use. */
+        private final StackProjector projector;
+
+        /** The buffer to read the stack from. */
+        private final PixelBuffer sourceBuffer;
+
+        /** The pixels type of the projected plane. */
+        private final String pixelsType;
+
+        /** The size of the projected plane in bytes. */
+        private final int planeSize;
+
+        /** The channel of the stack in the source Pixels set. */
+        final int c;
+
+        /** The channel of the projected plane in the new Pixels set. */
+        final int newC;
+
+        /** The timepoint of the stack. */
+        final int t;
+
+        /**
+         * The projected plane, visible to the thread retrieving the result
+         * of {@link #future}.
+         */
+        byte[] buf;
+
+        /** The pending result, once submitted. */
+        Future<double[]> future;
+
+        ProjectionTask(StackProjector projector, PixelBuffer sourceBuffer,
+                String pixelsType, int planeSize, int c, int newC, int t)
         {
-            projectedValue = 0;
-            for (int z = start; z <= end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                if (stackValue > projectedValue)
-                {
-                    projectedValue = stackValue;
-                }
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
-            {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
-            }
+            this.projector = projector;
+            this.sourceBuffer = sourceBuffer;
+            this.pixelsType = pixelsType;
+            this.planeSize = planeSize;
+            this.c = c;
+            this.newC = newC;
+            this.t = t;
         }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
-    }
-    
-    /**
-     * Projects a stack based on the mean intensity at each XY coordinate.
-     * @param from The raw pixel data from the stack to project from.
-     * @param ctx The context of our projection.
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackMean(ProjectionContext ctx, int stepping, 
-                                  int start, int end, boolean doMinMax)
-    {
-        projectStackMeanOrSum(ctx, stepping, start, end, true, doMinMax);
-    }
-    
-    /**
-     * Projects a stack based on the sum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackSum(ProjectionContext ctx, int stepping, 
-                                 int start, int end, boolean doMinMax)
-    {
-        projectStackMeanOrSum(ctx, stepping, start, end, false, doMinMax);
-    }
-    
-    /**
-     * Projects a stack based on the sum intensity at each XY coordinate with
-     * the option to also average the sum intensity.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param mean Whether or not we're performing an average post sum
-     * intensity projection.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackMeanOrSum(ProjectionContext ctx, int stepping,
-                                       int start, int end, 
-                                       boolean mean, boolean doMinMax)
-    {
-        double planeMaximum = ctx.to.getMaximum();
 
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        public double[] call()
+            throws IOException, DimensionsOutOfBoundsException
         {
-            projectedValue = 0;
-            int projectedPlaneCount = 0;
-            for (int z = start; z < end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                projectedValue += stackValue;
-                projectedPlaneCount++;
-            }
-            if (mean)
-            {
-                projectedValue = projectedValue / projectedPlaneCount;
-            }
-            if (projectedValue > planeMaximum)
-            {
-                projectedValue = planeMaximum;
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
-            {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
-            }
+            byte[] plane = new byte[planeSize];
+            double[] minMax = projector.project(sourceBuffer, c, t,
+                    new PixelData(pixelsType, ByteBuffer.wrap(plane)));
+            buf = plane;
+            return minMax;
         }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
-    }
-    
-    /**
-     * Stores the context of a projection operation.
-     * 
-     * Class is static to prevent any instances from holding onto
-     * {@link ProjectionBean} instances.
-     *
-     * @author Chris Allan &nbsp;&nbsp;&nbsp;&nbsp; <a
-     *         href="mailto:callan@blackcat.ca">callan@blackcat.ca</a>
-     * @since OMERO-Beta3.1
-     */
-    private static class ProjectionContext
-    {
-        /** The Pixels set we're currently working on. */
-        public Pixels pixels;
-        
-        /** Count of the number of pixels per plane for <code>pixels</code>. */
-        public int planeSizeInPixels;
-        
-        /** Current minimum for the projected pixel data. */
-        public double minimum = Double.MAX_VALUE;
-        
-        /** Current maximum for the projected pixel data. */
-        public double maximum = Double.MIN_VALUE;
-        
-        /** The raw pixel data from the stack to project from. */
-        public PixelData from;
-        
-        /** The raw pixel data buffer to project into. */
-        public PixelData to;
     }
 }
@@ -0,0 +1,372 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.projection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ome.api.IProjection;
+import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+
+/**
+ * Projects the optical sections of a stack one plane at a time. Each plane
+ * is read from the source {@link PixelBuffer}, folded into a primitive
+ * accumulator holding one value per pixel and released, so that only a
+ * single plane of the stack is held in memory whatever the number of
+ * sections. Folding a plane into the accumulator and writing the projected
+ * plane are split across the workers of a fork-join pool shared by the
+ * whole process.
+ * <p>
+ * Instances are immutable and may project several stacks concurrently;
+ * reads from the source buffer are serialized on the buffer since pixel
+ * buffers are not thread-safe.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+class StackProjector {
+
+    /** Below this number of pixels a range is not split any further. */
+    static final int MIN_PIXELS_PER_TASK = 64 * 1024;
+
+    /** The pool shared by all the projections. */
+    static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /** One of the algorithms defined by {@link IProjection}. */
+    private final int algorithm;
+
+    /** The number of pixels per plane. */
+    private final int planeSizeInPixels;
+
+    /** The stepping between two projected optical sections. */
+    private final int stepping;
+
+    /** The first optical section to project. */
+    private final int start;
+
+    /** The last optical section to project. */
+    private final int end;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param algorithm {@link IProjection#MAXIMUM_INTENSITY},
+     * {@link IProjection#MEAN_INTENSITY} or
+     * {@link IProjection#SUM_INTENSITY}.
+     * @param planeSizeInPixels The number of pixels per plane.
+     * @param stepping Stepping value to use while calculating the projection.
+     * @param start Optical section to start projecting from.
+     * @param end Optical section to finish projecting.
+     * @throws IllegalArgumentException If the algorithm is unknown.
+     */
+    StackProjector(int algorithm, int planeSizeInPixels, int stepping,
+            int start, int end)
+    {
+        switch (algorithm)
+        {
+            case IProjection.MAXIMUM_INTENSITY:
+            case IProjection.MEAN_INTENSITY:
+            case IProjection.SUM_INTENSITY:
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown algorithm: " + algorithm);
+        }
+        this.algorithm = algorithm;
+        this.planeSizeInPixels = planeSizeInPixels;
+        this.stepping = stepping;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Projects the stack of the given channel and timepoint into
+     * <code>to</code>. As before the rework into a streaming projection, the
+     * maximum intensity projection covers the sections <code>[start,
+     * end]</code> while the mean and sum intensity projections cover
+     * <code>[start, end[</code>.
+     *
+     * @param from The buffer to read the planes from.
+     * @param c The channel to project.
+     * @param t The timepoint to project.
+     * @param to The pixel data to write the projected plane into.
+     * @return The minimum and maximum of the projected plane.
+     * @throws IOException If a plane cannot be read.
+     * @throws DimensionsOutOfBoundsException If the channel, timepoint or
+     * sections are out of range.
+     */
+    double[] project(PixelBuffer from, int c, int t, PixelData to)
+            throws IOException, DimensionsOutOfBoundsException
+    {
+        boolean max = algorithm == IProjection.MAXIMUM_INTENSITY;
+        double[] accumulator = new double[planeSizeInPixels];
+        int count = 0;
+        int last = max ? end : end - 1;
+        for (int z = start; z <= last; z += stepping)
+        {
+            PixelData plane;
+            synchronized (from)
+            {
+                plane = from.getPlane(z, c, t);
+            }
+            count++;
+            if (plane == null)
+            {
+                // Plane never written: all zeros, the accumulator is
+                // unchanged.
+                continue;
+            }
+            try
+            {
+                POOL.invoke(new FoldTask(accumulator, plane, max, 0,
+                        planeSizeInPixels));
+            }
+            finally
+            {
+                plane.dispose();
+            }
+        }
+        WriteTask write = new WriteTask(accumulator, to,
+                algorithm == IProjection.MEAN_INTENSITY ? count : 1,
+                !max, 0, planeSizeInPixels);
+        POOL.invoke(write);
+        return new double[] { write.minimum, write.maximum };
+    }
+
+    /**
+     * Returns the index splitting <code>[from, to[</code> in two, aligned on
+     * a byte boundary so that bit planes can be written concurrently.
+     *
+     * @param from The start of the range.
+     * @param to The end of the range.
+     * @return See above.
+     */
+    private static int split(int from, int to)
+    {
+        return (from + (to - from) / 2) & ~7;
+    }
+
+    /**
+     * Returns a view of the buffer backing the passed pixel data, positioned
+     * at its first byte and with the byte order of the pixel data.
+     *
+     * @param data The pixel data.
+     * @return See above.
+     */
+    private static ByteBuffer getBuffer(PixelData data)
+    {
+        ByteBuffer buffer = data.getData().duplicate();
+        // duplicate() does not preserve the byte order.
+        buffer.order(data.getOrder());
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * Folds the pixels <code>[from, to[</code> of a plane into the
+     * accumulator, keeping either the maximum or the sum.
+     */
+    private static class FoldTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] accumulator;
+
+        private final PixelData plane;
+
+        private final boolean max;
+
+        private final int from;
+
+        private final int to;
+
+        FoldTask(double[] accumulator, PixelData plane, boolean max,
+                int from, int to)
+        {
+            this.accumulator = accumulator;
+            this.plane = plane;
+            this.max = max;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            int middle = split(from, to);
+            if (to - from > MIN_PIXELS_PER_TASK && middle > from)
+            {
+                invokeAll(new FoldTask(accumulator, plane, max, from, middle),
+                        new FoldTask(accumulator, plane, max, middle, to));
+                return;
+            }
+            boolean signed = plane.isSigned();
+            double[] acc = accumulator;
+            switch (plane.javaType())
+            {
+                case PixelData.BYTE:
+                {
+                    ByteBuffer bytes = getBuffer(plane);
+                    for (int i = from; i < to; i++)
+                    {
+                        fold(acc, i, signed ? bytes.get(i)
+                                : bytes.get(i) & 0xFF);
+                    }
+                    break;
+                }
+                case PixelData.SHORT:
+                {
+                    ShortBuffer shorts = getBuffer(plane).asShortBuffer();
+                    for (int i = from; i < to; i++)
+                    {
+                        fold(acc, i, signed ? shorts.get(i)
+                                : shorts.get(i) & 0xFFFF);
+                    }
+                    break;
+                }
+                case PixelData.INT:
+                {
+                    IntBuffer ints = getBuffer(plane).asIntBuffer();
+                    for (int i = from; i < to; i++)
+                    {
+                        fold(acc, i, signed ? ints.get(i)
+                                : ints.get(i) & 0xFFFFFFFFL);
+                    }
+                    break;
+                }
+                case PixelData.FLOAT:
+                {
+                    FloatBuffer floats = getBuffer(plane).asFloatBuffer();
+                    for (int i = from; i < to; i++)
+                    {
+                        fold(acc, i, floats.get(i));
+                    }
+                    break;
+                }
+                case PixelData.DOUBLE:
+                {
+                    DoubleBuffer doubles = getBuffer(plane).asDoubleBuffer();
+                    for (int i = from; i < to; i++)
+                    {
+                        fold(acc, i, doubles.get(i));
+                    }
+                    break;
+                }
+                default:
+                    for (int i = from; i < to; i++)
+                    {
+                        fold(acc, i, plane.getPixelValue(i));
+                    }
+            }
+        }
+
+        /**
+         * Folds one value into the accumulator.
+         *
+         * @param acc The accumulator.
+         * @param i The index of the pixel.
+         * @param value The value of the pixel.
+         */
+        private void fold(double[] acc, int i, double value)
+        {
+            if (max)
+            {
+                if (value > acc[i])
+                {
+                    acc[i] = value;
+                }
+            }
+            else
+            {
+                acc[i] += value;
+            }
+        }
+    }
+
+    /**
+     * Writes the pixels <code>[from, to[</code> of the projected plane,
+     * computing their minimum and maximum.
+     */
+    private static class WriteTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] accumulator;
+
+        private final PixelData plane;
+
+        /** The number of sections to average over, <code>1</code> if none. */
+        private final double divisor;
+
+        /** Whether to clamp values to the maximum of the pixels type. */
+        private final boolean clamp;
+
+        private final int from;
+
+        private final int to;
+
+        /** The minimum of the range, once computed. */
+        double minimum = Double.MAX_VALUE;
+
+        /** The maximum of the range, once computed. */
+        double maximum = Double.MIN_VALUE;
+
+        WriteTask(double[] accumulator, PixelData plane, double divisor,
+                boolean clamp, int from, int to)
+        {
+            this.accumulator = accumulator;
+            this.plane = plane;
+            this.divisor = divisor;
+            this.clamp = clamp;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            int middle = split(from, to);
+            if (to - from > MIN_PIXELS_PER_TASK && middle > from)
+            {
+                WriteTask left = new WriteTask(accumulator, plane, divisor,
+                        clamp, from, middle);
+                WriteTask right = new WriteTask(accumulator, plane, divisor,
+                        clamp, middle, to);
+                invokeAll(left, right);
+                minimum = Math.min(left.minimum, right.minimum);
+                maximum = Math.max(left.maximum, right.maximum);
+                return;
+            }
+            double planeMaximum = plane.getMaximum();
+            double min = minimum;
+            double max = maximum;
+            double value;
+            for (int i = from; i < to; i++)
+            {
+                value = accumulator[i] / divisor;
+                if (clamp && value > planeMaximum)
+                {
+                    value = planeMaximum;
+                }
+                plane.setPixelValue(i, value);
+                min = value < min ? value : min;
+                max = value > max ? value : max;
+            }
+            minimum = min;
+            maximum = max;
+        }
+    }
+}
@@ -10,8 +10,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
@@ -19,6 +21,7 @@ import java.util.concurrent.Future;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 
+import ome.api.IQuery;
 import ome.api.local.LocalAdmin;
 import ome.conditions.ApiUsageException;
 import ome.conditions.AuthenticationException;
@@ -46,6 +49,7 @@ import ome.services.messages.DestroySessionMessage;
 import ome.services.sessions.events.ChangeSecurityContextEvent;
 import ome.services.sessions.events.UserGroupUpdateEvent;
 import ome.services.sessions.state.SessionCache;
+import ome.services.sessions.state.SessionRevalidation;
 import ome.services.sessions.stats.CounterFactory;
 import ome.services.sessions.stats.SessionStats;
 import ome.services.util.Executor;
@@ -70,6 +74,7 @@ import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.UncategorizedSQLException;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.MapMaker;
 
 /**
@@ -87,13 +92,18 @@ import com.google.common.collect.MapMaker;
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 3.0-Beta3
  */
-public class SessionManagerImpl implements SessionManager, SessionCache.StaleCacheListener,
+public class SessionManagerImpl implements SessionManager, SessionCache.BulkStaleCacheListener,
         ApplicationContextAware, ApplicationListener<ApplicationEvent> {
 
     public final static String GROUP_SUDO_NS = "openmicroscopy.org/security/group-sudo";
 
     private final static Logger log = LoggerFactory.getLogger(SessionManagerImpl.class);
 
+    /**
+     * Maximum number of ids passed to each query of {@link #findStale(Map)}.
+     */
+    private final static int MAX_IDS_PER_QUERY = 1000;
+
     /**
      * The id of this session manager, used to identify its own actions. This
      * value may be overwritten by an injector with a value which is used
@@ -1022,6 +1032,41 @@ public class SessionManagerImpl implements SessionManager, SessionCache.StaleCac
         return createSessionContext(list, ctx);
     }
 
+    /**
+     * Checks all the sessions of the {@link SessionCache} at once, with a
+     * few set-based queries whatever the number of sessions, rather than
+     * reloading each of them. Only the sessions whose user, group,
+     * memberships or timeouts changed are then reloaded.
+     */
+    public Set<String> findStale(final Map<String, SessionContext> contexts) {
+        final Set<Long> userIds = new HashSet<Long>();
+        final Set<Long> groupIds = new HashSet<Long>();
+        final Set<Long> sessionIds = new HashSet<Long>();
+        for (SessionContext ctx : contexts.values()) {
+            userIds.add(ctx.getCurrentUserId());
+            groupIds.add(ctx.getCurrentGroupId());
+            sessionIds.add(ctx.getCurrentSessionId());
+        }
+        final SessionRevalidation revalidation = new SessionRevalidation();
+        executor.execute(asroot, new Executor.SimpleWork(
+                this, "findStale", contexts.size()) {
+            @Transactional(readOnly = true)
+            public Object doWork(org.hibernate.Session session,
+                    ServiceFactory sf) {
+                executeRevalidationLookup(sf.getQueryService(), revalidation,
+                        userIds, groupIds, sessionIds);
+                return null;
+            }
+        });
+        final Set<String> stale = new HashSet<String>();
+        for (Map.Entry<String, SessionContext> entry : contexts.entrySet()) {
+            if (revalidation.isStale(entry.getValue())) {
+                stale.add(entry.getKey());
+            }
+        }
+        return stale;
+    }
+
     // Executor methods
     // =========================================================================
 
@@ -1418,6 +1463,50 @@ public class SessionManagerImpl implements SessionManager, SessionCache.StaleCac
         }
     }
 
+    /**
+     * Loads the current state of the passed users, groups and sessions into
+     * a {@link SessionRevalidation}, {@link #MAX_IDS_PER_QUERY} ids at a
+     * time. Memberships are loaded in the same order as by
+     * {@link LocalAdmin#getMemberOfGroupIds(Experimenter)}.
+     */
+    private void executeRevalidationLookup(IQuery query,
+            SessionRevalidation revalidation, Set<Long> userIds,
+            Set<Long> groupIds, Set<Long> sessionIds) {
+        for (List<Long> ids : Iterables.partition(userIds, MAX_IDS_PER_QUERY)) {
+            final Parameters p = new Parameters().addIds(ids);
+            for (Object[] row : query.projection(
+                    "select e.id, e.omeName from Experimenter e "
+                    + "where e.id in (:ids)", p)) {
+                revalidation.addUser((Long) row[0], (String) row[1]);
+            }
+            for (Object[] row : query.projection(
+                    "select e.id, m.parent.id, m.parent.name, m.owner "
+                    + "from Experimenter e join e.groupExperimenterMap m "
+                    + "where e.id in (:ids) order by e.id, index(m)", p)) {
+                revalidation.addMembership((Long) row[0], (Long) row[1],
+                        (String) row[2], Boolean.TRUE.equals(row[3]));
+            }
+        }
+        for (List<Long> ids : Iterables.partition(groupIds, MAX_IDS_PER_QUERY)) {
+            final List<ExperimenterGroup> groups = query.findAllByQuery(
+                    "select g from ExperimenterGroup g where g.id in (:ids)",
+                    new Parameters().addIds(ids));
+            for (ExperimenterGroup g : groups) {
+                revalidation.addGroup(g.getId(), g.getName(),
+                        g.getDetails().getPermissions());
+            }
+        }
+        for (List<Long> ids : Iterables.partition(sessionIds, MAX_IDS_PER_QUERY)) {
+            for (Object[] row : query.projection(
+                    "select s.id, s.timeToIdle, s.timeToLive, s.closed "
+                    + "from Session s where s.id in (:ids)",
+                    new Parameters().addIds(ids))) {
+                revalidation.addSession((Long) row[0], (Long) row[1],
+                        (Long) row[2], (Timestamp) row[3]);
+            }
+        }
+    }
+
     private Share newShare() {
         Share share = new Share();
         share.putAt("#2733", "ALLOW");
@@ -5,6 +5,7 @@
 package ome.services.sessions.state;
 
 import java.sql.Timestamp;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -70,6 +71,24 @@ public class SessionCache implements ApplicationContextAware {
         SessionContext reload(SessionContext context);
     }
 
+    /**
+     * {@link StaleCacheListener} which can also check all the active
+     * sessions at once, in which case {@link SessionCache#doUpdate()} only
+     * reloads those found out of date.
+     */
+    public interface BulkStaleCacheListener extends StaleCacheListener {
+
+        /**
+         * Method called with all the active sessions in the cache. Returns
+         * the uuids of those whose {@link SessionContext} is out of date and
+         * must be replaced via {@link #reload(SessionContext)}.
+         *
+         * Any runtime exception can be thrown to show that the check is not
+         * possible, in which case all the sessions are reloaded.
+         */
+        Set<String> findStale(Map<String, SessionContext> contexts);
+    }
+
     /**
      * Container which can be put in a single {@link AtomicReference} instance.
      * Contains all the data for a single session immutably. Therefore any
@@ -624,8 +643,13 @@ public class SessionCache implements ApplicationContextAware {
             final Set<String> ids = sessions.keySet();
             log.info("Synchronizing session cache. Count = " + ids.size());
             final StopWatch sw = new Slf4JStopWatch();
-            for (String id : ids) {
-                reload(id);
+            final StaleCacheListener listener = staleCacheListener.get();
+            if (listener instanceof BulkStaleCacheListener) {
+                reloadStale((BulkStaleCacheListener) listener, ids);
+            } else {
+                for (String id : ids) {
+                    reload(id);
+                }
             }
 
             sw.stop("omero.sessions.synchronization");
@@ -641,33 +665,82 @@ public class SessionCache implements ApplicationContextAware {
     }
 
     /**
-     * Provides the reloading logic of the {@link SessionCache} for the
-     * {@link SessionManagerImpl} to use.
-     *
-     * @see <a href="http://trac.openmicroscopy.org/ome/ticket/4011">ticket:4011</a>
-     * @see <a href="http://trac.openmicroscopy.org/ome/ticket/5849">ticket:5849</a>
+     * Removes the sessions which timed out, checks all the others at once
+     * and only reloads those found out of date. Sessions found up to date
+     * have their error count reset as if reloaded.
      */
-    public void reload(String id) {
+    private void reloadStale(BulkStaleCacheListener listener, Set<String> ids) {
+        final Map<String, Data> active = new HashMap<String, Data>();
+        final Map<String, SessionContext> contexts =
+                new HashMap<String, SessionContext>();
+        for (String id : ids) {
+            Data data = getDataOrRemove(id);
+            if (data != null) {
+                active.put(id, data);
+                contexts.put(id, data.sessionContext);
+            }
+        }
 
-        final StaleCacheListener listener = staleCacheListener.get();
-        if (listener == null) {
-            log.error("Null stale cache listener!");
-            return;
+        Set<String> stale;
+        try {
+            stale = listener.findStale(contexts);
+        } catch (Exception e) {
+            log.warn("Error checking sessions, reloading all", e);
+            stale = contexts.keySet();
+        }
+        log.info(String.format("Reloading %s of %s sessions",
+                stale.size(), contexts.size()));
+
+        for (Map.Entry<String, Data> entry : active.entrySet()) {
+            if (stale.contains(entry.getKey())) {
+                reload(entry.getKey());
+            } else {
+                entry.getValue().error.set(0);
+            }
         }
+    }
 
-        Data data = null;
+    /**
+     * Gets the {@link Data} of a session to reload, removing the session if
+     * it timed out or cannot be checked.
+     *
+     * @return null if the session was removed.
+     */
+    private Data getDataOrRemove(String id) {
         try {
-            data = getDataNullOrThrowOnTimeout(id, false);
+            Data data = getDataNullOrThrowOnTimeout(id, false);
             if (data == null) {
                 internalRemove(id, "Timeout");
-                return;
             }
+            return data;
         } catch (Exception e) {
             // If an exception occurs here, then something is wrong
             // with the Data instance itself since no DB calls are
             // made. Therefore the instance will be removed.
             log.warn("Removing session on get error of " + id, e);
             internalRemove(id, "Get error");
+            return null;
+        }
+    }
+
+    /**
+     * Provides the reloading logic of the {@link SessionCache} for the
+     * {@link SessionManagerImpl} to use.
+     *
+     * @see <a href="http://trac.openmicroscopy.org/ome/ticket/4011">ticket:4011</a>
+     * @see <a href="http://trac.openmicroscopy.org/ome/ticket/5849">ticket:5849</a>
+     */
+    public void reload(String id) {
+
+        final StaleCacheListener listener = staleCacheListener.get();
+        if (listener == null) {
+            log.error("Null stale cache listener!");
+            return;
+        }
+
+        final Data data = getDataOrRemove(id);
+        if (data == null) {
+            return;
         }
 
         try {
@@ -0,0 +1,142 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.sessions.state;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ome.model.internal.Permissions;
+import ome.model.meta.Session;
+import ome.model.meta.Share;
+import ome.services.sessions.SessionContext;
+
+/**
+ * Current state of the users, groups, group memberships and sessions of all
+ * the sessions held by the {@link SessionCache}, as loaded with a few
+ * set-based queries, against which the cached {@link SessionContext}
+ * instances are checked so that only those which changed are reloaded one
+ * by one.
+ * <p>
+ * Memberships must be added in the order of the memberships of each user,
+ * which is the order of {@link SessionContext#getMemberOfGroupsList()}, the
+ * first group being the default group of the user.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class SessionRevalidation {
+
+    /** User names by user id. */
+    private final Map<Long, String> users = new HashMap<Long, String>();
+
+    /** Group names by group id. */
+    private final Map<Long, String> groupNames = new HashMap<Long, String>();
+
+    /** Group permissions by group id. */
+    private final Map<Long, Permissions> groupPermissions =
+            new HashMap<Long, Permissions>();
+
+    /** Ids of the groups each user is a member of, by user id. */
+    private final Map<Long, List<Long>> memberOf =
+            new HashMap<Long, List<Long>>();
+
+    /** Names of the groups each user is a member of, by user id. */
+    private final Map<Long, List<String>> roles =
+            new HashMap<Long, List<String>>();
+
+    /** Ids of the groups each user is the owner of, by user id. */
+    private final Map<Long, Set<Long>> leaderOf =
+            new HashMap<Long, Set<Long>>();
+
+    /** Sessions still in the database, by session id. */
+    private final Map<Long, Session> sessions = new HashMap<Long, Session>();
+
+    public void addUser(long id, String name) {
+        users.put(id, name);
+    }
+
+    public void addGroup(long id, String name, Permissions permissions) {
+        groupNames.put(id, name);
+        groupPermissions.put(id, permissions);
+    }
+
+    public void addMembership(long userId, long groupId, String groupName,
+            boolean owner) {
+        List<Long> ids = memberOf.get(userId);
+        if (ids == null) {
+            ids = new ArrayList<Long>();
+            memberOf.put(userId, ids);
+            roles.put(userId, new ArrayList<String>());
+            leaderOf.put(userId, new HashSet<Long>());
+        }
+        ids.add(groupId);
+        roles.get(userId).add(groupName);
+        if (owner) {
+            leaderOf.get(userId).add(groupId);
+        }
+    }
+
+    public void addSession(long id, Long timeToIdle, Long timeToLive,
+            Timestamp closed) {
+        Session session = new Session(id, true);
+        session.setTimeToIdle(timeToIdle);
+        session.setTimeToLive(timeToLive);
+        session.setClosed(closed);
+        sessions.put(id, session);
+    }
+
+    /**
+     * Returns whether the context differs from the current state of its
+     * session, user or group, in which case it must be reloaded. Shares are
+     * always considered stale.
+     *
+     * @param ctx The cached context.
+     * @return See above.
+     */
+    public boolean isStale(SessionContext ctx) {
+        Session cached = ctx.getSession();
+        if (cached instanceof Share) {
+            return true;
+        }
+        Session current = sessions.get(ctx.getCurrentSessionId());
+        if (current == null
+                || !equal(current.getTimeToIdle(), cached.getTimeToIdle())
+                || !equal(current.getTimeToLive(), cached.getTimeToLive())
+                || !equal(current.getClosed(), cached.getClosed())) {
+            return true;
+        }
+        Long userId = ctx.getCurrentUserId();
+        if (!users.containsKey(userId)
+                || !equal(users.get(userId), ctx.getCurrentUserName())) {
+            return true;
+        }
+        Long groupId = ctx.getCurrentGroupId();
+        Permissions permissions = groupPermissions.get(groupId);
+        if (permissions == null
+                || !equal(groupNames.get(groupId), ctx.getCurrentGroupName())
+                || !permissions.sameRights(ctx.getCurrentGroupPermissions())) {
+            return true;
+        }
+        List<Long> groups = memberOf.get(userId);
+        if (groups == null) {
+            return !ctx.getMemberOfGroupsList().isEmpty();
+        }
+        return !groups.equals(ctx.getMemberOfGroupsList())
+                || !roles.get(userId).equals(ctx.getUserRoles())
+                || !leaderOf.get(userId).equals(
+                        new HashSet<Long>(ctx.getLeaderOfGroupsList()));
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -10,6 +10,7 @@ import java.io.File;
 import java.io.Reader;
 import java.io.StringReader;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -36,6 +37,7 @@ import ome.services.fulltext.FileParser;
 import ome.services.fulltext.FullTextBridge;
 import ome.services.fulltext.FullTextIndexer;
 import ome.services.fulltext.FullTextThread;
+import ome.services.fulltext.FullTextWorkers;
 import ome.services.fulltext.PersistentEventLogLoader;
 import ome.services.util.Executor;
 import ome.system.Principal;
@@ -117,6 +119,47 @@ public class FullTextTest extends AbstractTest {
         ftt.run();
     }
 
+    public void testParallelCreation() throws Exception {
+        final List<Image> images = new ArrayList<Image>();
+        for (int j = 0; j < 25; j++) {
+            images.add(newImageUuid());
+        }
+        ftb = new FullTextBridge();
+        fti = new FullTextIndexer(new EventLogLoader() {
+
+            Iterator<Image> it = images.iterator();
+
+            @Override
+            protected EventLog query() {
+                if (!it.hasNext()) {
+                    return null;
+                }
+                EventLog l = new EventLog();
+                l.setEntityId(it.next().getId());
+                l.setEntityType(Image.class.getName());
+                l.setAction("INSERT");
+                return l;
+            }
+
+            @Override
+            public long more() {
+                return 0;
+            }
+        });
+        fti.setWorkers(new FullTextWorkers(getExecutor(), 4, 10));
+        ftt = new FullTextThread(getManager(), getExecutor(), fti, ftb, true);
+        ftt.run();
+
+        // Each image indexed by one of the workers
+        this.loginRootKeepGroup();
+        for (Image image : images) {
+            List<Image> list = iQuery.findAllByFullText(Image.class,
+                    image.getName(), null);
+            assertEquals(1, list.size());
+            assertEquals(image.getId(), list.get(0).getId());
+        }
+    }
+
     // These two types of bad event logs should not throw exceptions. They can
     // occur especially during database upgrades. In that case, the entry should
     // be skipped.
@@ -26,6 +26,7 @@ import java.util.Map;
 import ome.model.containers.Dataset;
 import ome.model.containers.Project;
 import ome.model.meta.EventLog;
+import ome.services.eventlogs.EventLogFailure;
 import ome.services.eventlogs.EventLogQueue;
 import ome.util.SqlAction;
 
@@ -172,6 +173,65 @@ public class EventLogQueueTest extends MockObjectTestCase {
         assertFalse(q.hasNext());
     }
 
+    @Test
+    public void testDupeUpdatesAction() {
+        results.add(project(1, "INSERT", 0));
+        results.add(project(1, "UPDATE", 0));
+        assertTrue(q.hasNext());
+        match(fields("objId", 1L, "action", "UPDATE"));
+        assertFalse(q.hasNext());
+    }
+
+    @Test
+    public void testBacklogBeforeRegular() {
+        results.add(project(1, "INSERT", 0));
+        assertTrue(q.hasNext());
+        q.addEventLog(Dataset.class, 1L);
+        match(fields("id", -1L, "objType", Dataset.class.getName()));
+        assertTrue(q.hasNext());
+        match(fields("objType", Project.class.getName(), "objId", 1L));
+        assertFalse(q.hasNext());
+    }
+
+    @Test
+    public void testManyEntriesKeepOrder() {
+        q.setBatchSize(100000);
+        for (long id = 0; id < 5000; id++) {
+            results.add(project(id, "INSERT", 0));
+        }
+        for (long id = 0; id < 5000; id += 2) {
+            results.add(project(id, "UPDATE", 0));
+        }
+        assertTrue(q.hasNext());
+        for (long id = 0; id < 5000; id++) {
+            // Interleaving new rows with the queued ones.
+            if (id == 2500) {
+                q.addEventLog(Dataset.class, 7L);
+                match(fields("objType", Dataset.class.getName(), "objId", 7L));
+            }
+            match(fields("objId", id,
+                    "action", id % 2 == 0 ? "UPDATE" : "INSERT"));
+            if (id < 4999) {
+                assertTrue(q.hasNext());
+            }
+        }
+        assertFalse(q.hasNext());
+    }
+
+    @Test
+    public void testFailureOfEarlierEntry() {
+        results.add(project(1, "INSERT", 0));
+        results.add(project(2, "INSERT", 0));
+        assertTrue(q.hasNext());
+        EventLog first = q.next();
+        assertTrue(q.hasNext());
+        EventLog second = q.next();
+        // As reported once a batch was indexed in parallel.
+        q.onApplicationEvent(new EventLogFailure(q, first, new Exception()));
+        q.onApplicationEvent(new EventLogFailure(q, second, new Exception()));
+        assertFalse(q.hasNext());
+    }
+
     @Test
     public void testStopSet() {
         q.addEventLog(Project.class, 1L);
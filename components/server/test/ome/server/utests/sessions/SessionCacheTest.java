@@ -6,9 +6,12 @@
 package ome.server.utests.sessions;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CyclicBarrier;
 
@@ -29,6 +32,7 @@ import ome.services.sessions.SessionCallback;
 import ome.services.sessions.SessionContext;
 import ome.services.sessions.SessionContextImpl;
 import ome.services.sessions.events.UserGroupUpdateEvent;
+import ome.services.sessions.state.SessionCache.BulkStaleCacheListener;
 import ome.services.sessions.state.SessionCache.StaleCacheListener;
 import ome.services.sessions.state.SessionCache;
 import ome.services.sessions.stats.NullSessionStats;
@@ -183,6 +187,61 @@ public class SessionCacheTest extends TestCase {
 
     }
 
+    public void testBulkListenerOnlyReloadsStale() throws Exception {
+        initCache();
+        final Session s1 = sess();
+        final Session s2 = sess();
+        cache.putSession(s1.getUuid(), sc(s1));
+        cache.putSession(s2.getUuid(), sc(s2));
+
+        final List<String> reloaded = new ArrayList<String>();
+        cache.setStaleCacheListener(new BulkStaleCacheListener() {
+            public void prepareReload() {
+                // noop
+            }
+
+            public Set<String> findStale(Map<String, SessionContext> contexts) {
+                assertTrue(contexts.containsKey(s1.getUuid()));
+                assertTrue(contexts.containsKey(s2.getUuid()));
+                return Collections.singleton(s2.getUuid());
+            }
+
+            public SessionContext reload(SessionContext context) {
+                reloaded.add(context.getSession().getUuid());
+                return context;
+            }
+        });
+        cache.updateEvent(new UserGroupUpdateEvent(this));
+        cache.doUpdate();
+        assertEquals(Collections.singletonList(s2.getUuid()), reloaded);
+        assertNotNull(cache.getSessionContext(s1.getUuid()));
+    }
+
+    public void testBulkListenerErrorReloadsAll() throws Exception {
+        initCache();
+        final Session s = sess();
+        cache.putSession(s.getUuid(), sc(s));
+
+        final boolean[] reloaded = new boolean[] { false };
+        cache.setStaleCacheListener(new BulkStaleCacheListener() {
+            public void prepareReload() {
+                // noop
+            }
+
+            public Set<String> findStale(Map<String, SessionContext> contexts) {
+                throw new RuntimeException("database unavailable");
+            }
+
+            public SessionContext reload(SessionContext context) {
+                reloaded[0] = true;
+                return context;
+            }
+        });
+        cache.updateEvent(new UserGroupUpdateEvent(this));
+        cache.doUpdate();
+        assertTrue(reloaded[0]);
+    }
+
     @Test
     public void testInMemoryAndOnDiskAreProperlyDisposed() {
         initCache();
@@ -0,0 +1,126 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.server.utests.sessions;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import ome.model.internal.Permissions;
+import ome.model.meta.Experimenter;
+import ome.model.meta.ExperimenterGroup;
+import ome.model.meta.Session;
+import ome.model.meta.Share;
+import ome.services.sessions.SessionContext;
+import ome.services.sessions.SessionContextImpl;
+import ome.services.sessions.state.SessionRevalidation;
+import ome.services.sessions.stats.NullSessionStats;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests which changes make {@link SessionRevalidation} report a cached
+ * context as stale.
+ *
+ * @since 5.3.0
+ */
+@Test(groups = "sessions")
+public class SessionRevalidationTest extends TestCase {
+
+    SessionRevalidation revalidation;
+
+    SessionContext ctx;
+
+    @BeforeMethod
+    public void setup() {
+        ctx = sc(sess(new Session()));
+        revalidation = revalidation(true);
+        revalidation.addSession(1L, 0L, 0L, null);
+    }
+
+    public void testUnchanged() {
+        assertFalse(revalidation.isStale(ctx));
+    }
+
+    public void testShareAlwaysStale() {
+        assertTrue(revalidation.isStale(sc(sess(new Share()))));
+    }
+
+    public void testSessionClosed() {
+        revalidation.addSession(1L, 0L, 0L, new Timestamp(1L));
+        assertTrue(revalidation.isStale(ctx));
+    }
+
+    public void testSessionTimeoutChanged() {
+        revalidation.addSession(1L, 1000L, 0L, null);
+        assertTrue(revalidation.isStale(ctx));
+    }
+
+    public void testSessionMissing() {
+        revalidation = revalidation(true);
+        assertTrue(revalidation.isStale(ctx));
+    }
+
+    public void testUserRenamed() {
+        revalidation.addUser(2L, "renamed");
+        assertTrue(revalidation.isStale(ctx));
+    }
+
+    public void testGroupPermissionsChanged() {
+        revalidation.addGroup(3L, "group", Permissions.COLLAB_READONLY);
+        assertTrue(revalidation.isStale(ctx));
+    }
+
+    public void testMembershipAdded() {
+        revalidation.addMembership(2L, 4L, "other", false);
+        assertTrue(revalidation.isStale(ctx));
+    }
+
+    public void testOwnershipChanged() {
+        revalidation = revalidation(false);
+        revalidation.addSession(1L, 0L, 0L, null);
+        assertTrue(revalidation.isStale(ctx));
+    }
+
+    /**
+     * The user and groups of the context, without the session.
+     */
+    SessionRevalidation revalidation(boolean owner) {
+        SessionRevalidation r = new SessionRevalidation();
+        r.addUser(2L, "user");
+        r.addGroup(3L, "group", Permissions.PRIVATE);
+        r.addMembership(2L, 3L, "group", owner);
+        r.addMembership(2L, 1L, "user", false);
+        return r;
+    }
+
+    Session sess(Session s) {
+        s.setId(1L);
+        s.setStarted(new Timestamp(System.currentTimeMillis()));
+        s.setTimeToIdle(0L);
+        s.setTimeToLive(0L);
+        s.setUuid("uuid");
+        Experimenter e = new Experimenter(2L, true);
+        e.setOmeName("user");
+        ExperimenterGroup g = new ExperimenterGroup(3L, true);
+        g.setName("group");
+        g.getDetails().setPermissions(Permissions.PRIVATE);
+        s.getDetails().setOwner(e);
+        s.getDetails().setGroup(g);
+        return s;
+    }
+
+    SessionContext sc(Session s) {
+        return new SessionContextImpl(s, Collections.singletonList(3L),
+                Arrays.asList(3L, 1L), Arrays.asList("group", "user"),
+                new NullSessionStats(), null);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.fulltext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ome.model.meta.EventLog;
+import ome.services.eventlogs.EventLogFailure;
+import ome.services.eventlogs.EventLogLoader;
+import ome.services.util.Executor;
+import ome.system.Principal;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests how {@link FullTextWorkers} splits a batch among the workers and
+ * reports the chunks which fail.
+ *
+ * @since 5.3.0
+ */
+public class FullTextWorkersTest extends MockObjectTestCase {
+
+    static final String IMAGE = "ome.model.core.Image";
+
+    static final String DATASET = "ome.model.containers.Dataset";
+
+    Mock mockExecutor;
+
+    FullTextIndexer indexer;
+
+    FullTextWorkers workers;
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        mockExecutor = mock(Executor.class);
+        indexer = new FullTextIndexer(new EventLogLoader() {
+            @Override
+            protected EventLog query() {
+                return null;
+            }
+
+            @Override
+            public long more() {
+                return 0;
+            }
+        });
+        workers = new FullTextWorkers((Executor) mockExecutor.proxy(), 4, 3);
+    }
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        workers.shutdown();
+        super.verify();
+        super.tearDown();
+    }
+
+    @Test(groups = "unit")
+    public void testObjectInSinglePartitionInOrder() {
+        List<EventLog> eventLogs = new ArrayList<EventLog>();
+        Map<EventLog, Integer> indexes =
+                new IdentityHashMap<EventLog, Integer>();
+        for (int i = 0; i < 100; i++) {
+            eventLogs.add(eventLog(i % 2 == 0 ? IMAGE : DATASET, i % 7));
+            indexes.put(eventLogs.get(i), i);
+        }
+        List<List<EventLog>> partitions = workers.partition(eventLogs);
+        assertEquals(4, partitions.size());
+
+        Map<String, Integer> partitionOf = new HashMap<String, Integer>();
+        int count = 0;
+        for (int p = 0; p < partitions.size(); p++) {
+            int previous = -1;
+            for (EventLog eventLog : partitions.get(p)) {
+                String object = eventLog.getEntityType() + ":"
+                        + eventLog.getEntityId();
+                Integer other = partitionOf.put(object, p);
+                assertTrue(object, other == null || other == p);
+                // Same order as in the batch
+                int index = indexes.get(eventLog);
+                assertTrue(index > previous);
+                previous = index;
+                count++;
+            }
+        }
+        assertEquals(eventLogs.size(), count);
+    }
+
+    @Test(groups = "unit")
+    public void testChunkFailureReportsEveryEntry() {
+        final RuntimeException failure = new RuntimeException("chunk failed");
+        mockExecutor.expects(exactly(3)).method("execute").will(new Stub() {
+            int call = 0;
+
+            public Object invoke(Invocation arg0) throws Throwable {
+                if (++call == 2) {
+                    throw failure;
+                }
+                return Collections.emptyList();
+            }
+
+            public StringBuffer describeTo(StringBuffer arg0) {
+                return arg0.append(" fails the second chunk");
+            }
+        });
+        List<EventLog> partition = new ArrayList<EventLog>();
+        for (int i = 0; i < 7; i++) {
+            partition.add(eventLog(IMAGE, i));
+        }
+        List<EventLogFailure> failures = workers.indexPartition(indexer,
+                new Principal("root", "system", "FullText"), partition);
+        assertEquals(3, failures.size());
+        for (int i = 0; i < failures.size(); i++) {
+            EventLogFailure f = failures.get(i);
+            assertSame(partition.get(3 + i), f.log);
+            assertSame(failure, f.throwable);
+            assertTrue(f.wasSource(indexer.loader));
+        }
+    }
+
+    EventLog eventLog(String type, long id) {
+        EventLog eventLog = new EventLog();
+        eventLog.setEntityType(type);
+        eventLog.setEntityId(id);
+        eventLog.setAction("UPDATE");
+        return eventLog;
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.projection;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import ome.api.IProjection;
+import ome.io.nio.InMemoryPlanarPixelBuffer;
+import ome.io.nio.PixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the projections of {@link StackProjector} with a projection of
+ * the whole stack pixel by pixel.
+ */
+public class StackProjectorTest {
+
+    /** Large enough for the plane to be split across workers. */
+    private static final int SIZE_X = 400;
+
+    private static final int SIZE_Y = 300;
+
+    private static final int SIZE_Z = 5;
+
+    private static final int PLANE_SIZE = SIZE_X * SIZE_Y;
+
+    private byte[][][][] planes(int bytesPerPixel) {
+        Random random = new Random(42);
+        byte[][][][] planes = new byte[SIZE_Z][1][1][];
+        for (int z = 0; z < SIZE_Z; z++) {
+            planes[z][0][0] = new byte[PLANE_SIZE * bytesPerPixel];
+            random.nextBytes(planes[z][0][0]);
+        }
+        return planes;
+    }
+
+    private PixelBuffer buffer(String type, byte[][][][] planes) {
+        PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue(type);
+        Pixels pixels = new Pixels();
+        pixels.setPixelsType(pixelsType);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(SIZE_Z);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        return new InMemoryPlanarPixelBuffer(pixels, planes);
+    }
+
+    /**
+     * The projection as computed before planes were streamed: maximum over
+     * <code>[start, end]</code>, mean or sum over <code>[start, end[</code>.
+     */
+    private double[] expected(String type, String toType,
+            byte[][][][] planes, int algorithm, int stepping, int start,
+            int end) {
+        PixelData to = new PixelData(toType, ByteBuffer.wrap(
+                new byte[PLANE_SIZE * PixelData.getBitDepth(toType) / 8]));
+        double[] expected = new double[PLANE_SIZE];
+        for (int i = 0; i < PLANE_SIZE; i++) {
+            double value = 0;
+            int count = 0;
+            int last = algorithm == IProjection.MAXIMUM_INTENSITY ?
+                    end : end - 1;
+            for (int z = start; z <= last; z += stepping) {
+                double v = new PixelData(type,
+                        ByteBuffer.wrap(planes[z][0][0])).getPixelValue(i);
+                if (algorithm == IProjection.MAXIMUM_INTENSITY) {
+                    value = v > value ? v : value;
+                } else {
+                    value += v;
+                }
+                count++;
+            }
+            if (algorithm == IProjection.MEAN_INTENSITY) {
+                value = value / count;
+            }
+            if (algorithm != IProjection.MAXIMUM_INTENSITY
+                    && value > to.getMaximum()) {
+                value = to.getMaximum();
+            }
+            to.setPixelValue(i, value);
+            expected[i] = to.getPixelValue(i);
+        }
+        return expected;
+    }
+
+    private void assertProjection(String type, String toType, int algorithm,
+            int stepping, int start, int end) throws Exception {
+        byte[][][][] planes = planes(PixelData.getBitDepth(type) / 8);
+        StackProjector projector = new StackProjector(
+                algorithm, PLANE_SIZE, stepping, start, end);
+        PixelData to = new PixelData(toType, ByteBuffer.wrap(
+                new byte[PLANE_SIZE * PixelData.getBitDepth(toType) / 8]));
+        double[] minMax = projector.project(buffer(type, planes), 0, 0, to);
+        double[] expected = expected(type, toType, planes, algorithm,
+                stepping, start, end);
+        double min = Double.MAX_VALUE;
+        double max = Double.MIN_VALUE;
+        for (int i = 0; i < PLANE_SIZE; i++) {
+            Assert.assertEquals(to.getPixelValue(i), expected[i]);
+            min = Math.min(min, to.getPixelValue(i));
+            max = Math.max(max, to.getPixelValue(i));
+        }
+        Assert.assertEquals(minMax[0], min);
+        Assert.assertEquals(minMax[1], max);
+    }
+
+    @Test(groups = "unit")
+    public void testMaximum() throws Exception {
+        assertProjection("uint16", "uint16",
+                IProjection.MAXIMUM_INTENSITY, 1, 0, SIZE_Z - 1);
+        assertProjection("int8", "int8",
+                IProjection.MAXIMUM_INTENSITY, 2, 1, SIZE_Z - 1);
+    }
+
+    @Test(groups = "unit")
+    public void testMean() throws Exception {
+        assertProjection("uint16", "uint16",
+                IProjection.MEAN_INTENSITY, 1, 0, SIZE_Z - 1);
+        assertProjection("uint8", "float",
+                IProjection.MEAN_INTENSITY, 2, 0, SIZE_Z - 1);
+    }
+
+    @Test(groups = "unit")
+    public void testSum() throws Exception {
+        assertProjection("uint8", "uint8",
+                IProjection.SUM_INTENSITY, 1, 0, SIZE_Z - 1);
+        assertProjection("uint16", "uint32",
+                IProjection.SUM_INTENSITY, 1, 1, 3);
+    }
+
+    @Test(groups = "unit", expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownAlgorithm() {
+        new StackProjector(-1, PLANE_SIZE, 1, 0, SIZE_Z - 1);
+    }
+}
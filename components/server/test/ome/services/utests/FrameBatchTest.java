@@ -0,0 +1,237 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ome.services.FrameBatch;
+import ome.services.RenderedTileCache;
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.data.PlaneDef;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the frames of a batch rendered then compressed in parallel by
+ * {@link FrameBatch}.
+ *
+ * @since 5.3.0
+ */
+public class FrameBatchTest {
+
+    RenderingExecutor executor;
+
+    RenderedTileCache tileCache;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = new RenderingExecutor(4, 16);
+        tileCache = new RenderedTileCache(1024 * 1024);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test(groups = "unit", timeOut = 10000)
+    public void testFramesInOrder() {
+        StubFrames frames = new StubFrames() {
+            @Override
+            public byte[] compress(BufferedImage image) {
+                // The first frames are compressed last.
+                sleep(5 * (8 - frame(image)));
+                return super.compress(image);
+            }
+        };
+        byte[][] compressed = new FrameBatch(executor, null, 4).run(8, frames);
+        Assert.assertEquals(compressed.length, 8);
+        for (int i = 0; i < compressed.length; i++) {
+            Assert.assertEquals(compressed[i][0], (byte) i);
+        }
+        Assert.assertEquals(frames.rendered.size(), 8);
+    }
+
+    @Test(groups = "unit", timeOut = 10000)
+    public void testInFlightFramesBounded() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final StubFrames frames = new StubFrames() {
+            @Override
+            public byte[] compress(BufferedImage image) {
+                await(release);
+                return super.compress(image);
+            }
+        };
+        final FrameBatch batch = new FrameBatch(executor, null, 2);
+        final byte[][][] compressed = new byte[1][][];
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                compressed[0] = batch.run(6, frames);
+            }
+        };
+        caller.start();
+        try {
+            // Two frames wait for their compression when the third one is
+            // rendered, then the caller waits for the first one.
+            for (int i = 0; i < 500 && frames.rendered.size() < 3; i++) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+            Assert.assertEquals(frames.rendered.size(), 3);
+        } finally {
+            release.countDown();
+        }
+        caller.join(5000);
+        Assert.assertEquals(frames.rendered.size(), 6);
+        Assert.assertEquals(compressed[0].length, 6);
+    }
+
+    @Test(groups = "unit", timeOut = 10000)
+    public void testCachedFramesNotRendered() {
+        byte[] cached1 = new byte[] { 42 };
+        byte[] cached3 = new byte[] { 43 };
+        tileCache.put(key(1), cached1);
+        tileCache.put(key(3), cached3);
+        StubFrames frames = new StubFrames() {
+            @Override
+            public RenderedTileCache.Key getKey(int i) {
+                return key(i);
+            }
+        };
+        byte[][] compressed =
+                new FrameBatch(executor, tileCache, 2).run(5, frames);
+        Assert.assertEquals(frames.rendered, list(0, 2, 4));
+        Assert.assertSame(compressed[1], cached1);
+        Assert.assertSame(compressed[3], cached3);
+        for (int i : new int[] { 0, 2, 4 }) {
+            Assert.assertEquals(compressed[i][0], (byte) i);
+            // The missing frames are cached once compressed.
+            Assert.assertSame(tileCache.get(key(i)), compressed[i]);
+        }
+    }
+
+    @Test(groups = "unit", timeOut = 10000)
+    public void testFailureThrownAndPendingCancelled() throws Exception {
+        executor.shutdown();
+        executor = new RenderingExecutor(1, 16);
+        final RuntimeException failure =
+                new RuntimeException("compression failed");
+        final CountDownLatch release = new CountDownLatch(1);
+        StubFrames frames = new StubFrames() {
+            @Override
+            public RenderedTileCache.Key getKey(int i) {
+                return key(i);
+            }
+
+            @Override
+            public byte[] compress(BufferedImage image) {
+                int i = frame(image);
+                if (i == 1) {
+                    throw failure;
+                }
+                if (i == 2) {
+                    // Hold the only thread until the batch returned.
+                    await(release);
+                }
+                return super.compress(image);
+            }
+        };
+        try {
+            new FrameBatch(executor, tileCache, 8).run(5, frames);
+            Assert.fail("Failure not thrown.");
+        } catch (RuntimeException e) {
+            Assert.assertSame(e, failure);
+        } finally {
+            release.countDown();
+        }
+        Thread.sleep(50);
+        // The frames queued behind the failure were never compressed, the
+        // third one is cancelled unless it was already being compressed.
+        Assert.assertEquals(frames.rendered.size(), 5);
+        Assert.assertEquals(frames.compressed.get(0), Integer.valueOf(0));
+        Assert.assertFalse(frames.compressed.contains(3));
+        Assert.assertFalse(frames.compressed.contains(4));
+        Assert.assertNotNull(tileCache.get(key(0)));
+        Assert.assertNull(tileCache.get(key(1)));
+    }
+
+    // ~ Helpers
+    // =========================================================================
+
+    /**
+     * Renders frame <code>i</code> as a single pixel of value
+     * <code>i</code> and compresses it to that value. No frame is cached.
+     */
+    static class StubFrames implements FrameBatch.Frames {
+
+        final List<Integer> rendered =
+                Collections.synchronizedList(new ArrayList<Integer>());
+
+        final List<Integer> compressed =
+                Collections.synchronizedList(new ArrayList<Integer>());
+
+        public RenderedTileCache.Key getKey(int i) {
+            return null;
+        }
+
+        public BufferedImage render(int i) {
+            rendered.add(i);
+            BufferedImage image =
+                    new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, i);
+            return image;
+        }
+
+        public byte[] compress(BufferedImage image) {
+            compressed.add(frame(image));
+            return new byte[] { (byte) frame(image) };
+        }
+
+        int frame(BufferedImage image) {
+            return image.getRGB(0, 0) & 0xffffff;
+        }
+    }
+
+    RenderedTileCache.Key key(int z) {
+        PlaneDef pd = new PlaneDef(PlaneDef.XY, 0);
+        pd.setZ(z);
+        return RenderedTileCache.key(1L, 0, pd, "a", 0.85f);
+    }
+
+    static List<Integer> list(Integer... values) {
+        List<Integer> list = new ArrayList<Integer>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import ome.logic.JpegEncoder;
+import ome.util.ImageUtil;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link JpegEncoder} produces the same JPEG streams as an
+ * image writer created for the occasion, and only keeps small buffers
+ * between calls.
+ */
+public class JpegEncoderTest {
+
+    private int[] packedRgb(int sizeX, int sizeY) {
+        Random random = new Random(42);
+        int[] buf = new int[sizeX * sizeY];
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = random.nextInt(0x1000000);
+        }
+        return buf;
+    }
+
+    private byte[] encode(BufferedImage image, float quality)
+            throws IOException {
+        ImageWriter writer =
+                ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam iwp = writer.getDefaultWriteParam();
+        iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        iwp.setCompressionQuality(quality);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ImageOutputStream ios = ImageIO.createImageOutputStream(stream);
+        try {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), iwp);
+        } finally {
+            ios.close();
+            writer.dispose();
+        }
+        return stream.toByteArray();
+    }
+
+    private byte[] encodePooled(BufferedImage image, float quality)
+            throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        JpegEncoder.get().encode(image, quality, stream);
+        return stream.toByteArray();
+    }
+
+    @Test(groups = "unit")
+    public void testPackedRgb() throws IOException {
+        BufferedImage image = ImageUtil.createBufferedImage(
+                packedRgb(300, 200), 300, 200);
+        Assert.assertTrue(JpegEncoder.isPackedRgb(image));
+        Assert.assertEquals(encodePooled(image, 0.85f), encode(image, 0.85f));
+        // Again, reusing the buffers of the first call
+        Assert.assertEquals(encodePooled(image, 0.5f), encode(image, 0.5f));
+    }
+
+    @Test(groups = "unit")
+    public void testSizeChange() throws IOException {
+        for (int size : new int[] { 64, 512, 17 }) {
+            BufferedImage image = ImageUtil.createBufferedImage(
+                    packedRgb(size, size), size, size);
+            Assert.assertEquals(encodePooled(image, 0.85f),
+                    encode(image, 0.85f));
+        }
+    }
+
+    @Test(groups = "unit")
+    public void testOtherImageTypes() throws IOException {
+        BufferedImage image =
+                new BufferedImage(100, 50, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage argb =
+                new BufferedImage(100, 50, BufferedImage.TYPE_INT_ARGB);
+        int[] buf = ((DataBufferInt) argb.getRaster().getDataBuffer()).getData();
+        System.arraycopy(packedRgb(100, 50), 0, buf, 0, buf.length);
+        image.getGraphics().drawImage(argb, 0, 0, null);
+        Assert.assertFalse(JpegEncoder.isPackedRgb(image));
+        Assert.assertFalse(JpegEncoder.isPackedRgb(argb));
+        Assert.assertEquals(encodePooled(image, 0.85f), encode(image, 0.85f));
+    }
+
+    @Test(groups = "unit")
+    public void testLargeBuffersNotRetained() throws IOException {
+        JpegEncoder encoder = JpegEncoder.get();
+        BufferedImage small = ImageUtil.createBufferedImage(
+                packedRgb(256, 256), 256, 256);
+        encoder.encode(small, 0.85f, new ByteArrayOutputStream());
+        int retained = encoder.getRetainedBytes();
+        // The interleaved image of a tile is kept for the next call
+        Assert.assertTrue(retained >= 256 * 256 * 3);
+        Assert.assertTrue(retained <= 2 * JpegEncoder.MAX_RETAINED_BYTES);
+
+        BufferedImage large = ImageUtil.createBufferedImage(
+                packedRgb(1024, 1024), 1024, 1024);
+        Assert.assertEquals(encodePooled(large, 1f), encode(large, 1f));
+        Assert.assertTrue(encoder.getRetainedBytes() < retained);
+
+        // Still correct once the large buffers are dropped
+        Assert.assertEquals(encodePooled(small, 0.85f), encode(small, 0.85f));
+    }
+}
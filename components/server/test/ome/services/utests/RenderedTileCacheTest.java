@@ -0,0 +1,88 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import ome.services.RenderedTileCache;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.data.RegionDef;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the keys, byte budget and invalidation of {@link RenderedTileCache}.
+ */
+public class RenderedTileCacheTest {
+
+    private PlaneDef plane(int z, int x, int y) {
+        PlaneDef pd = new PlaneDef(PlaneDef.XY, 0);
+        pd.setZ(z);
+        pd.setRegion(new RegionDef(x, y, 256, 256));
+        return pd;
+    }
+
+    @Test(groups = "unit")
+    public void testDisabled() {
+        RenderedTileCache cache = new RenderedTileCache(0);
+        Assert.assertFalse(cache.isEnabled());
+        RenderedTileCache.Key key =
+                RenderedTileCache.key(1L, 0, plane(0, 0, 0), "a", 0.85f);
+        cache.put(key, new byte[10]);
+        Assert.assertNull(cache.get(key));
+    }
+
+    @Test(groups = "unit")
+    public void testKeys() {
+        RenderedTileCache cache = new RenderedTileCache(1024 * 1024);
+        byte[] tile = new byte[10];
+        cache.put(RenderedTileCache.key(1L, 0, plane(0, 0, 0), "a", 0.85f),
+                tile);
+        Assert.assertSame(cache.get(RenderedTileCache.key(
+                1L, 0, plane(0, 0, 0), "a", 0.85f)), tile);
+        // Any change of region, level, settings or compression is a miss.
+        Assert.assertNull(cache.get(RenderedTileCache.key(
+                1L, 0, plane(0, 256, 0), "a", 0.85f)));
+        Assert.assertNull(cache.get(RenderedTileCache.key(
+                1L, 1, plane(0, 0, 0), "a", 0.85f)));
+        Assert.assertNull(cache.get(RenderedTileCache.key(
+                1L, 0, plane(0, 0, 0), "b", 0.85f)));
+        Assert.assertNull(cache.get(RenderedTileCache.key(
+                1L, 0, plane(0, 0, 0), "a", 0.5f)));
+        Assert.assertNull(cache.get(RenderedTileCache.key(
+                2L, 0, plane(0, 0, 0), "a", 0.85f)));
+    }
+
+    @Test(groups = "unit")
+    public void testByteBudget() {
+        RenderedTileCache cache = new RenderedTileCache(10000);
+        for (int i = 0; i < 100; i++) {
+            cache.put(RenderedTileCache.key(1L, 0, plane(i, 0, 0), "a", 1f),
+                    new byte[1000]);
+        }
+        Assert.assertTrue(cache.size() <= 10);
+        Assert.assertTrue(cache.size() > 0);
+    }
+
+    @Test(groups = "unit")
+    public void testInvalidate() {
+        RenderedTileCache cache = new RenderedTileCache(1024 * 1024);
+        RenderedTileCache.Key k1 =
+                RenderedTileCache.key(1L, 0, plane(0, 0, 0), "a", 1f);
+        RenderedTileCache.Key k2 =
+                RenderedTileCache.key(1L, 0, plane(0, 0, 0), "b", 1f);
+        RenderedTileCache.Key k3 =
+                RenderedTileCache.key(2L, 0, plane(0, 0, 0), "a", 1f);
+        cache.put(k1, new byte[1]);
+        cache.put(k2, new byte[1]);
+        cache.put(k3, new byte[1]);
+        cache.invalidate(1L);
+        Assert.assertNull(cache.get(k1));
+        Assert.assertNull(cache.get(k2));
+        Assert.assertNotNull(cache.get(k3));
+    }
+}
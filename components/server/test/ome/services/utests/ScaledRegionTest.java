@@ -0,0 +1,99 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ome.services.ScaledRegion;
+import omeis.providers.re.data.RegionDef;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the resolution level and region selected by {@link ScaledRegion}
+ * for images with and without a pyramid.
+ */
+public class ScaledRegionTest {
+
+    /** A pyramid of four levels, from the full resolution down. */
+    private List<List<Integer>> pyramid() {
+        return levels(4096, 2048, 2048, 1024, 1024, 512, 512, 256);
+    }
+
+    private List<List<Integer>> levels(int... sizes) {
+        List<List<Integer>> levels = new ArrayList<List<Integer>>();
+        for (int i = 0; i < sizes.length; i += 2) {
+            levels.add(Arrays.asList(sizes[i], sizes[i + 1]));
+        }
+        return levels;
+    }
+
+    private void assertRegion(RegionDef region, int x, int y, int width,
+            int height) {
+        Assert.assertEquals(region.getX(), x);
+        Assert.assertEquals(region.getY(), y);
+        Assert.assertEquals(region.getWidth(), width);
+        Assert.assertEquals(region.getHeight(), height);
+    }
+
+    @Test(groups = "unit")
+    public void testNoPyramid() {
+        ScaledRegion scaled =
+                new ScaledRegion(levels(1000, 800), null, 100, 80);
+        Assert.assertEquals(scaled.getResolutionLevel(), 0);
+        assertRegion(scaled.getRegion(), 0, 0, 1000, 800);
+    }
+
+    @Test(groups = "unit")
+    public void testNoPyramidRegion() {
+        ScaledRegion scaled = new ScaledRegion(levels(1000, 800),
+                new RegionDef(100, 200, 300, 400), 30, 40);
+        Assert.assertEquals(scaled.getResolutionLevel(), 0);
+        assertRegion(scaled.getRegion(), 100, 200, 300, 400);
+    }
+
+    @Test(groups = "unit")
+    public void testSmallestLevelLargeEnough() {
+        ScaledRegion scaled = new ScaledRegion(pyramid(), null, 600, 300);
+        Assert.assertEquals(scaled.getResolutionLevel(), 1);
+        assertRegion(scaled.getRegion(), 0, 0, 1024, 512);
+    }
+
+    @Test(groups = "unit")
+    public void testExactLevelSize() {
+        ScaledRegion scaled = new ScaledRegion(pyramid(), null, 512, 256);
+        Assert.assertEquals(scaled.getResolutionLevel(), 0);
+        assertRegion(scaled.getRegion(), 0, 0, 512, 256);
+    }
+
+    @Test(groups = "unit")
+    public void testLargerThanFullResolution() {
+        ScaledRegion scaled = new ScaledRegion(pyramid(), null, 8000, 4000);
+        Assert.assertEquals(scaled.getResolutionLevel(), 3);
+        assertRegion(scaled.getRegion(), 0, 0, 4096, 2048);
+    }
+
+    @Test(groups = "unit")
+    public void testRegionMappedOntoLevel() {
+        ScaledRegion scaled = new ScaledRegion(pyramid(),
+                new RegionDef(2048, 1024, 1024, 512), 256, 128);
+        Assert.assertEquals(scaled.getResolutionLevel(), 1);
+        assertRegion(scaled.getRegion(), 512, 256, 256, 128);
+    }
+
+    @Test(groups = "unit")
+    public void testRegionOutsideImageClamped() {
+        ScaledRegion scaled = new ScaledRegion(pyramid(),
+                new RegionDef(4000, 2000, 500, 500), 96, 48);
+        Assert.assertEquals(scaled.getResolutionLevel(), 3);
+        assertRegion(scaled.getRegion(), 4000, 2000, 96, 48);
+    }
+}
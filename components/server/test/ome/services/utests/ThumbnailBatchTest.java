@@ -0,0 +1,187 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.api.IUpdate;
+import ome.model.display.Thumbnail;
+import ome.services.ThumbnailBatch;
+import ome.services.ThumbnailExecutor;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the thumbnails of a set rendered in parallel by {@link ThumbnailBatch}.
+ *
+ * @since 5.3.0
+ */
+public class ThumbnailBatchTest extends MockObjectTestCase {
+
+    static final int THREADS = 2;
+
+    ThumbnailExecutor executor;
+
+    Mock mockUpdate;
+
+    IUpdate iUpdate;
+
+    /** The metadata passed to each call to {@link IUpdate#saveArray}. */
+    Thumbnail[] saved;
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = new ThumbnailExecutor(THREADS);
+        mockUpdate = mock(IUpdate.class);
+        iUpdate = (IUpdate) mockUpdate.proxy();
+        saved = null;
+    }
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+        super.verify();
+        super.tearDown();
+    }
+
+    @Test(timeOut = 10000)
+    public void testInFlightWindowIsBounded() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        ThumbnailBatch batch = new ThumbnailBatch(executor);
+        for (long i = 0; i < 10; i++) {
+            batch.awaitSlot();
+            assertTrue(batch.getPendingCount() < THREADS);
+            batch.submit(i, new Thumbnail(), false, new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    Thread.sleep(20);
+                    running.decrementAndGet();
+                    return new byte[0];
+                }
+            });
+            assertTrue(batch.getPendingCount() <= THREADS);
+        }
+        batch.awaitAll();
+        assertEquals(0, batch.getPendingCount());
+        assertEquals(10, batch.getThumbnails().size());
+        assertTrue(maxRunning.get() <= THREADS);
+    }
+
+    @Test(timeOut = 10000)
+    public void testAwaitSlotWaitsForOldest() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        ThumbnailBatch batch = new ThumbnailBatch(executor);
+        batch.submit(1L, new Thumbnail(), false, blocked(release, 1));
+        batch.submit(2L, new Thumbnail(), false, blocked(release, 2));
+        assertEquals(THREADS, batch.getPendingCount());
+        assertTrue(batch.getThumbnails().isEmpty());
+        release.countDown();
+        batch.awaitSlot();
+        assertEquals(1, batch.getPendingCount());
+        assertTrue(Arrays.equals(new byte[] { 1 },
+                batch.getThumbnails().get(1L)));
+    }
+
+    @Test(timeOut = 10000)
+    public void testFailureReturnsNullAndSavesNoMetadata() throws Exception {
+        expectSaveArray();
+        Thumbnail ok = new Thumbnail();
+        ThumbnailBatch batch = new ThumbnailBatch(executor);
+        batch.submit(1L, new Thumbnail(), true, new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                throw new RuntimeException("rendering failed");
+            }
+        });
+        batch.submit(2L, ok, true, rendered(2));
+        batch.complete(iUpdate);
+        assertTrue(batch.getThumbnails().containsKey(1L));
+        assertNull(batch.getThumbnails().get(1L));
+        assertNotNull(batch.getThumbnails().get(2L));
+        assertEquals(1, saved.length);
+        assertSame(ok, saved[0]);
+    }
+
+    @Test(timeOut = 10000)
+    public void testMetadataSavedOnce() throws Exception {
+        expectSaveArray();
+        Thumbnail read = new Thumbnail();
+        Thumbnail dirty = new Thumbnail();
+        ThumbnailBatch batch = new ThumbnailBatch(executor);
+        batch.save(read);
+        batch.submit(1L, dirty, true, rendered(1));
+        batch.submit(2L, new Thumbnail(), false, rendered(2));
+        batch.complete(iUpdate);
+        List<Thumbnail> metadata = Arrays.asList(saved);
+        assertEquals(2, metadata.size());
+        assertTrue(metadata.contains(read));
+        assertTrue(metadata.contains(dirty));
+    }
+
+    @Test(timeOut = 10000)
+    public void testRenderedInlineAfterShutdown() throws Exception {
+        expectSaveArray();
+        executor.shutdown();
+        ThumbnailBatch batch = new ThumbnailBatch(executor);
+        batch.submit(1L, new Thumbnail(), false, rendered(1));
+        batch.complete(iUpdate);
+        assertTrue(Arrays.equals(new byte[] { 1 },
+                batch.getThumbnails().get(1L)));
+    }
+
+    // ~ Helpers
+    // =========================================================================
+
+    void expectSaveArray() {
+        mockUpdate.expects(once()).method("saveArray").will(new Stub() {
+            public Object invoke(Invocation arg0) throws Throwable {
+                saved = (Thumbnail[]) arg0.parameterValues.get(0);
+                return null;
+            }
+
+            public StringBuffer describeTo(StringBuffer arg0) {
+                return arg0.append(" records the saved thumbnails");
+            }
+        });
+    }
+
+    Callable<byte[]> rendered(final int value) {
+        return new Callable<byte[]>() {
+            public byte[] call() {
+                return new byte[] { (byte) value };
+            }
+        };
+    }
+
+    Callable<byte[]> blocked(final CountDownLatch release, final int value) {
+        return new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                assertTrue(release.await(5, TimeUnit.SECONDS));
+                return new byte[] { (byte) value };
+            }
+        };
+    }
+
+}
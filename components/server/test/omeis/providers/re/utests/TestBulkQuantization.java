@@ -0,0 +1,62 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.quantum.QuantumStrategy;
+
+import org.perf4j.LoggingStopWatch;
+import org.perf4j.StopWatch;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that quantizing a run of pixels in bulk gives the same values as
+ * quantizing them one by one.
+ */
+public class TestBulkQuantization extends BaseRenderingTest
+{
+
+    @Test
+    public void testBulkMatchesScalar() throws Exception
+    {
+        QuantumStrategy qs = quantumFactory.getStrategy(
+                settings.getQuantization(), pixels);
+        int n = data.size();
+        int[] bulk = new int[n];
+        qs.quantize(data, 0, n, bulk);
+        for (int i = 0; i < n; i++) {
+            assertEquals(qs.quantize(data.getPixelValue(i)), bulk[i]);
+        }
+    }
+
+    @Test
+    public void testBulkWithOffset() throws Exception
+    {
+        QuantumStrategy qs = quantumFactory.getStrategy(
+                settings.getQuantization(), pixels);
+        int offset = getSizeX();
+        int n = getSizeX() * 2;
+        int[] bulk = new int[n];
+        qs.quantize(data, offset, n, bulk);
+        for (int i = 0; i < n; i++) {
+            assertEquals(qs.quantize(data.getPixelValue(offset + i)), bulk[i]);
+        }
+    }
+
+    @Test(timeOut=30000)
+    public void testRenderAsPackedInt() throws Exception
+    {
+        PlaneDef def = new PlaneDef(PlaneDef.XY, 0);
+        for (int i = 0; i < RUN_COUNT; i++)
+        {
+            StopWatch stopWatch =
+                new LoggingStopWatch("testBulkRendererAsPackedInt");
+            renderer.renderAsPackedInt(def, pixelBuffer);
+            stopWatch.stop();
+        }
+    }
+}
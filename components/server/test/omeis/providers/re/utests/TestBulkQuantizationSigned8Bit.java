@@ -0,0 +1,31 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import ome.model.enums.PixelsType;
+
+/**
+ * Runs the {@link TestBulkQuantization} checks against signed 8-bit data.
+ */
+public class TestBulkQuantizationSigned8Bit extends TestBulkQuantization
+{
+
+    @Override
+    protected int getBytesPerPixel()
+    {
+        return 1;
+    }
+
+    @Override
+    protected PixelsType getPixelsType()
+    {
+        PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue("int8");
+        pixelsType.setBitSize(8);
+        return pixelsType;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.utests;
+
+import java.nio.ByteBuffer;
+
+import ome.model.core.Pixels;
+import ome.model.display.QuantumDef;
+import ome.model.enums.Family;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.codomain.ReverseIntensityContext;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
+import omeis.providers.re.quantum.Quantization_float;
+import omeis.providers.re.quantum.QuantumFactory;
+import omeis.providers.re.quantum.QuantumStrategy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the strategies holding a look-up table fold the codomain chain
+ * into it and rebuild it when the chain is modified.
+ */
+public class TestCodomainFolding {
+
+    private QuantumStrategy createStrategy(String type, int bitSize,
+            double max, CodomainChain cc) {
+        QuantumDef qd = new QuantumDef();
+        qd.setCdStart(0);
+        qd.setCdEnd(QuantumFactory.DEPTH_8BIT);
+        qd.setBitResolution(QuantumFactory.DEPTH_8BIT);
+        PixelsType pixelsType = new PixelsType(type);
+        pixelsType.setBitSize(bitSize);
+        Pixels pixels = new Pixels();
+        pixels.setPixelsType(pixelsType);
+        QuantumStrategy qs;
+        if ("float".equals(type)) {
+            qs = new Quantization_float(qd, pixels);
+        } else {
+            qs = new Quantization_8_16_bit(qd, pixels);
+        }
+        qs.setCodomainChain(cc);
+        qs.setExtent(0, max);
+        qs.setMapping(new Family(QuantumFactory.LINEAR), 1, false);
+        qs.setWindow(max / 10, max / 2);
+        return qs;
+    }
+
+    private void checkFolding(String type, int bitSize, double max)
+            throws Exception {
+        CodomainChain cc = new CodomainChain(0, QuantumFactory.DEPTH_8BIT);
+        QuantumStrategy reference = createStrategy(type, bitSize, max, null);
+        QuantumStrategy folded = createStrategy(type, bitSize, max, cc);
+        Assert.assertTrue(folded.isCodomainChainApplied(cc));
+        Assert.assertFalse(reference.isCodomainChainApplied(cc));
+        double step = max / 1000;
+
+        // Identity chain.
+        for (double v = 0; v <= max; v += step) {
+            Assert.assertEquals(folded.quantize(v), reference.quantize(v));
+        }
+        // Modifying the chain rebuilds the table.
+        cc.add(new ReverseIntensityContext());
+        for (double v = 0; v <= max; v += step) {
+            Assert.assertEquals(folded.quantize(v),
+                    cc.transform(reference.quantize(v)));
+        }
+        cc.remove(new ReverseIntensityContext());
+        for (double v = 0; v <= max; v += step) {
+            Assert.assertEquals(folded.quantize(v), reference.quantize(v));
+        }
+    }
+
+    @Test
+    public void testUint16() throws Exception {
+        checkFolding("uint16", 16, 65535);
+    }
+
+    @Test
+    public void testFloat() throws Exception {
+        checkFolding("float", 32, 1000);
+    }
+
+    @Test
+    public void testBulkQuantization() throws Exception {
+        CodomainChain cc = new CodomainChain(0, QuantumFactory.DEPTH_8BIT);
+        cc.add(new ReverseIntensityContext());
+        QuantumStrategy reference = createStrategy("uint8", 8, 255, null);
+        QuantumStrategy folded = createStrategy("uint8", 8, 255, cc);
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        PixelData data = new PixelData("uint8", ByteBuffer.wrap(bytes));
+        int[] quantized = new int[bytes.length];
+        folded.quantize(data, 0, bytes.length, quantized);
+        for (int i = 0; i < bytes.length; i++) {
+            Assert.assertEquals(quantized[i],
+                    cc.transform(reference.quantize(i)));
+        }
+    }
+}
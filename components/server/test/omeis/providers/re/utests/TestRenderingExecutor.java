@@ -0,0 +1,78 @@
+/*
+ *   Copyright (C) 2016 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.RenderingTask;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the tasks passed to {@link RenderingExecutor} are always run,
+ * including when the pool is shut down.
+ */
+public class TestRenderingExecutor extends TestCase
+{
+
+    private RenderingTask[] tasks(final AtomicInteger count, int n)
+    {
+        RenderingTask[] tasks = new RenderingTask[n];
+        for (int i = 0; i < n; i++) {
+            tasks[i] = new RenderingTask() {
+                public Object call() {
+                    count.incrementAndGet();
+                    return null;
+                }
+            };
+        }
+        return tasks;
+    }
+
+    @Test(timeOut=10000)
+    public void testInvokeAll() throws Exception
+    {
+        RenderingExecutor executor = new RenderingExecutor(2, 4);
+        try {
+            AtomicInteger count = new AtomicInteger();
+            executor.invokeAll(tasks(count, 16));
+            assertEquals(16, count.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeOut=10000)
+    public void testInvokeAllAfterShutdown() throws Exception
+    {
+        RenderingExecutor executor = new RenderingExecutor(2, 4);
+        executor.shutdown();
+        AtomicInteger count = new AtomicInteger();
+        // Would block forever if the rejected tasks were discarded.
+        executor.invokeAll(tasks(count, 8));
+        assertEquals(8, count.get());
+    }
+
+    @Test(timeOut=10000)
+    public void testReplacedInstanceStillRuns() throws Exception
+    {
+        RenderingExecutor previous = new RenderingExecutor(1, 1);
+        previous.register();
+        RenderingExecutor current = new RenderingExecutor(1, 1);
+        current.register();
+        try {
+            AtomicInteger count = new AtomicInteger();
+            previous.invokeAll(tasks(count, 4));
+            assertEquals(4, count.get());
+        } finally {
+            current.shutdown();
+        }
+    }
+}